@@ -6,10 +6,19 @@ repositories {
     mavenCentral()
 }
 
+// JMH 基准源集：src/jmh/java，可访问 main 中的类
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
 dependencies {
     compileOnly("net.portswigger.burp.extensions:montoya-api:2025.8")
     testImplementation("org.junit.jupiter:junit-jupiter:5.10.0")
     testImplementation("net.portswigger.burp.extensions:montoya-api:2025.8")
+    "jmhImplementation"("net.portswigger.burp.extensions:montoya-api:2025.8")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 tasks.withType<JavaCompile>().configureEach {
@@ -28,11 +37,71 @@ tasks.test {
     useJUnitPlatform()
 }
 
-// 注册 JavaExec 任务以运行自检主程序
-tasks.register<JavaExec>("runSelfTest") {
+// 注册 JavaExec 任务以运行自检主程序（每个自检类一个任务，runSelfTest 汇总执行）
+val selfTests = listOf("MultipartBuilderTest", "IpAddressTest", "RoutingRulesTest", "BatchFramesTest",
+        "EndpointStoreTest", "CloudflareApiGuardTest")
+selfTests.forEach { testClass ->
+    tasks.register<JavaExec>("selfTest$testClass") {
+        group = "verification"
+        description = "运行 $testClass 自检 main"
+        classpath = sourceSets.test.get().runtimeClasspath
+        mainClass.set(testClass)
+        dependsOn("testClasses")
+    }
+}
+
+tasks.register("runSelfTest") {
     group = "verification"
-    description = "运行 MultipartBuilder 自检 main"
-    classpath = sourceSets.test.get().runtimeClasspath
-    mainClass.set("MultipartBuilderTest")
-    dependsOn("testClasses")
-}
\ No newline at end of file
+    description = "运行全部自检 main"
+    dependsOn(selfTests.map { "selfTest$it" })
+}
+
+// 运行 JMH 基准：gradle jmh -PjmhArgs="ListRowParserBenchmark -prof gc"
+// 结果默认以 JSON 写入 build/reports/jmh/results.json（-PjmhResults=... 可改），供 jmhCompare 对比不同版本
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "运行 JMH 基准"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val userArgs = (project.findProperty("jmhArgs") as String? ?: "").split(" ").filter { it.isNotBlank() }
+    val results = file(project.findProperty("jmhResults") as String?
+        ?: layout.buildDirectory.file("reports/jmh/results.json").get().asFile.path)
+    args = if (userArgs.contains("-rf")) userArgs else userArgs + listOf("-rf", "json", "-rff", results.path)
+    doFirst { results.parentFile.mkdirs() }
+    dependsOn("jmhClasses")
+}
+
+// 对比两次基准结果：gradle jmhCompare -Pbaseline=a.json -Pcandidate=b.json [-Pthreshold=10]，有退化时失败
+tasks.register<JavaExec>("jmhCompare") {
+    group = "benchmark"
+    description = "对比两个 JMH JSON 结果"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("BenchCompare")
+    args = listOf(
+        project.findProperty("baseline") as String? ?: "",
+        project.findProperty("candidate") as String?
+            ?: layout.buildDirectory.file("reports/jmh/results.json").get().asFile.path,
+        project.findProperty("threshold") as String? ?: "10"
+    )
+    dependsOn("jmhClasses")
+}
+
+// 汇总 JFR 录制中的 FlareProx 事件：gradle jfrReport -Pjfr=flareprox.jfr（扩展内勾选 JFR events 后取消勾选即写出录制）
+tasks.register<JavaExec>("jfrReport") {
+    group = "profiling"
+    description = "汇总 JFR 录制中的 FlareProx 事件"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("JfrReport")
+    args = listOf(project.findProperty("jfr") as String? ?: "")
+    dependsOn("jmhClasses")
+}
+
+// 端点状态存储的堆占用对比（1k/10k/100k 个端点）：gradle endpointStoreFootprint
+tasks.register<JavaExec>("endpointStoreFootprint") {
+    group = "profiling"
+    description = "对比端点状态存储与对象布局的堆占用"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("EndpointStoreFootprint")
+    jvmArgs("-Xmx1g")
+    dependsOn("jmhClasses")
+}
@@ -0,0 +1,186 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 批量模式与逐个发送的对比：一次突发 burst 个小请求（如用户名枚举），全部完成为一次操作。
+ * 本地桩 Worker 模拟两段延迟：每次调用的往返 rttMs（占用一个连接槽，共 slots 个），
+ * 以及边缘请求目标的 targetMs（批内并发）。逐个发送每个请求都付一次往返；批量时一批只付一次。
+ * 运行：gradle jmh -PjmhArgs="BatchModeBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchModeBenchmark {
+    private static final List<String[]> CONTENT_TYPE = List.<String[]>of(new String[] { "Content-Type", "text/plain" });
+
+    @Param({ "256" })
+    int burst;
+
+    @Param({ "5" })
+    int rttMs;
+
+    @Param({ "5" })
+    int targetMs;
+
+    @Param({ "8" })
+    int slots;
+
+    StubWorker worker;
+    WorkerConnections connections;
+    BatchClient batch;
+    FlareProx.Endpoint endpoint;
+    List<String[]> headers;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        worker = new StubWorker(rttMs, targetMs, slots);
+        endpoint = new FlareProx.Endpoint("stub", "http://127.0.0.1:" + worker.port());
+        connections = new WorkerConnections(BenchSupport.silentApi());
+        batch = new BatchClient(connections);
+        headers = List.of(new String[] { "Accept", "*/*" }, new String[] { "User-Agent", "bench" });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        batch.shutdown();
+        connections.shutdown();
+        worker.close();
+    }
+
+    @Benchmark
+    public int single() {
+        List<CompletableFuture<HttpResponse<byte[]>>> all = new ArrayList<>(burst);
+        for (int i = 0; i < burst; i++) {
+            HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(endpoint.url + "/"))
+                    .header(RequestRewriter.TARGET_HEADER, "https://target.example/user/" + i);
+            for (String[] h : headers) b.header(h[0], h[1]);
+            all.add(connections.sendAsync(endpoint, b.build(), HttpResponse.BodyHandlers.ofByteArray()));
+        }
+        int bytes = 0;
+        for (CompletableFuture<HttpResponse<byte[]>> f : all) bytes += f.join().body().length;
+        return bytes;
+    }
+
+    @Benchmark
+    public int batched() {
+        List<CompletableFuture<BatchFrames.Response>> all = new ArrayList<>(burst);
+        for (int i = 0; i < burst; i++) {
+            all.add(batch.submit(endpoint, "GET", "https://target.example/user/" + i, headers, null));
+        }
+        int bytes = 0;
+        for (CompletableFuture<BatchFrames.Response> f : all) bytes += f.join().bodyLength();
+        return bytes;
+    }
+
+    /** 本地桩 Worker：/ 为逐个转发，/__batch 为批量入口，响应帧按完成顺序流式写回。 */
+    static final class StubWorker {
+        private final HttpServer server;
+        private final ExecutorService edge = Executors.newVirtualThreadPerTaskExecutor();
+        private final ExecutorService connectionSlots;
+        private final int rttMs;
+        private final int targetMs;
+
+        StubWorker(int rttMs, int targetMs, int slots) throws IOException {
+            this.rttMs = rttMs;
+            this.targetMs = targetMs;
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+            server.createContext("/", this::handle);
+            connectionSlots = Executors.newFixedThreadPool(slots);
+            server.setExecutor(connectionSlots);
+            server.start();
+        }
+
+        int port() {
+            return server.getAddress().getPort();
+        }
+
+        void close() {
+            server.stop(0);
+            connectionSlots.shutdownNow();
+            edge.shutdownNow();
+        }
+
+        private void handle(HttpExchange ex) throws IOException {
+            try (ex) {
+                byte[] req = ex.getRequestBody().readAllBytes();
+                sleep(rttMs);
+                if (ex.getRequestURI().getPath().equals(BatchClient.PATH)) {
+                    batch(ex, req);
+                    return;
+                }
+                sleep(targetMs);
+                byte[] body = body(ex.getRequestHeaders().getFirst(RequestRewriter.TARGET_HEADER));
+                ex.getResponseHeaders().add("Content-Type", "text/plain");
+                ex.sendResponseHeaders(200, body.length);
+                ex.getResponseBody().write(body);
+            }
+        }
+
+        private void batch(HttpExchange ex, byte[] req) throws IOException {
+            List<BatchFrames.Request> requests = BatchFrames.decodeRequests(req, 0, req.length);
+            ex.getResponseHeaders().add(BatchClient.HEADER, "1");
+            ex.sendResponseHeaders(200, 0);
+            OutputStream out = ex.getResponseBody();
+            List<CompletableFuture<Void>> pending = new ArrayList<>();
+            for (BatchFrames.Request r : requests) {
+                pending.add(CompletableFuture.runAsync(() -> {
+                    sleep(targetMs);
+                    byte[] body = body(r.url);
+                    BatchFrames.Encoder enc = new BatchFrames.Encoder(body.length + 64)
+                            .response(r.id, 200, CONTENT_TYPE, body, 0, body.length);
+                    synchronized (out) {
+                        try {
+                            out.write(enc.array(), 0, enc.size());
+                            out.flush();
+                        } catch (IOException ignore) {
+                            // 客户端已断开
+                        }
+                    }
+                }, edge));
+            }
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+        }
+
+        private static byte[] body(String target) {
+            return ("{\"user\":\"" + target + "\",\"exists\":false}").getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static void sleep(int ms) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
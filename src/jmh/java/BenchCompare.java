@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 比较两次 JMH 运行的 JSON 结果（-rf json），逐项列出得分变化，超过阈值的退化标记为 REGRESSION，
+ * 存在退化时以状态码 1 退出。AverageTime/SampleTime 得分越低越好，Throughput 越高越好。
+ * 运行：gradle jmhCompare -Pbaseline=results-1.2.json -Pcandidate=build/reports/jmh/results.json [-Pthreshold=10]
+ */
+public final class BenchCompare {
+    private BenchCompare() {}
+
+    /** 单项结果：基准名加参数为键。 */
+    static final class Score {
+        final double score;
+        final double error;
+        final String unit;
+        final boolean higherIsBetter;
+
+        Score(double score, double error, String unit, boolean higherIsBetter) {
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchCompare <baseline.json> <candidate.json> [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        Map<String, Score> base = load(Path.of(args[0]));
+        Map<String, Score> cand = load(Path.of(args[1]));
+        int regressions = 0;
+        System.out.printf("%-72s %14s %14s %9s%n", "Benchmark", "baseline", "candidate", "change");
+        for (Map.Entry<String, Score> e : cand.entrySet()) {
+            Score c = e.getValue();
+            Score b = base.get(e.getKey());
+            if (b == null) {
+                System.out.printf("%-72s %14s %14.3f %9s  new%n", e.getKey(), "-", c.score, "");
+                continue;
+            }
+            double change = (c.score - b.score) / b.score * 100.0;
+            double worse = c.higherIsBetter ? -change : change;
+            // 变化落在两次误差范围之内时不算退化
+            boolean noise = Math.abs(c.score - b.score) <= b.error + c.error;
+            boolean regressed = worse > threshold && !noise;
+            if (regressed) regressions++;
+            System.out.printf("%-72s %14.3f %14.3f %+8.1f%%  %s%s%n", e.getKey(), b.score, c.score, change, c.unit,
+                    regressed ? "  REGRESSION" : "");
+        }
+        for (String k : base.keySet()) {
+            if (!cand.containsKey(k)) System.out.printf("%-72s  removed%n", k);
+        }
+        System.out.println(regressions + " regression(s) above " + threshold + "%");
+        if (regressions > 0) System.exit(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Score> load(Path file) throws IOException {
+        Object root = new Json(Files.readString(file, StandardCharsets.UTF_8)).value();
+        Map<String, Score> out = new TreeMap<>();
+        for (Object o : (List<Object>) root) {
+            Map<String, Object> run = (Map<String, Object>) o;
+            StringBuilder key = new StringBuilder((String) run.get("benchmark"));
+            Object params = run.get("params");
+            if (params instanceof Map) {
+                for (Map.Entry<String, Object> p : new TreeMap<>((Map<String, Object>) params).entrySet()) {
+                    key.append(key.indexOf("[") < 0 ? "[" : ",").append(p.getKey()).append('=').append(p.getValue());
+                }
+                key.append(']');
+            }
+            Map<String, Object> metric = (Map<String, Object>) run.get("primaryMetric");
+            String mode = String.valueOf(run.get("mode"));
+            Object err = metric.get("scoreError");
+            out.put(key.toString(), new Score(((Number) metric.get("score")).doubleValue(),
+                    err instanceof Number ? ((Number) err).doubleValue() : 0, String.valueOf(metric.get("scoreUnit")),
+                    mode.equals("thrpt")));
+        }
+        return out;
+    }
+
+    /** 仅够读 JMH 结果文件的 JSON 解析器：对象、数组、字符串、数字、true/false/null；NaN 视为数字。 */
+    static final class Json {
+        private final String s;
+        private int i;
+
+        Json(String s) {
+            this.s = s;
+        }
+
+        Object value() {
+            skip();
+            char c = s.charAt(i);
+            switch (c) {
+                case '{': {
+                    i++;
+                    Map<String, Object> m = new LinkedHashMap<>();
+                    skip();
+                    if (s.charAt(i) == '}') { i++; return m; }
+                    while (true) {
+                        skip();
+                        String k = string();
+                        skip();
+                        expect(':');
+                        m.put(k, value());
+                        skip();
+                        if (s.charAt(i++) == '}') return m;
+                    }
+                }
+                case '[': {
+                    i++;
+                    List<Object> l = new ArrayList<>();
+                    skip();
+                    if (s.charAt(i) == ']') { i++; return l; }
+                    while (true) {
+                        l.add(value());
+                        skip();
+                        if (s.charAt(i++) == ']') return l;
+                    }
+                }
+                case '"':
+                    return string();
+                default:
+                    int start = i;
+                    while (i < s.length() && ",}] \t\r\n".indexOf(s.charAt(i)) < 0) i++;
+                    String tok = s.substring(start, i);
+                    switch (tok) {
+                        case "true": return Boolean.TRUE;
+                        case "false": return Boolean.FALSE;
+                        case "null": return null;
+                        case "NaN": return Double.NaN;
+                        default: return Double.parseDouble(tok);
+                    }
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = s.charAt(i++);
+                if (c == '"') return sb.toString();
+                if (c == '\\') {
+                    char e = s.charAt(i++);
+                    switch (e) {
+                        case 'n': sb.append('\n'); break;
+                        case 't': sb.append('\t'); break;
+                        case 'r': sb.append('\r'); break;
+                        case 'b': sb.append('\b'); break;
+                        case 'f': sb.append('\f'); break;
+                        case 'u': sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16)); i += 4; break;
+                        default: sb.append(e);
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+
+        private void expect(char c) {
+            if (s.charAt(i) != c) throw new IllegalArgumentException("Expected '" + c + "' at offset " + i);
+            i++;
+        }
+
+        private void skip() {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.logging.Logging;
+import java.lang.reflect.Proxy;
+
+/** 基准共用的替身对象。 */
+final class BenchSupport {
+    private BenchSupport() {}
+
+    /** 只提供 logging() 且丢弃所有输出的 MontoyaApi。 */
+    static MontoyaApi silentApi() {
+        Logging logging = (Logging) Proxy.newProxyInstance(Logging.class.getClassLoader(),
+                new Class<?>[] { Logging.class }, (proxy, method, args) -> null);
+        return (MontoyaApi) Proxy.newProxyInstance(MontoyaApi.class.getClassLoader(),
+                new Class<?>[] { MontoyaApi.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("logging")) return logging;
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
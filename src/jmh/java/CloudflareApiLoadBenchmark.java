@@ -0,0 +1,83 @@
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 针对本地 CloudflareApiSimulator 的部署、列出与清理压测，默认 1000 个脚本。每次调用前重置模拟器状态；
+ * faultRate 按 1:1 注入 429 与 500，pageSize 为 0 时模拟当前不分页的列表接口。
+ * 运行：gradle jmh -PjmhArgs="CloudflareApiLoadBenchmark -p scripts=1000 -p faultRate=0.02"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class CloudflareApiLoadBenchmark {
+    @Param({ "1000" })
+    int scripts;
+
+    @Param({ "0", "100" })
+    int pageSize;
+
+    @Param({ "0", "0.02" })
+    double faultRate;
+
+    @Param({ "2" })
+    long latencyMs;
+
+    CloudflareApiSimulator sim;
+    SimpleCloudflareService service;
+
+    @Setup(Level.Invocation)
+    public void setup() throws Exception {
+        sim = new CloudflareApiSimulator()
+                .setLatency(latencyMs / 2, latencyMs * 2)
+                .setFaults(faultRate / 2, faultRate / 2, 42)
+                .setPageSize(pageSize);
+        sim.seed(scripts, "flareprox-seed");
+        service = new SimpleCloudflareService(CloudflareApiSimulator.TOKEN, CloudflareApiSimulator.ACCOUNT,
+                BenchSupport.silentApi())
+                .withApiBase(sim.apiBase())
+                .withWorkerUrlFormat(sim.workerUrlFormat());
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        sim.close();
+    }
+
+    @Benchmark
+    public List<FlareProx.Endpoint> list() {
+        List<FlareProx.Endpoint> eps = service.listEndpoints();
+        if (eps.size() != scripts) throw new IllegalStateException("listed " + eps.size() + " of " + scripts);
+        return eps;
+    }
+
+    @Benchmark
+    public int cleanup() {
+        service.cleanupAll();
+        return sim.scriptCount();
+    }
+
+    /** 部署 scripts 个端点（上传、启用子域、就绪检查全流程），预置的同等数量脚本作为背景。 */
+    @Benchmark
+    public FlareProx.Result deploy() {
+        return new DeploymentPipeline(service, ReadinessCheck.httpProbe(), BenchSupport.silentApi())
+                .withConcurrency(8, 8, 8)
+                .withReadyTimeout(10_000, 50)
+                .deploy(scripts, null);
+    }
+}
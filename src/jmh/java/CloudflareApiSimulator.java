@@ -0,0 +1,414 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地 Cloudflare Workers API 模拟器，覆盖 SimpleCloudflareService 调用的接口：
+ * 脚本 PUT/GET/DELETE 与列表、脚本 /subdomain、账户 /workers/subdomain。
+ * 可配置延迟、按比例注入 429/5xx（固定种子，结果可复现）、拒绝模块化脚本（触发 Classic 兜底）与列表分页。
+ *
+ * 同一端口上的 /worker/ 为 Worker 运行时替身：端点 URL 形如 http://127.0.0.1:port/worker/name.sub，
+ * 已部署且启用子域的脚本对带目标 URL 的请求返回 {"origin":"<出口 IP>"}（由脚本名确定性生成，不访问外部），
+ * 无目标 URL 时与真实 Worker 一样返回 400 "No target URL"。
+ * 用法：new SimpleCloudflareService(TOKEN, ACCOUNT, api).withApiBase(sim.apiBase()).withWorkerUrlFormat(sim.workerUrlFormat())
+ */
+public final class CloudflareApiSimulator implements AutoCloseable {
+    public static final String TOKEN = "sim-token";
+    public static final String ACCOUNT = "0123456789abcdef0123456789abcdef";
+    public static final String SUBDOMAIN = "sim-account";
+
+    private static final Pattern SCRIPT_PATH = Pattern
+            .compile("/client/v4/accounts/([^/]+)/workers/scripts(?:/([^/?]+)(/subdomain)?)?");
+    private static final Pattern ACCOUNT_SUBDOMAIN_PATH = Pattern.compile("/client/v4/accounts/([^/]+)/workers/subdomain");
+    private static final Pattern TAGS = Pattern.compile("\"tags\"\\s*:\\s*\\[([^\\]]*)\\]");
+    private static final Pattern VERSION_TAG = Pattern.compile("\"" + WorkerScriptTemplate.HASH_TAG_PREFIX + "([0-9a-f]+)\"");
+
+    /** 已上传的脚本。 */
+    static final class Script {
+        final String name;
+        final byte[] content;
+        final boolean module;
+        final String tags;
+        final String modifiedOn;
+        volatile boolean subdomainEnabled;
+
+        Script(String name, byte[] content, boolean module, String tags, String modifiedOn) {
+            this.name = name;
+            this.content = content;
+            this.module = module;
+            this.tags = tags;
+            this.modifiedOn = modifiedOn;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Script> scripts = new ConcurrentSkipListMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injected429 = new AtomicLong();
+    private final AtomicLong injected5xx = new AtomicLong();
+    private final AtomicLong rejectedModules = new AtomicLong();
+    private final AtomicLong workerRequests = new AtomicLong();
+    private SplittableRandom random = new SplittableRandom(42);
+    private volatile long minLatencyMs;
+    private volatile long maxLatencyMs;
+    private volatile double rate429;
+    private volatile double rate5xx;
+    private volatile boolean rejectModules;
+    private volatile int pageSize;
+
+    public CloudflareApiSimulator() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.createContext("/client/v4/", this::handleApi);
+        server.createContext("/worker/", this::handleWorker);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String apiBase() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/client/v4";
+    }
+
+    /** SimpleCloudflareService.withWorkerUrlFormat 的参数：%s 依次为脚本名与子域。 */
+    public String workerUrlFormat() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/worker/%s.%s";
+    }
+
+    /** 每个 API 请求在 [min, max] 毫秒之间均匀随机延迟。 */
+    public CloudflareApiSimulator setLatency(long minMs, long maxMs) {
+        this.minLatencyMs = Math.max(0, minMs);
+        this.maxLatencyMs = Math.max(this.minLatencyMs, maxMs);
+        return this;
+    }
+
+    /** 按比例注入 429（带 Retry-After: 1）与 500；seed 固定时注入序列可复现。 */
+    public synchronized CloudflareApiSimulator setFaults(double rate429, double rate5xx, long seed) {
+        this.rate429 = rate429;
+        this.rate5xx = rate5xx;
+        this.random = new SplittableRandom(seed);
+        return this;
+    }
+
+    /** 拒绝带 main_module 的上传，返回与线上相同的 10021 错误。 */
+    public CloudflareApiSimulator setRejectModules(boolean reject) {
+        this.rejectModules = reject;
+        return this;
+    }
+
+    /** 列表分页大小；0 表示不分页且不返回 result_info（与当前线上 API 一致）。 */
+    public CloudflareApiSimulator setPageSize(int pageSize) {
+        this.pageSize = Math.max(0, pageSize);
+        return this;
+    }
+
+    public int scriptCount() {
+        return scripts.size();
+    }
+
+    public boolean hasScript(String name) {
+        return scripts.containsKey(name);
+    }
+
+    /** 直接放入已部署的脚本，用于构造大规模列表/清理场景而不经过上传。 */
+    public void seed(int count, String prefix) {
+        for (int i = 0; i < count; i++) {
+            String name = prefix + String.format("%08x", i);
+            Script s = new Script(name, new byte[0], true, "\"flareprox\"", "2025-01-01T00:00:00.000000Z");
+            s.subdomainEnabled = true;
+            scripts.put(name, s);
+        }
+    }
+
+    /** 由脚本名确定性生成的出口 IP，分布在若干 /24 上。 */
+    public static String exitIpOf(String name) {
+        int h = name.hashCode() * 0x9E3779B1;
+        return "104.28." + ((h >>> 24) % 16) + "." + ((h >>> 8) & 0xff);
+    }
+
+    public String describe() {
+        return String.format("%d API requests (%d injected 429, %d injected 5xx, %d modules rejected), %d worker requests, %d scripts",
+                requests.get(), injected429.get(), injected5xx.get(), rejectedModules.get(), workerRequests.get(),
+                scripts.size());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleApi(HttpExchange ex) throws IOException {
+        try (ex) {
+            byte[] body;
+            try (InputStream in = ex.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            requests.incrementAndGet();
+            sleepLatency();
+            if (!("Bearer " + TOKEN).equals(ex.getRequestHeaders().getFirst("Authorization"))) {
+                sendJson(ex, 403, error(10000, "Authentication error"));
+                return;
+            }
+            int fault = nextFault();
+            if (fault == 429) {
+                injected429.incrementAndGet();
+                ex.getResponseHeaders().add("Retry-After", "1");
+                sendJson(ex, 429, error(971, "Please wait and consider throttling your request speed"));
+                return;
+            }
+            if (fault == 500) {
+                injected5xx.incrementAndGet();
+                sendJson(ex, 500, error(10013, "An unknown error has occurred"));
+                return;
+            }
+            String path = ex.getRequestURI().getPath();
+            String method = ex.getRequestMethod();
+            Matcher sub = ACCOUNT_SUBDOMAIN_PATH.matcher(path);
+            if (sub.matches()) {
+                if (!ACCOUNT.equals(sub.group(1))) {
+                    sendJson(ex, 404, error(10000, "Account not found"));
+                } else {
+                    sendJson(ex, 200, ok("{\"subdomain\":\"" + SUBDOMAIN + "\"}"));
+                }
+                return;
+            }
+            Matcher m = SCRIPT_PATH.matcher(path);
+            if (!m.matches() || !ACCOUNT.equals(m.group(1))) {
+                sendJson(ex, 404, error(7003, "Could not route to " + path));
+                return;
+            }
+            String name = m.group(2);
+            if (name == null) {
+                if (method.equals("GET")) list(ex);
+                else sendJson(ex, 405, error(10000, "Method not allowed"));
+            } else if (m.group(3) != null) {
+                enableSubdomain(ex, name);
+            } else {
+                switch (method) {
+                    case "PUT" -> upload(ex, name, body);
+                    case "GET" -> download(ex, name);
+                    case "DELETE" -> delete(ex, name);
+                    default -> sendJson(ex, 405, error(10000, "Method not allowed"));
+                }
+            }
+        }
+    }
+
+    private void upload(HttpExchange ex, String name, byte[] body) throws IOException {
+        String contentType = ex.getRequestHeaders().getFirst("Content-Type");
+        int bi = contentType == null ? -1 : contentType.indexOf("boundary=");
+        if (bi < 0) {
+            sendJson(ex, 415, error(10000, "Unsupported media type"));
+            return;
+        }
+        String boundary = contentType.substring(bi + 9).replace("\"", "").trim();
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        List<String> parts = new ArrayList<>();
+        String delim = "--" + boundary;
+        int pos = text.indexOf(delim);
+        while (pos >= 0) {
+            int next = text.indexOf("\r\n" + delim, pos + delim.length());
+            if (next < 0) break;
+            parts.add(text.substring(pos + delim.length() + 2, next));
+            pos = next + 2;
+        }
+        String metadata = null;
+        byte[] script = null;
+        for (String part : parts) {
+            int he = part.indexOf("\r\n\r\n");
+            if (he < 0) continue;
+            String headers = part.substring(0, he);
+            String content = part.substring(he + 4);
+            if (headers.contains("name=\"metadata\"")) metadata = content;
+            else if (script == null) script = content.getBytes(StandardCharsets.ISO_8859_1);
+        }
+        if (metadata == null || script == null) {
+            sendJson(ex, 400, error(10021, "Uploaded script has no metadata or content part"));
+            return;
+        }
+        boolean module = metadata.contains("\"main_module\"");
+        if (module && rejectModules) {
+            rejectedModules.incrementAndGet();
+            sendJson(ex, 400, error(10021, "Uncaught SyntaxError: Unexpected token 'export'"));
+            return;
+        }
+        Matcher tm = TAGS.matcher(metadata);
+        String tags = tm.find() ? tm.group(1) : "";
+        Script prev = scripts.get(name);
+        Script s = new Script(name, script, module, tags, java.time.Instant.now().toString());
+        s.subdomainEnabled = prev != null && prev.subdomainEnabled;
+        scripts.put(name, s);
+        sendJson(ex, 200, ok(scriptJson(s)));
+    }
+
+    private void download(HttpExchange ex, String name) throws IOException {
+        Script s = scripts.get(name);
+        if (s == null) {
+            sendJson(ex, 404, error(10007, "This Worker does not exist on your account."));
+            return;
+        }
+        if (s.module) {
+            // 模块化脚本以 multipart 返回，与线上一致
+            String boundary = "sim" + Integer.toHexString(name.hashCode());
+            byte[] head = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"worker.js\"\r\n"
+                    + "Content-Type: application/javascript+module\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            byte[] out = new byte[head.length + s.content.length + tail.length];
+            System.arraycopy(head, 0, out, 0, head.length);
+            System.arraycopy(s.content, 0, out, head.length, s.content.length);
+            System.arraycopy(tail, 0, out, head.length + s.content.length, tail.length);
+            send(ex, 200, "multipart/form-data; boundary=" + boundary, out);
+        } else {
+            send(ex, 200, "application/javascript", s.content);
+        }
+    }
+
+    private void delete(HttpExchange ex, String name) throws IOException {
+        if (scripts.remove(name) == null) {
+            sendJson(ex, 404, error(10007, "This Worker does not exist on your account."));
+        } else {
+            sendJson(ex, 200, ok("null"));
+        }
+    }
+
+    private void enableSubdomain(HttpExchange ex, String name) throws IOException {
+        Script s = scripts.get(name);
+        if (s == null) {
+            sendJson(ex, 404, error(10007, "This Worker does not exist on your account."));
+            return;
+        }
+        s.subdomainEnabled = true;
+        sendJson(ex, 200, ok("{\"enabled\":true,\"previews_enabled\":true}"));
+    }
+
+    private void list(HttpExchange ex) throws IOException {
+        List<Script> all = new ArrayList<>(scripts.values());
+        int size = pageSize;
+        int page = 1;
+        String query = ex.getRequestURI().getQuery();
+        if (query != null) {
+            for (String kv : query.split("&")) {
+                if (kv.startsWith("page=")) page = Math.max(1, Integer.parseInt(kv.substring(5)));
+                if (kv.startsWith("per_page=") && size > 0) size = Math.max(1, Integer.parseInt(kv.substring(9)));
+            }
+        }
+        int from = size == 0 ? 0 : Math.min(all.size(), (page - 1) * size);
+        int to = size == 0 ? all.size() : Math.min(all.size(), from + size);
+        StringBuilder sb = new StringBuilder("{\"result\":[");
+        for (int i = from; i < to; i++) {
+            if (i > from) sb.append(',');
+            sb.append(scriptJson(all.get(i)));
+        }
+        sb.append("],\"success\":true,\"errors\":[],\"messages\":[]");
+        if (size > 0) {
+            int totalPages = Math.max(1, (all.size() + size - 1) / size);
+            sb.append(",\"result_info\":{\"page\":").append(page).append(",\"per_page\":").append(size)
+                    .append(",\"count\":").append(to - from).append(",\"total_count\":").append(all.size())
+                    .append(",\"total_pages\":").append(totalPages).append('}');
+        }
+        sb.append('}');
+        sendJson(ex, 200, sb.toString());
+    }
+
+    private void handleWorker(HttpExchange ex) throws IOException {
+        try (ex) {
+            try (InputStream in = ex.getRequestBody()) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            workerRequests.incrementAndGet();
+            // /worker/<name>.<sub>[/<target>]
+            String path = ex.getRequestURI().getRawPath().substring("/worker/".length());
+            int slash = path.indexOf('/');
+            String host = slash < 0 ? path : path.substring(0, slash);
+            String rest = slash < 0 ? "" : path.substring(slash + 1);
+            int dot = host.indexOf('.');
+            String name = dot < 0 ? host : host.substring(0, dot);
+            Script s = scripts.get(name);
+            if (s == null || !s.subdomainEnabled || dot < 0 || !host.substring(dot + 1).equals(SUBDOMAIN)) {
+                send(ex, 404, "text/plain", "There is nothing here yet".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            String target = ex.getRequestHeaders().getFirst(RequestRewriter.TARGET_HEADER);
+            String query = ex.getRequestURI().getRawQuery();
+            if (target == null && query != null && query.startsWith("url=")) target = query.substring(4);
+            if (target == null && rest.startsWith("http")) target = rest;
+            if (target == null) {
+                // 与真实脚本一致：报告内容哈希，供升级后的就绪检查确认版本
+                Matcher vm = VERSION_TAG.matcher(s.tags);
+                sendJson(ex, 400, "{\"error\":\"No target URL\",\"v\":\"" + (vm.find() ? vm.group(1) : "") + "\"}");
+                return;
+            }
+            sendJson(ex, 200, "{\"origin\":\"" + exitIpOf(name) + "\",\"url\":\"" + target.replace("\"", "%22") + "\"}");
+        }
+    }
+
+    private int nextFault() {
+        double r429 = rate429;
+        double r5xx = rate5xx;
+        if (r429 <= 0 && r5xx <= 0) return 0;
+        double x;
+        synchronized (this) {
+            x = random.nextDouble();
+        }
+        return x < r429 ? 429 : x < r429 + r5xx ? 500 : 0;
+    }
+
+    private void sleepLatency() {
+        long min = minLatencyMs;
+        long max = maxLatencyMs;
+        if (max <= 0) return;
+        long ms;
+        synchronized (this) {
+            ms = min == max ? min : min + random.nextLong(max - min + 1);
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String scriptJson(Script s) {
+        return "{\"id\":\"" + s.name + "\",\"etag\":\"" + Integer.toHexString(s.name.hashCode())
+                + "\",\"handlers\":[\"fetch\"],\"modified_on\":\"" + s.modifiedOn
+                + "\",\"created_on\":\"" + s.modifiedOn + "\",\"usage_model\":\"standard\""
+                + ",\"compatibility_date\":\"2024-07-01\",\"tags\":[" + s.tags + "]}";
+    }
+
+    private static String ok(String result) {
+        return "{\"result\":" + result + ",\"success\":true,\"errors\":[],\"messages\":[]}";
+    }
+
+    private static String error(int code, String message) {
+        return "{\"result\":null,\"success\":false,\"errors\":[{\"code\":" + code + ",\"message\":\"" + message
+                + "\"}],\"messages\":[]}";
+    }
+
+    private static void sendJson(HttpExchange ex, int status, String json) throws IOException {
+        send(ex, status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange ex, int status, String contentType, byte[] body) throws IOException {
+        ex.getResponseHeaders().add("Content-Type", contentType);
+        ex.getResponseHeaders().add("CF-RAY", Long.toHexString(System.nanoTime()) + "-SIM");
+        ex.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cloudflare API 响应解析：列出脚本（splitResultObjects + 名称与内容哈希提取）、workers.dev 子域、
+ * 下载脚本时的 multipart 正文。响应体为离线构造的、与真实 API 字段一致的 JSON。
+ * 运行：gradle jmh -PjmhArgs="CloudflareResponseBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloudflareResponseBenchmark {
+    @Param({ "10", "100", "500" })
+    int scripts;
+
+    String listBody;
+    String subdomainBody;
+    String multipartBody;
+    String multipartType;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder("{\"result\":[");
+        for (int i = 0; i < scripts; i++) {
+            if (i > 0) sb.append(',');
+            // 约三成为其他脚本，名称不以 flareprox- 开头
+            String id = i % 3 == 2 ? "my-site-" + i : "flareprox-" + Integer.toHexString(0x10000 + i * 7919);
+            sb.append("{\"id\":\"").append(id).append("\",\"etag\":\"").append(Long.toHexString(i * 0x9e3779b97f4a7c15L))
+                    .append("\",\"handlers\":[\"fetch\"],\"modified_on\":\"2025-01-0").append(1 + i % 9)
+                    .append("T10:00:00.000000Z\",\"created_on\":\"2024-12-01T10:00:00.000000Z\",")
+                    .append("\"usage_model\":\"standard\",\"compatibility_date\":\"2024-07-01\",\"tags\":[\"flareprox\",\"")
+                    .append(WorkerScriptTemplate.HASH_TAG_PREFIX).append("0123456789abcdef\"],")
+                    .append("\"routes\":null,\"logpush\":false,\"placement_mode\":\"smart\",")
+                    .append("\"tail_consumers\":[{\"service\":\"logger\",\"note\":\"{not an object}\"}]}");
+        }
+        sb.append("],\"success\":true,\"errors\":[],\"messages\":[]}");
+        listBody = sb.toString();
+        subdomainBody = "{\"result\":{\"subdomain\":\"example-account\"},\"success\":true,\"errors\":[],\"messages\":[]}";
+        String script = WorkerScriptTemplate.render(WorkerScriptTemplate.Options.standard()).script;
+        multipartType = "multipart/form-data; boundary=\"abc123boundary\"";
+        multipartBody = "--abc123boundary\r\nContent-Disposition: form-data; name=\"worker.js\"\r\n"
+                + "Content-Type: application/javascript+module\r\n\r\n" + script + "\r\n--abc123boundary--\r\n";
+    }
+
+    @Benchmark
+    public List<FlareProx.Endpoint> parseEndpoints() {
+        return SimpleCloudflareService.parseEndpoints(listBody, "example-account");
+    }
+
+    @Benchmark
+    public String parseSubdomain() {
+        return SimpleCloudflareService.parseSubdomain(subdomainBody);
+    }
+
+    @Benchmark
+    public String firstMultipartPart() {
+        return SimpleCloudflareService.firstMultipartPart(multipartBody, multipartType);
+    }
+}
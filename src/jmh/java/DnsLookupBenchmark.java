@@ -0,0 +1,129 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 请求路径上的解析延迟：200 个端点主机名轮流查询一个模拟 JVM InetAddress 缓存的替身
+ * （每个主机名缓存 ttlMillis，命中不延长寿命，未命中时休眠 resolverMillis）。
+ * unwarmed 没有预热，每个主机名每个 TTL 有一次请求要同步解析；
+ * warmed 由 DnsCache 在条目过期后于后台重新解析；结束时打印两者在请求路径上的未命中次数。
+ * 基准循环不停地轮询所有主机名，是预热最不利的情形：过期后到后台解析完成之间的请求仍会未命中。
+ * 运行：gradle jmh -PjmhArgs="DnsLookupBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class DnsLookupBenchmark {
+    /** 按 JVM 正向缓存语义工作的替身解析器，分别统计请求路径与后台的未命中次数。 */
+    static final class JvmCacheStub implements DnsCache.Resolver {
+        private final Map<String, Long> expiresAt = new ConcurrentHashMap<>();
+        private final InetAddress[] anycast;
+        private final long ttlMillis;
+        private final int resolverMillis;
+        final AtomicLong misses = new AtomicLong();
+
+        JvmCacheStub(InetAddress[] anycast, long ttlMillis, int resolverMillis) {
+            this.anycast = anycast;
+            this.ttlMillis = ttlMillis;
+            this.resolverMillis = resolverMillis;
+        }
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            Long exp = expiresAt.get(host);
+            if (exp == null || exp <= System.currentTimeMillis()) {
+                misses.incrementAndGet();
+                try {
+                    Thread.sleep(resolverMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UnknownHostException(host);
+                }
+                expiresAt.put(host, System.currentTimeMillis() + ttlMillis);
+            }
+            return anycast;
+        }
+    }
+
+    @Param({ "200" })
+    int endpoints;
+
+    @Param({ "5" })
+    int resolverMillis;
+
+    // 较短的 TTL，使测量期间发生多次过期；须大于 endpoints × resolverMillis，单个预热线程才跟得上
+    @Param({ "5000" })
+    long ttlMillis;
+
+    String[] hosts;
+    JvmCacheStub unwarmedStub;
+    JvmCacheStub warmedStub;
+    // 预热线程自身的未命中，从 warmedStub 的计数中扣除后即为请求路径上的未命中
+    final AtomicLong warmerMisses = new AtomicLong();
+    DnsCache cache;
+    final AtomicLong cursor = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        hosts = new String[endpoints];
+        for (int i = 0; i < endpoints; i++) {
+            hosts[i] = "flareprox-" + i + ".bench.workers.dev";
+        }
+        InetAddress[] anycast = {
+                InetAddress.getByAddress(new byte[] { 104, 21, 0, 1 }),
+                InetAddress.getByAddress(new byte[] { (byte) 172, 67, 0, 1 }) };
+        unwarmedStub = new JvmCacheStub(anycast, ttlMillis, resolverMillis);
+        warmedStub = new JvmCacheStub(anycast, ttlMillis, resolverMillis);
+        cache = new DnsCache(host -> {
+            long before = warmedStub.misses.get();
+            InetAddress[] r = warmedStub.resolve(host);
+            warmerMisses.addAndGet(warmedStub.misses.get() - before);
+            return r;
+        }, ttlMillis, DnsCache.CHECK_MILLIS);
+        for (String h : hosts) cache.pin(h);
+        cache.start();
+        // 等待首轮预热完成
+        Thread.sleep((long) endpoints * resolverMillis + 100);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.shutdown();
+        System.out.println("\n[DnsLookupBenchmark] request-path misses: unwarmed " + unwarmedStub.misses.get()
+                + ", warmed " + Math.max(0, warmedStub.misses.get() - warmerMisses.get())
+                + "; background: " + cache.describe());
+    }
+
+    private String nextHost() {
+        return hosts[(int) Math.floorMod(cursor.getAndIncrement(), (long) hosts.length)];
+    }
+
+    @Benchmark
+    public InetAddress[] unwarmed() throws UnknownHostException {
+        return unwarmedStub.resolve(nextHost());
+    }
+
+    @Benchmark
+    public InetAddress[] warmed() throws UnknownHostException {
+        return warmedStub.resolve(nextHost());
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 每个经轮换的请求在选择端点上的开销：轮询、按前缀分散与两选一低延迟三种策略，以及选择前按目标主机过滤冷却端点。
+ * 池为不可变快照，与 EndpointPool 的用法一致。
+ * 运行：gradle jmh -PjmhArgs="EndpointSelectionBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndpointSelectionBenchmark {
+    @Param({ "10", "100", "1000" })
+    int endpoints;
+
+    List<FlareProx.Endpoint> pool;
+    EndpointSelector roundRobin;
+    EndpointSelector prefixSpread;
+    EndpointSelector leastLatency;
+    EndpointHealth health;
+
+    @Setup
+    public void setup() {
+        List<FlareProx.Endpoint> eps = new ArrayList<>();
+        ExitIpIndex index = new ExitIpIndex();
+        for (int i = 0; i < endpoints; i++) {
+            FlareProx.Endpoint ep = new FlareProx.Endpoint("flareprox-" + i, "https://flareprox-" + i + ".bench.workers.dev");
+            eps.add(ep);
+            // 出口集中在少数 /24 上，与实际观测相近
+            index.update(ep.name, "104.28." + (i % 12) + "." + (i & 0xff));
+        }
+        pool = List.copyOf(eps);
+        roundRobin = EndpointSelector.roundRobin();
+        prefixSpread = new PrefixSpreadSelector(index);
+        leastLatency = new LeastLatencySelector();
+        for (int i = 0; i < endpoints; i++) {
+            leastLatency.onStart(pool.get(i).name);
+            leastLatency.onComplete(pool.get(i).name, (20 + i % 50) * 1_000_000L, false);
+        }
+        health = new EndpointHealth();
+        for (int i = 0; i < endpoints; i += 10) {
+            health.record(pool.get(i).name, "target.example", BlockDetector.Verdict.THROTTLED);
+        }
+    }
+
+    @Benchmark
+    public FlareProx.Endpoint roundRobin() {
+        return roundRobin.select(pool);
+    }
+
+    @Benchmark
+    public FlareProx.Endpoint prefixSpread() {
+        return prefixSpread.select(pool);
+    }
+
+    /** 含一次 onStart/onComplete 回报，即每个请求在策略上的完整开销。 */
+    @Benchmark
+    public FlareProx.Endpoint leastLatency() {
+        FlareProx.Endpoint ep = leastLatency.select(pool);
+        leastLatency.onStart(ep.name);
+        leastLatency.onComplete(ep.name, 30_000_000L, false);
+        return ep;
+    }
+
+    @Benchmark
+    public FlareProx.Endpoint healthFilteredRoundRobin() {
+        return roundRobin.select(health.usable(pool, "target.example"));
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 端点状态的堆占用对比：每端点一个对象的布局（不可变 Endpoint 列表 + 按名称的状态对象表，
+ * 即 EndpointStore 之前的做法）与 EndpointStore 的并行数组布局，分别在 1k/10k/100k 个端点下测量。
+ * 测量值为构建前后多次 GC 后已用堆之差，适合比较量级，不是精确的对象大小。
+ * 运行：gradle endpointStoreFootprint
+ */
+public final class EndpointStoreFootprint {
+    // 测量期间保持被测结构可达
+    private static volatile Object sink;
+
+    private EndpointStoreFootprint() {}
+
+    /** 对象布局中每个端点的运行时状态。 */
+    static final class State {
+        String ip;
+        long ipSeenAt;
+        EndpointStore.Health health = EndpointStore.Health.UNKNOWN;
+        long requests;
+        long failures;
+        long lastUsed;
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = { 1_000, 10_000, 100_000 };
+        System.out.printf("%10s %14s %14s %14s %12s%n", "endpoints", "objects B/ep", "store B/ep", "store+list B/ep",
+                "ratio");
+        for (int n : sizes) {
+            long objects = measure(() -> objectLayout(n));
+            long store = measure(() -> storeLayout(n, false));
+            long storeWithList = measure(() -> storeLayout(n, true));
+            System.out.printf("%10d %14.1f %14.1f %14.1f %11.1fx%n", n, (double) objects / n, (double) store / n,
+                    (double) storeWithList / n, (double) objects / store);
+        }
+    }
+
+    private static Object objectLayout(int n) {
+        List<FlareProx.Endpoint> list = new ArrayList<>(n);
+        Map<String, State> states = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            String name = name(i);
+            list.add(new FlareProx.Endpoint(name, "https://" + name + ".acme-team.workers.dev", "sha256-4f1c2b"));
+            State s = new State();
+            s.ip = ip(i);
+            s.ipSeenAt = System.currentTimeMillis();
+            s.requests = i;
+            states.put(name, s);
+        }
+        return new Object[] { List.copyOf(list), states };
+    }
+
+    private static Object storeLayout(int n, boolean materialize) {
+        EndpointStore store = new EndpointStore();
+        for (int i = 0; i < n; i++) {
+            String name = name(i);
+            int id = store.add(name, "https://" + name + ".acme-team.workers.dev", "sha256-4f1c2b");
+            store.setIp(id, ip(i));
+            store.recordRequest(id, false);
+        }
+        if (materialize) {
+            List<FlareProx.Endpoint> eps = store.snapshot().endpoints();
+            for (FlareProx.Endpoint ep : eps) {
+                if (ep.url.isEmpty()) throw new AssertionError();
+            }
+        }
+        return store;
+    }
+
+    private static String name(int i) {
+        return "flareprox-" + Integer.toHexString(0x5f000000 + i * 7919);
+    }
+
+    private static String ip(int i) {
+        return "104." + (16 + (i >>> 16 & 15)) + "." + (i >>> 8 & 255) + "." + (i & 255);
+    }
+
+    private static long measure(java.util.function.Supplier<Object> build) {
+        long before = usedAfterGc();
+        sink = build.get();
+        long after = usedAfterGc();
+        sink = null;
+        return after - before;
+    }
+
+    private static long usedAfterGc() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 端点表 IP 列排序：使用表格实际的比较器（parseIPv4ToLong 数值比较，pending/n/a 排最后），
+ * 每次对一份打乱的副本排序。
+ * 运行：gradle jmh -PjmhArgs="IpSortBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IpSortBenchmark {
+    @Param({ "100", "1000" })
+    int rows;
+
+    String[] ips;
+    Comparator<String> comparator;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(7);
+        ips = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            int k = rnd.nextInt(20);
+            ips[i] = k == 0 ? "pending" : k == 1 ? "n/a" : k == 2 ? "2a06:98c0:3600::" + Integer.toHexString(i)
+                    : (104 + rnd.nextInt(70)) + "." + rnd.nextInt(256) + "." + rnd.nextInt(256) + "." + rnd.nextInt(256);
+        }
+        comparator = Extension.ipCellComparator();
+    }
+
+    @Benchmark
+    public String[] sort() {
+        String[] copy = ips.clone();
+        Arrays.sort(copy, comparator);
+        return copy;
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * 汇总 JFR 录制中的 FlareProx 事件（见 FlareProxEvents）：部署各阶段、Cloudflare API（按方法与路径模式）、
+ * 出口 IP 探测与端点选择的耗时分布，以及每个端点的请求数、失败数、延迟与服务机房。
+ * 运行：gradle jfrReport -Pjfr=flareprox.jfr
+ */
+public final class JfrReport {
+    private JfrReport() {}
+
+    /** 一组耗时样本（纳秒）及失败计数。 */
+    static final class Samples {
+        long[] values = new long[16];
+        int count;
+        int failures;
+
+        void add(long nanos, boolean failed) {
+            if (count == values.length) values = Arrays.copyOf(values, count * 2);
+            values[count++] = nanos;
+            if (failed) failures++;
+        }
+
+        double percentileMillis(double p) {
+            if (count == 0) return 0;
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            int idx = (int) Math.ceil(p / 100.0 * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, idx))] / 1e6;
+        }
+    }
+
+    /** 每个端点的汇总。 */
+    static final class EndpointSummary {
+        final Samples requests = new Samples();
+        final Samples probes = new Samples();
+        final TreeSet<String> colos = new TreeSet<>();
+        String ip;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args[0].isBlank()) {
+            System.err.println("Usage: JfrReport <recording.jfr>");
+            System.exit(2);
+        }
+        Map<String, Samples> stages = new TreeMap<>();
+        Map<String, Samples> api = new TreeMap<>();
+        Map<String, Samples> selection = new TreeMap<>();
+        Map<String, EndpointSummary> endpoints = new TreeMap<>();
+        int total = 0;
+        for (RecordedEvent e : RecordingFile.readAllEvents(Path.of(args[0]))) {
+            String type = e.getEventType().getName();
+            if (!type.startsWith("flareprox.")) continue;
+            total++;
+            long elapsed = e.getLong("elapsed");
+            switch (type) {
+                case "flareprox.DeployStage" -> stages.computeIfAbsent(e.getString("stage"), k -> new Samples())
+                        .add(elapsed, !e.getBoolean("success"));
+                case "flareprox.CloudflareApi" -> {
+                    int status = e.getInt("status");
+                    api.computeIfAbsent(e.getString("method") + " " + pathPattern(e.getString("path")),
+                            k -> new Samples()).add(elapsed, status >= 400);
+                }
+                case "flareprox.EndpointSelect" -> selection.computeIfAbsent(e.getString("source") + " "
+                        + e.getString("selector"), k -> new Samples()).add(elapsed, e.getString("endpoint") == null);
+                case "flareprox.IpProbe" -> {
+                    EndpointSummary s = endpoints.computeIfAbsent(e.getString("endpoint"), k -> new EndpointSummary());
+                    s.probes.add(elapsed, !e.getBoolean("success"));
+                    if (e.getBoolean("success")) s.ip = e.getString("ip");
+                }
+                case "flareprox.ProxiedRequest" -> {
+                    EndpointSummary s = endpoints.computeIfAbsent(e.getString("endpoint"), k -> new EndpointSummary());
+                    s.requests.add(elapsed, e.getBoolean("failed"));
+                    if (e.getString("colo") != null) s.colos.add(e.getString("colo"));
+                }
+                default -> {
+                    // 新增的事件类型暂不汇总
+                }
+            }
+        }
+        System.out.println(args[0] + ": " + total + " FlareProx events");
+        table("Deploy stages", stages);
+        table("Cloudflare API calls (errors = HTTP >= 400)", api);
+        table("Endpoint selection (errors = no endpoint)", selection);
+
+        System.out.println();
+        System.out.println("Per endpoint");
+        System.out.printf("  %-28s %8s %7s %9s %9s %7s %7s  %-16s %s%n", "endpoint", "requests", "failed", "p50 ms",
+                "p99 ms", "probes", "probe", "exit ip", "colos");
+        for (Map.Entry<String, EndpointSummary> en : endpoints.entrySet()) {
+            EndpointSummary s = en.getValue();
+            System.out.printf("  %-28s %8d %7d %9.1f %9.1f %7d %6.0f%%  %-16s %s%n", en.getKey(), s.requests.count,
+                    s.requests.failures, s.requests.percentileMillis(50), s.requests.percentileMillis(99),
+                    s.probes.count, s.probes.count == 0 ? 0.0 : 100.0 * (s.probes.count - s.probes.failures)
+                            / s.probes.count, s.ip == null ? "-" : s.ip, String.join(",", s.colos));
+        }
+    }
+
+    private static void table(String title, Map<String, Samples> rows) {
+        System.out.println();
+        System.out.println(title);
+        if (rows.isEmpty()) {
+            System.out.println("  (none)");
+            return;
+        }
+        System.out.printf("  %-60s %7s %7s %9s %9s %9s %9s%n", "", "n", "errors", "p50 ms", "p90 ms", "p99 ms",
+                "max ms");
+        for (Map.Entry<String, Samples> r : rows.entrySet()) {
+            Samples s = r.getValue();
+            System.out.printf("  %-60s %7d %7d %9.2f %9.2f %9.2f %9.2f%n", r.getKey(), s.count, s.failures,
+                    s.percentileMillis(50), s.percentileMillis(90), s.percentileMillis(99), s.percentileMillis(100));
+        }
+    }
+
+    // 账户 ID 与脚本名替换为占位符，同类调用归为一行
+    static String pathPattern(String path) {
+        if (path == null) return "?";
+        return path.replaceAll("/accounts/[0-9a-fA-F]{32}", "/accounts/{account}")
+                .replaceAll("/scripts/[^/]+", "/scripts/{script}");
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 列表行解析：名称、URL 与出口 IP 提取。行格式与 Deploy/List 输出一致，IP 为 IPv4、IPv6 或 pending 各占一部分。
+ * 运行：gradle jmh -PjmhArgs="ListRowParserBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListRowParserBenchmark {
+    String[] rows;
+    int cursor;
+
+    @Setup
+    public void setup() {
+        rows = new String[256];
+        for (int i = 0; i < rows.length; i++) {
+            String ip = i % 4 == 0 ? "pending" : i % 4 == 1 ? "2a06:98c0:3600::" + Integer.toHexString(i)
+                    : "104.28." + (i % 256) + "." + (255 - i % 256);
+            rows[i] = "flareprox-" + Integer.toHexString(0xab000 + i) + " -> https://flareprox-"
+                    + Integer.toHexString(0xab000 + i) + ".example-account.workers.dev [IP: " + ip + "]";
+        }
+    }
+
+    @Benchmark
+    public void parseRow(Blackhole bh) {
+        String row = rows[cursor++ & (rows.length - 1)];
+        bh.consume(ListRowParser.extractNameFromRow(row));
+        bh.consume(ListRowParser.extractUrlFromRow(row));
+        bh.consume(ListRowParser.extractIpFromRow(row));
+    }
+
+    @Benchmark
+    public String extractIp() {
+        return ListRowParser.extractIpFromRow(rows[cursor++ & (rows.length - 1)]);
+    }
+}
@@ -0,0 +1,92 @@
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 本地转发代理吞吐：JMH 线程作为负载生成器，经 LocalForwardProxy 打到若干本地 StubWorker。
+ * 端点池中每个端点对应一个独立的 StubWorker，轮换策略为轮询。
+ * 运行：gradle jmh -PjmhArgs="LocalProxyThroughputBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// JDK HttpServer 默认开启 Nagle，会给 StubWorker 的每个响应叠加延迟确认等待
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@Threads(16)
+public class LocalProxyThroughputBenchmark {
+    @Param({ "4" })
+    int endpoints;
+
+    @Param({ "0", "65536" })
+    int requestBytes;
+
+    @Param({ "1024" })
+    int responseBytes;
+
+    List<StubWorker> workers;
+    WorkerConnections connections;
+    LocalForwardProxy proxy;
+    HttpClient loadClient;
+    HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        workers = new ArrayList<>();
+        EndpointPool pool = new EndpointPool();
+        for (int i = 0; i < endpoints; i++) {
+            StubWorker w = new StubWorker(responseBytes);
+            workers.add(w);
+            pool.add(new FlareProx.Endpoint("stub-" + i, w.url()));
+        }
+        EndpointSelector rr = EndpointSelector.roundRobin();
+        connections = new WorkerConnections(BenchSupport.silentApi());
+        proxy = new LocalForwardProxy(pool, () -> rr, connections, new EndpointHealth(),
+                BenchSupport.silentApi());
+        int port = proxy.start(0);
+        loadClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .proxy(ProxySelector.of(new InetSocketAddress("127.0.0.1", port)))
+                .build();
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create("http://target.invalid/bench?q=1"));
+        request = requestBytes == 0 ? b.GET().build()
+                : b.POST(HttpRequest.BodyPublishers.ofByteArray(new byte[requestBytes])).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        proxy.stop();
+        connections.shutdown();
+        for (StubWorker w : workers) w.close();
+    }
+
+    @Benchmark
+    public int forward() throws Exception {
+        HttpResponse<byte[]> resp = loadClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (resp.statusCode() != 200) {
+            throw new IllegalStateException("Unexpected status " + resp.statusCode());
+        }
+        return resp.body().length;
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 部署时构造上传正文的开销：buildMultipart 拼接字符串后再整体编码，buildMultipartBytes 直接拼接已渲染脚本的字节。
+ * 运行：gradle jmh -PjmhArgs="MultipartBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultipartBenchmark {
+    @Param({ "standard", "classic" })
+    String flavor;
+
+    String boundary = "----BurpBoundary0123456789abcdef0123456789abcdef";
+    String metadata;
+    WorkerScriptTemplate.Rendered rendered;
+
+    @Setup
+    public void setup() {
+        boolean classic = flavor.equals("classic");
+        rendered = WorkerScriptTemplate.render(classic
+                ? WorkerScriptTemplate.Options.classic() : WorkerScriptTemplate.Options.standard());
+        metadata = classic ? CloudflareWorkerUtils.classicMetadata(rendered) : CloudflareWorkerUtils.moduleMetadata(rendered);
+    }
+
+    @Benchmark
+    public byte[] buildMultipart() {
+        return CloudflareWorkerUtils.buildMultipart(boundary, metadata, "worker.js", "application/javascript",
+                rendered.script, "script").getBytes(java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] buildMultipartBytes() {
+        return CloudflareWorkerUtils.buildMultipartBytes(boundary, metadata, "worker.js", "application/javascript",
+                rendered.bytes, "script");
+    }
+}
@@ -0,0 +1,98 @@
+import burp.api.montoya.core.ToolType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 1000 条路由规则下单次匹配的开销：精确主机、*.后缀、路径前缀、方法与工具条件混合，最后一条为 direct host=*。
+ * 请求样本一半命中中后部规则、一半只命中兜底规则。compiled 为 RoutingRules 的位图匹配，
+ * linear 为按顺序逐条比较的朴素实现，作为对照。
+ * 运行：gradle jmh -PjmhArgs="RoutingRulesBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingRulesBenchmark {
+    @Param({ "1000" })
+    int ruleCount;
+
+    RoutingRules rules;
+    String[] hosts;
+    String[] paths;
+    String[] methods;
+    ToolType[] tools;
+    int cursor;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        List<RoutingRules.Rule> list = new ArrayList<>();
+        String[] verbs = { "GET", "POST", "PUT", "DELETE" };
+        ToolType[] toolTypes = { ToolType.INTRUDER, ToolType.SCANNER, ToolType.REPEATER };
+        for (int i = 0; i < ruleCount - 1; i++) {
+            RoutingRules.Action action = i % 3 == 0 ? RoutingRules.Action.DIRECT : RoutingRules.Action.ROTATE;
+            String host = i % 2 == 0 ? "host" + i + ".target" + (i % 50) + ".com" : "*.svc" + i + ".example.org";
+            String path = i % 4 == 0 ? "/api/v" + (i % 7) + "/res" + i : null;
+            List<String> m = i % 10 == 0 ? List.of(verbs[i % verbs.length]) : null;
+            List<ToolType> t = i % 15 == 0 ? List.of(toolTypes[i % toolTypes.length]) : null;
+            list.add(RoutingRules.rule(action, host, path, m, t));
+        }
+        list.add(RoutingRules.rule(RoutingRules.Action.DIRECT, "*", null, null, null));
+        rules = RoutingRules.of(list);
+
+        int n = 1024;
+        hosts = new String[n];
+        paths = new String[n];
+        methods = new String[n];
+        tools = new ToolType[n];
+        for (int k = 0; k < n; k++) {
+            int i = rnd.nextInt(ruleCount - 1);
+            boolean hit = k % 2 == 0;
+            hosts[k] = !hit ? "www.unrelated" + k + ".net"
+                    : i % 2 == 0 ? "host" + i + ".target" + (i % 50) + ".com" : "a.b.svc" + i + ".example.org";
+            paths[k] = i % 4 == 0 ? "/api/v" + (i % 7) + "/res" + i + "/items?id=" + k : "/index.html";
+            methods[k] = i % 10 == 0 ? verbs[i % verbs.length] : verbs[k % verbs.length];
+            tools[k] = i % 15 == 0 ? toolTypes[i % toolTypes.length] : toolTypes[k % toolTypes.length];
+        }
+    }
+
+    @Benchmark
+    public int compiled() {
+        int k = cursor++ & (hosts.length - 1);
+        return rules.matchIndex(hosts[k], paths[k], methods[k], tools[k]);
+    }
+
+    @Benchmark
+    public int linear() {
+        int k = cursor++ & (hosts.length - 1);
+        String host = hosts[k].toLowerCase(Locale.ROOT);
+        List<RoutingRules.Rule> list = rules.rules();
+        for (int i = 0; i < list.size(); i++) {
+            RoutingRules.Rule r = list.get(i);
+            boolean hostOk = r.host.equals("*") || (r.host.startsWith("*.")
+                    ? host.endsWith(r.host.substring(1)) : host.equals(r.host));
+            if (hostOk && paths[k].startsWith(r.path)
+                    && (r.methods.isEmpty() || r.methods.contains(methods[k]))
+                    && (r.tools.isEmpty() || r.tools.contains(tools[k]))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 轮换策略对尾延迟的影响：离散事件模拟，不发真实请求。
+ * 20 个端点中 15 个快（20–60 ms）、3 个中等（100–150 ms）、2 个慢（约 400 ms），
+ * 每个端点并发 4 路，超出排队；请求按泊松过程到达，服务时间带对数正态抖动。
+ * 延迟从到达算到完成（含排队），与 Burp 侧看到的一致，并以此回报给选择策略。
+ * 结果见辅助计数器 p50Ms/p99Ms/p999Ms（虚拟时间，毫秒）；主计时只是模拟本身的耗时。
+ * 运行：gradle jmh -PjmhArgs="SelectorTailLatencyBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class SelectorTailLatencyBenchmark {
+    static final int REQUESTS = 200_000;
+    static final int SLOTS_PER_ENDPOINT = 4;
+
+    @Param({ "roundRobin", "leastLatency" })
+    String strategy;
+
+    /** 每秒到达的请求数。 */
+    @Param({ "120", "180" })
+    int rate;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Latency {
+        public double p50Ms;
+        public double p99Ms;
+        public double p999Ms;
+    }
+
+    @Benchmark
+    public long simulate(Latency out) {
+        long[] latencies = run(strategy, rate, REQUESTS, 42);
+        out.p50Ms = percentileMillis(latencies, 0.50);
+        out.p99Ms = percentileMillis(latencies, 0.99);
+        out.p999Ms = percentileMillis(latencies, 0.999);
+        return latencies.length;
+    }
+
+    /** 端点的基准服务时间（纳秒）。 */
+    static long[] baseLatencies() {
+        long[] base = new long[20];
+        for (int i = 0; i < 15; i++) base[i] = ms(20 + i * 40 / 14.0);
+        for (int i = 15; i < 18; i++) base[i] = ms(100 + (i - 15) * 25);
+        base[18] = ms(380);
+        base[19] = ms(420);
+        return base;
+    }
+
+    /** 运行一次模拟，返回每个请求的延迟（纳秒，已排序）。 */
+    static long[] run(String strategy, int rate, int requests, long seed) {
+        long[] base = baseLatencies();
+        int n = base.length;
+        long[] clock = new long[1];
+        EndpointSelector selector = switch (strategy) {
+            case "roundRobin" -> EndpointSelector.roundRobin();
+            case "leastLatency" -> new LeastLatencySelector(() -> clock[0], 0.3, 10_000_000_000L);
+            default -> throw new IllegalArgumentException(strategy);
+        };
+        List<FlareProx.Endpoint> eps = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            eps.add(new FlareProx.Endpoint("sim-" + i, "https://sim-" + i + ".bench.workers.dev"));
+        }
+        List<FlareProx.Endpoint> pool = List.copyOf(eps);
+
+        SplittableRandom rnd = new SplittableRandom(seed);
+        int[] busy = new int[n];
+        @SuppressWarnings("unchecked")
+        ArrayDeque<long[]>[] queues = new ArrayDeque[n];
+        for (int i = 0; i < n; i++) queues[i] = new ArrayDeque<>();
+        // 完成事件：{完成时刻, 端点下标, 到达时刻}
+        PriorityQueue<long[]> completions = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        long[] latencies = new long[requests];
+        int done = 0;
+        double meanGap = 1e9 / rate;
+        long nextArrival = 0;
+        int arrived = 0;
+
+        while (done < requests) {
+            if (arrived < requests && (completions.isEmpty() || nextArrival <= completions.peek()[0])) {
+                clock[0] = nextArrival;
+                FlareProx.Endpoint ep = selector.select(pool);
+                int idx = Integer.parseInt(ep.name.substring(4));
+                selector.onStart(ep.name);
+                if (busy[idx] < SLOTS_PER_ENDPOINT) {
+                    busy[idx]++;
+                    completions.add(new long[] { nextArrival + service(base[idx], rnd), idx, nextArrival });
+                } else {
+                    queues[idx].add(new long[] { nextArrival });
+                }
+                arrived++;
+                nextArrival += (long) (-Math.log(1 - rnd.nextDouble()) * meanGap);
+            } else {
+                long[] c = completions.poll();
+                clock[0] = c[0];
+                int idx = (int) c[1];
+                long latency = c[0] - c[2];
+                latencies[done++] = latency;
+                selector.onComplete(pool.get(idx).name, latency, false);
+                long[] waiting = queues[idx].poll();
+                if (waiting != null) {
+                    completions.add(new long[] { c[0] + service(base[idx], rnd), idx, waiting[0] });
+                } else {
+                    busy[idx]--;
+                }
+            }
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    static double percentileMillis(long[] sorted, double q) {
+        int i = (int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1);
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+
+    // 对数正态抖动，sigma = 0.35，中位数为基准值
+    private static long service(long base, SplittableRandom rnd) {
+        double u1 = 1 - rnd.nextDouble();
+        double u2 = rnd.nextDouble();
+        double z = Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+        return (long) (base * Math.exp(0.35 * z));
+    }
+
+    private static long ms(double millis) {
+        return (long) (millis * 1_000_000);
+    }
+}
@@ -0,0 +1,46 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 基准用的本地 Worker 替身：读取并丢弃请求体，返回固定大小的响应体。
+ * 缺少 X-Target-URL 时返回与真实 Worker 相同的 400 提示，便于就绪检查复用。
+ */
+public final class StubWorker implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public StubWorker(int responseBytes) throws IOException {
+        byte[] payload = new byte[responseBytes];
+        java.util.Arrays.fill(payload, (byte) 'x');
+        byte[] noTarget = "{\"error\":\"No target URL\"}".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 512);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody(); OutputStream out = exchange.getResponseBody()) {
+                in.transferTo(OutputStream.nullOutputStream());
+                boolean hasTarget = exchange.getRequestHeaders().containsKey(RequestRewriter.TARGET_HEADER);
+                byte[] body = hasTarget ? payload : noTarget;
+                exchange.getResponseHeaders().add("Content-Type", hasTarget ? "text/plain" : "application/json");
+                exchange.sendResponseHeaders(hasTarget ? 200 : 400, body.length == 0 ? -1 : body.length);
+                out.write(body);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 隧道模式与逐个发送的对比。逐个发送沿用 BatchModeBenchmark 的桩 Worker（每次调用占一个连接槽付一次 rttMs）；
+ * 隧道桩是一个最小的 WebSocket 服务端，握手付一次 rttMs，之后每个流只付 rttMs + targetMs 且互不占槽。
+ * burst* 为一次突发 burst 个请求全部完成；one* 为单个请求的往返延迟（隧道已建立）。
+ * 运行：gradle jmh -PjmhArgs="TunnelModeBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TunnelModeBenchmark {
+    private static final List<String[]> CONTENT_TYPE = List.<String[]>of(new String[] { "Content-Type", "text/plain" });
+
+    @Param({ "256" })
+    int burst;
+
+    @Param({ "5" })
+    int rttMs;
+
+    @Param({ "5" })
+    int targetMs;
+
+    @Param({ "8" })
+    int slots;
+
+    BatchModeBenchmark.StubWorker http;
+    StubTunnel ws;
+    WorkerConnections connections;
+    TunnelClient tunnel;
+    FlareProx.Endpoint httpEndpoint;
+    FlareProx.Endpoint wsEndpoint;
+    List<String[]> headers;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        http = new BatchModeBenchmark.StubWorker(rttMs, targetMs, slots);
+        ws = new StubTunnel(rttMs, targetMs);
+        httpEndpoint = new FlareProx.Endpoint("stub-http", "http://127.0.0.1:" + http.port());
+        wsEndpoint = new FlareProx.Endpoint("stub-ws", "http://127.0.0.1:" + ws.port());
+        connections = new WorkerConnections(BenchSupport.silentApi());
+        tunnel = new TunnelClient(connections);
+        headers = List.of(new String[] { "Accept", "*/*" }, new String[] { "User-Agent", "bench" });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tunnel.shutdown();
+        connections.shutdown();
+        http.close();
+        ws.close();
+    }
+
+    @Benchmark
+    public int burstSingle() {
+        List<CompletableFuture<HttpResponse<byte[]>>> all = new ArrayList<>(burst);
+        for (int i = 0; i < burst; i++) all.add(single(i));
+        int bytes = 0;
+        for (CompletableFuture<HttpResponse<byte[]>> f : all) bytes += f.join().body().length;
+        return bytes;
+    }
+
+    @Benchmark
+    public int burstTunnel() throws InterruptedException {
+        List<CompletableFuture<BatchFrames.Response>> all = new ArrayList<>(burst);
+        int fallbacks = 0;
+        for (int i = 0; i < burst; i++) {
+            CompletableFuture<BatchFrames.Response> f = tunneled(i);
+            if (f == null) {
+                fallbacks++;
+                single(i).join();
+            } else {
+                all.add(f);
+            }
+        }
+        int bytes = fallbacks;
+        for (CompletableFuture<BatchFrames.Response> f : all) bytes += f.join().bodyLength();
+        return bytes;
+    }
+
+    @Benchmark
+    public int oneSingle() {
+        return single(0).join().body().length;
+    }
+
+    @Benchmark
+    public int oneTunnel() throws InterruptedException {
+        CompletableFuture<BatchFrames.Response> f = tunneled(0);
+        return f == null ? single(0).join().body().length : f.join().bodyLength();
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> single(int i) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(httpEndpoint.url + "/"))
+                .header(RequestRewriter.TARGET_HEADER, "https://target.example/user/" + i);
+        for (String[] h : headers) b.header(h[0], h[1]);
+        return connections.sendAsync(httpEndpoint, b.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private CompletableFuture<BatchFrames.Response> tunneled(int i) throws InterruptedException {
+        return tunnel.send(wsEndpoint, "GET", "https://target.example/user/" + i, headers, null);
+    }
+
+    /** 最小 WebSocket 桩：只处理二进制消息（每条为一个单请求批）、分片、ping 与关闭。 */
+    static final class StubTunnel {
+        private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+        private final ServerSocket server;
+        private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+        private final List<Socket> sockets = new ArrayList<>();
+        private final int rttMs;
+        private final int targetMs;
+
+        StubTunnel(int rttMs, int targetMs) throws IOException {
+            this.rttMs = rttMs;
+            this.targetMs = targetMs;
+            server = new ServerSocket(0, 256, InetAddress.getLoopbackAddress());
+            threads.execute(this::accept);
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        void close() {
+            try {
+                server.close();
+            } catch (IOException ignore) {
+                // 已关闭
+            }
+            synchronized (sockets) {
+                for (Socket s : sockets) closeQuietly(s);
+            }
+            threads.shutdownNow();
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket s = server.accept();
+                    s.setTcpNoDelay(true);
+                    synchronized (sockets) {
+                        sockets.add(s);
+                    }
+                    threads.execute(() -> serve(s));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket s) {
+            try (s) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                OutputStream out = s.getOutputStream();
+                String key = null;
+                for (String line; !(line = readLine(in)).isEmpty();) {
+                    if (line.toLowerCase(Locale.ROOT).startsWith("sec-websocket-key:")) {
+                        key = line.substring(18).trim();
+                    }
+                }
+                if (key == null) return;
+                sleep(rttMs);
+                String accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+                        .digest((key + GUID).getBytes(StandardCharsets.ISO_8859_1)));
+                out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                        + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                frames(in, out);
+            } catch (IOException | NoSuchAlgorithmException e) {
+                // 客户端断开
+            }
+        }
+
+        private void frames(DataInputStream in, OutputStream out) throws IOException {
+            byte[] message = new byte[0];
+            while (true) {
+                int b0 = in.readUnsignedByte();
+                int b1 = in.readUnsignedByte();
+                long len = b1 & 0x7f;
+                if (len == 126) len = in.readUnsignedShort();
+                else if (len == 127) len = in.readLong();
+                byte[] mask = new byte[4];
+                if ((b1 & 0x80) != 0) in.readFully(mask);
+                byte[] payload = new byte[(int) len];
+                in.readFully(payload);
+                for (int i = 0; i < payload.length; i++) payload[i] ^= mask[i & 3];
+                switch (b0 & 0x0f) {
+                    case 0x0, 0x2 -> {
+                        byte[] joined = new byte[message.length + payload.length];
+                        System.arraycopy(message, 0, joined, 0, message.length);
+                        System.arraycopy(payload, 0, joined, message.length, payload.length);
+                        message = joined;
+                        if ((b0 & 0x80) != 0) {
+                            byte[] batch = message;
+                            message = new byte[0];
+                            threads.execute(() -> respond(batch, out));
+                        }
+                    }
+                    case 0x9 -> write(out, 0xA, payload, payload.length);
+                    case 0x8 -> {
+                        write(out, 0x8, payload, Math.min(2, payload.length));
+                        return;
+                    }
+                    default -> {
+                        // 文本等其他帧忽略
+                    }
+                }
+            }
+        }
+
+        private void respond(byte[] batch, OutputStream out) {
+            List<BatchFrames.Request> requests = BatchFrames.decodeRequests(batch, 0, batch.length);
+            sleep(rttMs + targetMs);
+            BatchFrames.Encoder enc = new BatchFrames.Encoder(256);
+            for (BatchFrames.Request r : requests) {
+                byte[] body = ("{\"user\":\"" + r.url + "\",\"exists\":false}").getBytes(StandardCharsets.UTF_8);
+                enc.response(r.id, 200, CONTENT_TYPE, body, 0, body.length);
+            }
+            try {
+                write(out, 0x2, enc.array(), enc.size());
+            } catch (IOException ignore) {
+                // 客户端已断开
+            }
+        }
+
+        private static void write(OutputStream out, int opcode, byte[] data, int len) throws IOException {
+            byte[] head;
+            if (len < 126) {
+                head = new byte[] { (byte) (0x80 | opcode), (byte) len };
+            } else if (len < 65536) {
+                head = new byte[] { (byte) (0x80 | opcode), 126, (byte) (len >>> 8), (byte) len };
+            } else {
+                head = new byte[10];
+                head[0] = (byte) (0x80 | opcode);
+                head[1] = 127;
+                for (int i = 0; i < 8; i++) head[9 - i] = (byte) ((long) len >>> (8 * i));
+            }
+            synchronized (out) {
+                out.write(head);
+                out.write(data, 0, len);
+                out.flush();
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            for (int c; (c = in.read()) != '\n';) {
+                if (c < 0) throw new IOException("Connection closed during handshake");
+                if (c != '\r') sb.append((char) c);
+            }
+            return sb.toString();
+        }
+
+        private static void closeQuietly(Socket s) {
+            try {
+                s.close();
+            } catch (IOException ignore) {
+                // 已关闭
+            }
+        }
+
+        private static void sleep(int ms) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
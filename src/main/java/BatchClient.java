@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Worker 批量模式的客户端：按端点把短时间内到达的小请求攒成一批，用一次 POST /__batch 发出，
+ * Worker 在边缘并发请求目标，并按完成顺序把响应分帧流式返回（格式见 BatchFrames）。
+ * 每批最多 maxBatch 个请求（Workers 免费计划每次调用最多 50 个子请求）；
+ * 攒批窗口从批中第一个请求到达时开始计时，批满立即发出。
+ * 端点返回的不是批量响应（旧版脚本）时，该端点此后不再批量，调用方应退回逐个发送。
+ * 超时覆盖整批：响应头与全部响应帧须在 timeout 内到达，否则中断读取并让未完成的请求以 IOException 失败。
+ */
+public final class BatchClient {
+    public static final String PATH = "/__batch";
+    public static final String HEADER = "X-FlareProx-Batch";
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    private static final class Item {
+        final String method;
+        final String url;
+        final List<String[]> headers;
+        final byte[] body;
+        final CompletableFuture<BatchFrames.Response> result = new CompletableFuture<>();
+
+        Item(String method, String url, List<String[]> headers, byte[] body) {
+            this.method = method;
+            this.url = url;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    private static final class Queue {
+        final FlareProx.Endpoint endpoint;
+        List<Item> items = new ArrayList<>();
+        int bytes;
+        ScheduledFuture<?> timer;
+
+        Queue(FlareProx.Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+    }
+
+    private final WorkerConnections connections;
+    private final Map<String, Queue> queues = new ConcurrentHashMap<>();
+    private final Set<String> unsupported = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "flareprox-batch");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batched = new AtomicLong();
+    private volatile long lingerMicros = 2_000;
+    private volatile int maxBatch = 32;
+    private volatile int maxBatchBytes = 256 * 1024;
+    private volatile int maxBodyBytes = 8 * 1024;
+    private volatile Duration timeout = Duration.ofSeconds(30);
+
+    public BatchClient(WorkerConnections connections) {
+        this.connections = connections;
+    }
+
+    public void setLinger(long linger, TimeUnit unit) {
+        this.lingerMicros = Math.max(0, unit.toMicros(linger));
+    }
+
+    public void setMaxBatch(int maxBatch) {
+        this.maxBatch = Math.max(1, Math.min(BatchFrames.MAX_REQUESTS, maxBatch));
+    }
+
+    /** 正文超过此大小的请求不适合批量，调用方应直接发送。 */
+    public void setMaxBodyBytes(int maxBodyBytes) {
+        this.maxBodyBytes = Math.max(0, maxBodyBytes);
+    }
+
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    public Duration timeout() {
+        return timeout;
+    }
+
+    /** 该请求能否经此端点批量发送；方法或 URL 写不进请求帧的请求应单独发送。 */
+    public boolean accepts(FlareProx.Endpoint endpoint, String method, String url, int bodyLength) {
+        return bodyLength <= maxBodyBytes && !unsupported.contains(endpoint.name) && BatchFrames.fits(method, url);
+    }
+
+    /**
+     * 加入该端点的下一批；返回的 future 在对应响应帧到达时完成，整批失败时以 IOException 失败。
+     * 写不进请求帧的请求不入队，直接以 IOException 失败，不影响同批其他请求。
+     */
+    public CompletableFuture<BatchFrames.Response> submit(FlareProx.Endpoint endpoint, String method, String url,
+            List<String[]> headers, byte[] body) {
+        if (!BatchFrames.fits(method, url)) {
+            return CompletableFuture.failedFuture(new IOException("Request cannot be batched: method or URL too long"));
+        }
+        Item item = new Item(method, url, headers, body == null ? new byte[0] : body);
+        Queue q = queues.computeIfAbsent(endpoint.name, k -> new Queue(endpoint));
+        List<Item> full = null;
+        synchronized (q) {
+            q.items.add(item);
+            q.bytes += item.body.length + url.length() + 64;
+            if (q.items.size() >= maxBatch || q.bytes >= maxBatchBytes) {
+                full = take(q);
+            } else if (q.items.size() == 1) {
+                long linger = lingerMicros;
+                if (linger == 0) {
+                    full = take(q);
+                } else {
+                    q.timer = timers.schedule(() -> flush(q), linger, TimeUnit.MICROSECONDS);
+                }
+            }
+        }
+        if (full != null) send(q.endpoint, full);
+        return item.result;
+    }
+
+    public String describe() {
+        long b = batches.get();
+        return String.format("%d batches, %.1f requests/batch", b, b == 0 ? 0.0 : (double) batched.get() / b);
+    }
+
+    public void shutdown() {
+        timers.shutdownNow();
+        readers.shutdownNow();
+        for (Queue q : queues.values()) {
+            List<Item> rest;
+            synchronized (q) {
+                rest = take(q);
+            }
+            fail(rest, new IOException("Batch client stopped"));
+        }
+    }
+
+    private void flush(Queue q) {
+        List<Item> items;
+        synchronized (q) {
+            q.timer = null;
+            items = take(q);
+        }
+        if (!items.isEmpty()) send(q.endpoint, items);
+    }
+
+    // 调用方持有 q 的锁
+    private static List<Item> take(Queue q) {
+        List<Item> items = q.items;
+        q.items = new ArrayList<>();
+        q.bytes = 0;
+        if (q.timer != null) {
+            q.timer.cancel(false);
+            q.timer = null;
+        }
+        return items;
+    }
+
+    private void send(FlareProx.Endpoint endpoint, List<Item> items) {
+        if (items.isEmpty()) return;
+        batches.incrementAndGet();
+        batched.addAndGet(items.size());
+        BatchFrames.Encoder enc = new BatchFrames.Encoder(4096).beginBatch();
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                Item it = items.get(i);
+                enc.request(i, it.method, it.url, it.headers, it.body, 0, it.body.length);
+            }
+        } catch (IllegalArgumentException e) {
+            fail(items, new IOException("Cannot encode batch: " + e.getMessage()));
+            return;
+        }
+        String base = endpoint.url.endsWith("/") ? endpoint.url.substring(0, endpoint.url.length() - 1)
+                : endpoint.url;
+        Duration limit = timeout;
+        long deadline = System.nanoTime() + limit.toNanos();
+        HttpRequest req = HttpRequest.newBuilder(URI.create(base + PATH))
+                .timeout(limit)
+                .header("Content-Type", "application/octet-stream")
+                .header(HEADER, "1")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(enc.array(), 0, enc.size()))
+                .build();
+        connections.sendAsync(endpoint, req, HttpResponse.BodyHandlers.ofInputStream()).whenComplete((resp, ex) -> {
+            if (ex != null) {
+                fail(items, ex instanceof IOException ? (IOException) ex : new IOException(ex));
+                return;
+            }
+            if (resp.statusCode() != 200 || resp.headers().firstValue(HEADER).isEmpty()) {
+                // 旧版脚本对 /__batch 返回 400（无目标 URL）；其他错误只让本批失败
+                if (resp.statusCode() == 400 || resp.statusCode() == 200) unsupported.add(endpoint.name);
+                close(resp.body());
+                fail(items, new IOException("Endpoint " + endpoint.name + " does not support batch mode (HTTP "
+                        + resp.statusCode() + ")"));
+                return;
+            }
+            readBefore(resp.body(), items, deadline);
+        });
+    }
+
+    // 响应头已到达：读取响应帧，剩余时间用完时中断读取线程并关闭正文，防止正文停滞时一直挂起
+    private void readBefore(InputStream body, List<Item> items, long deadline) {
+        AtomicReference<ScheduledFuture<?>> timer = new AtomicReference<>();
+        Future<?> reading;
+        try {
+            reading = readers.submit(() -> {
+                try {
+                    read(body, items);
+                } finally {
+                    ScheduledFuture<?> t = timer.get();
+                    if (t != null) t.cancel(false);
+                }
+            });
+            // 读取先于此处结束时计时器照常触发，届时各项均已完成，只是多一次无效关闭
+            timer.set(timers.schedule(() -> {
+                fail(items, new IOException("Batch response timed out"));
+                reading.cancel(true);
+                close(body);
+            }, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+        } catch (RejectedExecutionException e) {
+            close(body);
+            fail(items, new IOException("Batch client stopped"));
+        }
+    }
+
+    private static void read(InputStream body, List<Item> items) {
+        int remaining = items.size();
+        try (body) {
+            BatchFrames.Reader reader = new BatchFrames.Reader(body, MAX_FRAME);
+            BatchFrames.Response r;
+            while (remaining > 0 && (r = reader.next()) != null) {
+                if (r.id >= 0 && r.id < items.size() && items.get(r.id).result.complete(r)) remaining--;
+            }
+        } catch (IOException e) {
+            fail(items, e);
+            return;
+        }
+        if (remaining > 0) fail(items, new IOException("Batch response ended early"));
+    }
+
+    private static void fail(List<Item> items, IOException e) {
+        for (Item it : items) it.result.completeExceptionally(e);
+    }
+
+    private static void close(InputStream in) {
+        try { in.close(); } catch (IOException ignore) {}
+    }
+}
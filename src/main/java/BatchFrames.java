@@ -0,0 +1,439 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Worker 批量模式的二进制分帧（大端序）。
+ *
+ * 请求批：magic "FPB1"(u32) 请求数(u16)，随后每个请求：
+ *   id(u32) 方法长度(u8) 方法 URL长度(u16) URL 头数(u16) {名长(u16) 名 值长(u16) 值}* 正文长度(u32) 正文
+ * 响应流：每个响应一帧，按完成顺序到达：
+ *   id(u32) 状态码(u16，0 表示 Worker 侧请求失败、正文为错误信息) 头数(u16) {名长(u16) 名 值长(u16) 值}* 正文长度(u32) 正文
+ *
+ * 编码直接把字符写入复用的字节缓冲区；解码得到的 Response 只是帧字节上的偏移视图，
+ * 头名与头值按需比较或原样写出，不逐条转换为 String。
+ */
+public final class BatchFrames {
+    public static final int MAGIC = 0x46504231;
+    public static final int MAX_REQUESTS = 0xffff;
+    private static final int MAX_SHORT = 0xffff;
+
+    private BatchFrames() {}
+
+    /** 方法与 URL 能否写入一个请求帧（方法不超过 u8、URL 不超过 u16 字节）；头超长时只被跳过，正文长度由调用方限制。 */
+    public static boolean fits(String method, String url) {
+        return utf8Length(method) <= 0xff && utf8Length(url) <= MAX_SHORT;
+    }
+
+    // 与 Encoder.putUtf8 写出的字节数一致（孤立代理项按 3 字节计）
+    static int utf8Length(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                n++;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else {
+                n += 3;
+            }
+        }
+        return n;
+    }
+
+    /** 可复用的编码缓冲区；非线程安全。 */
+    public static final class Encoder {
+        private byte[] buf;
+        private int pos;
+        private int count;
+        private int countAt = -1;
+
+        public Encoder(int initialCapacity) {
+            buf = new byte[Math.max(64, initialCapacity)];
+        }
+
+        /** 开始一个请求批。 */
+        public Encoder beginBatch() {
+            pos = 0;
+            count = 0;
+            putInt(MAGIC);
+            countAt = pos;
+            putShort(0);
+            return this;
+        }
+
+        /** headers 为 {名, 值} 数组；URL 与头按 UTF-8 写入，超出 u16 长度的头被跳过。 */
+        public Encoder request(int id, String method, String url, List<String[]> headers, byte[] body, int off,
+                int len) {
+            if (countAt < 0) throw new IllegalStateException("beginBatch() not called");
+            if (count == MAX_REQUESTS) throw new IllegalStateException("Batch is full");
+            putInt(id);
+            int lenAt = pos;
+            put((byte) 0);
+            int n = putUtf8(method);
+            if (n > 0xff) throw new IllegalArgumentException("Method too long");
+            buf[lenAt] = (byte) n;
+            putString16(url, true);
+            putHeaders(headers);
+            putInt(len);
+            putBytes(body, off, len);
+            count++;
+            buf[countAt] = (byte) (count >>> 8);
+            buf[countAt + 1] = (byte) count;
+            return this;
+        }
+
+        /** 追加一帧响应（Worker 一侧的格式；Java 侧用于测试与本地桩）。 */
+        public Encoder response(int id, int status, List<String[]> headers, byte[] body, int off, int len) {
+            putInt(id);
+            putShort(status);
+            putHeaders(headers);
+            putInt(len);
+            putBytes(body, off, len);
+            return this;
+        }
+
+        /** 开始一段独立的响应帧序列（丢弃已写内容）。 */
+        public Encoder reset() {
+            pos = 0;
+            count = 0;
+            countAt = -1;
+            return this;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public int size() {
+            return pos;
+        }
+
+        /** 内部缓冲区，有效内容为 [0, size())。 */
+        public byte[] array() {
+            return buf;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void putHeaders(List<String[]> headers) {
+            int countPos = pos;
+            putShort(0);
+            int n = 0;
+            if (headers != null) {
+                for (String[] h : headers) {
+                    if (n == MAX_SHORT) break;
+                    int mark = pos;
+                    if (putString16(h[0], false) && putString16(h[1], false)) {
+                        n++;
+                    } else {
+                        pos = mark;
+                    }
+                }
+            }
+            buf[countPos] = (byte) (n >>> 8);
+            buf[countPos + 1] = (byte) n;
+        }
+
+        // 写入 u16 长度前缀的 UTF-8 串；超长时 strict 抛异常，否则返回 false 由调用方回退
+        private boolean putString16(String s, boolean strict) {
+            int lenAt = pos;
+            putShort(0);
+            int n = putUtf8(s);
+            if (n > MAX_SHORT) {
+                if (strict) throw new IllegalArgumentException("Field longer than 65535 bytes");
+                pos = lenAt;
+                return false;
+            }
+            buf[lenAt] = (byte) (n >>> 8);
+            buf[lenAt + 1] = (byte) n;
+            return true;
+        }
+
+        private int putUtf8(String s) {
+            int start = pos;
+            int len = s.length();
+            ensure(len);
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else {
+                    // 非 ASCII 很少见，按码点编码；之后仍为剩余字符预留足够空间
+                    int cp = Character.codePointAt(s, i);
+                    if (Character.charCount(cp) == 2) i++;
+                    ensure(4 + len - i);
+                    if (cp < 0x800) {
+                        buf[pos++] = (byte) (0xc0 | cp >>> 6);
+                    } else if (cp < 0x10000) {
+                        buf[pos++] = (byte) (0xe0 | cp >>> 12);
+                        buf[pos++] = (byte) (0x80 | cp >>> 6 & 0x3f);
+                    } else {
+                        buf[pos++] = (byte) (0xf0 | cp >>> 18);
+                        buf[pos++] = (byte) (0x80 | cp >>> 12 & 0x3f);
+                        buf[pos++] = (byte) (0x80 | cp >>> 6 & 0x3f);
+                    }
+                    if (cp >= 0x80) buf[pos++] = (byte) (0x80 | cp & 0x3f);
+                }
+            }
+            return pos - start;
+        }
+
+        private void put(byte b) {
+            ensure(1);
+            buf[pos++] = b;
+        }
+
+        private void putShort(int v) {
+            ensure(2);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        private void putInt(int v) {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        private void putBytes(byte[] b, int off, int len) {
+            if (len == 0) return;
+            ensure(len);
+            System.arraycopy(b, off, buf, pos, len);
+            pos += len;
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+    }
+
+    /** 一帧响应：帧字节上的偏移视图。 */
+    public static final class Response {
+        public final int id;
+        public final int status;
+        private final byte[] frame;
+        // 每个头 4 个 int：名起点、名长度、值起点、值长度
+        private final int[] headers;
+        private final int bodyOffset;
+        private final int bodyLength;
+
+        Response(int id, int status, byte[] frame, int[] headers, int bodyOffset, int bodyLength) {
+            this.id = id;
+            this.status = status;
+            this.frame = frame;
+            this.headers = headers;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+        }
+
+        public int headerCount() {
+            return headers.length / 4;
+        }
+
+        public String headerName(int i) {
+            return new String(frame, headers[i * 4], headers[i * 4 + 1], StandardCharsets.UTF_8);
+        }
+
+        public String headerValue(int i) {
+            return new String(frame, headers[i * 4 + 2], headers[i * 4 + 3], StandardCharsets.UTF_8);
+        }
+
+        /** 按名（ASCII 不区分大小写）查找第一个头；只为命中的值创建 String。 */
+        public String headerValue(String name) {
+            int i = indexOf(name);
+            return i < 0 ? null : headerValue(i);
+        }
+
+        public boolean nameEquals(int i, String name) {
+            int off = headers[i * 4];
+            int len = headers[i * 4 + 1];
+            if (len != name.length()) return false;
+            for (int k = 0; k < len; k++) {
+                int a = frame[off + k] & 0xff;
+                int b = name.charAt(k);
+                if (a == b) continue;
+                int la = a | 0x20;
+                if (la != (b | 0x20) || la < 'a' || la > 'z') return false;
+            }
+            return true;
+        }
+
+        /** 原样写出 "名: 值\r\n"。 */
+        public void writeHeaderLine(int i, OutputStream out) throws IOException {
+            out.write(frame, headers[i * 4], headers[i * 4 + 1]);
+            out.write(':');
+            out.write(' ');
+            out.write(frame, headers[i * 4 + 2], headers[i * 4 + 3]);
+            out.write('\r');
+            out.write('\n');
+        }
+
+        public int bodyLength() {
+            return bodyLength;
+        }
+
+        public void writeBody(OutputStream out) throws IOException {
+            out.write(frame, bodyOffset, bodyLength);
+        }
+
+        public byte[] body() {
+            return Arrays.copyOfRange(frame, bodyOffset, bodyOffset + bodyLength);
+        }
+
+        /** 正文所在的帧数组与区间，供需要零拷贝读取的调用方使用。 */
+        public byte[] frame() {
+            return frame;
+        }
+
+        public int bodyOffset() {
+            return bodyOffset;
+        }
+
+        private int indexOf(String name) {
+            for (int i = 0, n = headerCount(); i < n; i++) {
+                if (nameEquals(i, name)) return i;
+            }
+            return -1;
+        }
+    }
+
+    /** 从响应流中逐帧读取；每帧分配一个字节数组。非线程安全。 */
+    public static final class Reader {
+        private final InputStream in;
+        private final byte[] head = new byte[8];
+        private final int maxFrame;
+
+        public Reader(InputStream in, int maxFrameBytes) {
+            this.in = in;
+            this.maxFrame = maxFrameBytes;
+        }
+
+        /** 下一帧；流在帧边界结束时返回 null，帧被截断时抛 EOFException。 */
+        public Response next() throws IOException {
+            int n = in.readNBytes(head, 0, 8);
+            if (n == 0) return null;
+            if (n < 8) throw new EOFException("Truncated batch frame header");
+            int id = getInt(head, 0);
+            int status = getShort(head, 4);
+            int headerCount = getShort(head, 6);
+            // 头部分长度未知：逐个读长度前缀，写入可增长的帧缓冲
+            byte[] frame = new byte[256];
+            int pos = 0;
+            int[] hdr = new int[headerCount * 4];
+            for (int i = 0; i < headerCount; i++) {
+                for (int part = 0; part < 2; part++) {
+                    frame = grow(frame, pos + 2);
+                    readFully(frame, pos, 2);
+                    int len = getShort(frame, pos);
+                    pos += 2;
+                    frame = grow(frame, pos + len);
+                    readFully(frame, pos, len);
+                    hdr[i * 4 + part * 2] = pos;
+                    hdr[i * 4 + part * 2 + 1] = len;
+                    pos += len;
+                }
+            }
+            frame = grow(frame, pos + 4);
+            readFully(frame, pos, 4);
+            int bodyLength = getInt(frame, pos);
+            pos += 4;
+            if (bodyLength < 0 || (long) pos + bodyLength > maxFrame) {
+                throw new IOException("Batch frame too large: " + bodyLength + " body bytes");
+            }
+            if (frame.length < pos + bodyLength) frame = Arrays.copyOf(frame, pos + bodyLength);
+            readFully(frame, pos, bodyLength);
+            return new Response(id, status, frame, hdr, pos, bodyLength);
+        }
+
+        private void readFully(byte[] b, int off, int len) throws IOException {
+            if (in.readNBytes(b, off, len) != len) throw new EOFException("Truncated batch frame");
+        }
+
+        private byte[] grow(byte[] b, int need) throws IOException {
+            if (need > maxFrame) throw new IOException("Batch frame headers too large");
+            return need <= b.length ? b : Arrays.copyOf(b, Math.max(b.length * 2, need));
+        }
+    }
+
+    /** 解码后的请求（Worker 一侧的视图；Java 侧用于测试与本地桩）。 */
+    public static final class Request {
+        public final int id;
+        public final String method;
+        public final String url;
+        public final List<String[]> headers;
+        public final byte[] body;
+
+        Request(int id, String method, String url, List<String[]> headers, byte[] body) {
+            this.id = id;
+            this.method = method;
+            this.url = url;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    /** 解码一个完整的请求批；格式错误抛 IllegalArgumentException。 */
+    public static List<Request> decodeRequests(byte[] data, int off, int len) {
+        int end = off + len;
+        if (len < 6 || getInt(data, off) != MAGIC) throw new IllegalArgumentException("Not a FlareProx batch");
+        int n = getShort(data, off + 4);
+        int p = off + 6;
+        List<Request> out = new ArrayList<>(n);
+        try {
+            for (int i = 0; i < n; i++) {
+                int id = getInt(data, p);
+                int ml = data[p + 4] & 0xff;
+                p += 5;
+                String method = new String(data, p, ml, StandardCharsets.UTF_8);
+                p += ml;
+                int ul = getShort(data, p);
+                String url = new String(data, p + 2, ul, StandardCharsets.UTF_8);
+                p += 2 + ul;
+                int hc = getShort(data, p);
+                p += 2;
+                List<String[]> headers = new ArrayList<>(hc);
+                for (int j = 0; j < hc; j++) {
+                    int nl = getShort(data, p);
+                    String name = new String(data, p + 2, nl, StandardCharsets.UTF_8);
+                    p += 2 + nl;
+                    int vl = getShort(data, p);
+                    headers.add(new String[] { name, new String(data, p + 2, vl, StandardCharsets.UTF_8) });
+                    p += 2 + vl;
+                }
+                int bl = getInt(data, p);
+                p += 4;
+                if (bl < 0 || p + bl > end) throw new IllegalArgumentException("Truncated batch");
+                out.add(new Request(id, method, url, headers, Arrays.copyOfRange(data, p, p + bl)));
+                p += bl;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated batch");
+        }
+        if (p > end) throw new IllegalArgumentException("Truncated batch");
+        return out;
+    }
+
+    static int getShort(byte[] b, int off) {
+        return (b[off] & 0xff) << 8 | b[off + 1] & 0xff;
+    }
+
+    static int getInt(byte[] b, int off) {
+        return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16 | (b[off + 2] & 0xff) << 8 | b[off + 3] & 0xff;
+    }
+}
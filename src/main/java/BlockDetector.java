@@ -0,0 +1,357 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * 响应分类：OK / THROTTLED / BLOCKED / CAPTCHA，用于区分“端点出口 IP 被目标封禁”与“目标正常返回错误页”。
+ * 依据状态码、响应头特征、正文前缀中的标记、已知封禁页的前缀指纹，以及相对同一主机同一路径前缀正常响应体积的偏差。
+ * 由状态码、响应头或正文标记确认为 BLOCKED/CAPTCHA 的响应自动学习其正文指纹，之后同一封禁页即使没有这些特征也能识别。
+ * 正文只扫描前 prefixLimit 字节，可边转发边喂入（Scan.feed），不缓冲完整响应。
+ * 内置规则全部预编译为数组/哈希查找；额外规则可通过 addRule 插入，在内置规则之后执行。
+ */
+public final class BlockDetector {
+    /** 按严重程度递增排列，多条规则命中时取最严重者。 */
+    public enum Verdict { OK, THROTTLED, BLOCKED, CAPTCHA }
+
+    /** 供自定义规则读取的响应视图；prefix 只在 evaluate 期间有效。 */
+    public static final class Response {
+        public String host;
+        public String path;
+        public int status;
+        public Function<String, String> headers;
+        public byte[] prefix;
+        public int prefixLength;
+        public long bodyLength;
+    }
+
+    @FunctionalInterface
+    public interface Rule {
+        /** 返回 null 表示不适用。 */
+        Verdict evaluate(Response response);
+    }
+
+    /** 正文标记：needle 以小写 ASCII 匹配，status 不低于 minStatus 时才生效。 */
+    private static final class Marker {
+        final byte[] needle;
+        final Verdict verdict;
+        final int minStatus;
+
+        Marker(String needle, Verdict verdict, int minStatus) {
+            this.needle = needle.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+            this.verdict = verdict;
+            this.minStatus = minStatus;
+        }
+    }
+
+    private static final class HeaderSignature {
+        final String name;
+        final String valueNeedle;
+        final Verdict verdict;
+        final int minStatus;
+
+        HeaderSignature(String name, String valueNeedle, Verdict verdict, int minStatus) {
+            this.name = name;
+            this.valueNeedle = valueNeedle == null ? null : valueNeedle.toLowerCase(Locale.ROOT);
+            this.verdict = verdict;
+            this.minStatus = minStatus;
+        }
+    }
+
+    /** 每个主机与路径前缀的正常响应（2xx 且判为 OK）体积的滑动均值。 */
+    private static final class Baseline {
+        double mean;
+        long samples;
+    }
+
+    private static final int BASELINE_MIN_SAMPLES = 20;
+    private static final double BASELINE_ALPHA = 0.05;
+    // 学习到的封禁页指纹上限，超出后不再自动学习
+    private static final int MAX_BLOCK_PAGES = 1024;
+    // 自动学习要求的最短正文前缀，过短的页面指纹容易与正常响应碰撞
+    private static final int MIN_LEARN_LENGTH = 64;
+    private static final int MAX_BASELINES = 4096;
+
+    private final int prefixLimit;
+    private final Verdict[] byStatus = new Verdict[600];
+    private final List<HeaderSignature> headerSignatures = new ArrayList<>();
+    // 按标记首字节分桶，扫描时每个位置只比较首字节相同的标记
+    private final Marker[][] markersByFirstByte = new Marker[128][];
+    // 每个首字节对应标记中最小的 minStatus，扫描时一次数组读取即可跳过当前状态码下不可能命中的位置
+    private final int[] minStatusByFirstByte = new int[128];
+    // 标记前两个字节的位图（128 x 128 位），首字节通过后再用它排除绝大多数误候选
+    private final long[] firstPairs = new long[128 * 128 / 64];
+    private final Map<Long, Verdict> blockPages = new ConcurrentHashMap<>();
+    private final Map<String, Baseline> baselines = new ConcurrentHashMap<>();
+    private final List<Rule> extraRules = new CopyOnWriteArrayList<>();
+    private volatile double shrinkRatio = 0.15;
+
+    public BlockDetector(int prefixLimit) {
+        this.prefixLimit = Math.max(256, prefixLimit);
+        java.util.Arrays.fill(minStatusByFirstByte, Integer.MAX_VALUE);
+    }
+
+    /** 默认规则集：常见 WAF/CDN 的限速、封禁与人机验证特征，正文扫描前 4 KB。 */
+    public static BlockDetector standard() {
+        BlockDetector d = new BlockDetector(4096);
+        d.status(429, Verdict.THROTTLED);
+        d.header("retry-after", null, Verdict.THROTTLED, 429);
+        d.header("cf-mitigated", "challenge", Verdict.CAPTCHA, 0);
+        d.header("x-amzn-waf-action", "captcha", Verdict.CAPTCHA, 0);
+        d.header("x-amzn-waf-action", "challenge", Verdict.CAPTCHA, 0);
+        d.header("x-amzn-waf-action", "block", Verdict.BLOCKED, 400);
+        d.header("x-datadome", null, Verdict.CAPTCHA, 403);
+        d.header("x-sucuri-block", null, Verdict.BLOCKED, 0);
+        d.header("server", "akamaighost", Verdict.BLOCKED, 403);
+        d.marker("g-recaptcha", Verdict.CAPTCHA, 0);
+        d.marker("h-captcha", Verdict.CAPTCHA, 0);
+        d.marker("hcaptcha.com", Verdict.CAPTCHA, 0);
+        d.marker("challenge-platform", Verdict.CAPTCHA, 0);
+        d.marker("cf-chl-", Verdict.CAPTCHA, 0);
+        d.marker("captcha-delivery.com", Verdict.CAPTCHA, 0);
+        d.marker("perimeterx", Verdict.CAPTCHA, 400);
+        d.marker("you have been blocked", Verdict.BLOCKED, 400);
+        d.marker("access denied", Verdict.BLOCKED, 400);
+        d.marker("request blocked", Verdict.BLOCKED, 400);
+        d.marker("the request could not be satisfied", Verdict.BLOCKED, 400);
+        d.marker("error code: 1006", Verdict.BLOCKED, 400);
+        d.marker("error code: 1015", Verdict.THROTTLED, 400);
+        d.marker("rate limit", Verdict.THROTTLED, 400);
+        d.marker("too many requests", Verdict.THROTTLED, 400);
+        return d;
+    }
+
+    public BlockDetector status(int status, Verdict verdict) {
+        if (status >= 0 && status < byStatus.length) byStatus[status] = verdict;
+        return this;
+    }
+
+    /** 响应头特征；valueNeedle 为 null 时只要求头存在。 */
+    public BlockDetector header(String name, String valueNeedle, Verdict verdict, int minStatus) {
+        headerSignatures.add(new HeaderSignature(name, valueNeedle, verdict, minStatus));
+        return this;
+    }
+
+    public BlockDetector marker(String needle, Verdict verdict, int minStatus) {
+        Marker m = new Marker(needle, verdict, minStatus);
+        // 与扫描时相同的折叠方式（| 0x20）建索引，非字母字节可能产生误候选，由逐字节比较排除
+        int b = (m.needle[0] | 0x20) & 0x7f;
+        Marker[] bucket = markersByFirstByte[b];
+        Marker[] next = bucket == null ? new Marker[1] : java.util.Arrays.copyOf(bucket, bucket.length + 1);
+        next[next.length - 1] = m;
+        markersByFirstByte[b] = next;
+        minStatusByFirstByte[b] = Math.min(minStatusByFirstByte[b], m.minStatus);
+        int pair = m.needle.length > 1 ? (b << 7) | ((m.needle[1] | 0x20) & 0x7f) : -1;
+        if (pair < 0) {
+            // 单字节标记：首字节后任意字节都可能命中
+            for (int c = 0; c < 128; c++) firstPairs[((b << 7) | c) >>> 6] |= 1L << c;
+        } else {
+            firstPairs[pair >>> 6] |= 1L << pair;
+        }
+        return this;
+    }
+
+    public BlockDetector addRule(Rule rule) {
+        extraRules.add(rule);
+        return this;
+    }
+
+    /** 正常响应体积低于基线的该比例时视为疑似软封禁（200 但内容被替换）。 */
+    public BlockDetector shrinkRatio(double ratio) {
+        this.shrinkRatio = ratio;
+        return this;
+    }
+
+    /** 记录一个已确认的封禁页：之后正文前缀指纹相同的响应直接判为 BLOCKED。 */
+    public void learnBlockPage(byte[] prefix, int length) {
+        learn(prefix, Math.min(length, prefixLimit), Verdict.BLOCKED);
+    }
+
+    public int learnedBlockPages() {
+        return blockPages.size();
+    }
+
+    private void learn(byte[] prefix, int length, Verdict verdict) {
+        if (blockPages.size() < MAX_BLOCK_PAGES) {
+            blockPages.merge(fingerprint(prefix, length), verdict, BlockDetector::max);
+        }
+    }
+
+    public int prefixLimit() {
+        return prefixLimit;
+    }
+
+    /** 开始一次流式检查；path 为目标 URL 的路径，用于按路径前缀区分体积基线，可为 null。 */
+    public Scan begin(String host, String path, int status, Function<String, String> headers) {
+        return new Scan(host, path, status, headers);
+    }
+
+    /** 已有完整（或已截断）正文前缀时的便捷入口。 */
+    public Verdict classify(String host, String path, int status, Function<String, String> headers, byte[] prefix,
+            int length, long bodyLength) {
+        Scan s = begin(host, path, status, headers);
+        s.feed(prefix, 0, length);
+        return s.finish(bodyLength);
+    }
+
+    /** 一次响应的流式检查：feed 只保留前 prefixLimit 字节，finish 给出结论。非线程安全。 */
+    public final class Scan {
+        private final String host;
+        private final String path;
+        private final int status;
+        private final Function<String, String> headers;
+        private byte[] prefix;
+        private int length;
+
+        Scan(String host, String path, int status, Function<String, String> headers) {
+            this.host = host;
+            this.path = path;
+            this.status = status;
+            this.headers = headers;
+        }
+
+        public void feed(byte[] buf, int off, int len) {
+            int room = prefixLimit - length;
+            if (room <= 0 || len <= 0) return;
+            int n = Math.min(room, len);
+            if (prefix == null) {
+                prefix = new byte[Math.min(prefixLimit, Math.max(n, 1024))];
+            } else if (length + n > prefix.length) {
+                prefix = java.util.Arrays.copyOf(prefix, Math.min(prefixLimit, Math.max(length + n, prefix.length * 2)));
+            }
+            System.arraycopy(buf, off, prefix, length, n);
+            length += n;
+        }
+
+        public boolean wantsMore() {
+            return length < prefixLimit;
+        }
+
+        public Verdict finish(long bodyLength) {
+            return evaluate(this, bodyLength);
+        }
+    }
+
+    private Verdict evaluate(Scan s, long bodyLength) {
+        Verdict v = Verdict.OK;
+        if (s.status >= 0 && s.status < byStatus.length && byStatus[s.status] != null) {
+            v = byStatus[s.status];
+        }
+        for (HeaderSignature h : headerSignatures) {
+            if (s.status < h.minStatus || h.verdict.compareTo(v) <= 0) continue;
+            String value = s.headers.apply(h.name);
+            if (value != null && (h.valueNeedle == null || value.toLowerCase(Locale.ROOT).contains(h.valueNeedle))) {
+                v = h.verdict;
+            }
+        }
+        if (v != Verdict.CAPTCHA && s.length > 0) {
+            v = max(v, scanMarkers(s.prefix, s.length, s.status));
+        }
+        if (s.length > 0) {
+            if (v.compareTo(Verdict.BLOCKED) >= 0) {
+                // 状态码、响应头或标记已确认的封禁页
+                if (s.length >= MIN_LEARN_LENGTH) learn(s.prefix, s.length, v);
+            } else if (!blockPages.isEmpty()) {
+                Verdict known = blockPages.get(fingerprint(s.prefix, s.length));
+                if (known != null) v = known;
+            }
+        }
+        v = max(v, sizeDelta(s.host, s.path, s.status, bodyLength, v));
+        if (!extraRules.isEmpty()) {
+            Response r = new Response();
+            r.host = s.host;
+            r.path = s.path;
+            r.status = s.status;
+            r.headers = s.headers;
+            r.prefix = s.prefix;
+            r.prefixLength = s.length;
+            r.bodyLength = bodyLength;
+            for (Rule rule : extraRules) {
+                Verdict x = rule.evaluate(r);
+                if (x != null) v = max(v, x);
+            }
+        }
+        return v;
+    }
+
+    private Verdict scanMarkers(byte[] buf, int len, int status) {
+        Verdict best = Verdict.OK;
+        int[] gate = minStatusByFirstByte;
+        long[] pairs = firstPairs;
+        for (int i = 0; i < len; i++) {
+            int c = buf[i] | 0x20;
+            if (c < 0 || c >= 128 || status < gate[c]) continue;
+            int pair = (c << 7) | ((i + 1 < len ? buf[i + 1] | 0x20 : 0) & 0x7f);
+            if ((pairs[pair >>> 6] & (1L << pair)) == 0) continue;
+            Marker[] bucket = markersByFirstByte[c];
+            for (Marker m : bucket) {
+                if (status < m.minStatus || m.verdict.compareTo(best) <= 0) continue;
+                if (regionMatchesLower(buf, i, len, m.needle)) {
+                    best = m.verdict;
+                    if (best == Verdict.CAPTCHA) return best;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static boolean regionMatchesLower(byte[] buf, int at, int len, byte[] needle) {
+        if (at + needle.length > len) return false;
+        for (int j = 0; j < needle.length; j++) {
+            int c = buf[at + j];
+            if (c >= 'A' && c <= 'Z') c += 32;
+            if (c != needle[j]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 2xx 响应体积骤降到基线的 shrinkRatio 以下时判为 BLOCKED；OK 的 2xx 响应更新基线。
+     * 基线按主机与路径第一段分开，避免同一主机下大小悬殊的页面（如首页与 API）互相误判。
+     */
+    private Verdict sizeDelta(String host, String path, int status, long bodyLength, Verdict sofar) {
+        if (host == null || bodyLength < 0 || status < 200 || status >= 300) return Verdict.OK;
+        String key = host + pathPrefix(path);
+        Baseline b = baselines.get(key);
+        if (b == null) {
+            if (baselines.size() >= MAX_BASELINES) return Verdict.OK;
+            b = baselines.computeIfAbsent(key, k -> new Baseline());
+        }
+        synchronized (b) {
+            if (sofar == Verdict.OK && b.samples >= BASELINE_MIN_SAMPLES && bodyLength < b.mean * shrinkRatio) {
+                return Verdict.BLOCKED;
+            }
+            if (sofar == Verdict.OK) {
+                b.mean = b.samples == 0 ? bodyLength : b.mean + BASELINE_ALPHA * (bodyLength - b.mean);
+                b.samples++;
+            }
+        }
+        return Verdict.OK;
+    }
+
+    // 路径的第一段，如 /api/users?id=1 -> /api；无路径时为 /
+    static String pathPrefix(String path) {
+        if (path == null || path.length() <= 1 || path.charAt(0) != '/') return "/";
+        int end = 1;
+        while (end < path.length() && path.charAt(end) != '/' && path.charAt(end) != '?') end++;
+        return path.substring(0, end);
+    }
+
+    // FNV-1a 64 位指纹
+    static long fingerprint(byte[] buf, int len) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < len; i++) {
+            h ^= buf[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static Verdict max(Verdict a, Verdict b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+}
@@ -0,0 +1,243 @@
+import burp.api.montoya.MontoyaApi;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * 一个账户的 Cloudflare API 调用守卫：按操作类型（上传、子域、列表与其他读取、删除）各一个熔断器，外加账户共享的请求预算。
+ * <p>
+ * 熔断器在连续 FAILURE_THRESHOLD 次 5xx/429/超时/连接失败后打开，打开期间该类调用立即失败，不再占用线程等待超时；
+ * 冷却结束后进入半开，只放行一个试探调用，成功则关闭，失败则重新打开且冷却加倍（至多 MAX_OPEN_MILLIS）。
+ * 请求预算为令牌桶（Cloudflare 限额为每用户 5 分钟 1200 次，即 4 次/秒）：后台任务只能使用保留量以上的令牌，
+ * 保证对账、滚动升级等批量任务不会让界面上的操作排队；收到 429 时清空令牌。
+ * 状态变化时回调 onChange，供界面显示。
+ */
+public final class CloudflareApiGuard {
+    public enum Operation { UPLOAD, SUBDOMAIN, LIST, DELETE }
+
+    public enum Priority { INTERACTIVE, BACKGROUND }
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_MILLIS = 30_000;
+    static final long MAX_OPEN_MILLIS = 300_000;
+    static final double TOKENS_PER_SECOND = 4.0;
+    static final double BUCKET_SIZE = 40;
+    // 后台任务不能动用的令牌数
+    static final double INTERACTIVE_RESERVE = 10;
+    static final long INTERACTIVE_WAIT_MILLIS = 10_000;
+    static final long BACKGROUND_WAIT_MILLIS = 120_000;
+
+    /** 一类操作的熔断器；所有字段在 guard 锁内访问。 */
+    static final class Breaker {
+        State state = State.CLOSED;
+        int consecutiveFailures;
+        long openedAtNanos;
+        long openMillis = OPEN_MILLIS;
+        boolean trialInFlight;
+    }
+
+    /** 一次获准的调用，结束后必须以 success、failure 或 abandon 回报。 */
+    public final class Permit {
+        private final Operation op;
+        private final boolean trial;
+
+        Permit(Operation op, boolean trial) {
+            this.op = op;
+            this.trial = trial;
+        }
+
+        /** API 有正常应答（包括 4xx 等业务错误）。 */
+        public void success() {
+            finish(op, trial, false, false);
+        }
+
+        /** rateLimited 为 429；其他计入熔断的失败为 5xx、超时与连接失败。 */
+        public void failure(boolean rateLimited) {
+            finish(op, trial, true, rateLimited);
+        }
+
+        /** 调用未完成（中断等），不计入熔断，只释放半开试探的名额。 */
+        public void abandon() {
+            if (trial) releaseTrial(op);
+        }
+    }
+
+    private final MontoyaApi api;
+    private final LongSupplier nanoClock;
+    private final Map<Operation, Breaker> breakers = new EnumMap<>(Operation.class);
+    private double tokens = BUCKET_SIZE;
+    private long refilledAtNanos;
+    private volatile Consumer<CloudflareApiGuard> onChange = g -> {};
+
+    public CloudflareApiGuard(MontoyaApi api) {
+        this(api, System::nanoTime);
+    }
+
+    CloudflareApiGuard(MontoyaApi api, LongSupplier nanoClock) {
+        this.api = api;
+        this.nanoClock = nanoClock;
+        this.refilledAtNanos = nanoClock.getAsLong();
+        for (Operation op : Operation.values()) breakers.put(op, new Breaker());
+    }
+
+    public CloudflareApiGuard onChange(Consumer<CloudflareApiGuard> listener) {
+        this.onChange = listener == null ? g -> {} : listener;
+        return this;
+    }
+
+    /**
+     * 取得一次调用的许可：熔断器打开（或半开且已有试探在进行）时立即抛出 FlareProxException；
+     * 否则按优先级等待预算令牌，超过等待上限同样抛出。
+     */
+    public Permit acquire(Operation op, Priority priority) throws InterruptedException {
+        boolean trial = admit(op);
+        long deadline = nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(
+                priority == Priority.INTERACTIVE ? INTERACTIVE_WAIT_MILLIS : BACKGROUND_WAIT_MILLIS);
+        double floor = priority == Priority.INTERACTIVE ? 0 : INTERACTIVE_RESERVE;
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (tokens - floor >= 1) {
+                    tokens--;
+                    return new Permit(op, trial);
+                }
+                waitNanos = (long) ((floor + 1 - tokens) / TOKENS_PER_SECOND * 1e9);
+            }
+            long now = nanoClock.getAsLong();
+            if (now + waitNanos > deadline) {
+                if (trial) releaseTrial(op);
+                throw new FlareProx.FlareProxException("Cloudflare API request budget exhausted for "
+                        + (priority == Priority.INTERACTIVE ? "interactive" : "background")
+                        + " calls; try again shortly");
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.max(1_000_000, waitNanos));
+            } catch (InterruptedException e) {
+                if (trial) releaseTrial(op);
+                throw e;
+            }
+        }
+    }
+
+    private synchronized void releaseTrial(Operation op) {
+        breakers.get(op).trialInFlight = false;
+    }
+
+    // 熔断检查；返回本次调用是否为半开状态下的试探
+    private boolean admit(Operation op) {
+        boolean changed = false;
+        try {
+            synchronized (this) {
+                Breaker b = breakers.get(op);
+                if (b.state == State.OPEN) {
+                    long remaining = remainingMillis(b);
+                    if (remaining > 0) {
+                        throw new FlareProx.FlareProxException("Cloudflare API " + label(op)
+                                + " calls paused after repeated failures; retrying in " + (remaining + 999) / 1000
+                                + " s");
+                    }
+                    b.state = State.HALF_OPEN;
+                    changed = true;
+                }
+                if (b.state == State.HALF_OPEN) {
+                    if (b.trialInFlight) {
+                        throw new FlareProx.FlareProxException("Cloudflare API " + label(op)
+                                + " calls paused; a trial call is in progress");
+                    }
+                    b.trialInFlight = true;
+                    return true;
+                }
+                return false;
+            }
+        } finally {
+            if (changed) onChange.accept(this);
+        }
+    }
+
+    private void finish(Operation op, boolean trial, boolean failed, boolean rateLimited) {
+        String transition = null;
+        synchronized (this) {
+            Breaker b = breakers.get(op);
+            if (trial) b.trialInFlight = false;
+            if (rateLimited) tokens = Math.min(tokens, 0);
+            if (!failed) {
+                b.consecutiveFailures = 0;
+                if (b.state != State.CLOSED) {
+                    b.state = State.CLOSED;
+                    b.openMillis = OPEN_MILLIS;
+                    transition = "closed";
+                }
+            } else {
+                b.consecutiveFailures++;
+                if (b.state == State.HALF_OPEN && trial) {
+                    b.openMillis = Math.min(MAX_OPEN_MILLIS, b.openMillis * 2);
+                    open(b);
+                    transition = "reopened for " + b.openMillis / 1000 + " s";
+                } else if (b.state == State.CLOSED && b.consecutiveFailures >= FAILURE_THRESHOLD) {
+                    open(b);
+                    transition = "opened for " + b.openMillis / 1000 + " s after " + b.consecutiveFailures
+                            + " consecutive failures";
+                }
+            }
+        }
+        if (transition != null) {
+            api.logging().logToOutput("[CF] " + label(op) + " circuit " + transition);
+            onChange.accept(this);
+        }
+    }
+
+    private void open(Breaker b) {
+        b.state = State.OPEN;
+        b.openedAtNanos = nanoClock.getAsLong();
+    }
+
+    private long remainingMillis(Breaker b) {
+        return b.openMillis - TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - b.openedAtNanos);
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        tokens = Math.min(BUCKET_SIZE, tokens + (now - refilledAtNanos) / 1e9 * TOKENS_PER_SECOND);
+        refilledAtNanos = now;
+    }
+
+    public synchronized State state(Operation op) {
+        Breaker b = breakers.get(op);
+        if (b.state == State.OPEN && remainingMillis(b) <= 0) {
+            return State.HALF_OPEN;
+        }
+        return b.state;
+    }
+
+    public synchronized double tokens() {
+        refill();
+        return tokens;
+    }
+
+    /** 非关闭状态的熔断器与剩余预算，如 "upload open 25 s, list half-open; budget 12/40"；全部关闭时只有预算。 */
+    public synchronized String describe() {
+        List<String> parts = new ArrayList<>();
+        for (Operation op : Operation.values()) {
+            Breaker b = breakers.get(op);
+            State s = state(op);
+            if (s == State.OPEN) {
+                parts.add(label(op) + " open " + (remainingMillis(b) + 999) / 1000 + " s");
+            } else if (s == State.HALF_OPEN) {
+                parts.add(label(op) + " half-open");
+            }
+        }
+        String budget = String.format("budget %.0f/%.0f", Math.max(0, tokens()), BUCKET_SIZE);
+        return parts.isEmpty() ? budget : String.join(", ", parts) + "; " + budget;
+    }
+
+    private static String label(Operation op) {
+        return op.name().toLowerCase(java.util.Locale.ROOT);
+    }
+}
@@ -3,6 +3,21 @@ import java.util.List;
 public interface CloudflareService {
     FlareProx.Endpoint createDeployment() throws FlareProx.FlareProxException;
 
+    // 部署的分阶段接口，供 DeploymentPipeline 将各阶段重叠执行
+    String newScriptName() throws FlareProx.FlareProxException;
+
+    // 返回已上传脚本的内容哈希
+    String uploadScript(String name) throws FlareProx.FlareProxException;
+
+    // 滚动升级时用于回滚：下载现有脚本内容并可原样重新上传
+    String downloadScript(String name) throws FlareProx.FlareProxException;
+
+    void restoreScript(String name, String script) throws FlareProx.FlareProxException;
+
+    void enableSubdomain(String name);
+
+    String workersDevUrl(String name) throws FlareProx.FlareProxException;
+
     void syncEndpoints();
 
     void deleteEndpoints(List<FlareProx.Endpoint> endpoints);
@@ -10,4 +25,4 @@ public interface CloudflareService {
     List<FlareProx.Endpoint> listEndpoints();
 
     void cleanupAll();
-}
\ No newline at end of file
+}
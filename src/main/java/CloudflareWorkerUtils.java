@@ -1,32 +1,26 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
 public final class CloudflareWorkerUtils {
     private CloudflareWorkerUtils() {}
 
     public static String getWorkerScript() {
-        return "const ALLOWED=['accept','accept-language','accept-encoding','authorization','cache-control','content-type','origin','referer','user-agent'];"
-                + "addEventListener('fetch',e=>e.respondWith(handle(e.request)));" +
-                "async function handle(req){" +
-                "  const u=new URL(req.url);" +
-                "  let t=u.searchParams.get('url')||req.headers.get('X-Target-URL')||((u.pathname!=='/'&&u.pathname.slice(1).startsWith('http'))?u.pathname.slice(1):null);"
-                + "  if(!t) return json({error:'No target URL', usage:{query:'?url=https://example.com', header:'X-Target-URL', path:'/https://example.com'}},400);"
-                + "  try{ new URL(t);}catch(e){ return json({error:'Invalid target URL', provided:t},400);}" +
-                "  const ps=new URLSearchParams(); for(const [k,v] of u.searchParams){ if(!['url','_cb','_t'].includes(k)) ps.append(k,v); }"
-                + "  const T=new URL(t); if(ps.toString()) T.search=ps.toString();" +
-                "  const h=new Headers(); for(const [k,v] of req.headers){ if(ALLOWED.includes(k.toLowerCase())) h.set(k,v);} h.set('Host',T.hostname);"
-                + "  ['x-forwarded-for','x-real-ip','true-client-ip','cf-connecting-ip','forwarded','x-client-ip','x-cluster-client-ip','x-original-forwarded-for'].forEach(hn=>h.delete(hn));"
-                + "  h.set('X-Forwarded-For',[1,2,3,4].map(()=>Math.floor(Math.random()*255)+1).join('.')); const proto=T.protocol.replace(':',''); h.set('Forwarded','for=\"0.0.0.0\";proto='+proto);"
-                + "  const prox=new Request(T.toString(),{method:req.method, headers:h, body:['GET','HEAD'].includes(req.method)?null:req.body});"
-                + "  const r=await fetch(prox); const rh=new Headers(); for(const [k,v] of r.headers){ if(!['content-encoding','content-length','transfer-encoding'].includes(k.toLowerCase())) rh.set(k,v); }"
-                + "  rh.set('Access-Control-Allow-Origin','*'); rh.set('Access-Control-Allow-Methods','GET, POST, PUT, DELETE, OPTIONS, PATCH, HEAD'); rh.set('Access-Control-Allow-Headers','*');"
-                + "  if(req.method==='OPTIONS') return new Response(null,{status:204,headers:rh});" +
-                "  return new Response(r.body,{status:r.status,statusText:r.statusText,headers:rh});" +
-                "}" +
-                "function json(obj,status){ return new Response(JSON.stringify(obj),{status,headers:{'Content-Type':'application/json'}}); }";
+        return WorkerScriptTemplate.render(WorkerScriptTemplate.Options.standard()).script;
     }
 
     public static String getClassicWorkerScript() {
-        return "addEventListener('fetch',e=>e.respondWith(handleRequest(e.request)));" +
-                "function json(o,s){return new Response(JSON.stringify(o),{status:s,headers:{'Content-Type':'application/json'}})}"
-                + "async function handleRequest(req){const u=new URL(req.url);let t=u.searchParams.get('url')||req.headers.get('X-Target-URL')||((u.pathname!=='/'&&u.pathname.slice(1).startsWith('http'))?u.pathname.slice(1):null);if(!t)return json({error:'No target URL'},400);try{new URL(t);}catch(e){return json({error:'Invalid target URL',provided:t},400);}const ps=new URLSearchParams();for(const[k,v]of u.searchParams){if(!['url','_cb','_t'].includes(k))ps.append(k,v);}const T=new URL(t);if(ps.toString())T.search=ps.toString();const h=new Headers();for(const[k,v]of req.headers){h.set(k,v);}h.set('Host',T.hostname);const prox=new Request(T.toString(),{method:req.method,headers:h,body:['GET','HEAD'].includes(req.method)?null:req.body});const r=await fetch(prox);const rh=new Headers();for(const[k,v]of r.headers){if(!['content-encoding','content-length','transfer-encoding'].includes(k.toLowerCase()))rh.set(k,v);}rh.set('Access-Control-Allow-Origin','*');rh.set('Access-Control-Allow-Methods','GET, POST, PUT, DELETE, OPTIONS, PATCH, HEAD');rh.set('Access-Control-Allow-Headers','*');if(req.method==='OPTIONS')return new Response(null,{status:204,headers:rh});return new Response(r.body,{status:r.status,statusText:r.statusText,headers:rh});}";
+        return WorkerScriptTemplate.render(WorkerScriptTemplate.Options.classic()).script;
+    }
+
+    // 上传元数据，tags 中携带脚本内容哈希
+    public static String moduleMetadata(WorkerScriptTemplate.Rendered rendered) {
+        return "{\"main_module\":\"worker.js\",\"compatibility_date\":\"2024-07-01\",\"tags\":[\"flareprox\",\""
+                + rendered.tag() + "\"]}";
+    }
+
+    public static String classicMetadata(WorkerScriptTemplate.Rendered rendered) {
+        return "{\"body_part\":\"script\",\"compatibility_date\":\"2024-07-01\",\"tags\":[\"flareprox\",\""
+                + rendered.tag() + "\"]}";
     }
 
     public static String buildMultipart(String boundary, String metadataJson, String filename, String contentType,
@@ -45,4 +39,22 @@ public final class CloudflareWorkerUtils {
         sb.append("--").append(boundary).append("--\r\n");
         return sb.toString();
     }
-}
\ No newline at end of file
+
+    // 与 buildMultipart 结构相同，但直接拼接已编码好的脚本字节，避免重复编码
+    public static byte[] buildMultipartBytes(String boundary, String metadataJson, String filename, String contentType,
+                                             byte[] script, String fieldName) {
+        String head = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"metadata\"\r\n"
+                + "Content-Type: application/json\r\n\r\n"
+                + metadataJson + "\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: " + contentType + "\r\n\r\n";
+        String tail = "\r\n--" + boundary + "--\r\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream(head.length() + script.length + tail.length());
+        out.writeBytes(head.getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(script);
+        out.writeBytes(tail.getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+}
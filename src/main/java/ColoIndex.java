@@ -0,0 +1,183 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * 机房（colo）索引：从 Worker 响应的 CF-Ray 头（如 "8c1f0e2bda1e4c21-LHR"）被动提取服务机房，
+ * 维护端点 -> 最近机房，以及按机房聚合的请求数与延迟 EWMA；带目标主机的样本另按 (目标主机, 机房) 聚合，
+ * 因为到不同目标站点最快的机房并不相同。不发额外探测。
+ * 三字母机房代码映射到预分配的规范字符串，热路径上解析不分配对象。
+ */
+public final class ColoIndex {
+    private static final int CODES = 26 * 26 * 26;
+    private static final AtomicReferenceArray<String> CANONICAL = new AtomicReferenceArray<>(CODES);
+    private static final double ALPHA = 0.2;
+    // 按目标主机统计的上限，超出后新主机只计入全局统计
+    private static final int MAX_TARGET_HOSTS = 256;
+
+    public static final class Stats {
+        public final String colo;
+        final LongAdder requests = new LongAdder();
+        final AtomicLong ewmaMicros = new AtomicLong();
+
+        Stats(String colo) {
+            this.colo = colo;
+        }
+
+        public long requests() {
+            return requests.sum();
+        }
+
+        /** 延迟 EWMA（毫秒）；无样本为 0。 */
+        public double ewmaMillis() {
+            return ewmaMicros.get() / 1000.0;
+        }
+    }
+
+    private final Map<String, String> byEndpoint = new ConcurrentHashMap<>();
+    private final Map<String, Stats> byColo = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Stats>> byTargetHost = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private volatile BiConsumer<String, String> listener;
+
+    /** 端点的机房发生变化（含首次观测到）时回调 (endpointName, colo)，在观测线程上执行。 */
+    public void setListener(BiConsumer<String, String> listener) {
+        this.listener = listener;
+    }
+
+    /** 从 CF-Ray 值中取出机房代码；格式不符返回 null。 */
+    public static String coloOf(String ray) {
+        if (ray == null) return null;
+        int end = ray.length();
+        while (end > 0 && ray.charAt(end - 1) == ' ') end--;
+        int dash = ray.lastIndexOf('-', end - 1);
+        if (dash < 0) return null;
+        int len = end - dash - 1;
+        if (len < 3 || len > 4) return null;
+        int key = 0;
+        for (int i = dash + 1; i < end; i++) {
+            char c = ray.charAt(i);
+            if (c < 'A' || c > 'Z') return null;
+            key = key * 26 + (c - 'A');
+        }
+        if (len == 4) return ray.substring(dash + 1, end);
+        String s = CANONICAL.get(key);
+        if (s == null) {
+            CANONICAL.compareAndSet(key, null, ray.substring(dash + 1, end));
+            s = CANONICAL.get(key);
+        }
+        return s;
+    }
+
+    /** 记录一次经端点的响应；ray 为 CF-Ray 头，latencyNanos < 0 表示只更新机房不计延迟。 */
+    public void record(String endpointName, String ray, long latencyNanos) {
+        record(endpointName, null, ray, latencyNanos);
+    }
+
+    /** 同上；targetHost 非空时延迟同时计入该目标主机的按机房统计。 */
+    public void record(String endpointName, String targetHost, String ray, long latencyNanos) {
+        String colo = coloOf(ray);
+        if (colo == null) return;
+        String old = byEndpoint.put(endpointName, colo);
+        Stats s = byColo.get(colo);
+        if (s == null) s = byColo.computeIfAbsent(colo, Stats::new);
+        sample(s, latencyNanos);
+        if (targetHost != null && !targetHost.isEmpty() && latencyNanos >= 0) {
+            Map<String, Stats> perColo = byTargetHost.get(targetHost);
+            if (perColo == null && byTargetHost.size() < MAX_TARGET_HOSTS) {
+                perColo = byTargetHost.computeIfAbsent(targetHost, k -> new ConcurrentHashMap<>());
+            }
+            if (perColo != null) sample(perColo.computeIfAbsent(colo, Stats::new), latencyNanos);
+        }
+        if (!colo.equals(old)) {
+            version.incrementAndGet();
+            BiConsumer<String, String> l = listener;
+            if (l != null) l.accept(endpointName, colo);
+        }
+    }
+
+    private static void sample(Stats s, long latencyNanos) {
+        s.requests.increment();
+        if (latencyNanos >= 0) {
+            long micros = Math.max(1, latencyNanos / 1_000);
+            long cur = s.ewmaMicros.get();
+            // 竞争时丢弃本样本即可，EWMA 对个别样本不敏感
+            s.ewmaMicros.compareAndSet(cur, cur == 0 ? micros : cur + Math.round((micros - cur) * ALPHA));
+        }
+    }
+
+    /** 端点最近一次观测到的机房；未观测到返回 null。 */
+    public String coloOfEndpoint(String endpointName) {
+        return byEndpoint.get(endpointName);
+    }
+
+    public void remove(String endpointName) {
+        if (byEndpoint.remove(endpointName) != null) version.incrementAndGet();
+    }
+
+    public void clear() {
+        byEndpoint.clear();
+        byColo.clear();
+        byTargetHost.clear();
+        version.incrementAndGet();
+    }
+
+    /** 端点与机房的对应关系每次变化递增，选择器据此判断分组缓存是否失效。 */
+    public long version() {
+        return version.get();
+    }
+
+    /** 当前有端点的机房，按延迟 EWMA 升序（无延迟样本的排在最后）。 */
+    public List<Stats> ranked() {
+        return ranked(byColo);
+    }
+
+    /** 按到该目标主机的延迟排序；该主机尚无样本（或为 null）时同 ranked()。 */
+    public List<Stats> ranked(String targetHost) {
+        Map<String, Stats> perColo = targetHost == null ? null : byTargetHost.get(targetHost);
+        return perColo == null || perColo.isEmpty() ? ranked(byColo) : ranked(perColo);
+    }
+
+    private List<Stats> ranked(Map<String, Stats> stats) {
+        Set<String> live = new HashSet<>(byEndpoint.values());
+        List<Stats> out = new ArrayList<>();
+        for (Stats s : stats.values()) {
+            if (live.contains(s.colo)) out.add(s);
+        }
+        out.sort(Comparator.comparingLong((Stats s) -> s.ewmaMicros.get() == 0 ? Long.MAX_VALUE : s.ewmaMicros.get())
+                .thenComparing(s -> s.colo));
+        return out;
+    }
+
+    public List<String> endpointsIn(String colo) {
+        List<String> out = new ArrayList<>();
+        for (Map.Entry<String, String> e : byEndpoint.entrySet()) {
+            if (e.getValue().equals(colo)) out.add(e.getKey());
+        }
+        return out;
+    }
+
+    /** 例如 "Colos: 4 (LHR 23 ms x12, FRA 31 ms x8, ...)"。 */
+    public String describe() {
+        List<Stats> ranked = ranked();
+        if (ranked.isEmpty()) return "Colos: none observed";
+        StringBuilder sb = new StringBuilder("Colos: ").append(ranked.size()).append(" (");
+        int shown = Math.min(5, ranked.size());
+        for (int i = 0; i < shown; i++) {
+            Stats s = ranked.get(i);
+            if (i > 0) sb.append(", ");
+            sb.append(s.colo).append(' ').append(Math.round(s.ewmaMillis())).append(" ms x")
+                    .append(endpointsIn(s.colo).size());
+        }
+        if (ranked.size() > shown) sb.append(", ...");
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按机房的轮换，两种模式：
+ * SPREAD 先在不同机房之间轮转、再在机房内部轮转，使连续请求分散到不同机房；
+ * FASTEST 只在到该目标主机延迟 EWMA 最低的若干机房的端点间轮转（目标主机无样本时按全局延迟），
+ * 无可用端点时退回全部候选；另有 EXPLORE_RATE 的请求随机发往任一候选，
+ * 使未观测到机房的端点与当前较慢的机房也能得到（重新）测量，不会被永久冷落。
+ * 未观测到机房的端点在 SPREAD 中各自视为独立机房。
+ */
+public final class ColoSelector implements EndpointSelector {
+    public enum Mode { SPREAD, FASTEST }
+
+    // 排名随延迟变化，FASTEST 模式下分组最多缓存这么久
+    private static final long RERANK_NANOS = 2_000_000_000L;
+    static final double EXPLORE_RATE = 0.05;
+    // FASTEST 模式按目标主机缓存分组的上限，超出时整体清空
+    private static final int MAX_CACHED_HOSTS = 256;
+
+    private static final class Groups {
+        final List<FlareProx.Endpoint> source;
+        final long indexVersion;
+        final long builtAt;
+        final FlareProx.Endpoint[][] groups;
+        final AtomicLong[] inner;
+
+        Groups(List<FlareProx.Endpoint> source, long indexVersion, long builtAt, FlareProx.Endpoint[][] groups) {
+            this.source = source;
+            this.indexVersion = indexVersion;
+            this.builtAt = builtAt;
+            this.groups = groups;
+            this.inner = new AtomicLong[groups.length];
+            for (int i = 0; i < inner.length; i++) inner[i] = new AtomicLong();
+        }
+    }
+
+    private final ColoIndex index;
+    private final Mode mode;
+    private final int fastest;
+    private final AtomicLong outer = new AtomicLong();
+    private volatile Groups groups;
+    private final Map<String, Groups> fastestByHost = new ConcurrentHashMap<>();
+
+    /** fastest 为 FASTEST 模式下保留的机房数，SPREAD 模式忽略。 */
+    public ColoSelector(ColoIndex index, Mode mode, int fastest) {
+        this.index = index;
+        this.mode = mode;
+        this.fastest = Math.max(1, fastest);
+    }
+
+    @Override
+    public FlareProx.Endpoint select(List<FlareProx.Endpoint> candidates) {
+        return select(candidates, null);
+    }
+
+    @Override
+    public FlareProx.Endpoint select(List<FlareProx.Endpoint> candidates, String targetHost) {
+        if (candidates.isEmpty()) return null;
+        long v = index.version();
+        long now = System.nanoTime();
+        Groups g;
+        if (mode == Mode.SPREAD) {
+            g = groups;
+            // 候选列表来自 EndpointPool 的不可变快照，引用相同即内容相同
+            if (g == null || g.source != candidates || g.indexVersion != v) {
+                g = spread(candidates, v, now);
+                groups = g;
+            }
+        } else {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            if (candidates.size() > 1 && rnd.nextDouble() < EXPLORE_RATE) {
+                return candidates.get(rnd.nextInt(candidates.size()));
+            }
+            String key = targetHost == null ? "" : targetHost;
+            g = fastestByHost.get(key);
+            if (g == null || g.source != candidates || g.indexVersion != v || now - g.builtAt > RERANK_NANOS) {
+                g = fastest(candidates, v, now, targetHost);
+                if (fastestByHost.size() >= MAX_CACHED_HOSTS) fastestByHost.clear();
+                fastestByHost.put(key, g);
+            }
+        }
+        int gi = g.groups.length == 1 ? 0 : (int) Math.floorMod(outer.getAndIncrement(), (long) g.groups.length);
+        FlareProx.Endpoint[] members = g.groups[gi];
+        return members[(int) Math.floorMod(g.inner[gi].getAndIncrement(), (long) members.length)];
+    }
+
+    private Groups spread(List<FlareProx.Endpoint> candidates, long version, long now) {
+        Map<String, List<FlareProx.Endpoint>> byColo = new LinkedHashMap<>();
+        for (FlareProx.Endpoint ep : candidates) {
+            String colo = index.coloOfEndpoint(ep.name);
+            byColo.computeIfAbsent(colo == null ? "?" + ep.name : colo, k -> new ArrayList<>()).add(ep);
+        }
+        FlareProx.Endpoint[][] arr = new FlareProx.Endpoint[byColo.size()][];
+        int i = 0;
+        for (List<FlareProx.Endpoint> members : byColo.values()) {
+            arr[i++] = members.toArray(new FlareProx.Endpoint[0]);
+        }
+        return new Groups(candidates, version, now, arr);
+    }
+
+    private Groups fastest(List<FlareProx.Endpoint> candidates, long version, long now, String targetHost) {
+        Set<String> keep = new HashSet<>();
+        Set<String> present = new HashSet<>();
+        for (FlareProx.Endpoint ep : candidates) {
+            String colo = index.coloOfEndpoint(ep.name);
+            if (colo != null) present.add(colo);
+        }
+        for (ColoIndex.Stats s : index.ranked(targetHost)) {
+            if (keep.size() >= fastest) break;
+            if (present.contains(s.colo) && s.ewmaMillis() > 0) keep.add(s.colo);
+        }
+        List<FlareProx.Endpoint> members = new ArrayList<>();
+        for (FlareProx.Endpoint ep : candidates) {
+            if (keep.contains(index.coloOfEndpoint(ep.name))) members.add(ep);
+        }
+        FlareProx.Endpoint[] arr = (members.isEmpty() ? candidates : members).toArray(new FlareProx.Endpoint[0]);
+        return new Groups(candidates, version, now, new FlareProx.Endpoint[][] { arr });
+    }
+}
@@ -0,0 +1,193 @@
+import burp.api.montoya.MontoyaApi;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 分阶段部署流水线：上传脚本 -> 启用 subdomain -> 就绪检查。
+ * 每个阶段有独立的线程池，后一个 Worker 的上传与前面 Worker 的启用/就绪检查重叠执行；
+ * 只有就绪检查通过的端点才会回调 onReady 并计入 created。
+ */
+public class DeploymentPipeline {
+    public enum Stage { UPLOAD, ENABLE, READY }
+
+    public static final class StageStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long count() {
+            return count.get();
+        }
+
+        public long avgMillis() {
+            long c = count.get();
+            return c == 0 ? 0 : totalNanos.get() / c / 1_000_000L;
+        }
+
+        public long maxMillis() {
+            return maxNanos.get() / 1_000_000L;
+        }
+    }
+
+    private final CloudflareService cloudflare;
+    private final ReadinessCheck readiness;
+    private final MontoyaApi api;
+    private final Map<Stage, StageStats> stats = new EnumMap<>(Stage.class);
+    private int uploadConcurrency = 2;
+    private int enableConcurrency = 2;
+    private int readyConcurrency = 4;
+    private long readyTimeoutMs = 60_000;
+    private long readyPollMs = 1_000;
+
+    public DeploymentPipeline(CloudflareService cloudflare, ReadinessCheck readiness, MontoyaApi api) {
+        this.cloudflare = cloudflare;
+        this.readiness = readiness;
+        this.api = api;
+        for (Stage s : Stage.values()) {
+            stats.put(s, new StageStats());
+        }
+    }
+
+    public DeploymentPipeline withConcurrency(int upload, int enable, int ready) {
+        this.uploadConcurrency = Math.max(1, upload);
+        this.enableConcurrency = Math.max(1, enable);
+        this.readyConcurrency = Math.max(1, ready);
+        return this;
+    }
+
+    public DeploymentPipeline withReadyTimeout(long timeoutMs, long pollMs) {
+        this.readyTimeoutMs = timeoutMs;
+        this.readyPollMs = Math.max(50, pollMs);
+        return this;
+    }
+
+    public StageStats stats(Stage stage) {
+        return stats.get(stage);
+    }
+
+    public FlareProx.Result deploy(int count, Consumer<FlareProx.Endpoint> onReady) {
+        FlareProx.Result results = new FlareProx.Result();
+        ExecutorService uploadExec = Executors.newFixedThreadPool(uploadConcurrency);
+        ExecutorService enableExec = Executors.newFixedThreadPool(enableConcurrency);
+        ExecutorService readyExec = Executors.newFixedThreadPool(readyConcurrency);
+        try {
+            // 收集 whenComplete 返回的 future：allOf 结束时所有结果已记录、onReady 均已返回
+            List<CompletableFuture<FlareProx.Endpoint>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final int n = i + 1;
+                CompletableFuture<FlareProx.Endpoint> f = CompletableFuture
+                        .supplyAsync(() -> timed(Stage.UPLOAD, () -> {
+                            String name = cloudflare.newScriptName();
+                            String hash = cloudflare.uploadScript(name);
+                            return new FlareProx.Endpoint(name, "", hash);
+                        }), uploadExec)
+                        .thenApplyAsync(up -> timed(Stage.ENABLE, () -> {
+                            cloudflare.enableSubdomain(up.name);
+                            return new FlareProx.Endpoint(up.name, cloudflare.workersDevUrl(up.name), up.scriptHash);
+                        }), enableExec)
+                        .thenApplyAsync(ep -> timed(Stage.READY, () -> awaitReady(ep)), readyExec);
+                futures.add(f.whenComplete((ep, err) -> {
+                    synchronized (results) {
+                        if (err == null) {
+                            results.created.add(ep);
+                            api.logging().logToOutput("  [" + n + "/" + count + "] " + ep.name + " -> " + ep.url);
+                        } else {
+                            Throwable cause = err instanceof CompletionException && err.getCause() != null
+                                    ? err.getCause() : err;
+                            api.logging().logToOutput("  Failed to create endpoint " + n + ": " + cause.getMessage());
+                            if (cause instanceof NotReadyException) {
+                                results.unready.add(((NotReadyException) cause).endpoint);
+                            }
+                            results.failed += 1;
+                        }
+                    }
+                    if (err == null && onReady != null) {
+                        onReady.accept(ep);
+                    }
+                }));
+            }
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException ignore) {
+                // 单个端点的失败已在 whenComplete 中计数；onReady 抛出的异常不影响其余端点
+            }
+        } finally {
+            uploadExec.shutdownNow();
+            enableExec.shutdownNow();
+            readyExec.shutdownNow();
+        }
+        api.logging().logToOutput("[Deploy] Stage timings: " + describeStats());
+        return results;
+    }
+
+    public String describeStats() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage s : Stage.values()) {
+            StageStats st = stats.get(s);
+            if (sb.length() > 0) sb.append("; ");
+            sb.append(s.name().toLowerCase()).append(" n=").append(st.count())
+                    .append(" avg=").append(st.avgMillis()).append("ms")
+                    .append(" max=").append(st.maxMillis()).append("ms");
+        }
+        return sb.toString();
+    }
+
+    private FlareProx.Endpoint awaitReady(FlareProx.Endpoint ep) {
+        long deadline = System.currentTimeMillis() + readyTimeoutMs;
+        long delay = Math.min(500, readyPollMs);
+        while (true) {
+            try {
+                if (readiness.isReady(ep)) {
+                    return ep;
+                }
+            } catch (Exception ex) {
+                // DNS/TLS 尚未传播时会抛出异常，视为未就绪继续轮询
+            }
+            if (System.currentTimeMillis() + delay > deadline) {
+                throw new NotReadyException(ep, readyTimeoutMs);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new NotReadyException(ep, readyTimeoutMs);
+            }
+            delay = Math.min(readyPollMs, delay * 2);
+        }
+    }
+
+    private FlareProx.Endpoint timed(Stage stage, java.util.function.Supplier<FlareProx.Endpoint> work) {
+        long start = System.nanoTime();
+        FlareProx.Endpoint ep = null;
+        try {
+            ep = work.get();
+            return ep;
+        } finally {
+            stats.get(stage).record(System.nanoTime() - start);
+            FlareProxEvents.deployStage(stage.name().toLowerCase(), ep == null ? null : ep.name, ep != null, start);
+        }
+    }
+
+    static final class NotReadyException extends FlareProx.FlareProxException {
+        final FlareProx.Endpoint endpoint;
+
+        NotReadyException(FlareProx.Endpoint endpoint, long timeoutMs) {
+            super("Endpoint " + endpoint.name + " not serving after " + timeoutMs + "ms");
+            this.endpoint = endpoint;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * workers.dev 等固定主机名的 JVM 解析缓存预热。
+ * <p>
+ * JDK HttpClient 没有可替换的解析器，连接时总是走 InetAddress 的 JVM 缓存（networkaddress.cache.ttl，默认 30 秒）；
+ * JVM 缓存命中不会延长条目寿命，条目过期后第一个请求要在请求路径上同步解析。
+ * 因此这里不另建地址缓存，而是在每个固定主机的 JVM 条目刚过期时由后台线程重新解析一次，
+ * 使请求路径上的解析只可能落在过期后不到一个检查周期（CHECK_MILLIS）的窗口内。
+ * 每个固定主机每个 JVM TTL 仍需一次上游解析（在后台线程上）。
+ */
+public final class DnsCache {
+    /** 经 JVM 缓存的解析；基准中可替换为带缓存的替身。 */
+    @FunctionalInterface
+    public interface Resolver {
+        InetAddress[] resolve(String host) throws UnknownHostException;
+
+        static Resolver system() {
+            return InetAddress::getAllByName;
+        }
+    }
+
+    // 只遍历固定主机的时间戳，到期的才解析，周期短也几乎没有开销
+    static final long CHECK_MILLIS = 100;
+    private static final long DEFAULT_JVM_TTL_MILLIS = 30_000;
+    // 短于此时长的解析视为 JVM 缓存命中
+    private static final long HIT_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final Resolver resolver;
+    private final long jvmTtlMs;
+    private final long checkMs;
+    // 固定主机 -> 上次预热时间（0 为尚未预热）
+    private final Map<String, Long> pinned = new ConcurrentHashMap<>();
+    private final AtomicLong warmups = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "flareprox-dns");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> refresher;
+
+    public DnsCache() {
+        this(Resolver.system(), jvmCacheTtlMillis(), CHECK_MILLIS);
+    }
+
+    /** jvmTtlMs 为被预热缓存的 TTL；checkMs 为检查周期，即过期后最长的未预热窗口。 */
+    public DnsCache(Resolver resolver, long jvmTtlMs, long checkMs) {
+        this.resolver = resolver;
+        this.jvmTtlMs = jvmTtlMs;
+        this.checkMs = Math.max(10, checkMs);
+    }
+
+    /** JVM 正向解析缓存的 TTL（毫秒）；-1 为永久缓存，0 为不缓存。 */
+    static long jvmCacheTtlMillis() {
+        String v = Security.getProperty("networkaddress.cache.ttl");
+        if (v == null) {
+            v = System.getProperty("sun.net.inetaddr.ttl");
+        }
+        try {
+            long seconds = v == null ? -2 : Long.parseLong(v.trim());
+            return seconds < -1 ? DEFAULT_JVM_TTL_MILLIS : seconds < 0 ? -1 : TimeUnit.SECONDS.toMillis(seconds);
+        } catch (NumberFormatException ex) {
+            return DEFAULT_JVM_TTL_MILLIS;
+        }
+    }
+
+    /** 固定主机名：后台立即预热一次，此后每次 JVM 条目过期后重新预热。 */
+    public void pin(String host) {
+        if (host == null || host.isEmpty() || jvmTtlMs == 0) return;
+        String h = host.toLowerCase(Locale.ROOT);
+        if (pinned.putIfAbsent(h, 0L) == null) {
+            try {
+                scheduler.execute(() -> warm(h));
+            } catch (java.util.concurrent.RejectedExecutionException ignore) {
+                // 已关闭
+            }
+        }
+    }
+
+    public void unpin(String host) {
+        if (host != null) pinned.remove(host.toLowerCase(Locale.ROOT));
+    }
+
+    public void unpinAll() {
+        pinned.clear();
+    }
+
+    public synchronized void start() {
+        if (refresher != null || jvmTtlMs == 0) return;
+        refresher = scheduler.scheduleWithFixedDelay(this::refreshExpired, checkMs, checkMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (refresher != null) refresher.cancel(false);
+        refresher = null;
+        scheduler.shutdownNow();
+    }
+
+    public int pinnedCount() {
+        return pinned.size();
+    }
+
+    public String describe() {
+        return String.format("%d pinned hosts, %d warm-ups, %d failed", pinned.size(), warmups.get(),
+                failures.get());
+    }
+
+    private void refreshExpired() {
+        // 永久缓存时首次预热后无需再刷新
+        if (jvmTtlMs < 0) return;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> e : pinned.entrySet()) {
+            long warmedAt = e.getValue();
+            if (warmedAt != 0 && now - warmedAt >= jvmTtlMs) warm(e.getKey());
+        }
+    }
+
+    private void warm(String host) {
+        if (!pinned.containsKey(host)) return;
+        long start = System.nanoTime();
+        try {
+            resolver.resolve(host);
+        } catch (UnknownHostException ex) {
+            // 新部署的端点可能尚未生效，下一 TTL 重试
+            failures.incrementAndGet();
+            pinned.replace(host, System.currentTimeMillis());
+            return;
+        }
+        // 很快返回说明命中了请求路径上刚写入的 JVM 条目，其过期时间未知：不记时间，下一周期再试，
+        // 直到真正的上游解析由这里完成，之后的过期时间与本线程对齐
+        Long warmedAt = pinned.get(host);
+        if (warmedAt == null || System.nanoTime() - start < HIT_NANOS && warmedAt != 0) return;
+        warmups.incrementAndGet();
+        pinned.replace(host, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 端点在各目标主机上的健康状况，由 BlockDetector 的分类结果驱动。
+ * 同一端点对同一主机连续 blockThreshold 次 BLOCKED/CAPTCHA 后进入冷却，冷却期内轮换跳过它；
+ * THROTTLED 进入较短的冷却。出现 OK 即清除连续计数。
+ * 给定 EndpointStore 时，每次分类同时写入该端点 ID 上的健康度（最近一次结果，不分主机），供端点表格显示。
+ */
+public final class EndpointHealth {
+    private static final class State {
+        final AtomicLongArray counts = new AtomicLongArray(BlockDetector.Verdict.values().length);
+        volatile int consecutiveBad;
+        volatile long coolUntil;
+        volatile BlockDetector.Verdict last = BlockDetector.Verdict.OK;
+    }
+
+    private final Map<String, Map<String, State>> byHost = new ConcurrentHashMap<>();
+    // 每个主机当前处于冷却的端点名；为空时选择路径不做过滤
+    private final Map<String, Set<String>> cooling = new ConcurrentHashMap<>();
+    private volatile int blockThreshold = 2;
+    private volatile long blockCoolMs = 10 * 60_000L;
+    private volatile long throttleCoolMs = 60_000L;
+    private final EndpointStore store;
+
+    public EndpointHealth() {
+        this(null);
+    }
+
+    public EndpointHealth(EndpointStore store) {
+        this.store = store;
+    }
+
+    public void setBlockThreshold(int n) {
+        this.blockThreshold = Math.max(1, n);
+    }
+
+    public void setCooldowns(long blockMs, long throttleMs) {
+        this.blockCoolMs = blockMs;
+        this.throttleCoolMs = throttleMs;
+    }
+
+    public void record(String endpointName, String host, BlockDetector.Verdict verdict) {
+        if (endpointName == null || host == null) return;
+        State s = byHost.computeIfAbsent(host, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(endpointName, k -> new State());
+        s.counts.incrementAndGet(verdict.ordinal());
+        s.last = verdict;
+        if (store != null) store.setHealth(endpointName, storeHealth(verdict));
+        long now = System.currentTimeMillis();
+        switch (verdict) {
+            case OK:
+                s.consecutiveBad = 0;
+                if (s.coolUntil != 0) {
+                    s.coolUntil = 0;
+                    Set<String> c = cooling.get(host);
+                    if (c != null) c.remove(endpointName);
+                }
+                break;
+            case THROTTLED:
+                cool(host, endpointName, s, now + throttleCoolMs);
+                break;
+            default:
+                if (++s.consecutiveBad >= blockThreshold) {
+                    cool(host, endpointName, s, now + blockCoolMs);
+                }
+                break;
+        }
+    }
+
+    private static EndpointStore.Health storeHealth(BlockDetector.Verdict verdict) {
+        switch (verdict) {
+            case OK:
+                return EndpointStore.Health.OK;
+            case THROTTLED:
+                return EndpointStore.Health.THROTTLED;
+            default:
+                return EndpointStore.Health.BLOCKED;
+        }
+    }
+
+    private void cool(String host, String endpointName, State s, long until) {
+        s.coolUntil = Math.max(s.coolUntil, until);
+        cooling.computeIfAbsent(host, k -> ConcurrentHashMap.newKeySet()).add(endpointName);
+    }
+
+    /** 该端点当前是否可用于该主机。 */
+    public boolean isUsable(String endpointName, String host) {
+        Set<String> c = cooling.get(host);
+        if (c == null || c.isEmpty() || !c.contains(endpointName)) return true;
+        State s = byHost.get(host).get(endpointName);
+        if (s != null && s.coolUntil <= System.currentTimeMillis()) {
+            s.coolUntil = 0;
+            c.remove(endpointName);
+            return true;
+        }
+        return false;
+    }
+
+    /** 过滤掉对该主机处于冷却的端点；全部冷却时返回原列表，避免轮换停摆。 */
+    public List<FlareProx.Endpoint> usable(List<FlareProx.Endpoint> candidates, String host) {
+        Set<String> c = host == null ? null : cooling.get(host);
+        if (c == null || c.isEmpty()) return candidates;
+        List<FlareProx.Endpoint> out = new ArrayList<>(candidates.size());
+        for (FlareProx.Endpoint ep : candidates) {
+            if (isUsable(ep.name, host)) out.add(ep);
+        }
+        return out.isEmpty() ? candidates : out;
+    }
+
+    public void forgetEndpoint(String endpointName) {
+        for (Map<String, State> m : byHost.values()) m.remove(endpointName);
+        for (Set<String> c : cooling.values()) c.remove(endpointName);
+    }
+
+    public void clear() {
+        byHost.clear();
+        cooling.clear();
+    }
+
+    /** 每个主机一段：各端点的分类计数与冷却状态。 */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Map<String, State>> h : new TreeMap<>(byHost).entrySet()) {
+            sb.append(h.getKey()).append('\n');
+            for (Map.Entry<String, State> e : new TreeMap<>(h.getValue()).entrySet()) {
+                State s = e.getValue();
+                sb.append(String.format("  %-32s ok %d  throttled %d  blocked %d  captcha %d  last %s%s%n",
+                        e.getKey(), s.counts.get(0), s.counts.get(1), s.counts.get(2), s.counts.get(3), s.last,
+                        s.coolUntil > now ? "  cooling " + (s.coolUntil - now) / 1000 + "s" : ""));
+            }
+        }
+        return sb.length() == 0 ? "No classified responses yet." : sb.toString();
+    }
+}
@@ -0,0 +1,88 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 当前可用于轮换的端点集合。只有通过就绪检查（或从 Cloudflare 列出）的端点才会加入。
+ * 读多写少：成员与各端点的状态存放在 EndpointStore 中，写入时生成新的不可变快照，读取方无需加锁；
+ * 同一快照的 snapshot() 返回同一个列表对象。
+ * 删除 Worker 前先 drain：端点移出轮换，等其在途请求结束后再删除，避免正在进行的 Intruder/Scanner 请求失败。
+ */
+public final class EndpointPool {
+    // 选择端点与 enter 之间的短暂窗口内的请求不计入在途数，drain 至少等待一个间隔以覆盖
+    private static final long DRAIN_POLL_MS = 50;
+
+    private final EndpointStore store = new EndpointStore();
+
+    public void add(FlareProx.Endpoint endpoint) {
+        store.add(endpoint);
+    }
+
+    public boolean remove(String name) {
+        return store.remove(name);
+    }
+
+    public void replaceAll(List<FlareProx.Endpoint> fresh) {
+        store.replaceAll(fresh);
+    }
+
+    public void clear() {
+        store.replaceAll(List.of());
+    }
+
+    /** 开始一次经该端点的请求；请求结束（含失败）时关闭返回的 Lease。 */
+    public EndpointStore.Lease enter(String name) {
+        return store.enter(name);
+    }
+
+    /**
+     * 将端点移出轮换，并等待它们的在途请求结束，最多等待 timeout。返回超时时仍有在途请求的端点名称。
+     * 需要在中断或删除失败时放回端点的调用方，分别调用 removeAll 与 awaitIdle。
+     */
+    public List<String> drain(Collection<String> names, Duration timeout) throws InterruptedException {
+        removeAll(names);
+        return awaitIdle(names, timeout);
+    }
+
+    /** 将端点移出轮换，返回实际在池中并被移出的端点（不在池中的名称不返回）。 */
+    public List<FlareProx.Endpoint> removeAll(Collection<String> names) {
+        List<FlareProx.Endpoint> removed = new ArrayList<>();
+        for (String name : names) {
+            EndpointStore.Snapshot s = store.snapshot();
+            int id = s.id(name);
+            if (id >= 0 && store.remove(name)) removed.add(s.endpoint(id));
+        }
+        return removed;
+    }
+
+    /**
+     * 等待这些名称的在途请求结束，最多等待 timeout。所有端点一起等待，总耗时不超过 timeout（另加一个轮询间隔）。
+     * 在途数按名称合计，包括 replaceAll 或重新部署前的旧 ID 上的请求，已不在池中的名称也会等待。
+     * 返回超时时仍有在途请求的端点名称。
+     */
+    public List<String> awaitIdle(Collection<String> names, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            Thread.sleep(DRAIN_POLL_MS);
+            List<String> busy = new ArrayList<>();
+            for (String name : names) {
+                if (store.inflight(name) > 0) busy.add(name);
+            }
+            if (busy.isEmpty() || System.nanoTime() >= deadline) return busy;
+        }
+    }
+
+    public List<FlareProx.Endpoint> snapshot() {
+        return store.snapshot().endpoints();
+    }
+
+    /** 按端点 ID 存放的出口 IP、健康度与请求计数；端点表格直接读取其快照。 */
+    public EndpointStore store() {
+        return store;
+    }
+
+    public int size() {
+        return store.size();
+    }
+}
@@ -0,0 +1,30 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 轮换策略：从候选端点中选出下一次请求使用的端点。实现必须线程安全且不阻塞。
+ * 发送方在请求发出与收到响应头时回调 onStart/onComplete，按负载选择的策略据此维护状态；其余策略忽略即可。
+ */
+public interface EndpointSelector {
+    /** candidates 为空时返回 null。 */
+    FlareProx.Endpoint select(List<FlareProx.Endpoint> candidates);
+
+    /** 已知目标主机时的选择；按目标区分排名的策略覆盖此方法，其余忽略 targetHost。 */
+    default FlareProx.Endpoint select(List<FlareProx.Endpoint> candidates, String targetHost) {
+        return select(candidates);
+    }
+
+    /** 经该端点的请求已发出。 */
+    default void onStart(String endpointName) {
+    }
+
+    /** 经该端点的请求已结束：latencyNanos 为到响应头（或失败）的耗时，failed 表示连接错误或 Cloudflare 侧错误。 */
+    default void onComplete(String endpointName, long latencyNanos, boolean failed) {
+    }
+
+    static EndpointSelector roundRobin() {
+        AtomicLong cursor = new AtomicLong();
+        return candidates -> candidates.isEmpty() ? null
+                : candidates.get((int) Math.floorMod(cursor.getAndIncrement(), (long) candidates.size()));
+    }
+}
@@ -0,0 +1,543 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 端点状态的集中存储：每个端点一个 int ID，各项状态放在按 ID 索引的并行基本类型数组中
+ * （出口 IPv4 为 int、健康度为 byte、计数与时间戳为 long），数组按 4096 个一块分配，扩容只追加块。
+ * 名称经 intern 去重；URL 不逐个保存，按 "https://" + 名称 + 后缀表中的后缀在需要时拼出，
+ * 只有不符合该形式的 URL（如本地桩）才单独保存。
+ * <p>
+ * 结构（成员、名称、URL、脚本哈希）写时复制：写方持锁生成新的不可变 Snapshot，读方无锁读取。
+ * 追加的条目写在旧快照边界之外，旧快照按自身的 size 与存活位图过滤，因此追加无需复制数组；
+ * 删除只复制存活位图。名称或 URL 变化视为删除后追加新 ID。
+ * 运行时状态（IP、健康度、计数）按 ID 原地更新，所有快照共享，读写经 VarHandle 保证单个字段的原子性。
+ * 在途请求数经 enter 返回的 Lease 计数，Lease 始终记在取得时的 ID 上。条目因删除、替换或 URL/脚本变化移出快照时，
+ * 仍有在途请求的旧 ID 按名称保留，直到其计数归零；inflight(name) 合计新旧 ID，供删除前等待在途请求结束。
+ */
+public final class EndpointStore {
+    /** 端点最近一次被 BlockDetector 分类的结果（由 EndpointHealth 写入，CAPTCHA 记为 BLOCKED）。 */
+    public enum Health { UNKNOWN, OK, THROTTLED, BLOCKED }
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK - 1;
+    private static final String URL_PREFIX = "https://";
+    private static final Health[] HEALTH = Health.values();
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    /** 4096 个端点的状态块；块一经分配不再移动，原地更新不会丢失。 */
+    static final class Chunk {
+        final String[] names = new String[CHUNK];
+        final int[] suffix = new int[CHUNK];
+        final String[] explicitUrls = new String[CHUNK];
+        final int[] scriptHash = new int[CHUNK];
+        final long[] addedAt = new long[CHUNK];
+        final int[] ipv4 = new int[CHUNK];
+        final String[] ipText = new String[CHUNK];
+        final long[] ipSeenAt = new long[CHUNK];
+        final byte[] health = new byte[CHUNK];
+        final long[] requests = new long[CHUNK];
+        final long[] failures = new long[CHUNK];
+        final long[] lastUsed = new long[CHUNK];
+        final int[] inflight = new int[CHUNK];
+        final FlareProx.Endpoint[] views = new FlareProx.Endpoint[CHUNK];
+    }
+
+    /** 不可变视图：ID 在 [0, size) 内且存活位为 1 的条目属于本快照。 */
+    public static final class Snapshot {
+        private final Chunk[] chunks;
+        private final int size;
+        private final long[] live;
+        private final int liveCount;
+        private final int[] index;
+        private final String[] suffixes;
+        private final String[] hashes;
+        private final long version;
+        private volatile List<FlareProx.Endpoint> endpoints;
+
+        Snapshot(Chunk[] chunks, int size, long[] live, int liveCount, int[] index, String[] suffixes,
+                String[] hashes, long version) {
+            this.chunks = chunks;
+            this.size = size;
+            this.live = live;
+            this.liveCount = liveCount;
+            this.index = index;
+            this.suffixes = suffixes;
+            this.hashes = hashes;
+            this.version = version;
+        }
+
+        /** ID 上界（不含）；其中可能有已删除的 ID，遍历时用 isLive 过滤。 */
+        public int size() {
+            return size;
+        }
+
+        public int liveCount() {
+            return liveCount;
+        }
+
+        public long version() {
+            return version;
+        }
+
+        public boolean isLive(int id) {
+            return id >= 0 && id < size && (live[id >>> 6] & (1L << id)) != 0;
+        }
+
+        /** 名称对应的存活 ID，不存在时返回 -1。 */
+        public int id(String name) {
+            int mask = index.length - 1;
+            for (int i = mix(name.hashCode()) & mask;; i = (i + 1) & mask) {
+                int slot = index[i];
+                if (slot == 0) return -1;
+                int id = slot - 1;
+                if (isLive(id) && name.equals(chunk(id).names[id & CHUNK_MASK])) return id;
+            }
+        }
+
+        // 名称最近一个已删除的 ID（索引表中仍保留的），没有时返回 -1
+        int removedId(String name) {
+            int mask = index.length - 1;
+            int found = -1;
+            for (int i = mix(name.hashCode()) & mask;; i = (i + 1) & mask) {
+                int slot = index[i];
+                if (slot == 0) return found;
+                int id = slot - 1;
+                if (id < size && id > found && !isLive(id) && name.equals(chunk(id).names[id & CHUNK_MASK])) found = id;
+            }
+        }
+
+        public String name(int id) {
+            return chunk(id).names[id & CHUNK_MASK];
+        }
+
+        public String url(int id) {
+            Chunk c = chunk(id);
+            int i = id & CHUNK_MASK;
+            int s = c.suffix[i];
+            return s < 0 ? c.explicitUrls[i] : URL_PREFIX + c.names[i] + suffixes[s];
+        }
+
+        public String scriptHash(int id) {
+            return hashes[chunk(id).scriptHash[id & CHUNK_MASK]];
+        }
+
+        public long addedAtMillis(int id) {
+            return chunk(id).addedAt[id & CHUNK_MASK];
+        }
+
+        /** 出口 IP 文本；IPv4 由 int 还原，未探测时返回 null。 */
+        public String ip(int id) {
+            Chunk c = chunk(id);
+            int i = id & CHUNK_MASK;
+            int v4 = (int) INTS.getOpaque(c.ipv4, i);
+            if (v4 != 0) {
+                return (v4 >>> 24) + "." + ((v4 >>> 16) & 0xff) + "." + ((v4 >>> 8) & 0xff) + "." + (v4 & 0xff);
+            }
+            return c.ipText[i];
+        }
+
+        /** 出口 IPv4（按无符号 int 存放），非 IPv4 或未知时为 0。 */
+        public int ipv4(int id) {
+            return (int) INTS.getOpaque(chunk(id).ipv4, id & CHUNK_MASK);
+        }
+
+        /** 最近一次探测出口 IP 的时间（含失败的探测），0 为尚未探测。 */
+        public long ipSeenAtMillis(int id) {
+            return (long) LONGS.getOpaque(chunk(id).ipSeenAt, id & CHUNK_MASK);
+        }
+
+        public Health health(int id) {
+            return HEALTH[(byte) BYTES.getOpaque(chunk(id).health, id & CHUNK_MASK)];
+        }
+
+        public long requests(int id) {
+            return (long) LONGS.getOpaque(chunk(id).requests, id & CHUNK_MASK);
+        }
+
+        public long failures(int id) {
+            return (long) LONGS.getOpaque(chunk(id).failures, id & CHUNK_MASK);
+        }
+
+        public long lastUsedMillis(int id) {
+            return (long) LONGS.getOpaque(chunk(id).lastUsed, id & CHUNK_MASK);
+        }
+
+        /** 在途请求数；对本快照中已删除的 ID 同样有效。 */
+        public int inflight(int id) {
+            return (int) INTS.getVolatile(chunk(id).inflight, id & CHUNK_MASK);
+        }
+
+        /** 端点对象视图，按 ID 缓存，首次访问时才拼出 URL。 */
+        public FlareProx.Endpoint endpoint(int id) {
+            Chunk c = chunk(id);
+            int i = id & CHUNK_MASK;
+            FlareProx.Endpoint ep = c.views[i];
+            if (ep == null) {
+                ep = new FlareProx.Endpoint(c.names[i], url(id), scriptHash(id));
+                c.views[i] = ep;
+            }
+            return ep;
+        }
+
+        /** 按 ID 顺序的存活端点列表；每个快照只构建一次。 */
+        public List<FlareProx.Endpoint> endpoints() {
+            List<FlareProx.Endpoint> list = endpoints;
+            if (list == null) {
+                int[] ids = new int[liveCount];
+                int n = 0;
+                for (int id = 0; id < size; id++) {
+                    if (isLive(id)) ids[n++] = id;
+                }
+                list = new View(this, ids);
+                endpoints = list;
+            }
+            return list;
+        }
+
+        Chunk chunk(int id) {
+            return chunks[id >>> CHUNK_BITS];
+        }
+    }
+
+    /** 一次经端点的请求，close 时在途数减一；重复 close 无效果。 */
+    public static final class Lease implements AutoCloseable {
+        static final Lease NONE = new Lease(null, 0);
+
+        private final Chunk chunk;
+        private final int index;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Lease(Chunk chunk, int index) {
+            this.chunk = chunk;
+            this.index = index;
+        }
+
+        @Override
+        public void close() {
+            if (chunk != null && closed.compareAndSet(false, true)) INTS.getAndAdd(chunk.inflight, index, -1);
+        }
+    }
+
+    /** 已移出当前快照、仍有在途请求的旧 ID 的计数位置。 */
+    private record Slot(Chunk chunk, int index) {
+        int inflight() {
+            return (int) INTS.getVolatile(chunk.inflight, index);
+        }
+    }
+
+    /** 快照的只读端点列表，元素按需生成。 */
+    private static final class View extends AbstractList<FlareProx.Endpoint> implements RandomAccess {
+        private final Snapshot snapshot;
+        private final int[] ids;
+
+        View(Snapshot snapshot, int[] ids) {
+            this.snapshot = snapshot;
+            this.ids = ids;
+        }
+
+        @Override
+        public FlareProx.Endpoint get(int i) {
+            return snapshot.endpoint(ids[i]);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+
+    private volatile Snapshot current = new Snapshot(new Chunk[0], 0, new long[0], 0, new int[16], new String[0],
+            new String[] { "" }, 0);
+    // 索引表中已占用的槽数（含已删除条目），超过一半时重建
+    private int indexUsed;
+    // 名称 -> 移出快照时仍有在途请求的旧 ID；持锁访问，计数归零后在 inflight 中清除
+    private final Map<String, List<Slot>> retired = new HashMap<>();
+
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    public int size() {
+        return current.liveCount;
+    }
+
+    /** 当前端点的请求汇总，如 "12 endpoints: 3400 requests, 17 failed, 2 in flight"；界面定时读取。 */
+    public synchronized String describe() {
+        Snapshot s = current;
+        long requests = 0;
+        long failures = 0;
+        long inflight = 0;
+        for (int id = 0; id < s.size; id++) {
+            if (!s.isLive(id)) continue;
+            requests += s.requests(id);
+            failures += s.failures(id);
+            inflight += s.inflight(id);
+        }
+        for (List<Slot> slots : retired.values()) {
+            for (Slot slot : slots) inflight += slot.inflight();
+        }
+        return String.format("%d endpoints: %d requests, %d failed, %d in flight", s.liveCount, requests, failures,
+                inflight);
+    }
+
+    /**
+     * 加入或更新端点并返回其 ID；名称、URL、脚本哈希都未变时保持原 ID。
+     * 名称此前被 remove 过（如滚动升级期间移出轮换）时沿用其最近一个旧 ID 的 IP、健康度与计数；
+     * 旧 ID 只在索引表重建前可查到。
+     */
+    public synchronized int add(String name, String url, String scriptHash) {
+        Snapshot s = current;
+        int old = s.id(name);
+        int carry = old;
+        if (old >= 0) {
+            if (s.url(old).equals(url) && s.scriptHash(old).equals(scriptHash == null ? "" : scriptHash)) {
+                return old;
+            }
+            s = without(s, old);
+        } else {
+            carry = s.removedId(name);
+        }
+        Snapshot next = append(s, name, url, scriptHash, carry >= 0 ? s.chunk(carry) : null, carry & CHUNK_MASK);
+        current = next;
+        if (old >= 0) retire(s, old);
+        return next.size - 1;
+    }
+
+    public int add(FlareProx.Endpoint ep) {
+        return add(ep.name, ep.url, ep.scriptHash);
+    }
+
+    public synchronized boolean remove(String name) {
+        Snapshot s = current;
+        int id = s.id(name);
+        if (id < 0) return false;
+        current = without(s, id);
+        retire(s, id);
+        return true;
+    }
+
+    /** 整体替换成员；仍在列表中的名称保留其 IP 与计数。ID 重新从 0 分配，旧 ID 上的在途请求仍按名称计入。 */
+    public synchronized void replaceAll(List<FlareProx.Endpoint> fresh) {
+        Snapshot old = current;
+        indexUsed = 0;
+        Snapshot s = new Snapshot(new Chunk[0], 0, new long[0], 0, new int[indexCapacity(fresh.size())],
+                old.suffixes, old.hashes, old.version + 1);
+        for (FlareProx.Endpoint ep : fresh) {
+            int prev = old.id(ep.name);
+            int dup = s.id(ep.name);
+            if (dup >= 0) s = without(s, dup);
+            s = append(s, ep.name, ep.url, ep.scriptHash, prev >= 0 ? old.chunk(prev) : null, prev & CHUNK_MASK);
+        }
+        current = s;
+        for (int id = 0; id < old.size; id++) {
+            if (old.isLive(id)) retire(old, id);
+        }
+    }
+
+    /**
+     * 该名称的在途请求数：当前 ID 的计数加上此前移出快照的旧 ID 上尚未结束的请求。
+     * 名称已删除时仍返回旧 ID 的计数，供 drain 等待。
+     */
+    public synchronized int inflight(String name) {
+        Snapshot s = current;
+        int id = s.id(name);
+        int n = id < 0 ? 0 : s.inflight(id);
+        List<Slot> slots = retired.get(name);
+        if (slots != null) {
+            slots.removeIf(slot -> slot.inflight() == 0);
+            if (slots.isEmpty()) retired.remove(name);
+            for (Slot slot : slots) n += slot.inflight();
+        }
+        return n;
+    }
+
+    // 在新快照发布之后调用（持锁）：此后 enter 不会再记到旧 ID 上，此时仍有在途请求的才需要保留
+    private void retire(Snapshot old, int id) {
+        Chunk c = old.chunk(id);
+        int i = id & CHUNK_MASK;
+        if ((int) INTS.getVolatile(c.inflight, i) > 0) {
+            retired.computeIfAbsent(c.names[i], k -> new ArrayList<>()).add(new Slot(c, i));
+        }
+    }
+
+    // ---------------------- 运行时状态：原地更新，无锁 ----------------------
+
+    /** 记录一次出口 IP 探测；IPv4 以 int 保存，其他形式保留文本。探测失败（"n/a" 等）只更新探测时间，不覆盖已知值。 */
+    public void setIp(int id, String ip) {
+        Snapshot s = current;
+        if (id < 0 || id >= s.size || ip == null) return;
+        Chunk c = s.chunk(id);
+        int i = id & CHUNK_MASK;
+        if (!IpAddress.isValid(ip)) {
+            LONGS.setOpaque(c.ipSeenAt, i, System.currentTimeMillis());
+            return;
+        }
+        long v4 = IpAddress.parseIPv4(ip);
+        if (v4 > 0) {
+            INTS.setOpaque(c.ipv4, i, (int) v4);
+            c.ipText[i] = null;
+        } else {
+            INTS.setOpaque(c.ipv4, i, 0);
+            c.ipText[i] = ip;
+        }
+        LONGS.setOpaque(c.ipSeenAt, i, System.currentTimeMillis());
+    }
+
+    public void setIp(String name, String ip) {
+        setIp(current.id(name), ip);
+    }
+
+    public void setHealth(String name, Health health) {
+        Snapshot s = current;
+        int id = s.id(name);
+        if (id >= 0) BYTES.setOpaque(s.chunk(id).health, id & CHUNK_MASK, (byte) health.ordinal());
+    }
+
+    /** 记录一次经该端点的请求。 */
+    public void recordRequest(int id, boolean failed) {
+        Snapshot s = current;
+        if (id < 0 || id >= s.size) return;
+        Chunk c = s.chunk(id);
+        int i = id & CHUNK_MASK;
+        LONGS.getAndAdd(c.requests, i, 1L);
+        if (failed) LONGS.getAndAdd(c.failures, i, 1L);
+        LONGS.setOpaque(c.lastUsed, i, System.currentTimeMillis());
+    }
+
+    public void recordRequest(String name, boolean failed) {
+        recordRequest(current.id(name), failed);
+    }
+
+    /**
+     * 开始一次经该端点的请求；端点不在当前快照中时返回不计数的 Lease。
+     * 计数后若该 ID 已被移出快照（写方发布新快照后才检查旧 ID 的计数），撤回并按新快照重试，
+     * 因此写方要么看到这次计数并保留旧 ID，要么这次请求记在新 ID 上。
+     */
+    public Lease enter(String name) {
+        while (true) {
+            Snapshot s = current;
+            int id = s.id(name);
+            if (id < 0) return Lease.NONE;
+            Chunk c = s.chunk(id);
+            int i = id & CHUNK_MASK;
+            INTS.getAndAdd(c.inflight, i, 1);
+            Snapshot now = current;
+            if (now == s || now.isLive(id) && now.chunk(id) == c) return new Lease(c, i);
+            INTS.getAndAdd(c.inflight, i, -1);
+        }
+    }
+
+    // ---------------------- 写时复制的结构修改（持锁） ----------------------
+
+    private Snapshot append(Snapshot s, String name, String url, String scriptHash, Chunk carryFrom, int carryAt) {
+        int id = s.size;
+        Chunk[] chunks = s.chunks;
+        if (id >>> CHUNK_BITS == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = new Chunk();
+        }
+        Chunk c = chunks[id >>> CHUNK_BITS];
+        int i = id & CHUNK_MASK;
+        String[] suffixes = s.suffixes;
+        int suffix = -1;
+        String interned = name.intern();
+        if (url.startsWith(URL_PREFIX) && url.startsWith(interned, URL_PREFIX.length())) {
+            String rest = url.substring(URL_PREFIX.length() + interned.length());
+            suffix = indexOf(suffixes, rest);
+            if (suffix < 0) {
+                suffixes = Arrays.copyOf(suffixes, suffixes.length + 1);
+                suffix = suffixes.length - 1;
+                suffixes[suffix] = rest;
+            }
+        }
+        String[] hashes = s.hashes;
+        String hash = scriptHash == null ? "" : scriptHash;
+        int hashId = indexOf(hashes, hash);
+        if (hashId < 0) {
+            hashes = Arrays.copyOf(hashes, hashes.length + 1);
+            hashId = hashes.length - 1;
+            hashes[hashId] = hash;
+        }
+        c.names[i] = interned;
+        c.suffix[i] = suffix;
+        c.explicitUrls[i] = suffix < 0 ? url : null;
+        c.scriptHash[i] = hashId;
+        c.addedAt[i] = System.currentTimeMillis();
+        c.views[i] = null;
+        if (carryFrom != null) {
+            c.ipv4[i] = (int) INTS.getOpaque(carryFrom.ipv4, carryAt);
+            c.ipText[i] = carryFrom.ipText[carryAt];
+            c.ipSeenAt[i] = (long) LONGS.getOpaque(carryFrom.ipSeenAt, carryAt);
+            c.health[i] = (byte) BYTES.getOpaque(carryFrom.health, carryAt);
+            c.requests[i] = (long) LONGS.getOpaque(carryFrom.requests, carryAt);
+            c.failures[i] = (long) LONGS.getOpaque(carryFrom.failures, carryAt);
+            c.lastUsed[i] = (long) LONGS.getOpaque(carryFrom.lastUsed, carryAt);
+        } else {
+            c.ipv4[i] = 0;
+            c.ipText[i] = null;
+            c.ipSeenAt[i] = 0;
+            c.health[i] = 0;
+            c.requests[i] = 0;
+            c.failures[i] = 0;
+            c.lastUsed[i] = 0;
+        }
+        c.inflight[i] = 0;
+
+        long[] live = s.live;
+        if (id >>> 6 >= live.length) live = Arrays.copyOf(live, Math.max(4, live.length * 2));
+        live[id >>> 6] |= 1L << id;
+
+        int[] index = s.index;
+        if ((indexUsed + 1) * 2 > index.length) {
+            index = new int[indexCapacity(s.liveCount + 1)];
+            indexUsed = 0;
+            for (int j = 0; j < id; j++) {
+                if (s.isLive(j)) insert(index, s.chunk(j).names[j & CHUNK_MASK], j);
+            }
+        }
+        insert(index, interned, id);
+        return new Snapshot(chunks, id + 1, live, s.liveCount + 1, index, suffixes, hashes, s.version + 1);
+    }
+
+    private static Snapshot without(Snapshot s, int id) {
+        long[] live = s.live.clone();
+        live[id >>> 6] &= ~(1L << id);
+        return new Snapshot(s.chunks, s.size, live, s.liveCount - 1, s.index, s.suffixes, s.hashes,
+                s.version + 1);
+    }
+
+    private void insert(int[] index, String name, int id) {
+        int mask = index.length - 1;
+        int i = mix(name.hashCode()) & mask;
+        while (index[i] != 0) i = (i + 1) & mask;
+        index[i] = id + 1;
+        indexUsed++;
+    }
+
+    private static int indexCapacity(int entries) {
+        return Math.max(16, Integer.highestOneBit(Math.max(1, entries) * 4 - 1) << 1);
+    }
+
+    private static int indexOf(String[] table, String value) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i].equals(value)) return i;
+        }
+        return -1;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.function.Function;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * 端点表格的数据模型：行即 EndpointStore 快照中的存活端点（按 ID 顺序），各列直接读取存储中的状态，
+ * 不另存行数据。只在 EDT 上调用 refresh：成员未变时只通知各行更新（保留选择与排序），变化时重建行。
+ */
+public final class EndpointTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = { "No.", "Name", "URL", "IP", "Colo", "Health" };
+    static final int COL_NAME = 1;
+    static final int COL_URL = 2;
+    static final int COL_IP = 3;
+
+    private final EndpointStore store;
+    private final Function<String, String> colo;
+    private EndpointStore.Snapshot snapshot;
+    private int[] ids = new int[0];
+
+    /** colo 按端点名返回机房，未知时返回 null。 */
+    public EndpointTableModel(EndpointStore store, Function<String, String> colo) {
+        this.store = store;
+        this.colo = colo;
+        this.snapshot = store.snapshot();
+        rebuild();
+    }
+
+    /** 按存储的当前快照刷新表格。 */
+    public void refresh() {
+        EndpointStore.Snapshot s = store.snapshot();
+        if (s == snapshot) {
+            if (ids.length > 0) fireTableRowsUpdated(0, ids.length - 1);
+            return;
+        }
+        snapshot = s;
+        rebuild();
+        fireTableDataChanged();
+    }
+
+    private void rebuild() {
+        int[] next = new int[snapshot.liveCount()];
+        int n = 0;
+        for (int id = 0; id < snapshot.size(); id++) {
+            if (snapshot.isLive(id)) next[n++] = id;
+        }
+        ids = next;
+    }
+
+    /** 该行的端点；row 为模型行号。 */
+    public FlareProx.Endpoint endpoint(int row) {
+        return snapshot.endpoint(ids[row]);
+    }
+
+    @Override
+    public int getRowCount() {
+        return ids.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int id = ids[row];
+        switch (column) {
+            case 0:
+                return row + 1;
+            case COL_NAME:
+                return snapshot.name(id);
+            case COL_URL:
+                return snapshot.url(id);
+            case COL_IP: {
+                String ip = snapshot.ip(id);
+                // 探测过但没有得到 IP 时显示 n/a，尚未探测时显示 pending
+                return ip != null ? ip : snapshot.ipSeenAtMillis(id) > 0 ? "n/a" : "pending";
+            }
+            case 4: {
+                String c = colo.apply(snapshot.name(id));
+                return c == null ? "-" : c;
+            }
+            default: {
+                EndpointStore.Health h = snapshot.health(id);
+                return h == EndpointStore.Health.UNKNOWN ? "-" : h.name().toLowerCase(java.util.Locale.ROOT);
+            }
+        }
+    }
+}
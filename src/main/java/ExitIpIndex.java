@@ -0,0 +1,146 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 出口 IP 多样性索引：端点 -> 最近一次探测到的出口 IP，以及按 IP、前缀聚合的端点计数。
+ * IPv4 按 /24、IPv6 按 /32 聚合；计数保存在 int 键的 IntCountMap 中，查询无装箱。
+ */
+public final class ExitIpIndex {
+    // 前缀键：高 32 位区分地址族，低 32 位为前缀值
+    public static final long NO_PREFIX = Long.MIN_VALUE;
+    private static final long FAMILY_V6 = 1L << 32;
+
+    private static final class Entry {
+        final String ip;
+        final long ipv4;
+        final long prefixKey;
+
+        Entry(String ip, long ipv4, long prefixKey) {
+            this.ip = ip;
+            this.ipv4 = ipv4;
+            this.prefixKey = prefixKey;
+        }
+    }
+
+    private final Map<String, Entry> byEndpoint = new ConcurrentHashMap<>();
+    private final IntCountMap v4Ips = new IntCountMap();
+    private final IntCountMap v4Prefixes = new IntCountMap();
+    private final IntCountMap v6Prefixes = new IntCountMap();
+    private final AtomicLong version = new AtomicLong();
+
+    /** 记录一次探测结果；ip 无法解析（如 "n/a"）时移除该端点的旧记录。 */
+    public void update(String endpointName, String ip) {
+        String trimmed = ip == null ? "" : ip.trim();
+        long v4 = IpAddress.parseIPv4(trimmed);
+        long prefixKey = NO_PREFIX;
+        if (v4 >= 0) {
+            prefixKey = IpAddress.v4Prefix24(v4) & 0xffffffffL;
+        } else {
+            byte[] v6 = IpAddress.parseIPv6(trimmed);
+            if (v6 != null) {
+                prefixKey = FAMILY_V6 | (IpAddress.v6Prefix32(v6) & 0xffffffffL);
+            }
+        }
+        synchronized (this) {
+            Entry old = prefixKey == NO_PREFIX ? byEndpoint.remove(endpointName)
+                    : byEndpoint.put(endpointName, new Entry(trimmed, v4, prefixKey));
+            if (old != null) {
+                count(old, -1);
+            }
+            if (prefixKey != NO_PREFIX) {
+                count(byEndpoint.get(endpointName), 1);
+            }
+        }
+        version.incrementAndGet();
+    }
+
+    public void remove(String endpointName) {
+        synchronized (this) {
+            Entry old = byEndpoint.remove(endpointName);
+            if (old != null) {
+                count(old, -1);
+            }
+        }
+        version.incrementAndGet();
+    }
+
+    public synchronized void clear() {
+        byEndpoint.clear();
+        v4Ips.clear();
+        v4Prefixes.clear();
+        v6Prefixes.clear();
+        version.incrementAndGet();
+    }
+
+    /** 每次索引变化递增，选择器据此判断分组缓存是否失效。 */
+    public long version() {
+        return version.get();
+    }
+
+    public String ipOf(String endpointName) {
+        Entry e = byEndpoint.get(endpointName);
+        return e == null ? null : e.ip;
+    }
+
+    public long prefixOf(String endpointName) {
+        Entry e = byEndpoint.get(endpointName);
+        return e == null ? NO_PREFIX : e.prefixKey;
+    }
+
+    /** 与该端点共享同一前缀的端点数（含自身）。 */
+    public synchronized int prefixPopulation(String endpointName) {
+        Entry e = byEndpoint.get(endpointName);
+        return e == null ? 0 : prefixCounts(e.prefixKey).get((int) e.prefixKey);
+    }
+
+    public int endpointCount() {
+        return byEndpoint.size();
+    }
+
+    public synchronized int distinctPrefixes() {
+        return v4Prefixes.size() + v6Prefixes.size();
+    }
+
+    /** 不同出口 IP 数；IPv6 只按前缀统计，按端点数计入。 */
+    public synchronized int distinctIps() {
+        int v6Endpoints = 0;
+        for (Entry e : byEndpoint.values()) {
+            if (e.ipv4 < 0) v6Endpoints++;
+        }
+        return v4Ips.size() + v6Endpoints;
+    }
+
+    /**
+     * 有效多样性：前缀分布的 Hill 数 exp(H)。所有端点落在同一前缀时为 1，
+     * 均匀分布在 k 个前缀时为 k。
+     */
+    public synchronized double effectiveDiversity() {
+        int total = byEndpoint.size();
+        if (total == 0) return 0;
+        double[] h = new double[1];
+        java.util.function.IntConsumer acc = c -> {
+            double p = (double) c / total;
+            h[0] -= p * Math.log(p);
+        };
+        v4Prefixes.forEachCount(acc);
+        v6Prefixes.forEachCount(acc);
+        return Math.exp(h[0]);
+    }
+
+    public String describe() {
+        return String.format("%d endpoints, %d IPs, %d prefixes (effective %.1f)",
+                endpointCount(), distinctIps(), distinctPrefixes(), effectiveDiversity());
+    }
+
+    private void count(Entry e, int delta) {
+        if (e.ipv4 >= 0) {
+            v4Ips.add((int) e.ipv4, delta);
+        }
+        prefixCounts(e.prefixKey).add((int) e.prefixKey, delta);
+    }
+
+    private IntCountMap prefixCounts(long prefixKey) {
+        return (prefixKey & FAMILY_V6) != 0 ? v6Prefixes : v4Prefixes;
+    }
+}
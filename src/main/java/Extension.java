@@ -21,6 +21,57 @@ import java.util.ArrayList;
 public class Extension implements BurpExtension {
     private static final String PREF_API_TOKEN = "cloudflare_api_token";
     private static final String PREF_ACCOUNT_ID = "cloudflare_account_id";
+    private static final String PREF_DAILY_QUOTA = "traffic_daily_quota";
+    private static final String PREF_ROUTING_RULES = "routing_rules";
+    private static final String PREF_STARTUP_TIMINGS = "startup_timings";
+    private static final String PREF_JFR_EVENTS = "jfr_events";
+    private static final String PREF_BENCH_TARGET = "pool_benchmark_target";
+    private static final String PREF_BENCH_HISTORY = "pool_benchmark_history";
+    private static final int BENCH_HISTORY_LINES = 20;
+    // 删除前等待在途请求结束的上限
+    private static final java.time.Duration DRAIN_TIMEOUT = java.time.Duration.ofSeconds(30);
+
+    // 已就绪、可参与轮换的端点
+    private final EndpointPool endpointPool = new EndpointPool();
+    // 端点出口 IP 及前缀分布，供前缀分散轮换与多样性展示
+    private final ExitIpIndex exitIpIndex = new ExitIpIndex();
+    private final ColoIndex coloIndex = new ColoIndex();
+    // 后台周期性重新探测出口 IP，记录变化历史
+    private IpDriftTracker ipDriftTracker;
+    // 将所选工具的请求改写为经由池中 Worker 转发
+    private RotationHttpHandler rotationHandler;
+    // 按目标主机记录各端点的封禁/限速分类，轮换据此跳过冷却中的端点
+    private final EndpointHealth endpointHealth = new EndpointHealth(endpointPool.store());
+    private final BlockDetector blockDetector = BlockDetector.standard();
+    // workers.dev 与 API 主机名解析缓存，后台刷新，避免请求路径上的 DNS 查询
+    private final DnsCache dnsCache = new DnsCache();
+    // 到各 Worker 的连接池：就绪端点预热、保活，移出池时关闭
+    private WorkerConnections workerConnections;
+    // 供 Burp 之外的工具使用端点池的本地转发代理，与 Burp 内轮换共用选择策略
+    private LocalForwardProxy localProxy;
+    private BatchClient batchClient;
+    private TunnelClient tunnelClient;
+    // 按端点/账户统计当日请求数，定期写回偏好，并让轮换避开接近额度的账户
+    private TrafficAccounting traffic;
+    // 路由规则编辑框；右键菜单添加规则后同步其内容
+    private JTextArea routingRulesArea;
+    // 启动各阶段耗时，每次更新后写回偏好以便跨次加载比较
+    private final StartupTimings startup = new StartupTimings();
+    // 每个账户一组 Cloudflare API 熔断器与请求预算，跨各次按钮操作共享
+    private final java.util.Map<String, CloudflareApiGuard> apiGuards = new java.util.concurrent.ConcurrentHashMap<>();
+    // 熔断状态变化时更新状态栏；界面建立前为空操作
+    private volatile java.util.function.Consumer<CloudflareApiGuard> apiGuardStatus = g -> {};
+    // 后台对账的结果：null 表示未保存凭证
+    private final java.util.concurrent.CompletableFuture<List<FlareProx.Endpoint>> reconciled =
+            new java.util.concurrent.CompletableFuture<>();
+
+    private CloudflareService cloudflare(MontoyaApi montoyaApi, String token, String accountId,
+            CloudflareApiGuard.Priority priority) {
+        CloudflareApiGuard guard = apiGuards.computeIfAbsent(accountId,
+                id -> new CloudflareApiGuard(montoyaApi).onChange(g -> apiGuardStatus.accept(g)));
+        return new SimpleCloudflareService(token, accountId, montoyaApi).withDnsCache(dnsCache)
+                .withGuard(guard, priority).withDrain(endpointPool, DRAIN_TIMEOUT);
+    }
 
     // ---------------------- Helpers: preferences & layout ----------------------
     private static String getPreference(MontoyaApi api, String key) {
@@ -71,13 +122,74 @@ public class Extension implements BurpExtension {
         return panel;
     }
 
+    /** 在规则表最前面插入一条规则并立即生效，同步编辑框与偏好。 */
+    private void prependRoutingRule(MontoyaApi api, RoutingRules.Rule rule) {
+        List<RoutingRules.Rule> rules = new ArrayList<>();
+        rules.add(rule);
+        rules.addAll(rotationHandler.rules().rules());
+        RoutingRules compiled = RoutingRules.of(rules);
+        rotationHandler.setRules(compiled);
+        api.persistence().preferences().setString(PREF_ROUTING_RULES, compiled.toText());
+        if (routingRulesArea != null) {
+            javax.swing.SwingUtilities.invokeLater(() -> routingRulesArea.setText(compiled.toText()));
+        }
+        api.logging().logToOutput("[Route] Added rule: " + rule);
+    }
+
     // ---------------------- Java translation of flareprox.py
     // ----------------------
 
     // ---------------------- Initialize Burp extension ----------------------
     @Override
     public void initialize(MontoyaApi montoyaApi) {
+        long registerStart = System.nanoTime();
         montoyaApi.extension().setName("FlareProx");
+        ipDriftTracker = new IpDriftTracker(ep -> {
+            String ip = probeExitIp(montoyaApi, ep, "[Drift]");
+            endpointPool.store().setIp(ep.name, ip);
+            return ip;
+        }, exitIpIndex, montoyaApi);
+        rotationHandler = new RotationHttpHandler(endpointPool, endpointHealth, montoyaApi);
+        montoyaApi.http().registerHttpHandler(rotationHandler);
+        String savedRules = getPreference(montoyaApi, PREF_ROUTING_RULES);
+        try {
+            rotationHandler.setRules(RoutingRules.parse(savedRules));
+        } catch (IllegalArgumentException ex) {
+            montoyaApi.logging().logToError("[Route] Saved routing rules ignored: " + ex.getMessage());
+        }
+        workerConnections = new WorkerConnections(montoyaApi);
+        workerConnections.setDnsCache(dnsCache);
+        workerConnections.setFeedback(rotationHandler::selector);
+        workerConnections.setColoIndex(coloIndex);
+        rotationHandler.setColoIndex(coloIndex);
+        dnsCache.start();
+        localProxy = new LocalForwardProxy(endpointPool, rotationHandler::selector, workerConnections,
+                endpointHealth, montoyaApi);
+        batchClient = new BatchClient(workerConnections);
+        tunnelClient = new TunnelClient(workerConnections);
+        tunnelClient.setFeedback(rotationHandler::selector);
+        traffic = new TrafficAccounting(montoyaApi);
+        Long savedQuota = montoyaApi.persistence().preferences().getLong(PREF_DAILY_QUOTA);
+        if (savedQuota != null) {
+            traffic.setDailyQuota(savedQuota);
+        }
+        rotationHandler.setTraffic(traffic);
+        workerConnections.setTraffic(traffic);
+        localProxy.setTraffic(traffic);
+        tunnelClient.setTraffic(traffic);
+        traffic.start(30, java.util.concurrent.TimeUnit.SECONDS);
+        montoyaApi.extension().registerUnloadingHandler(() -> {
+            ipDriftTracker.shutdown();
+            localProxy.stop();
+            batchClient.shutdown();
+            tunnelClient.shutdown();
+            workerConnections.shutdown();
+            dnsCache.shutdown();
+            traffic.shutdown();
+            stopJfrRecording(montoyaApi);
+        });
+        logStage(montoyaApi, "core", registerStart);
+        long menuStart = System.nanoTime();
 
         // 注册一个上下文菜单项提供者
         montoyaApi.userInterface().registerContextMenuItemsProvider(new ContextMenuItemsProvider() {
@@ -87,14 +199,104 @@ public class Extension implements BurpExtension {
                 item.addActionListener(l -> {
                     event.messageEditorRequestResponse().ifPresent(messageEditorReqRes -> {
                         HttpRequestResponse reqRes = messageEditorReqRes.requestResponse();
-                        montoyaApi.logging().logToOutput("Request URL: " + reqRes.request().url());
-                        montoyaApi.logging().raiseInfoEvent("Request URL: " + reqRes.request().url());
+                        RoutingRules rules = rotationHandler.rules();
+                        int idx = rules.matchIndex(reqRes.request().httpService().host(), reqRes.request().path(),
+                                reqRes.request().method(), event.toolType());
+                        String route = idx < 0 ? "no routing rule matches (tool switches apply)"
+                                : "rule " + (idx + 1) + ": " + rules.rules().get(idx);
+                        montoyaApi.logging().logToOutput("Request URL: " + reqRes.request().url() + " -> " + route);
+                        montoyaApi.logging().raiseInfoEvent("Request URL: " + reqRes.request().url() + " -> " + route);
                     });
                 });
-                return List.of(item);
+                List<Component> items = new ArrayList<>();
+                items.add(item);
+                // 按所选请求的主机名在规则表最前面插入一条规则
+                List<HttpRequestResponse> selected = event.messageEditorRequestResponse()
+                        .map(m -> List.of(m.requestResponse())).orElse(event.selectedRequestResponses());
+                if (!selected.isEmpty()) {
+                    String host = selected.get(0).request().httpService().host();
+                    for (RoutingRules.Action action : RoutingRules.Action.values()) {
+                        JMenuItem ruleItem = new JMenuItem(action == RoutingRules.Action.ROTATE
+                                ? "FlareProx: rotate " + host : "FlareProx: send " + host + " direct");
+                        ruleItem.addActionListener(l -> prependRoutingRule(montoyaApi,
+                                RoutingRules.rule(action, host, null, null, null)));
+                        items.add(ruleItem);
+                    }
+                }
+                return items;
+            }
+        });
+
+        // 选项卡先注册空容器，首次显示时才构建界面；端点对账在后台进行，不阻塞 Burp 启动
+        JPanel tab = new JPanel(new BorderLayout());
+        tab.addHierarchyListener(ev -> {
+            if ((ev.getChangeFlags() & java.awt.event.HierarchyEvent.SHOWING_CHANGED) != 0 && tab.isShowing()
+                    && tab.getComponentCount() == 0) {
+                long uiStart = System.nanoTime();
+                tab.add(buildSettingsTab(montoyaApi), BorderLayout.CENTER);
+                tab.revalidate();
+                logStage(montoyaApi, "ui", uiStart);
             }
         });
+        montoyaApi.userInterface().registerSuiteTab("Flareprox Settings", tab);
+        logStage(montoyaApi, "register", menuStart);
+        Thread reconcile = new Thread(() -> reconcileEndpoints(montoyaApi), "flareprox-reconcile");
+        reconcile.setDaemon(true);
+        reconcile.start();
+    }
 
+    private void logStage(MontoyaApi montoyaApi, String stage, long startNanos) {
+        startup.record(stage, startNanos);
+        montoyaApi.logging().logToOutput("[Startup] " + startup.describe());
+        montoyaApi.persistence().preferences().setString(PREF_STARTUP_TIMINGS, startup.describe());
+    }
+
+    private static void stopJfrRecording(MontoyaApi montoyaApi) {
+        java.nio.file.Path dest = java.nio.file.Path.of(System.getProperty("java.io.tmpdir"), "flareprox-"
+                + java.time.LocalDateTime.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"))
+                + ".jfr");
+        try {
+            java.nio.file.Path saved = FlareProxEvents.stopRecording(dest);
+            if (saved != null) {
+                montoyaApi.logging().logToOutput("[JFR] Recording saved to " + saved
+                        + " (summarize with: gradle jfrReport -Pjfr=" + saved + ")");
+            }
+        } catch (java.io.IOException ex) {
+            montoyaApi.logging().logToError("[JFR] Failed to save recording: " + ex.getMessage());
+        }
+    }
+
+    // 后台按已保存的凭证拉取端点并放入轮换池；出口 IP 探测留到界面首次显示时
+    private void reconcileEndpoints(MontoyaApi montoyaApi) {
+        if (Boolean.TRUE.equals(montoyaApi.persistence().preferences().getBoolean(PREF_JFR_EVENTS))) {
+            FlareProxEvents.startRecording();
+            montoyaApi.logging().logToOutput("[JFR] Recording FlareProx events.");
+        }
+        long start = System.nanoTime();
+        String token = getPreference(montoyaApi, PREF_API_TOKEN);
+        String accountId = getPreference(montoyaApi, PREF_ACCOUNT_ID);
+        if (token.isBlank() || accountId.isBlank()) {
+            reconciled.complete(null);
+            logStage(montoyaApi, "reconcile", start);
+            return;
+        }
+        try {
+            CloudflareService cf = cloudflare(montoyaApi, token, accountId, CloudflareApiGuard.Priority.BACKGROUND);
+            List<FlareProx.Endpoint> eps = cf.listEndpoints();
+            for (FlareProx.Endpoint ep : eps) traffic.bind(ep.name, accountId);
+            endpointPool.replaceAll(eps);
+            ipDriftTracker.track(endpointPool.snapshot());
+            workerConnections.track(endpointPool.snapshot());
+            montoyaApi.logging().logToOutput("[URLs] Listed " + eps.size() + " endpoints in background.");
+            reconciled.complete(eps);
+        } catch (Exception ex) {
+            montoyaApi.logging().logToError("List URLs failed: " + ex.getMessage());
+            reconciled.completeExceptionally(ex);
+        }
+        logStage(montoyaApi, "reconcile", start);
+    }
+
+    private JComponent buildSettingsTab(MontoyaApi montoyaApi) {
         // 添加 Cloudflare 凭证设置选项卡（优化布局）
         JPanel root = new JPanel();
         root.setLayout(new BoxLayout(root, BoxLayout.Y_AXIS));
@@ -191,31 +393,105 @@ public class Extension implements BurpExtension {
         JButton listBtn = new JButton("List URLs");
         actions.add(listBtn);
         actions.add(Box.createRigidArea(new Dimension(8, 0)));
+        JButton upgradeBtn = new JButton("Upgrade workers");
+        upgradeBtn.setToolTipText("Re-upload the current worker script to existing endpoints in place");
+        actions.add(upgradeBtn);
+        actions.add(Box.createRigidArea(new Dimension(4, 0)));
+        actions.add(new JLabel("Keep %:"));
+        JSpinner keepServingSpinner = new JSpinner(new SpinnerNumberModel(75, 0, 95, 5));
+        ((JSpinner.DefaultEditor) keepServingSpinner.getEditor()).getTextField().setColumns(2);
+        keepServingSpinner.setToolTipText("Minimum share of the pool that keeps serving during the upgrade");
+        actions.add(keepServingSpinner);
+        actions.add(Box.createRigidArea(new Dimension(8, 0)));
         JButton deleteBtn = new JButton("Clean up all deployed endpoints");
         deleteBtn.setForeground(new Color(180, 0, 0));
         actions.add(deleteBtn);
+        actions.add(Box.createRigidArea(new Dimension(8, 0)));
+        JCheckBox rotateBox = new JCheckBox("Rotate traffic");
+        rotateBox.setToolTipText("Send Intruder, Scanner and Repeater requests through the endpoint pool");
+        actions.add(rotateBox);
+        JComboBox<String> strategyCombo = new JComboBox<>(
+                new String[] { "Round robin", "Prefix spread", "Least latency", "Colo spread", "Fastest colos" });
+        strategyCombo.setToolTipText("<html>Prefix spread rotates across distinct exit /24 prefixes first<br>"
+                + "Least latency picks the better of two random endpoints by latency and in-flight requests<br>"
+                + "Colo spread rotates across the Cloudflare colos seen in CF-Ray headers first<br>"
+                + "Fastest colos uses only endpoints served from the 3 lowest-latency colos</html>");
+        actions.add(strategyCombo);
+        JCheckBox retryBox = new JCheckBox("Retry");
+        retryBox.setToolTipText("Retry idempotent requests on another endpoint after Cloudflare errors (52x, 1xxx), within a budget");
+        actions.add(retryBox);
+        JCheckBox hedgeBox = new JCheckBox("Hedge");
+        hedgeBox.setToolTipText("Local proxy: send a second copy via another endpoint when the first is slower than its p95");
+        actions.add(hedgeBox);
+        JCheckBox batchBox = new JCheckBox("Batch");
+        batchBox.setToolTipText("Local proxy: combine small GET/HEAD requests to the same endpoint into one worker call");
+        actions.add(batchBox);
+        JCheckBox tunnelBox = new JCheckBox("Tunnel");
+        tunnelBox.setToolTipText("Local proxy: multiplex GET/HEAD requests over one WebSocket per endpoint, "
+                + "falling back to HTTP when a tunnel fails");
+        actions.add(tunnelBox);
+        JCheckBox detectBox = new JCheckBox("Detect blocks");
+        detectBox.setToolTipText("Classify rotated responses (OK / throttled / blocked / captcha) and rest endpoints blocked by a target");
+        actions.add(detectBox);
+        actions.add(Box.createRigidArea(new Dimension(8, 0)));
+        JCheckBox driftBox = new JCheckBox("Track IP drift");
+        driftBox.setToolTipText("Re-probe every endpoint's exit IP in the background (staggered, every 10 min)");
+        actions.add(driftBox);
+        actions.add(Box.createRigidArea(new Dimension(8, 0)));
+        JCheckBox jfrBox = new JCheckBox("JFR events",
+                Boolean.TRUE.equals(montoyaApi.persistence().preferences().getBoolean(PREF_JFR_EVENTS)));
+        jfrBox.setToolTipText("Emit JFR events for deploys, API calls, IP probes and routing; "
+                + "unticking saves the recording to the temp directory");
+        actions.add(jfrBox);
+        actions.add(Box.createRigidArea(new Dimension(8, 0)));
+        JCheckBox localProxyBox = new JCheckBox("Local proxy");
+        localProxyBox.setToolTipText("Listen on 127.0.0.1 for external tools (ffuf, nuclei, scripts) and forward through the pool");
+        actions.add(localProxyBox);
+        JSpinner localProxyPortSpinner = new JSpinner(new SpinnerNumberModel(8088, 1024, 65535, 1));
+        localProxyPortSpinner.setEditor(new JSpinner.NumberEditor(localProxyPortSpinner, "#"));
+        ((JSpinner.DefaultEditor) localProxyPortSpinner.getEditor()).getTextField().setColumns(5);
+        actions.add(localProxyPortSpinner);
+        actions.add(Box.createRigidArea(new Dimension(8, 0)));
+        JCheckBox prewarmBox = new JCheckBox("Pre-warm");
+        prewarmBox.setToolTipText("Open connections to each ready endpoint in the background and keep them alive");
+        actions.add(prewarmBox);
+        JSpinner prewarmConnsSpinner = new JSpinner(new SpinnerNumberModel(2, 1, 16, 1));
+        ((JSpinner.DefaultEditor) prewarmConnsSpinner.getEditor()).getTextField().setColumns(2);
+        prewarmConnsSpinner.setToolTipText("Connections kept warm per endpoint");
+        actions.add(prewarmConnsSpinner);
+        actions.add(Box.createRigidArea(new Dimension(8, 0)));
+        JButton benchBtn = new JButton("Benchmark pool");
+        benchBtn.setToolTipText("Send open-loop load at a target URL through every pooled endpoint and report "
+                + "achieved req/s, latency percentiles and errors (counts against the daily quota)");
+        actions.add(benchBtn);
+        actions.add(Box.createRigidArea(new Dimension(8, 0)));
+        actions.add(new JLabel("Daily quota:"));
+        JSpinner quotaSpinner = new JSpinner(new SpinnerNumberModel(
+                Long.valueOf(traffic.dailyQuota()), Long.valueOf(1_000), Long.valueOf(100_000_000), Long.valueOf(10_000)));
+        quotaSpinner.setEditor(new JSpinner.NumberEditor(quotaSpinner, "#"));
+        ((JSpinner.DefaultEditor) quotaSpinner.getEditor()).getTextField().setColumns(8);
+        quotaSpinner.setToolTipText("Worker requests per account per UTC day (free plan: 100,000); rotation avoids accounts above 95%");
+        actions.add(quotaSpinner);
 
         // 状态标签：显示执行中/部署中/获取中/清理中等
         actions.add(Box.createRigidArea(new Dimension(16, 0)));
         actions.add(new JLabel("Status:"));
         final JLabel statusLabel = new JLabel("Idle");
+        apiGuardStatus = g -> javax.swing.SwingUtilities.invokeLater(() -> statusLabel.setText("Cloudflare API: "
+                + g.describe()));
         actions.add(statusLabel);
 
         JPanel actionsSection = createSection("Operations", actions);
         root.add(actionsSection);
 
-        // 端点列表 UI（使用 JTable 展示 Name/URL/IP）
-        final javax.swing.table.DefaultTableModel endpointsTableModel =
-                new javax.swing.table.DefaultTableModel(new Object[] { "No.", "Name", "URL", "IP" }, 0) {
-                    @Override
-                    public boolean isCellEditable(int row, int column) { return false; }
-                };
-        final List<FlareProx.Endpoint> createdEndpointsCache = new ArrayList<>();
+        // 端点列表 UI：行与各列直接读取端点存储的快照，状态变化后调用 refresh
+        final EndpointTableModel endpointsTableModel = new EndpointTableModel(endpointPool.store(),
+                coloIndex::coloOfEndpoint);
         JTable endpointsTable = new JTable(endpointsTableModel);
         endpointsTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         endpointsTable.setFillsViewportHeight(true);
         // 启用列排序（点击表头切换升序/降序），并为 IP 列设置数值比较
-        javax.swing.table.TableRowSorter<javax.swing.table.DefaultTableModel> sorter =
+        javax.swing.table.TableRowSorter<EndpointTableModel> sorter =
                 new javax.swing.table.TableRowSorter<>(endpointsTableModel);
         java.util.Comparator<Object> serialComparator = (a, b) -> {
             int ia = 0;
@@ -224,23 +500,8 @@ public class Extension implements BurpExtension {
             try { ib = (b instanceof Number) ? ((Number) b).intValue() : Integer.parseInt(b == null ? "0" : b.toString().trim()); } catch (Exception ignore) {}
             return Integer.compare(ia, ib);
         };
-        java.util.Comparator<String> ipComparator = (a, b) -> {
-            String sa = a == null ? "" : a.trim();
-            String sb = b == null ? "" : b.trim();
-            boolean aSpecial = sa.isEmpty() || "pending".equalsIgnoreCase(sa) || "n/a".equalsIgnoreCase(sa);
-            boolean bSpecial = sb.isEmpty() || "pending".equalsIgnoreCase(sb) || "n/a".equalsIgnoreCase(sb);
-            if (aSpecial && bSpecial) return sa.compareToIgnoreCase(sb);
-            if (aSpecial) return 1;
-            if (bSpecial) return -1;
-            long va = parseIPv4ToLong(sa);
-            long vb = parseIPv4ToLong(sb);
-            if (va >= 0 && vb >= 0) {
-                return Long.compare(va, vb);
-            }
-            return sa.compareToIgnoreCase(sb);
-        };
         sorter.setComparator(0, serialComparator);
-        sorter.setComparator(3, ipComparator);
+        sorter.setComparator(3, ipCellComparator());
         endpointsTable.setRowSorter(sorter);
 
         // 快捷键复制选中行
@@ -277,6 +538,15 @@ public class Extension implements BurpExtension {
         endpointsPopup.add(copyRowItem);
         endpointsPopup.add(copyUrlItem);
         endpointsPopup.add(copyIpItem);
+        endpointsPopup.addSeparator();
+        JMenuItem exportHistoryItem = new JMenuItem("Export IP history...");
+        endpointsPopup.add(exportHistoryItem);
+        JMenuItem ttfbItem = new JMenuItem("Connection TTFB...");
+        endpointsPopup.add(ttfbItem);
+        JMenuItem healthItem = new JMenuItem("Endpoint health...");
+        endpointsPopup.add(healthItem);
+        JMenuItem trafficItem = new JMenuItem("Traffic today...");
+        endpointsPopup.add(trafficItem);
         endpointsTable.setComponentPopupMenu(endpointsPopup);
 
         copyRowItem.addActionListener(ev -> {
@@ -329,6 +599,44 @@ public class Extension implements BurpExtension {
             }
         });
 
+        exportHistoryItem.addActionListener(ev -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new java.io.File("flareprox-ip-history.csv"));
+            if (chooser.showSaveDialog(endpointsTable) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            try {
+                java.nio.file.Files.writeString(chooser.getSelectedFile().toPath(), ipDriftTracker.exportCsv());
+                montoyaApi.logging().raiseInfoEvent("IP history exported to " + chooser.getSelectedFile());
+            } catch (java.io.IOException ex) {
+                montoyaApi.logging().logToError("IP history export failed: " + ex.getMessage());
+            }
+        });
+
+        ttfbItem.addActionListener(ev -> {
+            JTextArea report = new JTextArea(workerConnections.report(), 16, 80);
+            report.setEditable(false);
+            report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JOptionPane.showMessageDialog(endpointsTable, new JScrollPane(report),
+                    "Time to first byte: cold vs warm", JOptionPane.INFORMATION_MESSAGE);
+        });
+
+        healthItem.addActionListener(ev -> {
+            JTextArea report = new JTextArea(endpointHealth.describe(), 16, 100);
+            report.setEditable(false);
+            report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JOptionPane.showMessageDialog(endpointsTable, new JScrollPane(report),
+                    "Endpoint health per target host", JOptionPane.INFORMATION_MESSAGE);
+        });
+
+        trafficItem.addActionListener(ev -> {
+            JTextArea report = new JTextArea(traffic.describe() + "\n\n" + traffic.endpointReport(), 16, 80);
+            report.setEditable(false);
+            report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JOptionPane.showMessageDialog(endpointsTable, new JScrollPane(report),
+                    "Worker requests today (UTC)", JOptionPane.INFORMATION_MESSAGE);
+        });
+
         // 双击复制 URL
         endpointsTable.addMouseListener(new java.awt.event.MouseAdapter() {
             @Override
@@ -347,10 +655,150 @@ public class Extension implements BurpExtension {
         });
 
         JScrollPane endpointsScroll = new JScrollPane(endpointsTable);
-        JPanel resultsSection = createSection("Deployed Endpoints", endpointsScroll);
+        final JLabel diversityLabel = new JLabel("Diversity: -");
+        diversityLabel.setToolTipText("Distinct exit IPs and /24 (IPv6 /32) prefixes; effective = exp(prefix entropy)");
+        JPanel resultsContent = new JPanel(new BorderLayout(0, 4));
+        resultsContent.add(diversityLabel, BorderLayout.NORTH);
+        resultsContent.add(endpointsScroll, BorderLayout.CENTER);
+        final JLabel quotaLabel = new JLabel(traffic.describe());
+        resultsContent.add(quotaLabel, BorderLayout.SOUTH);
+        // 额度与请求摘要、表格中的健康度每 5 秒刷新一次，读计数不影响请求路径
+        javax.swing.Timer quotaTimer = new javax.swing.Timer(5_000, ev -> {
+            quotaLabel.setText(traffic.describe() + " | " + endpointPool.store().describe());
+            endpointsTableModel.refresh();
+            quotaLabel.setToolTipText(coloIndex.describe());
+        });
+        quotaTimer.start();
+        montoyaApi.extension().registerUnloadingHandler(quotaTimer::stop);
+        JPanel resultsSection = createSection("Deployed Endpoints", resultsContent);
         resultsSection.setMaximumSize(new Dimension(Integer.MAX_VALUE, 228));
         root.add(resultsSection);
 
+        // 路由规则：应用时编译并整体替换，请求路径上无锁
+        routingRulesArea = new JTextArea(rotationHandler.rules().toText(), 6, 80);
+        routingRulesArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        routingRulesArea.setToolTipText("<html>One rule per line, first match wins; rules that match nothing fall back to the tool switches.<br>"
+                + "rotate|direct [host=*.example.com] [path=/api/] [method=GET,POST] [tool=INTRUDER,SCANNER,REPEATER]</html>");
+        JButton applyRulesBtn = new JButton("Apply rules");
+        final JLabel rulesStatusLabel = new JLabel(rotationHandler.rules().rules().size() + " rules");
+        JPanel rulesButtons = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 0));
+        rulesButtons.add(applyRulesBtn);
+        rulesButtons.add(rulesStatusLabel);
+        JPanel rulesContent = new JPanel(new BorderLayout(0, 4));
+        rulesContent.add(new JScrollPane(routingRulesArea), BorderLayout.CENTER);
+        rulesContent.add(rulesButtons, BorderLayout.SOUTH);
+        JPanel rulesSection = createSection("Routing Rules", rulesContent);
+        root.add(rulesSection);
+        applyRulesBtn.addActionListener(ev -> {
+            try {
+                RoutingRules rules = RoutingRules.parse(routingRulesArea.getText());
+                rotationHandler.setRules(rules);
+                montoyaApi.persistence().preferences().setString(PREF_ROUTING_RULES, routingRulesArea.getText());
+                rulesStatusLabel.setText(rules.rules().size() + " rules active");
+                montoyaApi.logging().logToOutput("[Route] Applied " + rules.rules().size() + " routing rules.");
+            } catch (IllegalArgumentException ex) {
+                rulesStatusLabel.setText("Not applied: " + ex.getMessage());
+            }
+        });
+
+        // 流量轮换开关与选择策略
+        rotateBox.addItemListener(ev -> {
+            rotationHandler.setEnabled(rotateBox.isSelected());
+            montoyaApi.logging().logToOutput("[Rotate] " + (rotateBox.isSelected() ? "Enabled" : "Disabled")
+                    + " with " + endpointPool.size() + " endpoints in pool.");
+        });
+        strategyCombo.addActionListener(ev -> rotationHandler.setSelector(switch (strategyCombo.getSelectedIndex()) {
+            case 1 -> new PrefixSpreadSelector(exitIpIndex);
+            case 2 -> new LeastLatencySelector();
+            case 3 -> new ColoSelector(coloIndex, ColoSelector.Mode.SPREAD, 0);
+            case 4 -> new ColoSelector(coloIndex, ColoSelector.Mode.FASTEST, 3);
+            default -> EndpointSelector.roundRobin();
+        }));
+
+        // 重试策略由 Burp 内轮换与本地代理共用，共享同一预算
+        retryBox.addItemListener(ev -> {
+            RetryPolicy policy = retryBox.isSelected() ? RetryPolicy.standard() : null;
+            RetryPolicy previous = rotationHandler.retryPolicy();
+            rotationHandler.setRetryPolicy(policy);
+            localProxy.setRetryPolicy(policy);
+            montoyaApi.logging().logToOutput("[Retry] " + (policy != null ? "Enabled"
+                    : "Disabled" + (previous != null ? ". " + previous.describe() : "")));
+        });
+        hedgeBox.addItemListener(ev -> localProxy.setHedging(hedgeBox.isSelected()));
+        batchBox.addItemListener(ev -> localProxy.setBatching(batchBox.isSelected() ? batchClient : null));
+        tunnelBox.addItemListener(ev -> localProxy.setTunnel(tunnelBox.isSelected() ? tunnelClient : null));
+        quotaSpinner.addChangeListener(ev -> {
+            long quota = ((Number) quotaSpinner.getValue()).longValue();
+            traffic.setDailyQuota(quota);
+            montoyaApi.persistence().preferences().setLong(PREF_DAILY_QUOTA, quota);
+        });
+        detectBox.addItemListener(ev -> {
+            BlockDetector d = detectBox.isSelected() ? blockDetector : null;
+            rotationHandler.setDetector(d);
+            localProxy.setDetector(d);
+        });
+
+        // 机房列由经端点的响应被动填充，不额外探测
+        coloIndex.setListener((name, colo) -> javax.swing.SwingUtilities.invokeLater(endpointsTableModel::refresh));
+
+        // IP 漂移跟踪：重新探测结果回写表格与多样性统计
+        ipDriftTracker.setListener((ep, ip) -> javax.swing.SwingUtilities.invokeLater(() -> {
+            endpointsTableModel.refresh();
+            diversityLabel.setText("Diversity: " + exitIpIndex.describe() + " | Drift: " + ipDriftTracker.describe());
+        }));
+        jfrBox.addItemListener(ev -> {
+            montoyaApi.persistence().preferences().setBoolean(PREF_JFR_EVENTS, jfrBox.isSelected());
+            if (jfrBox.isSelected()) {
+                FlareProxEvents.startRecording();
+                montoyaApi.logging().logToOutput("[JFR] Recording FlareProx events.");
+            } else {
+                stopJfrRecording(montoyaApi);
+            }
+        });
+        driftBox.addItemListener(ev -> {
+            if (driftBox.isSelected()) {
+                ipDriftTracker.start(endpointPool.snapshot());
+                montoyaApi.logging().logToOutput("[Drift] Tracking " + endpointPool.size() + " endpoints.");
+            } else {
+                ipDriftTracker.stop();
+                montoyaApi.logging().logToOutput("[Drift] Tracking stopped. " + ipDriftTracker.describe());
+            }
+        });
+
+        // 连接预热：开启时为池中现有端点预热，之后新就绪端点自动预热
+        prewarmConnsSpinner.addChangeListener(ev ->
+                workerConnections.setConnectionsPerEndpoint((Integer) prewarmConnsSpinner.getValue()));
+        prewarmBox.addItemListener(ev -> {
+            workerConnections.setPrewarm(prewarmBox.isSelected());
+            if (prewarmBox.isSelected()) {
+                workerConnections.track(endpointPool.snapshot());
+                montoyaApi.logging().logToOutput("[Warm] Pre-warming " + endpointPool.size() + " endpoints x "
+                        + prewarmConnsSpinner.getValue() + " connections.");
+            } else {
+                montoyaApi.logging().logToOutput("[Warm] Keep-alive stopped.\n" + workerConnections.report());
+            }
+        });
+
+        // 本地转发代理：仅监听回环地址
+        localProxyBox.addItemListener(ev -> {
+            if (localProxyBox.isSelected()) {
+                try {
+                    int port = localProxy.start((Integer) localProxyPortSpinner.getValue());
+                    localProxyPortSpinner.setEnabled(false);
+                    montoyaApi.logging().logToOutput("[Proxy] Listening on 127.0.0.1:" + port
+                            + " with " + endpointPool.size() + " endpoints in pool.");
+                } catch (java.io.IOException ex) {
+                    montoyaApi.logging().logToError("[Proxy] Failed to listen: " + ex.getMessage());
+                    javax.swing.SwingUtilities.invokeLater(() -> localProxyBox.setSelected(false));
+                }
+            } else if (localProxy.isRunning()) {
+                localProxy.stop();
+                localProxyPortSpinner.setEnabled(true);
+                montoyaApi.logging().logToOutput("[Proxy] Stopped. " + localProxy.describe()
+                        + " (" + batchClient.describe() + "; " + tunnelClient.describe() + ")");
+            }
+        });
+
         // 自动保存逻辑：字段失去焦点时保存
         java.awt.event.FocusAdapter autoSaveListener = new java.awt.event.FocusAdapter() {
             @Override
@@ -414,104 +862,40 @@ public class Extension implements BurpExtension {
             deleteBtn.setEnabled(false);
 
             new Thread(() -> {
-                CloudflareService cf = new SimpleCloudflareService(tokenFinal, accountIdFinal, montoyaApi);
+                CloudflareService cf = cloudflare(montoyaApi, tokenFinal, accountIdFinal,
+                        CloudflareApiGuard.Priority.INTERACTIVE);
                 FlareProx prox = new FlareProx(cf);
+                // 端点就绪后立即加入轮换池与表格，并在后台探测出口 IP
+                java.util.concurrent.ExecutorService execCreated = java.util.concurrent.Executors
+                        .newFixedThreadPool(Math.min(4, Math.max(1, count)));
                 try {
-                    FlareProx.Result res = prox.createProxies(count, montoyaApi);
+                    FlareProx.Result res = prox.createProxies(count, montoyaApi, ep -> {
+                        traffic.bind(ep.name, accountIdFinal);
+                        endpointPool.add(ep);
+                        ipDriftTracker.track(endpointPool.snapshot());
+                        workerConnections.onReady(ep);
+                        javax.swing.SwingUtilities.invokeLater(() -> {
+                            endpointsTableModel.refresh();
+                            execCreated.submit(() -> {
+                                final String ipFinal = probeExitIp(montoyaApi, ep, "[Deploy]");
+                                exitIpIndex.update(ep.name, ipFinal);
+                                endpointPool.store().setIp(ep.name, ipFinal);
+                                ipDriftTracker.record(ep.name, ipFinal);
+                                javax.swing.SwingUtilities.invokeLater(() -> {
+                                    endpointsTableModel.refresh();
+                                    diversityLabel.setText("Diversity: " + exitIpIndex.describe());
+                                });
+                            });
+                        });
+                    });
                     montoyaApi.logging().logToOutput(
                             "Deploy completed. Created: " + res.created.size() + ", Failed: " + res.failed);
                     montoyaApi.logging().raiseInfoEvent(
                             "Deploy completed. Created: " + res.created.size() + ", Failed: " + res.failed);
+                    for (FlareProx.Endpoint ep : res.unready) {
+                        montoyaApi.logging().logToOutput("[Deploy] Not serving yet, kept out of pool: " + ep.name);
+                    }
                     javax.swing.SwingUtilities.invokeLater(() -> {
-                        if (!res.created.isEmpty()) {
-                            // 在部署成功后，直接将新端点填入表格并进行 IP 探测
-                            java.util.concurrent.ExecutorService execCreated = java.util.concurrent.Executors
-                                    .newFixedThreadPool(Math.min(4, Math.max(1, res.created.size())));
-                            for (FlareProx.Endpoint ep : res.created) {
-                                final int rowIndex = endpointsTableModel.getRowCount();
-                                endpointsTableModel.addRow(new Object[] { rowIndex + 1, ep.name, ep.url, "pending" });
-                                createdEndpointsCache.add(ep);
-                                execCreated.submit(() -> {
-                                    int maxAttempts = 3;
-                                    long baseDelayMs = 500;
-                                    String ip = "n/a";
-                                    boolean parsed = false;
-                                    for (int attempt = 1; attempt <= maxAttempts; attempt++) {
-                                        try {
-                                            String probeUrl = ep.url + "/https://httpbin.org/ip";
-                                            burp.api.montoya.http.message.requests.HttpRequest req = burp.api.montoya.http.message.requests.HttpRequest
-                                                    .httpRequestFromUrl(probeUrl)
-                                                    .withMethod("GET");
-                                            burp.api.montoya.http.message.HttpRequestResponse rr = montoyaApi.http()
-                                                    .sendRequest(req);
-                                            int status = (rr != null && rr.response() != null) ? rr.response().statusCode()
-                                                    : -1;
-                                            String respBody = (rr != null && rr.response() != null)
-                                                    ? rr.response().bodyToString()
-                                                    : "";
-
-                                            if (status == 200 && respBody != null && !respBody.isBlank()) {
-                                                java.util.regex.Matcher m = java.util.regex.Pattern
-                                                        .compile("\"origin\"\\s*:\\s*\"([^\"]+)\"")
-                                                        .matcher(respBody);
-                                                if (m.find()) {
-                                                    String origin = m.group(1);
-                                                    String[] parts = origin.split(",");
-                                                    String chosen = parts[parts.length - 1].trim();
-                                                    ip = chosen;
-                                                    parsed = true;
-                                                } else {
-                                                    java.util.regex.Matcher ipv4 = java.util.regex.Pattern
-                                                            .compile("(?:\\b\\d{1,3}\\.){3}\\d{1,3}\\b")
-                                                            .matcher(respBody);
-                                                    if (ipv4.find()) {
-                                                        ip = ipv4.group();
-                                                        parsed = true;
-                                                    } else if (attempt == maxAttempts) {
-                                                        String preview = respBody.length() > 200
-                                                                ? respBody.substring(0, 200) + "..."
-                                                                : respBody;
-                                                        montoyaApi.logging().logToOutput("[Deploy] IP parse failed for "
-                                                                + ep.name + " body preview: " + preview);
-                                                    }
-                                                }
-                                            } else {
-                                                montoyaApi.logging().logToOutput(
-                                                        "[Deploy] IP probe failed status=" + status + " for " + ep.name + " attempt " + attempt + "/" + maxAttempts);
-                                                if (respBody != null && !respBody.isBlank() && attempt == maxAttempts) {
-                                                    String preview = respBody.length() > 200
-                                                            ? respBody.substring(0, 200) + "..."
-                                                            : respBody;
-                                                    montoyaApi.logging()
-                                                            .logToOutput("[Deploy] IP probe body preview: " + preview);
-                                                }
-                                            }
-
-                                            if (parsed) {
-                                                break;
-                                            }
-
-                                            if (attempt < maxAttempts && "n/a".equals(ip)) {
-                                                try {
-                                                    Thread.sleep(baseDelayMs * attempt);
-                                                } catch (InterruptedException ie) {
-                                                    Thread.currentThread().interrupt();
-                                                    break;
-                                                }
-                                            }
-                                        } catch (Exception exIp) {
-                                            montoyaApi.logging().logToOutput(
-                                                    "[Deploy] IP probe error for " + ep.name + " attempt " + attempt + "/" + maxAttempts + ": " + exIp.getMessage());
-                                        }
-                                    }
-                                    final String ipFinal = ip;
-                                    javax.swing.SwingUtilities.invokeLater(() -> {
-                                        endpointsTableModel.setValueAt(ipFinal, rowIndex, 3);
-                                    });
-                                });
-                            }
-                            execCreated.shutdown();
-                        }
                         statusLabel.setText("Deploy finished: created " + res.created.size() + " , failed " + res.failed);
                     });
                 } catch (FlareProx.FlareProxException ex) {
@@ -519,6 +903,9 @@ public class Extension implements BurpExtension {
                     javax.swing.SwingUtilities.invokeLater(() -> statusLabel.setText("Deploy failed: " + ex.getMessage()));
                 } finally {
                     javax.swing.SwingUtilities.invokeLater(() -> {
+                        // createProxies 在所有 onReady 返回后才返回，其排入 EDT 的任务都在此之前执行，
+                        // 此时关闭探测线程池不会拒绝探测（已提交的探测会继续完成）
+                        execCreated.shutdown();
                         deployBtn.setEnabled(true);
                         listBtn.setEnabled(true);
                         deleteBtn.setEnabled(true);
@@ -527,6 +914,32 @@ public class Extension implements BurpExtension {
             }).start();
         });
 
+        // 在 EDT 上按已替换的端点池刷新表格，并在后台线程中探测出口 IP
+        java.util.function.Consumer<List<FlareProx.Endpoint>> showEndpoints = eps -> {
+            endpointsTableModel.refresh();
+            if (eps.isEmpty()) {
+                statusLabel.setText("Fetched 0 URLs");
+                return;
+            }
+            // 在后台线程中进行 IP 探测，避免在 EDT 进行网络请求
+            java.util.concurrent.ExecutorService exec = java.util.concurrent.Executors
+                    .newFixedThreadPool(Math.min(4, Math.max(1, eps.size())));
+            for (FlareProx.Endpoint ep : eps) {
+                exec.submit(() -> {
+                    final String ipFinal = probeExitIp(montoyaApi, ep, "[URLs]");
+                    exitIpIndex.update(ep.name, ipFinal);
+                    endpointPool.store().setIp(ep.name, ipFinal);
+                    ipDriftTracker.record(ep.name, ipFinal);
+                    javax.swing.SwingUtilities.invokeLater(() -> {
+                        endpointsTableModel.refresh();
+                        diversityLabel.setText("Diversity: " + exitIpIndex.describe());
+                    });
+                });
+            }
+            exec.shutdown();
+            statusLabel.setText("Fetched " + eps.size() + " URLs");
+        };
+
         // 刷新/显示 URLs：从 Cloudflare 拉取 flareprox-* 并显示
         listBtn.addActionListener(e -> {
             String token = new String(tokenField.getPassword()).trim();
@@ -540,109 +953,22 @@ public class Extension implements BurpExtension {
             deleteBtn.setEnabled(false);
 
             new Thread(() -> {
-                CloudflareService cf = new SimpleCloudflareService(tokenFinal, accountIdFinal, montoyaApi);
+                CloudflareService cf = cloudflare(montoyaApi, tokenFinal, accountIdFinal,
+                        CloudflareApiGuard.Priority.INTERACTIVE);
                 try {
                     List<FlareProx.Endpoint> eps = cf.listEndpoints();
-                    javax.swing.SwingUtilities.invokeLater(() -> {
-                        endpointsTableModel.setRowCount(0);
-                        createdEndpointsCache.clear();
-                        if (eps.isEmpty()) {
-                            statusLabel.setText("Fetched 0 URLs");
-                        } else {
-                            // 在后台线程中进行 IP 探测，避免在 EDT 进行网络请求
-                            java.util.concurrent.ExecutorService exec = java.util.concurrent.Executors
-                                    .newFixedThreadPool(Math.min(4, Math.max(1, eps.size())));
-
-                            for (FlareProx.Endpoint ep : eps) {
-                                final int rowIndex = endpointsTableModel.getRowCount();
-                                endpointsTableModel.addRow(new Object[] { rowIndex + 1, ep.name, ep.url, "pending" });
-                                createdEndpointsCache.add(ep);
-                                exec.submit(() -> {
-                                    int maxAttempts = 3;
-                                    long baseDelayMs = 500;
-                                    String ip = "n/a";
-                                    boolean parsed = false;
-                                    for (int attempt = 1; attempt <= maxAttempts; attempt++) {
-                                        try {
-                                            String probeUrl = ep.url + "/https://httpbin.org/ip";
-                                            burp.api.montoya.http.message.requests.HttpRequest req = burp.api.montoya.http.message.requests.HttpRequest
-                                                    .httpRequestFromUrl(probeUrl)
-                                                    .withMethod("GET");
-                                            burp.api.montoya.http.message.HttpRequestResponse rr = montoyaApi.http()
-                                                    .sendRequest(req);
-                                            int status = (rr != null && rr.response() != null) ? rr.response().statusCode()
-                                                    : -1;
-                                            String respBody = (rr != null && rr.response() != null)
-                                                    ? rr.response().bodyToString()
-                                                    : "";
-
-                                            if (status == 200 && respBody != null && !respBody.isBlank()) {
-                                                java.util.regex.Matcher m = java.util.regex.Pattern
-                                                        .compile("\"origin\"\\s*:\\s*\"([^\"]+)\"")
-                                                        .matcher(respBody);
-                                                if (m.find()) {
-                                                    String origin = m.group(1);
-                                                    String[] parts = origin.split(",");
-                                                    String chosen = parts[parts.length - 1].trim();
-                                                    ip = chosen;
-                                                    parsed = true;
-                                                } else {
-                                                    java.util.regex.Matcher ipv4 = java.util.regex.Pattern
-                                                            .compile("(?:\\b\\d{1,3}\\.){3}\\d{1,3}\\b")
-                                                            .matcher(respBody);
-                                                    if (ipv4.find()) {
-                                                        ip = ipv4.group();
-                                                        parsed = true;
-                                                    } else if (attempt == maxAttempts) {
-                                                        String preview = respBody.length() > 200
-                                                                ? respBody.substring(0, 200) + "..."
-                                                                : respBody;
-                                                        montoyaApi.logging().logToOutput("[URLs] IP parse failed for "
-                                                                + ep.name + " body preview: " + preview);
-                                                    }
-                                                }
-                                            } else {
-                                                montoyaApi.logging().logToOutput(
-                                                        "[URLs] IP probe failed status=" + status + " for " + ep.name + " attempt " + attempt + "/" + maxAttempts);
-                                                if (respBody != null && !respBody.isBlank() && attempt == maxAttempts) {
-                                                    String preview = respBody.length() > 200
-                                                            ? respBody.substring(0, 200) + "..."
-                                                            : respBody;
-                                                    montoyaApi.logging()
-                                                            .logToOutput("[URLs] IP probe body preview: " + preview);
-                                                }
-                                            }
-
-                                            if (parsed) {
-                                                break;
-                                            }
-
-                                            if (attempt < maxAttempts && "n/a".equals(ip)) {
-                                                try {
-                                                    Thread.sleep(baseDelayMs * attempt);
-                                                } catch (InterruptedException ie) {
-                                                    Thread.currentThread().interrupt();
-                                                    break;
-                                                }
-                                            }
-                                        } catch (Exception exIp) {
-                                            montoyaApi.logging().logToOutput(
-                                                    "[URLs] IP probe error for " + ep.name + " attempt " + attempt + "/" + maxAttempts + ": " + exIp.getMessage());
-                                        }
-                                    }
-                                    final String ipFinal = ip;
-                                    javax.swing.SwingUtilities.invokeLater(() -> {
-                                        endpointsTableModel.setValueAt(ipFinal, rowIndex, 3);
-                                    });
-                                });
-                            }
-                            exec.shutdown();
-
-                            statusLabel.setText("Fetched " + eps.size() + " URLs");
-                        }
-                    });
+                    for (FlareProx.Endpoint ep : eps) traffic.bind(ep.name, accountIdFinal);
+                    endpointPool.replaceAll(eps);
+                    exitIpIndex.clear();
+                    ipDriftTracker.track(endpointPool.snapshot());
+                    workerConnections.track(endpointPool.snapshot());
+                    javax.swing.SwingUtilities.invokeLater(() -> showEndpoints.accept(eps));
 
                     montoyaApi.logging().logToOutput("[URLs] Listed " + eps.size() + " endpoints.");
+                    long outdated = eps.stream().filter(ep -> !ep.isScriptCurrent()).count();
+                    if (outdated > 0) {
+                        montoyaApi.logging().logToOutput("[URLs] " + outdated + " endpoint(s) run an outdated worker script.");
+                    }
                     montoyaApi.logging().raiseInfoEvent("Listed " + eps.size() + " endpoints");
                 } catch (Exception ex1) {
                     montoyaApi.logging().logToError("List URLs failed: " + ex1.getMessage());
@@ -657,9 +983,110 @@ public class Extension implements BurpExtension {
             }).start();
         });
 
+        // 滚动升级：原地更新脚本，URL 与出口 IP 保持不变
+        upgradeBtn.addActionListener(e -> {
+            final List<FlareProx.Endpoint> targets = endpointPool.snapshot();
+            if (targets.isEmpty()) {
+                montoyaApi.logging().raiseInfoEvent("[Upgrade] No endpoints to upgrade.");
+                return;
+            }
+            String token = new String(tokenField.getPassword()).trim();
+            String accountId = new String(accountIdField.getPassword()).trim();
+            final String tokenFinal = token.isBlank() ? getPreference(montoyaApi, PREF_API_TOKEN) : token;
+            final String accountIdFinal = accountId.isBlank() ? getPreference(montoyaApi, PREF_ACCOUNT_ID) : accountId;
+            final double keepFraction = ((Integer) keepServingSpinner.getValue()) / 100.0;
+
+            statusLabel.setText("Upgrading...");
+            upgradeBtn.setEnabled(false);
+            deployBtn.setEnabled(false);
+            listBtn.setEnabled(false);
+            deleteBtn.setEnabled(false);
+
+            new Thread(() -> {
+                CloudflareService cf = cloudflare(montoyaApi, tokenFinal, accountIdFinal,
+                        CloudflareApiGuard.Priority.BACKGROUND);
+                try {
+                    PoolUpgrader.Report report = new PoolUpgrader(cf, endpointPool, montoyaApi)
+                            .withMinServingFraction(keepFraction)
+                            .upgrade(targets);
+                    javax.swing.SwingUtilities.invokeLater(() -> {
+                        endpointsTableModel.refresh();
+                        statusLabel.setText("Upgrade finished: upgraded " + report.upgraded.size()
+                                + ", current " + report.skipped.size()
+                                + ", rolled back " + report.rolledBack.size()
+                                + ", failed " + report.failed.size()
+                                + (report.belowServingFraction ? " (pool too small for keep-serving %)" : ""));
+                    });
+                    montoyaApi.logging().raiseInfoEvent("Upgrade finished: upgraded " + report.upgraded.size()
+                            + ", rolled back " + report.rolledBack.size());
+                } catch (Exception ex) {
+                    montoyaApi.logging().logToError("Upgrade failed: " + ex.getMessage());
+                    javax.swing.SwingUtilities.invokeLater(() -> statusLabel.setText("Upgrade failed: " + ex.getMessage()));
+                } finally {
+                    javax.swing.SwingUtilities.invokeLater(() -> {
+                        upgradeBtn.setEnabled(true);
+                        deployBtn.setEnabled(true);
+                        listBtn.setEnabled(true);
+                        deleteBtn.setEnabled(true);
+                    });
+                }
+            }).start();
+        });
+
+        // 池吞吐测试：运行中再次点击按钮停止；结果摘要保存为历史，便于与之前的运行对比
+        java.util.concurrent.atomic.AtomicBoolean benchStop = new java.util.concurrent.atomic.AtomicBoolean();
+        benchBtn.addActionListener(e -> {
+            if (benchBtn.getText().startsWith("Stop")) {
+                benchStop.set(true);
+                return;
+            }
+            String savedTarget = getPreference(montoyaApi, PREF_BENCH_TARGET);
+            JTextField targetField = new JTextField(savedTarget.isBlank() ? "https://httpbin.org/get" : savedTarget, 32);
+            JSpinner rateSpinner = new JSpinner(new SpinnerNumberModel(20.0, 0.5, 5_000.0, 5.0));
+            JSpinner secondsSpinner = new JSpinner(new SpinnerNumberModel(30, 1, 3_600, 10));
+            JPanel benchForm = new JPanel(new GridBagLayout());
+            addFormRow(benchForm, 0, "Target URL", targetField);
+            addFormRow(benchForm, 1, "Requests per second", rateSpinner);
+            addFormRow(benchForm, 2, "Duration (s)", secondsSpinner);
+            List<FlareProx.Endpoint> eps = endpointPool.snapshot();
+            int choice = JOptionPane.showConfirmDialog(root, benchForm, "Benchmark " + eps.size() + " endpoints",
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (choice != JOptionPane.OK_OPTION) return;
+            PoolBenchmark.Config cfg = new PoolBenchmark.Config();
+            cfg.targetUrl = targetField.getText().trim();
+            cfg.ratePerSecond = ((Number) rateSpinner.getValue()).doubleValue();
+            cfg.durationSeconds = (Integer) secondsSpinner.getValue();
+            montoyaApi.persistence().preferences().setString(PREF_BENCH_TARGET, cfg.targetUrl);
+            benchStop.set(false);
+            benchBtn.setText("Stop benchmark");
+            statusLabel.setText("Benchmarking " + eps.size() + " endpoints at " + cfg.ratePerSecond + " req/s...");
+            new Thread(() -> {
+                try {
+                    PoolBenchmark.Result r = new PoolBenchmark(workerConnections).run(eps, cfg, benchStop::get);
+                    String history = getPreference(montoyaApi, PREF_BENCH_HISTORY);
+                    montoyaApi.logging().logToOutput("[Bench] " + r.describe()
+                            + (history.isBlank() ? "" : "[Bench] Previous runs:\n" + history));
+                    List<String> lines = new ArrayList<>(history.isBlank() ? List.of() : List.of(history.split("\n")));
+                    lines.add(r.summaryLine());
+                    while (lines.size() > BENCH_HISTORY_LINES) lines.remove(0);
+                    montoyaApi.persistence().preferences().setString(PREF_BENCH_HISTORY, String.join("\n", lines));
+                    javax.swing.SwingUtilities.invokeLater(() -> statusLabel.setText(String.format(
+                            "Pool: %.1f req/s, p99 %.0f ms, %d errors", r.achievedPerSecond(),
+                            r.pool.percentileMillis(0.99, true), r.pool.requests() - r.pool.ok())));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException ex) {
+                    montoyaApi.logging().logToError("[Bench] Benchmark failed: " + ex.getMessage());
+                    javax.swing.SwingUtilities.invokeLater(() -> statusLabel.setText("Benchmark failed: "
+                            + ex.getMessage()));
+                } finally {
+                    javax.swing.SwingUtilities.invokeLater(() -> benchBtn.setText("Benchmark pool"));
+                }
+            }, "flareprox-bench").start();
+        });
+
         deleteBtn.addActionListener(e -> {
-            int size = endpointsTableModel.getRowCount();
-            if (size == 0) {
+            if (endpointPool.size() == 0) {
                 montoyaApi.logging().logToOutput("[Cleanup] No endpoints to clean.");
                 montoyaApi.logging().raiseInfoEvent("[Cleanup] No endpoints to clean.");
                 return;
@@ -686,12 +1113,20 @@ public class Extension implements BurpExtension {
             listBtn.setEnabled(false);
 
             new Thread(() -> {
-                CloudflareService cf = new SimpleCloudflareService(tokenFinal, accountIdFinal, montoyaApi);
+                CloudflareService cf = cloudflare(montoyaApi, tokenFinal, accountIdFinal,
+                        CloudflareApiGuard.Priority.INTERACTIVE);
                 try {
+                    // cleanupAll 先将端点移出轮换并等待在途请求结束，失败时放回它移出的端点
                     cf.cleanupAll();
+                    endpointPool.clear();
+                    exitIpIndex.clear();
+                    coloIndex.clear();
+                    ipDriftTracker.track(List.of());
+                    workerConnections.track(List.of());
+                    endpointHealth.clear();
                     javax.swing.SwingUtilities.invokeLater(() -> {
-                        endpointsTableModel.setRowCount(0);
-                        createdEndpointsCache.clear();
+                        endpointsTableModel.refresh();
+                        diversityLabel.setText("Diversity: -");
                         statusLabel.setText("Cleanup completed");
                     });
                     montoyaApi.logging().logToOutput("Cleanup completed.");
@@ -709,23 +1144,116 @@ public class Extension implements BurpExtension {
             }).start();
         });
 
-        montoyaApi.userInterface().registerSuiteTab("Flareprox Settings", root);
-        javax.swing.SwingUtilities.invokeLater(listBtn::doClick);
+        // 展示后台对账的结果；对账尚未结束时在结束后展示
+        reconciled.whenComplete((eps, ex) -> javax.swing.SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                statusLabel.setText("Fetch failed: " + ex.getMessage());
+            } else if (eps != null) {
+                showEndpoints.accept(eps);
+            }
+        }));
+        return root;
     }
 
-    private static long parseIPv4ToLong(String ip) {
-        try {
-            String[] parts = ip.split("\\.");
-            if (parts.length != 4) return -1;
-            long res = 0;
-            for (String p : parts) {
-                int v = Integer.parseInt(p);
-                if (v < 0 || v > 255) return -1;
-                res = (res << 8) | v;
+    // 通过 Worker 访问 httpbin 探测出口 IP，失败时按退避重试
+    private static String probeExitIp(MontoyaApi montoyaApi, FlareProx.Endpoint ep, String tag) {
+        int maxAttempts = 3;
+        long baseDelayMs = 500;
+        String ip = "n/a";
+        boolean parsed = false;
+        long probeStart = System.nanoTime();
+        int attempts = 0;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            attempts = attempt;
+            try {
+                String probeUrl = ep.url + "/https://httpbin.org/ip";
+                burp.api.montoya.http.message.requests.HttpRequest req = burp.api.montoya.http.message.requests.HttpRequest
+                        .httpRequestFromUrl(probeUrl)
+                        .withMethod("GET");
+                burp.api.montoya.http.message.HttpRequestResponse rr = montoyaApi.http()
+                        .sendRequest(req);
+                int status = (rr != null && rr.response() != null) ? rr.response().statusCode()
+                        : -1;
+                String respBody = (rr != null && rr.response() != null)
+                        ? rr.response().bodyToString()
+                        : "";
+
+                if (status == 200 && respBody != null && !respBody.isBlank()) {
+                    java.util.regex.Matcher m = java.util.regex.Pattern
+                            .compile("\"origin\"\\s*:\\s*\"([^\"]+)\"")
+                            .matcher(respBody);
+                    if (m.find()) {
+                        String origin = m.group(1);
+                        String[] parts = origin.split(",");
+                        String chosen = parts[parts.length - 1].trim();
+                        ip = chosen;
+                        parsed = true;
+                    } else {
+                        String found = ListRowParser.extractIpFromRow(respBody);
+                        if (!found.isEmpty()) {
+                            ip = found;
+                            parsed = true;
+                        } else if (attempt == maxAttempts) {
+                            String preview = respBody.length() > 200
+                                    ? respBody.substring(0, 200) + "..."
+                                    : respBody;
+                            montoyaApi.logging().logToOutput(tag + " IP parse failed for "
+                                    + ep.name + " body preview: " + preview);
+                        }
+                    }
+                } else {
+                    montoyaApi.logging().logToOutput(
+                            tag + " IP probe failed status=" + status + " for " + ep.name + " attempt " + attempt + "/" + maxAttempts);
+                    if (respBody != null && !respBody.isBlank() && attempt == maxAttempts) {
+                        String preview = respBody.length() > 200
+                                ? respBody.substring(0, 200) + "..."
+                                : respBody;
+                        montoyaApi.logging()
+                                .logToOutput(tag + " IP probe body preview: " + preview);
+                    }
+                }
+
+                if (parsed) {
+                    break;
+                }
+
+                if (attempt < maxAttempts && "n/a".equals(ip)) {
+                    try {
+                        Thread.sleep(baseDelayMs * attempt);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            } catch (Exception exIp) {
+                montoyaApi.logging().logToOutput(
+                        tag + " IP probe error for " + ep.name + " attempt " + attempt + "/" + maxAttempts + ": " + exIp.getMessage());
             }
-            return res;
-        } catch (Exception e) {
-            return -1;
         }
+        FlareProxEvents.ipProbe(ep.name, parsed ? ip : null, attempts, tag, probeStart);
+        return ip;
+    }
+
+    // IP 列排序：IPv4 按数值，其余按文本，pending/n/a/空值排在最后
+    static java.util.Comparator<String> ipCellComparator() {
+        return (a, b) -> {
+            String sa = a == null ? "" : a.trim();
+            String sb = b == null ? "" : b.trim();
+            boolean aSpecial = sa.isEmpty() || "pending".equalsIgnoreCase(sa) || "n/a".equalsIgnoreCase(sa);
+            boolean bSpecial = sb.isEmpty() || "pending".equalsIgnoreCase(sb) || "n/a".equalsIgnoreCase(sb);
+            if (aSpecial && bSpecial) return sa.compareToIgnoreCase(sb);
+            if (aSpecial) return 1;
+            if (bSpecial) return -1;
+            long va = parseIPv4ToLong(sa);
+            long vb = parseIPv4ToLong(sb);
+            if (va >= 0 && vb >= 0) {
+                return Long.compare(va, vb);
+            }
+            return sa.compareToIgnoreCase(sb);
+        };
+    }
+
+    private static long parseIPv4ToLong(String ip) {
+        return IpAddress.parseIPv4(ip);
     }
 }
\ No newline at end of file
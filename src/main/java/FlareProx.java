@@ -1,20 +1,34 @@
 import burp.api.montoya.MontoyaApi;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class FlareProx {
     public static class Endpoint {
         public final String name;
         public final String url;
+        // Worker 脚本内容哈希（来自脚本 tags），未知时为空串
+        public final String scriptHash;
 
         public Endpoint(String name, String url) {
+            this(name, url, "");
+        }
+
+        public Endpoint(String name, String url, String scriptHash) {
             this.name = name;
             this.url = url;
+            this.scriptHash = scriptHash == null ? "" : scriptHash;
+        }
+
+        public boolean isScriptCurrent() {
+            return WorkerScriptTemplate.isCurrent(scriptHash);
         }
     }
 
     public static class Result {
         public final List<Endpoint> created = new ArrayList<>();
+        // 已上传但在超时内未开始服务的端点，不会加入轮换池
+        public final List<Endpoint> unready = new ArrayList<>();
         public int failed = 0;
     }
 
@@ -31,23 +45,18 @@ public class FlareProx {
     }
 
     public Result createProxies(int count, MontoyaApi api) {
+        return createProxies(count, api, null);
+    }
+
+    public Result createProxies(int count, MontoyaApi api, Consumer<Endpoint> onReady) {
         if (cloudflare == null) {
             throw new FlareProxException("FlareProx not configured");
         }
 
         api.logging().logToOutput("\nCreating " + count + " FlareProx endpoint" + (count != 1 ? "s" : "") + "...");
 
-        Result results = new Result();
-        for (int i = 0; i < count; i++) {
-            try {
-                Endpoint endpoint = cloudflare.createDeployment();
-                results.created.add(endpoint);
-                api.logging().logToOutput("  [" + (i + 1) + "/" + count + "] " + endpoint.name + " -> " + endpoint.url);
-            } catch (FlareProxException e) {
-                api.logging().logToOutput("  Failed to create endpoint " + (i + 1) + ": " + e.getMessage());
-                results.failed += 1;
-            }
-        }
+        DeploymentPipeline pipeline = new DeploymentPipeline(cloudflare, ReadinessCheck.httpProbe(), api);
+        Result results = pipeline.deploy(count, onReady);
 
         cloudflare.syncEndpoints();
 
@@ -55,4 +64,4 @@ public class FlareProx {
         api.logging().logToOutput("\nCreated: " + totalCreated + ", Failed: " + results.failed);
         return results;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 自定义 JFR 事件：部署阶段、Cloudflare API 调用、出口 IP 探测、端点选择与转发请求完成。
+ * 关闭时各 emit 方法只读一次 volatile 标志即返回，不分配事件对象；开启后事件进入所有正在进行的录制
+ * （包括 -XX:StartFlightRecording 启动的），startRecording/stopRecording 另提供一个只含本扩展事件的录制。
+ * 耗时统一记在 elapsed 字段（事件本身为瞬时事件），因为开始与结束常在不同线程。
+ * 录制文件可用 gradle jfrReport -Pjfr=file.jfr 汇总。
+ */
+public final class FlareProxEvents {
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends Event>[] TYPES = new Class[] { DeployStage.class, CloudflareApi.class,
+            IpProbe.class, EndpointSelect.class, ProxiedRequest.class };
+
+    private static volatile boolean enabled;
+    private static Recording recording;
+
+    private FlareProxEvents() {}
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** 开启事件并开始一个只含本扩展事件的录制；已在录制时不做任何事。 */
+    public static synchronized void startRecording() {
+        enabled = true;
+        if (recording != null) return;
+        Recording r = new Recording();
+        r.setName("FlareProx");
+        for (Class<? extends Event> type : TYPES) r.enable(type).withoutStackTrace();
+        r.start();
+        recording = r;
+    }
+
+    /** 停止录制、关闭事件并写出录制文件；未在录制时返回 null。 */
+    public static synchronized Path stopRecording(Path dest) throws IOException {
+        enabled = false;
+        Recording r = recording;
+        recording = null;
+        if (r == null) return null;
+        try {
+            r.stop();
+            r.dump(dest);
+            return dest;
+        } finally {
+            r.close();
+        }
+    }
+
+    // ---------------------- emit helpers ----------------------
+
+    public static void deployStage(String stage, String worker, boolean success, long startNanos) {
+        if (!enabled) return;
+        DeployStage e = new DeployStage();
+        if (!e.isEnabled()) return;
+        e.stage = stage;
+        e.worker = worker;
+        e.success = success;
+        e.elapsed = System.nanoTime() - startNanos;
+        e.commit();
+    }
+
+    public static void cloudflareApi(String method, String path, int status, String cfRay, int attempt,
+            long startNanos) {
+        if (!enabled) return;
+        CloudflareApi e = new CloudflareApi();
+        if (!e.isEnabled()) return;
+        e.method = method;
+        e.path = path;
+        e.status = status;
+        e.cfRay = cfRay;
+        e.attempt = attempt;
+        e.elapsed = System.nanoTime() - startNanos;
+        e.commit();
+    }
+
+    public static void ipProbe(String endpoint, String ip, int attempts, String tag, long startNanos) {
+        if (!enabled) return;
+        IpProbe e = new IpProbe();
+        if (!e.isEnabled()) return;
+        e.endpoint = endpoint;
+        e.ip = ip;
+        e.success = ip != null && IpAddress.isValid(ip);
+        e.attempts = attempts;
+        e.tag = tag;
+        e.elapsed = System.nanoTime() - startNanos;
+        e.commit();
+    }
+
+    public static void endpointSelect(String source, EndpointSelector selector, int candidates,
+            FlareProx.Endpoint chosen, long startNanos) {
+        if (!enabled) return;
+        EndpointSelect e = new EndpointSelect();
+        if (!e.isEnabled()) return;
+        e.source = source;
+        String name = selector.getClass().getSimpleName();
+        int lambda = name.indexOf("$$");
+        e.selector = lambda > 0 ? name.substring(0, lambda) : name;
+        e.candidates = candidates;
+        e.endpoint = chosen == null ? null : chosen.name;
+        e.elapsed = System.nanoTime() - startNanos;
+        e.commit();
+    }
+
+    public static void proxiedRequest(String source, String endpoint, String via, int status, boolean failed,
+            String cfRay, long startNanos) {
+        if (!enabled) return;
+        ProxiedRequest e = new ProxiedRequest();
+        if (!e.isEnabled()) return;
+        e.source = source;
+        e.endpoint = endpoint;
+        e.via = via;
+        e.status = status;
+        e.failed = failed;
+        e.colo = ColoIndex.coloOf(cfRay);
+        e.elapsed = System.nanoTime() - startNanos;
+        e.commit();
+    }
+
+    // ---------------------- event types ----------------------
+
+    @Name("flareprox.DeployStage")
+    @Label("Deploy Stage")
+    @Category({ "FlareProx", "Deploy" })
+    @Description("One stage (upload, enable, ready) of deploying a worker")
+    @StackTrace(false)
+    public static final class DeployStage extends Event {
+        @Label("Stage")
+        String stage;
+        @Label("Worker")
+        String worker;
+        @Label("Success")
+        boolean success;
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("flareprox.CloudflareApi")
+    @Label("Cloudflare API Call")
+    @Category({ "FlareProx", "Cloudflare" })
+    @StackTrace(false)
+    public static final class CloudflareApi extends Event {
+        @Label("Method")
+        String method;
+        @Label("Path")
+        String path;
+        @Label("Status")
+        int status;
+        @Label("CF-Ray")
+        String cfRay;
+        @Label("Attempt")
+        int attempt;
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("flareprox.IpProbe")
+    @Label("Exit IP Probe")
+    @Category({ "FlareProx", "Endpoints" })
+    @StackTrace(false)
+    public static final class IpProbe extends Event {
+        @Label("Endpoint")
+        String endpoint;
+        @Label("IP")
+        String ip;
+        @Label("Success")
+        boolean success;
+        @Label("Attempts")
+        int attempts;
+        @Label("Tag")
+        String tag;
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("flareprox.EndpointSelect")
+    @Label("Endpoint Selection")
+    @Category({ "FlareProx", "Routing" })
+    @StackTrace(false)
+    public static final class EndpointSelect extends Event {
+        @Label("Source")
+        String source;
+        @Label("Selector")
+        String selector;
+        @Label("Candidates")
+        int candidates;
+        @Label("Endpoint")
+        String endpoint;
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("flareprox.ProxiedRequest")
+    @Label("Proxied Request")
+    @Category({ "FlareProx", "Routing" })
+    @Description("A request sent through a worker, from Burp or the local proxy")
+    @StackTrace(false)
+    public static final class ProxiedRequest extends Event {
+        @Label("Source")
+        String source;
+        @Label("Endpoint")
+        String endpoint;
+        @Label("Via")
+        String via;
+        @Label("Status")
+        int status;
+        @Label("Failed")
+        boolean failed;
+        @Label("Colo")
+        String colo;
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+
+/**
+ * int -> int 计数表，开放寻址 + 线性探测，删除采用回移（无墓碑）。
+ * 计数降到 0 时移除键。非线程安全，由调用方加锁。
+ */
+public final class IntCountMap {
+    private static final int EMPTY = 0;
+
+    private int[] keys;
+    private int[] counts;
+    // 键 0 单独存放，0 作为空槽标记
+    private int zeroCount;
+    private int size;
+
+    public IntCountMap() {
+        this(16);
+    }
+
+    public IntCountMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new int[cap];
+        counts = new int[cap];
+    }
+
+    public int get(int key) {
+        if (key == EMPTY) return zeroCount;
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) return counts[i];
+            if (k == EMPTY) return 0;
+        }
+    }
+
+    /** 增加计数并返回新值；新值 <= 0 时删除该键。 */
+    public int add(int key, int delta) {
+        if (key == EMPTY) {
+            int before = zeroCount;
+            zeroCount = Math.max(0, zeroCount + delta);
+            if (before == 0 && zeroCount > 0) size++;
+            if (before > 0 && zeroCount == 0) size--;
+            return zeroCount;
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (true) {
+            int k = keys[i];
+            if (k == key) {
+                int v = counts[i] + delta;
+                if (v <= 0) {
+                    removeAt(i);
+                    return 0;
+                }
+                counts[i] = v;
+                return v;
+            }
+            if (k == EMPTY) {
+                if (delta <= 0) return 0;
+                keys[i] = key;
+                counts[i] = delta;
+                if (++size * 4 > keys.length * 3) grow();
+                return delta;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(counts, 0);
+        zeroCount = 0;
+        size = 0;
+    }
+
+    /** 依次回调所有非零计数（不含键），用于熵等聚合统计。 */
+    public void forEachCount(java.util.function.IntConsumer consumer) {
+        if (zeroCount > 0) consumer.accept(zeroCount);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) consumer.accept(counts[i]);
+        }
+    }
+
+    private void removeAt(int slot) {
+        int mask = keys.length - 1;
+        size--;
+        int hole = slot;
+        int i = (slot + 1) & mask;
+        while (keys[i] != EMPTY) {
+            int home = mix(keys[i]) & mask;
+            // home 不在 (hole, i] 环形区间内时，可以前移到空洞
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                counts[hole] = counts[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        counts[hole] = 0;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new int[oldCounts.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            int k = oldKeys[j];
+            if (k == EMPTY) continue;
+            int i = mix(k) & mask;
+            while (keys[i] != EMPTY) i = (i + 1) & mask;
+            keys[i] = k;
+            counts[i] = oldCounts[j];
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * 无正则、无分配的 IPv4/IPv6 文本解析。
+ * IPv4 解析为 0..2^32-1 的 long（失败返回 -1），IPv6 解析为 16 字节数组（失败返回 null）。
+ */
+public final class IpAddress {
+    private IpAddress() {}
+
+    public static long parseIPv4(CharSequence s) {
+        return s == null ? -1 : parseIPv4(s, 0, s.length());
+    }
+
+    public static long parseIPv4(CharSequence s, int start, int end) {
+        long result = 0;
+        int octets = 0;
+        int value = -1;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // 拒绝前导零（如 010），避免与八进制写法混淆
+                if (digits == 1 && value == 0) return -1;
+                value = (value < 0 ? 0 : value) * 10 + (c - '0');
+                if (++digits > 3 || value > 255) return -1;
+            } else if (c == '.') {
+                if (digits == 0 || octets == 3) return -1;
+                result = (result << 8) | value;
+                octets++;
+                value = -1;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        if (octets != 3 || digits == 0) return -1;
+        return (result << 8) | value;
+    }
+
+    public static byte[] parseIPv6(CharSequence s) {
+        return s == null ? null : parseIPv6(s, 0, s.length());
+    }
+
+    public static byte[] parseIPv6(CharSequence s, int start, int end) {
+        if (end - start < 2) return null;
+        byte[] out = new byte[16];
+        int groups = 0;
+        int compressAt = -1;
+        int i = start;
+        if (s.charAt(i) == ':') {
+            if (s.charAt(i + 1) != ':') return null;
+            compressAt = 0;
+            i += 2;
+            if (i == end) return out;
+        }
+        while (i < end) {
+            if (groups == 8) return null;
+            int groupStart = i;
+            int value = 0;
+            int hexDigits = 0;
+            while (i < end && hexDigits <= 4) {
+                int d = Character.digit(s.charAt(i), 16);
+                if (d < 0) break;
+                value = (value << 4) | d;
+                hexDigits++;
+                i++;
+            }
+            if (i < end && s.charAt(i) == '.') {
+                // 结尾内嵌 IPv4，如 ::ffff:1.2.3.4
+                if (groups > 6) return null;
+                long v4 = parseIPv4(s, groupStart, end);
+                if (v4 < 0) return null;
+                out[groups * 2] = (byte) (v4 >>> 24);
+                out[groups * 2 + 1] = (byte) (v4 >>> 16);
+                out[groups * 2 + 2] = (byte) (v4 >>> 8);
+                out[groups * 2 + 3] = (byte) v4;
+                groups += 2;
+                i = end;
+                break;
+            }
+            if (hexDigits == 0 || hexDigits > 4) return null;
+            out[groups * 2] = (byte) (value >>> 8);
+            out[groups * 2 + 1] = (byte) value;
+            groups++;
+            if (i == end) break;
+            if (s.charAt(i) != ':') return null;
+            i++;
+            if (i < end && s.charAt(i) == ':') {
+                if (compressAt >= 0) return null;
+                compressAt = groups;
+                i++;
+                if (i == end) break;
+            } else if (i == end) {
+                return null;
+            }
+        }
+        if (compressAt < 0) {
+            return groups == 8 ? out : null;
+        }
+        if (groups == 8) return null;
+        // 将 :: 之后的分组移到末尾，中间补零
+        int tailBytes = (groups - compressAt) * 2;
+        int shift = 16 - groups * 2;
+        System.arraycopy(out, compressAt * 2, out, compressAt * 2 + shift, tailBytes);
+        for (int k = compressAt * 2; k < compressAt * 2 + shift; k++) {
+            out[k] = 0;
+        }
+        return out;
+    }
+
+    public static boolean isValid(CharSequence s) {
+        return parseIPv4(s) >= 0 || parseIPv6(s) != null;
+    }
+
+    // IPv4 的 /24 前缀（同一机房/网段的近似）
+    public static int v4Prefix24(long ipv4) {
+        return (int) (ipv4 >>> 8);
+    }
+
+    // IPv6 的 /32 前缀（运营商/ASN 级分配粒度的近似）
+    public static int v6Prefix32(byte[] ipv6) {
+        return ((ipv6[0] & 0xff) << 24) | ((ipv6[1] & 0xff) << 16) | ((ipv6[2] & 0xff) << 8) | (ipv6[3] & 0xff);
+    }
+}
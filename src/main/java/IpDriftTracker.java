@@ -0,0 +1,168 @@
+import burp.api.montoya.MontoyaApi;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 后台周期性重新探测各端点的出口 IP。各端点的首次探测在一个周期内均匀错开，
+ * 避免同时打出一批请求；结果写入 IpHistory 与 ExitIpIndex，前缀分散轮换经 ExitIpIndex 看到最新 IP。
+ * 已由 track 移除的端点，其进行中的探测结果直接丢弃。
+ */
+public class IpDriftTracker {
+    private static final int HISTORY_CAPACITY = 32;
+    private static final long INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Function<FlareProx.Endpoint, String> probe;
+    private final ExitIpIndex index;
+    private final MontoyaApi api;
+    private final Map<String, IpHistory> histories = new ConcurrentHashMap<>();
+    private final Map<String, ScheduledFuture<?>> schedules = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "flareprox-ip-drift");
+        t.setDaemon(true);
+        return t;
+    });
+    // 探测本身走网络，放到小线程池中，调度线程只负责触发
+    private final ExecutorService probes = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "flareprox-ip-drift-probe");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean running;
+    private volatile BiConsumer<FlareProx.Endpoint, String> listener;
+
+    public IpDriftTracker(Function<FlareProx.Endpoint, String> probe, ExitIpIndex index, MontoyaApi api) {
+        this.probe = probe;
+        this.index = index;
+        this.api = api;
+    }
+
+    /** 每次探测得到新结果时回调（在探测线程上）。 */
+    public void setListener(BiConsumer<FlareProx.Endpoint, String> listener) {
+        this.listener = listener;
+    }
+
+    /** 记录一次外部探测结果（部署/列出时的探测），不改变调度。 */
+    public void record(String endpointName, String ip) {
+        if (ip == null || !IpAddress.isValid(ip.trim())) {
+            return;
+        }
+        histories.computeIfAbsent(endpointName, k -> new IpHistory(HISTORY_CAPACITY))
+                .record(ip.trim(), System.currentTimeMillis());
+    }
+
+    public synchronized void start(List<FlareProx.Endpoint> endpoints) {
+        running = true;
+        track(endpoints);
+    }
+
+    /** 同步端点集合：已移除端点停止探测并丢弃历史；运行中时新端点错开加入调度。 */
+    public synchronized void track(List<FlareProx.Endpoint> endpoints) {
+        Set<String> keep = new HashSet<>();
+        for (FlareProx.Endpoint ep : endpoints) keep.add(ep.name);
+        schedules.entrySet().removeIf(e -> {
+            if (!keep.contains(e.getKey())) {
+                e.getValue().cancel(false);
+                return true;
+            }
+            return false;
+        });
+        histories.keySet().retainAll(keep);
+        if (!running) {
+            return;
+        }
+        int n = endpoints.size();
+        for (int i = 0; i < n; i++) {
+            FlareProx.Endpoint ep = endpoints.get(i);
+            if (schedules.containsKey(ep.name)) continue;
+            long offset = n <= 1 ? INTERVAL_MS : INTERVAL_MS * (i + 1) / n;
+            schedules.put(ep.name, scheduler.scheduleAtFixedRate(
+                    () -> probes.submit(() -> reprobe(ep)), offset, INTERVAL_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        for (ScheduledFuture<?> f : schedules.values()) f.cancel(false);
+        schedules.clear();
+    }
+
+    public void shutdown() {
+        stop();
+        scheduler.shutdownNow();
+        probes.shutdownNow();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** 全池每小时 IP 变化次数（总变化 / 总观测时长）。 */
+    public double poolChurnPerHour() {
+        long changes = 0;
+        long observed = 0;
+        for (IpHistory h : histories.values()) {
+            changes += h.changes();
+            observed += h.observedMillis();
+        }
+        return observed < 60_000 ? 0 : changes * 3_600_000.0 / observed;
+    }
+
+    public String describe() {
+        long changes = 0;
+        for (IpHistory h : histories.values()) changes += h.changes();
+        return String.format("%d tracked, %d changes, %.2f/h per endpoint", histories.size(), changes,
+                poolChurnPerHour());
+    }
+
+    /** 导出 CSV：endpoint,ip,first_seen,last_seen,churn_per_hour（时间为 ISO-8601 UTC）。 */
+    public String exportCsv() {
+        StringBuilder sb = new StringBuilder("endpoint,ip,first_seen,last_seen,churn_per_hour\n");
+        histories.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> {
+                    String churn = String.format("%.3f", e.getValue().churnPerHour());
+                    e.getValue().forEach((ip, first, last) -> sb.append(e.getKey()).append(',')
+                            .append(ip).append(',')
+                            .append(Instant.ofEpochMilli(first)).append(',')
+                            .append(Instant.ofEpochMilli(last)).append(',')
+                            .append(churn).append('\n'));
+                });
+        return sb.toString();
+    }
+
+    private void reprobe(FlareProx.Endpoint ep) {
+        try {
+            String ip = probe.apply(ep);
+            if (ip == null || !IpAddress.isValid(ip.trim())) {
+                return;
+            }
+            String before;
+            synchronized (this) {
+                // 探测期间端点已被 track 移除：不恢复其历史与索引条目
+                if (!schedules.containsKey(ep.name)) return;
+                IpHistory h = histories.computeIfAbsent(ep.name, k -> new IpHistory(HISTORY_CAPACITY));
+                before = h.latestIp();
+                h.record(ip.trim(), System.currentTimeMillis());
+                index.update(ep.name, ip);
+            }
+            if (before != null && !before.equals(ip.trim())) {
+                api.logging().logToOutput("[Drift] " + ep.name + " exit IP changed " + before + " -> " + ip);
+            }
+            BiConsumer<FlareProx.Endpoint, String> l = listener;
+            if (l != null) l.accept(ep, ip);
+        } catch (Exception ex) {
+            api.logging().logToError("[Drift] Re-probe failed for " + ep.name + ": " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * 单个端点的出口 IP 时间序列，固定容量的环形缓冲区。
+ * 只在 IP 变化时追加新样本，相同 IP 的重复探测仅刷新 lastSeen，因此同样的内存能覆盖更长时间。
+ */
+public final class IpHistory {
+    private final long[] firstSeen;
+    private final long[] lastSeen;
+    private final String[] ips;
+    private int head;   // 下一个写入位置
+    private int count;
+    private long changes;
+    private long startedAt = -1;
+
+    public IpHistory(int capacity) {
+        int cap = Math.max(2, capacity);
+        firstSeen = new long[cap];
+        lastSeen = new long[cap];
+        ips = new String[cap];
+    }
+
+    public synchronized void record(String ip, long atMillis) {
+        if (startedAt < 0) startedAt = atMillis;
+        if (count > 0) {
+            int last = (head - 1 + ips.length) % ips.length;
+            if (ips[last].equals(ip)) {
+                lastSeen[last] = atMillis;
+                return;
+            }
+            changes++;
+        }
+        // IP 字符串大量重复，intern 后各端点共享同一实例
+        ips[head] = ip.intern();
+        firstSeen[head] = atMillis;
+        lastSeen[head] = atMillis;
+        head = (head + 1) % ips.length;
+        if (count < ips.length) count++;
+    }
+
+    public synchronized String latestIp() {
+        return count == 0 ? null : ips[(head - 1 + ips.length) % ips.length];
+    }
+
+    public synchronized long changes() {
+        return changes;
+    }
+
+    /** 观测时长（毫秒），从首次记录到最近一次探测。 */
+    public synchronized long observedMillis() {
+        return count == 0 ? 0 : latestSeenAtUnsync() - startedAt;
+    }
+
+    /** 每小时 IP 变化次数；观测不足一分钟时返回 0。 */
+    public synchronized double churnPerHour() {
+        long observed = observedMillis();
+        return observed < 60_000 ? 0 : changes * 3_600_000.0 / observed;
+    }
+
+    /** 按时间顺序回调保留的样本：ip、首次出现、最近出现。 */
+    public synchronized void forEach(SampleConsumer consumer) {
+        int start = (head - count + ips.length) % ips.length;
+        for (int i = 0; i < count; i++) {
+            int idx = (start + i) % ips.length;
+            consumer.accept(ips[idx], firstSeen[idx], lastSeen[idx]);
+        }
+    }
+
+    @FunctionalInterface
+    public interface SampleConsumer {
+        void accept(String ip, long firstSeen, long lastSeen);
+    }
+
+    private long latestSeenAtUnsync() {
+        return lastSeen[(head - 1 + ips.length) % ips.length];
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 两选一（power of two choices）的低延迟轮换：随机取两个候选端点，选代价较低者，
+ * 代价 = 延迟 EWMA × (在途请求数 + 1)。只比较两个样本，避免所有请求同时涌向当前最快的端点。
+ *
+ * 每个端点的状态打包在两个 AtomicLong 中：state 高 44 位为 EWMA（微秒），低 20 位为在途数；
+ * lastSample 为最近一次样本的时间。请求路径上只有 CAS，无锁。
+ * 没有样本或超过 staleAfter 未更新的端点按全局 EWMA 估计，使新端点与变慢后恢复的端点能重新被探测。
+ */
+public final class LeastLatencySelector implements EndpointSelector {
+    private static final int INFLIGHT_BITS = 20;
+    private static final long INFLIGHT_MASK = (1L << INFLIGHT_BITS) - 1;
+    // 失败样本至少按 1 秒计
+    private static final long FAILURE_FLOOR_MICROS = 1_000_000;
+
+    private static final class Score {
+        final AtomicLong state = new AtomicLong();
+        final AtomicLong lastSample = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    private final Map<String, Score> scores = new ConcurrentHashMap<>();
+    private final AtomicLong globalEwma = new AtomicLong();
+    private final LongSupplier nanoClock;
+    private final double alpha;
+    private final long staleAfterNanos;
+
+    public LeastLatencySelector() {
+        this(System::nanoTime, 0.3, 10_000_000_000L);
+    }
+
+    /** nanoClock 可替换为模拟时钟；alpha 为新样本权重；staleAfterNanos 后样本视为过期。 */
+    public LeastLatencySelector(LongSupplier nanoClock, double alpha, long staleAfterNanos) {
+        this.nanoClock = nanoClock;
+        this.alpha = alpha;
+        this.staleAfterNanos = staleAfterNanos;
+    }
+
+    @Override
+    public FlareProx.Endpoint select(List<FlareProx.Endpoint> candidates) {
+        int n = candidates.size();
+        if (n == 0) return null;
+        if (n == 1) return candidates.get(0);
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int i = rnd.nextInt(n);
+        int j = rnd.nextInt(n - 1);
+        if (j >= i) j++;
+        FlareProx.Endpoint a = candidates.get(i);
+        FlareProx.Endpoint b = candidates.get(j);
+        long now = nanoClock.getAsLong();
+        long prior = globalEwma.get();
+        return cost(a.name, now, prior) <= cost(b.name, now, prior) ? a : b;
+    }
+
+    @Override
+    public void onStart(String endpointName) {
+        scoreOf(endpointName).state.incrementAndGet();
+    }
+
+    @Override
+    public void onComplete(String endpointName, long latencyNanos, boolean failed) {
+        long micros = Math.max(1, latencyNanos / 1_000);
+        if (failed) micros = Math.max(micros * 4, FAILURE_FLOOR_MICROS);
+        Score s = scoreOf(endpointName);
+        long now = nanoClock.getAsLong();
+        boolean fresh = now - s.lastSample.get() < staleAfterNanos;
+        while (true) {
+            long cur = s.state.get();
+            long ewma = cur >>> INFLIGHT_BITS;
+            long inflight = cur & INFLIGHT_MASK;
+            // 过期样本不参与平滑，直接以新样本重新开始
+            long next = !fresh || ewma == 0 ? micros : ewma + Math.round((micros - ewma) * alpha);
+            // 选择策略可能在请求途中被替换，在途数不减到负
+            long packed = (Math.max(1, next) << INFLIGHT_BITS) | (inflight == 0 ? 0 : inflight - 1);
+            if (s.state.compareAndSet(cur, packed)) break;
+        }
+        s.lastSample.set(now);
+        if (!failed) {
+            long g = globalEwma.get();
+            globalEwma.compareAndSet(g, g == 0 ? micros : g + Math.round((micros - g) * alpha));
+        }
+    }
+
+    /** 当前 EWMA（微秒）；无样本返回 0。 */
+    public long ewmaMicros(String endpointName) {
+        Score s = scores.get(endpointName);
+        return s == null ? 0 : s.state.get() >>> INFLIGHT_BITS;
+    }
+
+    public int inflight(String endpointName) {
+        Score s = scores.get(endpointName);
+        return s == null ? 0 : (int) (s.state.get() & INFLIGHT_MASK);
+    }
+
+    public void forget(String endpointName) {
+        scores.remove(endpointName);
+    }
+
+    private long cost(String endpointName, long now, long prior) {
+        Score s = scores.get(endpointName);
+        if (s == null) return prior;
+        long cur = s.state.get();
+        long ewma = cur >>> INFLIGHT_BITS;
+        if (ewma == 0 || now - s.lastSample.get() >= staleAfterNanos) ewma = prior;
+        return ewma * ((cur & INFLIGHT_MASK) + 1);
+    }
+
+    private Score scoreOf(String endpointName) {
+        Score s = scores.get(endpointName);
+        return s != null ? s : scores.computeIfAbsent(endpointName, k -> new Score());
+    }
+}
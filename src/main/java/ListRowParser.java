@@ -18,12 +18,46 @@ public final class ListRowParser {
         return row.trim();
     }
 
+    // 扫描由十六进制数字、'.'、':' 组成的片段，返回第一个能解析为 IPv4/IPv6 的片段；
+    // 带端口的 IPv4（1.2.3.4:8080）取冒号前的部分，IPv6 至少要有两个非空分组，排除 "::"、"a::" 之类的片段
     public static String extractIpFromRow(String row) {
-        String ipRegex = "\\b(\\d{1,3}\\.){3}\\d{1,3}\\b";
-        java.util.regex.Matcher m = java.util.regex.Pattern.compile(ipRegex).matcher(row);
-        if (m.find()) {
-            return m.group();
+        int n = row.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && !isIpChar(row.charAt(i))) i++;
+            int start = i;
+            while (i < n && isIpChar(row.charAt(i))) i++;
+            int end = i;
+            while (end > start && row.charAt(end - 1) == '.') end--;
+            if (end - start < 2) continue;
+            if (IpAddress.parseIPv4(row, start, end) >= 0) return row.substring(start, end);
+            if (hexGroups(row, start, end) >= 2 && IpAddress.parseIPv6(row, start, end) != null) {
+                return row.substring(start, end);
+            }
+            int colon = row.indexOf(':', start);
+            if (colon > start && colon < end && IpAddress.parseIPv4(row, start, colon) >= 0) {
+                return row.substring(start, colon);
+            }
         }
         return "";
     }
+
+    // 以 ':' 分隔的非空分组数（内嵌 IPv4 的部分计为一组）
+    private static int hexGroups(String row, int start, int end) {
+        int groups = 0;
+        boolean inGroup = false;
+        for (int i = start; i < end; i++) {
+            if (row.charAt(i) == ':') {
+                inGroup = false;
+            } else if (!inGroup) {
+                inGroup = true;
+                groups++;
+            }
+        }
+        return groups;
+    }
+
+    private static boolean isIpChar(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '.' || c == ':';
+    }
 }
\ No newline at end of file
@@ -0,0 +1,832 @@
+import burp.api.montoya.MontoyaApi;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 本地 HTTP 转发代理，供 Burp 之外的工具（ffuf、nuclei、脚本等）使用端点池。
+ * 每个客户端连接一个虚拟线程；每个请求按当前轮换策略选出端点，目标 URL 放入 X-Target-URL 转发。
+ * 请求体与响应体均以流方式转发，不做整体缓冲；到 Worker 的连接经 WorkerConnections 复用（可预热）。
+ *
+ * 支持的请求形式：
+ *   绝对 URL（标准代理请求）：GET http://target/path HTTP/1.1
+ *   路径内嵌目标：GET /https://target/path HTTP/1.1（HTTPS 目标用这种形式或 X-Target-URL 头）
+ * CONNECT 不支持：Worker 需要看到明文请求才能转发，隧道无法经过 Worker。
+ * 无请求体的幂等请求可按 RetryPolicy 换端点重试，并可按目标主机的 p95 TTFB 对冲；尝试信息写入 X-FlareProx-Attempt 响应头。
+ * 开启批量模式时，这类请求改经 BatchClient 与同一端点的其他请求合批发送，批量失败时退回逐个发送；
+ * 开启隧道模式时优先经该端点的 WebSocket 隧道复用发送，隧道不可用或失败时退回批量或普通 HTTP。
+ */
+public class LocalForwardProxy {
+    private static final int MAX_LINE = 16 * 1024;
+    private static final int MAX_HEADERS = 200;
+    private static final int BUFFER = 16 * 1024;
+    // 返回给客户端的尝试信息头，如 "2; via=flareprox-abc; hedged"
+    static final String ATTEMPT_HEADER = "X-FlareProx-Attempt";
+    private static final int HEDGE_MIN_SAMPLES = 20;
+    // 逐跳头及 HttpClient 不允许设置的头，不向 Worker 转发
+    private static final Set<String> SKIP_REQUEST_HEADERS = Set.of("host", "connection", "proxy-connection",
+            "keep-alive", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade", "content-length",
+            "expect", RequestRewriter.TARGET_HEADER.toLowerCase(Locale.ROOT));
+    private static final Set<String> SKIP_RESPONSE_HEADERS = Set.of("connection", "keep-alive", "transfer-encoding",
+            "content-length", "trailer", "upgrade", ":status");
+
+    private final EndpointPool pool;
+    private final Supplier<EndpointSelector> selector;
+    private final WorkerConnections connections;
+    private final MontoyaApi api;
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private volatile RetryPolicy retryPolicy;
+    // 关闭重试时对冲使用的预算
+    private final RetryPolicy hedgeBudget = RetryPolicy.standard();
+    private volatile boolean hedging;
+    private volatile BlockDetector detector;
+    private final EndpointHealth health;
+    private volatile TrafficAccounting traffic;
+    private volatile BatchClient batch;
+    private volatile TunnelClient tunnel;
+    private final AtomicLong batched = new AtomicLong();
+    private final AtomicLong tunneled = new AtomicLong();
+    private volatile ServerSocket server;
+    private volatile ExecutorService clientThreads;
+
+    public LocalForwardProxy(EndpointPool pool, Supplier<EndpointSelector> selector, WorkerConnections connections,
+            EndpointHealth health, MontoyaApi api) {
+        this.pool = pool;
+        this.health = health;
+        this.selector = selector;
+        this.connections = connections;
+        this.api = api;
+    }
+
+    /** 在 127.0.0.1:port 上启动监听；port 为 0 时由系统分配，返回实际端口。 */
+    public synchronized int start(int port) throws IOException {
+        if (server != null) {
+            return server.getLocalPort();
+        }
+        ServerSocket ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        ss.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 256);
+        ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor();
+        server = ss;
+        clientThreads = exec;
+        Thread acceptor = new Thread(() -> acceptLoop(ss, exec), "flareprox-local-proxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return ss.getLocalPort();
+    }
+
+    public synchronized void stop() {
+        ServerSocket ss = server;
+        server = null;
+        if (ss != null) {
+            try { ss.close(); } catch (IOException ignore) {}
+        }
+        ExecutorService exec = clientThreads;
+        clientThreads = null;
+        if (exec != null) {
+            exec.shutdownNow();
+        }
+    }
+
+    /** 选择端点时避开接近每日额度的账户；计数本身由 WorkerConnections 完成。 */
+    public void setTraffic(TrafficAccounting traffic) {
+        this.traffic = traffic;
+    }
+
+    /** 与 Burp 内轮换共用同一重试策略与预算；null 表示关闭重试。 */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /** 对冲只作用于可重放的请求，需要目标主机已有足够的热请求 TTFB 样本，并占用重试预算。 */
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    /** null 表示不批量；批量发送的请求不做重试与对冲，也不做封禁检测。 */
+    public void setBatching(BatchClient batch) {
+        this.batch = batch;
+    }
+
+    /** null 表示不使用隧道；与批量相同，隧道内的请求不做重试与对冲，也不做封禁检测。 */
+    public void setTunnel(TunnelClient tunnel) {
+        this.tunnel = tunnel;
+    }
+
+    /** 转发响应时边写边扫描正文前缀，分类结果写入 EndpointHealth；null 表示关闭。 */
+    public void setDetector(BlockDetector detector) {
+        this.detector = detector;
+    }
+
+    public boolean isRunning() {
+        return server != null;
+    }
+
+    public int port() {
+        ServerSocket ss = server;
+        return ss == null ? -1 : ss.getLocalPort();
+    }
+
+    public String describe() {
+        return String.format("%d forwarded, %d failed, %d hedged (%d won by hedge), %d batched, %d tunneled",
+                forwarded.get(), failed.get(), hedges.get(), hedgeWins.get(), batched.get(), tunneled.get());
+    }
+
+    private void acceptLoop(ServerSocket ss, ExecutorService exec) {
+        while (!ss.isClosed()) {
+            try {
+                Socket s = ss.accept();
+                exec.submit(() -> serve(s));
+            } catch (IOException e) {
+                if (!ss.isClosed()) {
+                    api.logging().logToError("[Proxy] Accept failed: " + e.getMessage());
+                }
+            } catch (java.util.concurrent.RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream(), BUFFER);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER);
+            while (handleOne(in, out)) {
+                // 客户端 keep-alive：同一连接上继续处理下一个请求
+            }
+        } catch (SocketException ignore) {
+            // 客户端断开
+        } catch (IOException e) {
+            api.logging().logToError("[Proxy] Connection error: " + e.getMessage());
+        }
+    }
+
+    /** 处理一个请求；返回 true 表示连接可继续复用。 */
+    private boolean handleOne(InputStream in, OutputStream out) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return false;
+        }
+        if (requestLine.isEmpty()) {
+            return true;
+        }
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3) {
+            writeError(out, 400, "Malformed request line");
+            return false;
+        }
+        String method = parts[0];
+        String version = parts[2];
+        List<String[]> headers = readHeaders(in);
+        if (headers == null) {
+            writeError(out, 400, "Malformed headers");
+            return false;
+        }
+        boolean keepAlive = !"HTTP/1.0".equals(version) && !"close".equalsIgnoreCase(header(headers, "Connection"))
+                && !"close".equalsIgnoreCase(header(headers, "Proxy-Connection"));
+        if ("CONNECT".equals(method)) {
+            writeError(out, 405, "CONNECT is not supported; send absolute http(s) URLs or use /https://host/path");
+            return false;
+        }
+        String target = targetOf(parts[1], headers);
+        if (target == null) {
+            writeError(out, 400, "No target URL; use an absolute URL, /https://host/path or X-Target-URL");
+            return false;
+        }
+        String targetHost = RequestRewriter.hostOf(target);
+        List<FlareProx.Endpoint> candidates = health.usable(pool.snapshot(), targetHost);
+        TrafficAccounting counter = traffic;
+        if (counter != null) {
+            candidates = counter.usable(candidates);
+        }
+        EndpointSelector sel = selector.get();
+        long start = FlareProxEvents.enabled() ? System.nanoTime() : 0;
+        FlareProx.Endpoint ep = sel.select(candidates, targetHost);
+        FlareProxEvents.endpointSelect("proxy", sel, candidates.size(), ep, start);
+        if (ep == null) {
+            drainBody(in, headers);
+            writeError(out, 503, "No endpoints in pool");
+            return keepAlive;
+        }
+
+        // 在途计数覆盖整个转发（含响应体写回）；重试与对冲换用的端点在选中时加入 leases
+        List<EndpointStore.Lease> leases = new ArrayList<>(2);
+        leases.add(pool.enter(ep.name));
+        try {
+            RetryPolicy policy = retryPolicy;
+            if (policy != null) {
+                policy.onRequest();
+            } else if (hedging) {
+                hedgeBudget.onRequest();
+            }
+            // 无请求体的幂等请求可以重放，才允许重试与对冲；带体请求以流方式只发送一次
+            boolean replayable = !hasBody(headers) && RetryPolicy.isIdempotent(method);
+            TunnelClient tc = tunnel;
+            if (replayable && tc != null) {
+                BatchFrames.Response r = tunneledExchange(tc, ep, method, target, headers);
+                if (r != null) {
+                    forwarded.incrementAndGet();
+                    tunneled.incrementAndGet();
+                    FlareProxEvents.proxiedRequest("proxy", ep.name, "tunnel", r.status, r.status == 0, null, start);
+                    pool.store().recordRequest(ep.name, r.status == 0);
+                    writeFrameResponse(out, method, r, keepAlive, "1; via=" + ep.name + "; tunnel");
+                    return keepAlive;
+                }
+            }
+            BatchClient b = batch;
+            if (replayable && b != null && b.accepts(ep, method, target, 0)) {
+                BatchFrames.Response r = batchedExchange(b, ep, method, target, headers);
+                if (r != null) {
+                    forwarded.incrementAndGet();
+                    batched.incrementAndGet();
+                    FlareProxEvents.proxiedRequest("proxy", ep.name, "batch", r.status, r.status == 0, null, start);
+                    pool.store().recordRequest(ep.name, r.status == 0);
+                    writeFrameResponse(out, method, r, keepAlive, "1; via=" + ep.name + "; batched");
+                    return keepAlive;
+                }
+            }
+            Exchange x;
+            try {
+                if (replayable) {
+                    x = replayableExchange(ep, method, target, headers, policy, leases);
+                } else {
+                    HttpRequest req = buildRequest(ep, method, bodyPublisher(in, headers), target, headers);
+                    x = new Exchange(connections.send(ep, req, HttpResponse.BodyHandlers.ofInputStream()), ep, 1,
+                            false);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.incrementAndGet();
+                return false;
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                FlareProxEvents.proxiedRequest("proxy", ep.name, "http", 0, true, null, start);
+                // 可重放请求的每次失败尝试已在 replayableExchange 中记录
+                if (!replayable) pool.store().recordRequest(ep.name, true);
+                api.logging().logToError("[Proxy] Forward via " + ep.name + " failed: " + e.getMessage());
+                writeError(out, 502, "Forwarding via " + ep.name + " failed");
+                // 请求体可能未读完，无法安全复用连接
+                return false;
+            }
+            forwarded.incrementAndGet();
+            boolean edgeError = RetryPolicy.isEdgeErrorStatus(x.response.statusCode());
+            pool.store().recordRequest(x.endpoint.name, edgeError);
+            if (FlareProxEvents.enabled()) {
+                FlareProxEvents.proxiedRequest("proxy", x.endpoint.name, "http", x.response.statusCode(), edgeError,
+                        x.response.headers().firstValue("CF-Ray").orElse(null), start);
+            }
+            BlockDetector d = detector;
+            BlockDetector.Scan scan = d == null ? null
+                    : d.begin(targetHost, RequestRewriter.pathOf(target), x.response.statusCode(),
+                            name -> x.response.headers().firstValue(name).orElse(null));
+            long written;
+            try (InputStream respBody = x.response.body()) {
+                written = writeResponse(out, method, x.response, respBody, keepAlive, x.attemptHeader(), scan);
+            }
+            if (scan != null) {
+                health.record(x.endpoint.name, targetHost, scan.finish(written));
+            }
+            return keepAlive;
+        } finally {
+            for (EndpointStore.Lease lease : leases) lease.close();
+        }
+    }
+
+    /** 经隧道发送；隧道不可用或中途失败返回 null，由调用方改用其他方式。 */
+    private BatchFrames.Response tunneledExchange(TunnelClient tc, FlareProx.Endpoint ep, String method,
+            String target, List<String[]> headers) {
+        CompletableFuture<BatchFrames.Response> f = null;
+        try {
+            f = tc.send(ep, method, target, forwardHeaders(headers), null);
+            // 流到期时 TunnelClient 自行结束该流，这里的上限只是兜底
+            return f == null ? null : f.get(tc.streamTimeout().toMillis() + 1_000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            api.logging().logToError("[Proxy] Tunnel via " + ep.name + " failed, falling back to HTTP: "
+                    + e.getCause().getMessage());
+            return null;
+        } catch (TimeoutException e) {
+            f.cancel(true);
+            api.logging().logToError("[Proxy] Tunnel via " + ep.name + " timed out, falling back to HTTP");
+            return null;
+        }
+    }
+
+    /** 经批量发送；批量失败（含端点不支持）返回 null，由调用方逐个发送。 */
+    private BatchFrames.Response batchedExchange(BatchClient b, FlareProx.Endpoint ep, String method, String target,
+            List<String[]> headers) {
+        CompletableFuture<BatchFrames.Response> f = b.submit(ep, method, target, forwardHeaders(headers), null);
+        try {
+            // BatchClient 自身在超时后让整批失败，这里的上限只是兜底
+            return f.get(b.timeout().toMillis() + 1_000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            api.logging().logToError("[Proxy] Batch via " + ep.name + " failed, sending singly: "
+                    + e.getCause().getMessage());
+            return null;
+        } catch (TimeoutException e) {
+            f.cancel(true);
+            api.logging().logToError("[Proxy] Batch via " + ep.name + " timed out, sending singly");
+            return null;
+        }
+    }
+
+    /** 一次转发的结果：响应、实际提供响应的端点、尝试次数、是否由对冲请求胜出。 */
+    private static final class Exchange {
+        final HttpResponse<InputStream> response;
+        final FlareProx.Endpoint endpoint;
+        final int attempt;
+        final boolean hedged;
+
+        Exchange(HttpResponse<InputStream> response, FlareProx.Endpoint endpoint, int attempt, boolean hedged) {
+            this.response = response;
+            this.endpoint = endpoint;
+            this.attempt = attempt;
+            this.hedged = hedged;
+        }
+
+        String attemptHeader() {
+            return attempt + "; via=" + endpoint.name + (hedged ? "; hedged" : "");
+        }
+    }
+
+    /** 可重放请求：遇到边缘错误或连接失败时换端点重试（受预算约束），开启对冲时每次尝试都可对冲。 */
+    private Exchange replayableExchange(FlareProx.Endpoint first, String method, String target,
+            List<String[]> headers, RetryPolicy policy, List<EndpointStore.Lease> leases)
+            throws IOException, InterruptedException {
+        List<String> tried = new ArrayList<>();
+        String targetHost = RequestRewriter.hostOf(target);
+        FlareProx.Endpoint ep = first;
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            tried.add(ep.name);
+            Exchange x = null;
+            IOException error = null;
+            try {
+                x = hedging ? hedgedExchange(ep, method, target, targetHost, headers, tried, leases, attempt,
+                                policy != null ? policy : hedgeBudget)
+                        : new Exchange(connections.send(ep, buildRequest(ep, method,
+                                HttpRequest.BodyPublishers.noBody(), target, headers),
+                                HttpResponse.BodyHandlers.ofInputStream()), ep, attempt, false);
+                if (policy == null || !RetryPolicy.isEdgeErrorStatus(x.response.statusCode())) {
+                    if (attempt > 1 && policy != null) policy.onRecovered();
+                    return x;
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            FlareProx.Endpoint next = policy == null || attempt > policy.maxRetries() ? null
+                    : selectExcluding(tried, targetHost, leases);
+            if (next == null || !policy.tryAcquire()) {
+                if (x != null) return x;
+                pool.store().recordRequest(ep.name, true);
+                throw error;
+            }
+            // 被放弃的尝试由这里记入端点统计与健康状态，最终返回的那次由调用方记录
+            FlareProx.Endpoint failedEp = x != null ? x.endpoint : ep;
+            pool.store().recordRequest(failedEp.name, true);
+            if (x != null) {
+                classifyDiscarded(x, target, targetHost);
+            }
+            ep = next;
+        }
+    }
+
+    /**
+     * 先向 ep 发送；若在该目标主机真实热请求 TTFB 的 p95 内未收到响应头，且预算允许，再向另一端点发送同一请求，
+     * 取先到者，另一个取消（已到达的响应体直接关闭）。样本不足或预算不足时不对冲。
+     */
+    private Exchange hedgedExchange(FlareProx.Endpoint ep, String method, String target, String targetHost,
+            List<String[]> headers, List<String> tried, List<EndpointStore.Lease> leases, int attempt,
+            RetryPolicy budget)
+            throws IOException, InterruptedException {
+        HttpRequest.BodyPublisher none = HttpRequest.BodyPublishers.noBody();
+        CompletableFuture<HttpResponse<InputStream>> primary = connections.sendAsync(ep,
+                buildRequest(ep, method, none, target, headers), HttpResponse.BodyHandlers.ofInputStream());
+        double p95 = connections.targetP95Millis(targetHost, HEDGE_MIN_SAMPLES);
+        if (p95 > 0) {
+            try {
+                return new Exchange(primary.get((long) Math.ceil(p95), TimeUnit.MILLISECONDS), ep, attempt, false);
+            } catch (TimeoutException slow) {
+                // 超过 p95，发出对冲请求
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+        FlareProx.Endpoint alt = p95 > 0 && budget.tryAcquireHedge()
+                ? selectExcluding(tried, targetHost, leases) : null;
+        if (alt == null) {
+            return new Exchange(await(primary), ep, attempt, false);
+        }
+        tried.add(alt.name);
+        hedges.incrementAndGet();
+        CompletableFuture<HttpResponse<InputStream>> backup = connections.sendAsync(alt,
+                buildRequest(alt, method, none, target, headers), HttpResponse.BodyHandlers.ofInputStream());
+        CompletableFuture<Exchange> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        primary.whenComplete((r, ex) -> offer(winner, r, ex, new Exchange(r, ep, attempt, false), failures));
+        backup.whenComplete((r, ex) -> offer(winner, r, ex, new Exchange(r, alt, attempt, true), failures));
+        Exchange x;
+        try {
+            x = winner.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+        (x.hedged ? primary : backup).cancel(true);
+        if (x.hedged) hedgeWins.incrementAndGet();
+        return x;
+    }
+
+    private static void offer(CompletableFuture<Exchange> winner, HttpResponse<InputStream> r, Throwable ex,
+            Exchange x, AtomicInteger failures) {
+        if (ex == null) {
+            if (!winner.complete(x)) {
+                try { r.body().close(); } catch (IOException ignore) {}
+            }
+        } else if (failures.incrementAndGet() == 2) {
+            winner.completeExceptionally(ex);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> f) throws IOException, InterruptedException {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable c = e.getCause();
+        return c instanceof IOException ? (IOException) c : new IOException(c);
+    }
+
+    /** 按与首次选择相同的健康与额度过滤选出未尝试过的端点，并为其加一个在途 lease。 */
+    private FlareProx.Endpoint selectExcluding(List<String> triedNames, String targetHost,
+            List<EndpointStore.Lease> leases) {
+        List<FlareProx.Endpoint> all = health.usable(pool.snapshot(), targetHost);
+        TrafficAccounting counter = traffic;
+        if (counter != null) {
+            all = counter.usable(all);
+        }
+        List<FlareProx.Endpoint> rest = new ArrayList<>(all.size());
+        for (FlareProx.Endpoint e : all) {
+            if (!triedNames.contains(e.name)) rest.add(e);
+        }
+        FlareProx.Endpoint chosen = selector.get().select(rest, targetHost);
+        if (chosen != null) leases.add(pool.enter(chosen.name));
+        return chosen;
+    }
+
+    /** 读取被放弃响应的正文前缀做封禁分类，然后关闭正文。 */
+    private void classifyDiscarded(Exchange x, String target, String targetHost) {
+        try (InputStream body = x.response.body()) {
+            BlockDetector d = detector;
+            if (d == null) return;
+            BlockDetector.Scan scan = d.begin(targetHost, RequestRewriter.pathOf(target), x.response.statusCode(),
+                    name -> x.response.headers().firstValue(name).orElse(null));
+            byte[] prefix = body.readNBytes(d.prefixLimit());
+            scan.feed(prefix, 0, prefix.length);
+            health.record(x.endpoint.name, targetHost, scan.finish(prefix.length));
+        } catch (IOException ignore) {
+            // 该尝试已按失败记录，正文读不到时不再分类
+        }
+    }
+
+    private static List<String[]> forwardHeaders(List<String[]> headers) {
+        List<String[]> forward = new ArrayList<>(headers.size());
+        for (String[] h : headers) {
+            if (!SKIP_REQUEST_HEADERS.contains(h[0].toLowerCase(Locale.ROOT))) forward.add(h);
+        }
+        return forward;
+    }
+
+    private static HttpRequest buildRequest(FlareProx.Endpoint ep, String method, HttpRequest.BodyPublisher body,
+            String target, List<String[]> headers) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(stripTrailingSlash(ep.url) + "/"))
+                .method(method, body)
+                .header(RequestRewriter.TARGET_HEADER, target);
+        for (String[] h : headers) {
+            if (!SKIP_REQUEST_HEADERS.contains(h[0].toLowerCase(Locale.ROOT))) {
+                try {
+                    b.header(h[0], h[1]);
+                } catch (IllegalArgumentException ignore) {
+                    // HttpClient 不允许设置的受限头直接丢弃
+                }
+            }
+        }
+        return b.build();
+    }
+
+    private static boolean hasBody(List<String[]> headers) {
+        return header(headers, "Transfer-Encoding") != null || contentLength(headers) > 0;
+    }
+
+    /** 写出响应并返回正文字节数；scan 非空时顺带喂入正文前缀。 */
+    private static long writeResponse(OutputStream out, String method, HttpResponse<InputStream> resp,
+            InputStream body, boolean keepAlive, String attemptInfo, BlockDetector.Scan scan) throws IOException {
+        int status = resp.statusCode();
+        boolean noBody = "HEAD".equals(method) || status == 204 || status == 304 || (status >= 100 && status < 200);
+        long length = resp.headers().firstValueAsLong("Content-Length").orElse(-1);
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        for (Map.Entry<String, List<String>> e : resp.headers().map().entrySet()) {
+            if (SKIP_RESPONSE_HEADERS.contains(e.getKey().toLowerCase(Locale.ROOT))) continue;
+            for (String v : e.getValue()) {
+                head.append(e.getKey()).append(": ").append(v).append("\r\n");
+            }
+        }
+        boolean chunked = false;
+        if (length >= 0) {
+            head.append("Content-Length: ").append(length).append("\r\n");
+        } else if (!noBody) {
+            head.append("Transfer-Encoding: chunked\r\n");
+            chunked = true;
+        }
+        head.append(ATTEMPT_HEADER).append(": ").append(attemptInfo).append("\r\n");
+        head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        long total = 0;
+        if (!noBody) {
+            byte[] buf = new byte[BUFFER];
+            int n;
+            while ((n = body.read(buf)) > 0) {
+                total += n;
+                if (scan != null && scan.wantsMore()) {
+                    scan.feed(buf, 0, n);
+                }
+                if (chunked) {
+                    out.write((Integer.toHexString(n) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                    out.write(buf, 0, n);
+                    out.write('\r');
+                    out.write('\n');
+                } else {
+                    out.write(buf, 0, n);
+                }
+            }
+            if (chunked) {
+                out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+        out.flush();
+        return total;
+    }
+
+    /** 写出批量响应帧：头名与头值按原始字节写出。状态码 0 表示 Worker 侧请求失败。 */
+    private static void writeFrameResponse(OutputStream out, String method, BatchFrames.Response r, boolean keepAlive,
+            String attemptInfo) throws IOException {
+        if (r.status == 0) {
+            writeError(out, 502, "Worker fetch failed: " + new String(r.body(), StandardCharsets.UTF_8));
+            return;
+        }
+        int status = r.status;
+        boolean noBody = "HEAD".equals(method) || status == 204 || status == 304 || (status >= 100 && status < 200);
+        out.write(("HTTP/1.1 " + status + " " + reason(status) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        for (int i = 0, n = r.headerCount(); i < n; i++) {
+            if (r.nameEquals(i, "connection") || r.nameEquals(i, "keep-alive") || r.nameEquals(i, "content-length")
+                    || r.nameEquals(i, "transfer-encoding")) continue;
+            r.writeHeaderLine(i, out);
+        }
+        out.write(((noBody ? "" : "Content-Length: " + r.bodyLength() + "\r\n")
+                + ATTEMPT_HEADER + ": " + attemptInfo + "\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        if (!noBody) r.writeBody(out);
+        out.flush();
+    }
+
+    private static void writeError(OutputStream out, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+                + "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Content-Length: " + body.length + "\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    static String targetOf(String requestTarget, List<String[]> headers) {
+        if (requestTarget.startsWith("http://") || requestTarget.startsWith("https://")) {
+            return requestTarget;
+        }
+        if (requestTarget.startsWith("/http://") || requestTarget.startsWith("/https://")) {
+            return requestTarget.substring(1);
+        }
+        String explicit = header(headers, RequestRewriter.TARGET_HEADER);
+        if (explicit != null && !explicit.isEmpty()) {
+            return explicit;
+        }
+        return null;
+    }
+
+    private static HttpRequest.BodyPublisher bodyPublisher(InputStream in, List<String[]> headers) {
+        String te = header(headers, "Transfer-Encoding");
+        if (te != null && te.toLowerCase(Locale.ROOT).contains("chunked")) {
+            ChunkedInputStream chunks = new ChunkedInputStream(in);
+            return HttpRequest.BodyPublishers.ofInputStream(() -> chunks);
+        }
+        long length = contentLength(headers);
+        if (length <= 0) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        BoundedInputStream bounded = new BoundedInputStream(in, length);
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(() -> bounded), length);
+    }
+
+    private static void drainBody(InputStream in, List<String[]> headers) throws IOException {
+        String te = header(headers, "Transfer-Encoding");
+        InputStream body = te != null && te.toLowerCase(Locale.ROOT).contains("chunked")
+                ? new ChunkedInputStream(in) : new BoundedInputStream(in, Math.max(0, contentLength(headers)));
+        body.transferTo(OutputStream.nullOutputStream());
+    }
+
+    private static long contentLength(List<String[]> headers) {
+        String cl = header(headers, "Content-Length");
+        if (cl == null) return 0;
+        try {
+            return Long.parseLong(cl.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static String header(List<String[]> headers, String name) {
+        for (String[] h : headers) {
+            if (h[0].equalsIgnoreCase(name)) return h[1];
+        }
+        return null;
+    }
+
+    private static List<String[]> readHeaders(InputStream in) throws IOException {
+        List<String[]> headers = new ArrayList<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0 || headers.size() >= MAX_HEADERS) {
+                return null;
+            }
+            headers.add(new String[] { line.substring(0, colon).trim(), line.substring(colon + 1).trim() });
+        }
+        return line == null ? null : headers;
+    }
+
+    /** 读取一行（CRLF 或 LF 结尾），连接关闭时返回 null。 */
+    static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r') sb.setLength(len - 1);
+                return sb.toString();
+            }
+            if (sb.length() >= MAX_LINE) {
+                throw new IOException("Line too long");
+            }
+            sb.append((char) c);
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            default: return "Status";
+        }
+    }
+
+    /** 只读出前 limit 个字节，不关闭底层连接流。 */
+    static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int c = in.read();
+            if (c >= 0) remaining--;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // 底层是客户端连接，由连接处理循环负责关闭
+        }
+    }
+
+    /** 解码 chunked 请求体，读到末尾块与 trailer 后返回 -1，不关闭底层连接流。 */
+    static final class ChunkedInputStream extends InputStream {
+        private final InputStream in;
+        private long chunkRemaining;
+        private boolean done;
+
+        ChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) <= 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) return -1;
+            if (chunkRemaining == 0) {
+                String sizeLine = readLine(in);
+                if (sizeLine == null) throw new IOException("Truncated chunked body");
+                int semi = sizeLine.indexOf(';');
+                String hex = (semi >= 0 ? sizeLine.substring(0, semi) : sizeLine).trim();
+                try {
+                    chunkRemaining = Long.parseLong(hex, 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad chunk size: " + hex);
+                }
+                if (chunkRemaining == 0) {
+                    String trailer;
+                    while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+                        // 丢弃 trailer
+                    }
+                    done = true;
+                    return -1;
+                }
+            }
+            int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (n < 0) throw new IOException("Truncated chunked body");
+            chunkRemaining -= n;
+            if (chunkRemaining == 0) {
+                readLine(in);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,252 @@
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 端点池吞吐测试：以开环到达率（固定间隔的计划发送时刻，不等上一个请求完成）经池中端点轮流请求目标 URL，
+ * 统计每个端点与整个池的实际成功吞吐、延迟分位数与错误分类。
+ * 延迟从计划发送时刻算起而不是实际发出时刻，发送线程落后或在途请求达到上限时，排队时间同样计入，
+ * 避免协调遗漏（coordinated omission）让结果偏乐观；在途已满时该请求直接记为 SATURATED。
+ * 经 Worker 的请求计入当日额度。
+ */
+public final class PoolBenchmark {
+    public enum Outcome { OK, HTTP_4XX, RATE_LIMITED, HTTP_5XX, EDGE_ERROR, TIMEOUT, CONNECT, IO, SATURATED }
+
+    public static final class Config {
+        public String targetUrl;
+        public double ratePerSecond = 20;
+        public int durationSeconds = 30;
+        public int maxInflight = 512;
+        public Duration timeout = Duration.ofSeconds(10);
+    }
+
+    /** 一组请求的结果；latency 从计划时刻起算，service 从实际发出起算。 */
+    public static final class Stats {
+        private long[] latency = new long[64];
+        private long[] service = new long[64];
+        private int samples;
+        private final EnumMap<Outcome, Integer> outcomes = new EnumMap<>(Outcome.class);
+
+        synchronized void add(Outcome outcome, long latencyNanos, long serviceNanos) {
+            outcomes.merge(outcome, 1, Integer::sum);
+            if (outcome != Outcome.OK) return;
+            if (samples == latency.length) {
+                latency = Arrays.copyOf(latency, samples * 2);
+                service = Arrays.copyOf(service, samples * 2);
+            }
+            latency[samples] = latencyNanos;
+            service[samples++] = serviceNanos;
+        }
+
+        public synchronized int requests() {
+            int n = 0;
+            for (int c : outcomes.values()) n += c;
+            return n;
+        }
+
+        public synchronized int ok() {
+            return outcomes.getOrDefault(Outcome.OK, 0);
+        }
+
+        public synchronized Map<Outcome, Integer> errors() {
+            EnumMap<Outcome, Integer> e = new EnumMap<>(outcomes);
+            e.remove(Outcome.OK);
+            return e;
+        }
+
+        /** 成功请求延迟的分位数（毫秒，q 取 0..1）；corrected=false 时为实际发出后的服务时间。 */
+        public synchronized double percentileMillis(double q, boolean corrected) {
+            if (samples == 0) return 0;
+            long[] sorted = Arrays.copyOf(corrected ? latency : service, samples);
+            Arrays.sort(sorted);
+            int idx = (int) Math.ceil(q * samples) - 1;
+            return sorted[Math.max(0, Math.min(samples - 1, idx))] / 1e6;
+        }
+
+        String describe(double seconds) {
+            Map<Outcome, Integer> errors = errors();
+            return String.format("%d req, %.1f ok/s, p50 %.0f ms, p90 %.0f ms, p99 %.0f ms, max %.0f ms "
+                    + "(service p99 %.0f ms), errors %s", requests(), seconds <= 0 ? 0.0 : ok() / seconds,
+                    percentileMillis(0.5, true), percentileMillis(0.9, true), percentileMillis(0.99, true),
+                    percentileMillis(1.0, true), percentileMillis(0.99, false), errors.isEmpty() ? "none" : errors);
+        }
+    }
+
+    public static final class Result {
+        public final Instant startedAt;
+        public final String targetUrl;
+        public final double ratePerSecond;
+        public final int endpointCount;
+        public final Stats pool = new Stats();
+        public final Map<String, Stats> endpoints = new LinkedHashMap<>();
+        public boolean cancelled;
+        /** 从第一个计划时刻到最后一个请求结束的秒数。 */
+        public double seconds;
+
+        Result(Instant startedAt, String targetUrl, double ratePerSecond, List<FlareProx.Endpoint> eps) {
+            this.startedAt = startedAt;
+            this.targetUrl = targetUrl;
+            this.ratePerSecond = ratePerSecond;
+            this.endpointCount = eps.size();
+            for (FlareProx.Endpoint ep : eps) endpoints.put(ep.name, new Stats());
+        }
+
+        public double achievedPerSecond() {
+            return seconds <= 0 ? 0 : pool.ok() / seconds;
+        }
+
+        public String describe() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Target %s at %.1f req/s over %d endpoints%s%n", targetUrl, ratePerSecond,
+                    endpointCount, cancelled ? " (cancelled)" : ""));
+            sb.append("  pool: ").append(pool.describe(seconds)).append('\n');
+            for (Map.Entry<String, Stats> e : endpoints.entrySet()) {
+                sb.append("  ").append(e.getKey()).append(": ").append(e.getValue().describe(seconds)).append('\n');
+            }
+            return sb.toString();
+        }
+
+        /** 单行摘要，保存为历史记录供不同次运行对比。 */
+        public String summaryLine() {
+            int errors = pool.requests() - pool.ok();
+            return String.format("%s rate=%.1f achieved=%.1f p50=%.0fms p99=%.0fms errors=%d/%d endpoints=%d target=%s",
+                    startedAt, ratePerSecond, achievedPerSecond(), pool.percentileMillis(0.5, true),
+                    pool.percentileMillis(0.99, true), errors, pool.requests(), endpointCount, targetUrl);
+        }
+    }
+
+    private final WorkerConnections connections;
+
+    public PoolBenchmark(WorkerConnections connections) {
+        this.connections = connections;
+    }
+
+    /** 在调用线程上按计划时刻发送，直到时长用完或 cancelled 为真，再等待在途请求结束。 */
+    public Result run(List<FlareProx.Endpoint> endpoints, Config config, BooleanSupplier cancelled)
+            throws InterruptedException {
+        if (endpoints.isEmpty()) {
+            throw new FlareProx.FlareProxException("No endpoints in pool");
+        }
+        if (config.ratePerSecond <= 0 || config.durationSeconds <= 0) {
+            throw new IllegalArgumentException("Rate and duration must be positive");
+        }
+        URI.create(config.targetUrl);
+        warmUp(endpoints, config);
+        Result result = new Result(Instant.now(), config.targetUrl, config.ratePerSecond, endpoints);
+        List<Stats> perEndpoint = new ArrayList<>(result.endpoints.values());
+        long interval = (long) (1e9 / config.ratePerSecond);
+        long total = (long) (config.ratePerSecond * config.durationSeconds);
+        Semaphore inflight = new Semaphore(config.maxInflight);
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        long origin = System.nanoTime();
+        long[] lastDone = { origin };
+        for (long i = 0; i < total; i++) {
+            long intended = origin + i * interval;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) throw new InterruptedException();
+            if (cancelled.getAsBoolean()) {
+                result.cancelled = true;
+                break;
+            }
+            int idx = (int) (i % endpoints.size());
+            FlareProx.Endpoint ep = endpoints.get(idx);
+            Stats stats = perEndpoint.get(idx);
+            if (!inflight.tryAcquire()) {
+                long now = System.nanoTime();
+                record(result.pool, stats, Outcome.SATURATED, now - intended, 0, lastDone, now);
+                continue;
+            }
+            HttpRequest req = request(ep, config);
+            long sent = System.nanoTime();
+            pending.add(connections.sendAsync(ep, req, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((resp, ex) -> {
+                        long now = System.nanoTime();
+                        inflight.release();
+                        record(result.pool, stats, classify(resp, ex), now - intended, now - sent, lastDone, now);
+                    }));
+        }
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]))
+                    .get(config.timeout.toMillis() + 5_000, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.ExecutionException | TimeoutException ignore) {
+            // 单个请求的失败已分类计数；超过超时仍未结束的请求不再等待
+        }
+        synchronized (lastDone) {
+            result.seconds = (lastDone[0] - origin) / 1e9;
+        }
+        return result;
+    }
+
+    // 每个端点先发一个不计入结果的请求，建立连接，避免把握手算进第一秒
+    private void warmUp(List<FlareProx.Endpoint> endpoints, Config config) {
+        List<CompletableFuture<?>> warm = new ArrayList<>();
+        for (FlareProx.Endpoint ep : endpoints) {
+            warm.add(connections.sendAsync(ep, request(ep, config), HttpResponse.BodyHandlers.discarding()));
+        }
+        try {
+            CompletableFuture.allOf(warm.toArray(new CompletableFuture[0]))
+                    .get(config.timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (java.util.concurrent.ExecutionException | TimeoutException ignore) {
+            // 预热失败的端点在正式阶段照常计数
+        }
+    }
+
+    private static HttpRequest request(FlareProx.Endpoint ep, Config config) {
+        return HttpRequest.newBuilder(URI.create(stripTrailingSlash(ep.url) + "/"))
+                .timeout(config.timeout)
+                .header(RequestRewriter.TARGET_HEADER, config.targetUrl)
+                .GET()
+                .build();
+    }
+
+    private static void record(Stats pool, Stats endpoint, Outcome outcome, long latency, long service,
+            long[] lastDone, long now) {
+        pool.add(outcome, latency, service);
+        endpoint.add(outcome, latency, service);
+        synchronized (lastDone) {
+            if (now > lastDone[0]) lastDone[0] = now;
+        }
+    }
+
+    static Outcome classify(HttpResponse<?> resp, Throwable ex) {
+        if (ex != null) {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof HttpConnectTimeoutException || cause instanceof ConnectException) {
+                return Outcome.CONNECT;
+            }
+            if (cause instanceof HttpTimeoutException) return Outcome.TIMEOUT;
+            return Outcome.IO;
+        }
+        int status = resp.statusCode();
+        if (RetryPolicy.isEdgeErrorStatus(status)) return Outcome.EDGE_ERROR;
+        if (status == 429) return Outcome.RATE_LIMITED;
+        if (status >= 500) return Outcome.HTTP_5XX;
+        if (status >= 400) return Outcome.HTTP_4XX;
+        return Outcome.OK;
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+}
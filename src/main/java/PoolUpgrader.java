@@ -0,0 +1,203 @@
+import burp.api.montoya.MontoyaApi;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 原地滚动升级：对现有 flareprox-* 脚本重新 PUT 当前模板，URL 与出口 IP 信息保持不变。
+ * 同时下线的 Worker 数受 minServingFraction 约束，但至少为 1：池太小、按比例一个都不能下线时仍逐个升级，
+ * 升级期间在役比例低于设定值，这一情况记入 Report.belowServingFraction 并写日志。每个 Worker 升级后校验其报告的版本，
+ * 失败则回滚旧脚本并停止后续升级。已是当前版本的 Worker 直接跳过。
+ */
+public class PoolUpgrader {
+    public static final class Report {
+        public final List<FlareProx.Endpoint> upgraded = new ArrayList<>();
+        public final List<FlareProx.Endpoint> skipped = new ArrayList<>();
+        public final List<FlareProx.Endpoint> rolledBack = new ArrayList<>();
+        public final List<FlareProx.Endpoint> failed = new ArrayList<>();
+        public boolean aborted;
+        // 池太小，逐个升级时在役比例也低于 minServingFraction
+        public boolean belowServingFraction;
+    }
+
+    private final CloudflareService cloudflare;
+    private final EndpointPool pool;
+    private final MontoyaApi api;
+    private int concurrency = 4;
+    private double minServingFraction = 0.75;
+    private long verifyTimeoutMs = 60_000;
+    private long verifyPollMs = 1_000;
+    // 本次升级中所有校验与回滚检查共用的客户端
+    private final java.net.http.HttpClient probeClient = ReadinessCheck.probeClient();
+
+    public PoolUpgrader(CloudflareService cloudflare, EndpointPool pool, MontoyaApi api) {
+        this.cloudflare = cloudflare;
+        this.pool = pool;
+        this.api = api;
+    }
+
+    public PoolUpgrader withConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    public PoolUpgrader withMinServingFraction(double fraction) {
+        this.minServingFraction = Math.max(0.0, Math.min(1.0, fraction));
+        return this;
+    }
+
+    public PoolUpgrader withVerifyTimeout(long timeoutMs, long pollMs) {
+        this.verifyTimeoutMs = timeoutMs;
+        this.verifyPollMs = Math.max(50, pollMs);
+        return this;
+    }
+
+    // 同时处于升级中的 Worker 上限；至少为 1，见 belowServingFraction
+    int batchSize(int poolSize) {
+        int maxOffline = (int) Math.floor(poolSize * (1.0 - minServingFraction));
+        return Math.max(1, Math.min(concurrency, maxOffline));
+    }
+
+    public Report upgrade(List<FlareProx.Endpoint> endpoints) {
+        Report report = new Report();
+        List<FlareProx.Endpoint> targets = new ArrayList<>();
+        for (FlareProx.Endpoint ep : endpoints) {
+            if (ep.isScriptCurrent()) {
+                report.skipped.add(ep);
+            } else {
+                targets.add(ep);
+            }
+        }
+        String version = WorkerScriptTemplate.render(WorkerScriptTemplate.Options.standard()).hash;
+        int batch = batchSize(endpoints.size());
+        int n = endpoints.size();
+        if (!targets.isEmpty() && Math.floor(n * (1.0 - minServingFraction)) < 1) {
+            report.belowServingFraction = true;
+            api.logging().logToOutput(String.format("[Upgrade] A pool of %d cannot keep %.0f%% serving; "
+                    + "upgrading one worker at a time (%.0f%% serving during each upgrade)",
+                    n, minServingFraction * 100, (n - 1) * 100.0 / n));
+        }
+        api.logging().logToOutput("[Upgrade] " + targets.size() + " to upgrade, " + report.skipped.size()
+                + " already current, batch=" + batch + ", version=" + version);
+        if (targets.isEmpty()) {
+            return report;
+        }
+
+        Semaphore permits = new Semaphore(batch);
+        AtomicBoolean abort = new AtomicBoolean(false);
+        ExecutorService exec = Executors.newFixedThreadPool(batch);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (FlareProx.Endpoint ep : targets) {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    abort.set(true);
+                }
+                if (abort.get()) {
+                    permits.release();
+                    break;
+                }
+                futures.add(exec.submit(() -> {
+                    try {
+                        upgradeOne(ep, report, abort);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (Exception ignore) {
+                    // 单个 Worker 的结果已记录在 report 中
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        report.aborted = abort.get();
+        api.logging().logToOutput("[Upgrade] Done: upgraded=" + report.upgraded.size()
+                + ", skipped=" + report.skipped.size()
+                + ", rolled back=" + report.rolledBack.size()
+                + ", failed=" + report.failed.size()
+                + (report.aborted ? " (stopped after failure)" : ""));
+        return report;
+    }
+
+    private void upgradeOne(FlareProx.Endpoint ep, Report report, AtomicBoolean abort) {
+        String previous;
+        try {
+            previous = cloudflare.downloadScript(ep.name);
+        } catch (FlareProx.FlareProxException ex) {
+            api.logging().logToError("[Upgrade] " + ep.name + ": cannot snapshot current script, skipped: "
+                    + ex.getMessage());
+            record(report.failed, ep);
+            abort.set(true);
+            return;
+        }
+
+        // 升级期间移出轮换池，其余 Worker 继续服务
+        pool.remove(ep.name);
+        String hash = null;
+        try {
+            hash = cloudflare.uploadScript(ep.name);
+            FlareProx.Endpoint upgraded = new FlareProx.Endpoint(ep.name, ep.url, hash);
+            if (awaitReady(upgraded, ReadinessCheck.httpProbe(probeClient, hash))) {
+                pool.add(upgraded);
+                record(report.upgraded, upgraded);
+                api.logging().logToOutput("[Upgrade] " + ep.name + " -> " + hash);
+                return;
+            }
+            api.logging().logToError("[Upgrade] " + ep.name + " did not report version " + hash + ", rolling back");
+        } catch (FlareProx.FlareProxException ex) {
+            api.logging().logToError("[Upgrade] " + ep.name + " upload failed, rolling back: " + ex.getMessage());
+        }
+
+        abort.set(true);
+        try {
+            cloudflare.restoreScript(ep.name, previous);
+            FlareProx.Endpoint restored = new FlareProx.Endpoint(ep.name, ep.url, "");
+            if (awaitReady(restored, ReadinessCheck.httpProbe(probeClient, null))) {
+                pool.add(restored);
+            }
+            record(report.rolledBack, restored);
+        } catch (FlareProx.FlareProxException ex) {
+            api.logging().logToError("[Upgrade] Rollback failed for " + ep.name + ": " + ex.getMessage());
+            record(report.failed, ep);
+        }
+    }
+
+    private boolean awaitReady(FlareProx.Endpoint ep, ReadinessCheck check) {
+        long deadline = System.currentTimeMillis() + verifyTimeoutMs;
+        while (true) {
+            try {
+                if (check.isReady(ep)) {
+                    return true;
+                }
+            } catch (Exception ignore) {
+                // 边缘节点切换版本期间的瞬时错误，继续轮询
+            }
+            if (System.currentTimeMillis() + verifyPollMs > deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(verifyPollMs);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private static void record(List<FlareProx.Endpoint> list, FlareProx.Endpoint ep) {
+        synchronized (list) {
+            list.add(ep);
+        }
+    }
+}
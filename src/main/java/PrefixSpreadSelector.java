@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按出口前缀分散的轮换：先在不同前缀之间轮转，再在同一前缀内部轮转，
+ * 使连续请求尽量落在不同的 /24（或 IPv6 /32）上。未探测到 IP 的端点各自视为独立前缀。
+ */
+public final class PrefixSpreadSelector implements EndpointSelector {
+    private static final class Groups {
+        final List<FlareProx.Endpoint> source;
+        final long indexVersion;
+        final FlareProx.Endpoint[][] byPrefix;
+        final AtomicLong[] inner;
+
+        Groups(List<FlareProx.Endpoint> source, long indexVersion, FlareProx.Endpoint[][] byPrefix) {
+            this.source = source;
+            this.indexVersion = indexVersion;
+            this.byPrefix = byPrefix;
+            this.inner = new AtomicLong[byPrefix.length];
+            for (int i = 0; i < inner.length; i++) inner[i] = new AtomicLong();
+        }
+    }
+
+    private final ExitIpIndex index;
+    private final AtomicLong outer = new AtomicLong();
+    private volatile Groups groups;
+
+    public PrefixSpreadSelector(ExitIpIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public FlareProx.Endpoint select(List<FlareProx.Endpoint> candidates) {
+        if (candidates.isEmpty()) return null;
+        Groups g = groups;
+        long v = index.version();
+        // 候选列表来自 EndpointPool 的不可变快照，引用相同即内容相同
+        if (g == null || g.source != candidates || g.indexVersion != v) {
+            g = build(candidates, v);
+            groups = g;
+        }
+        int gi = (int) Math.floorMod(outer.getAndIncrement(), (long) g.byPrefix.length);
+        FlareProx.Endpoint[] members = g.byPrefix[gi];
+        return members[(int) Math.floorMod(g.inner[gi].getAndIncrement(), (long) members.length)];
+    }
+
+    private Groups build(List<FlareProx.Endpoint> candidates, long version) {
+        Map<Object, List<FlareProx.Endpoint>> byPrefix = new LinkedHashMap<>();
+        for (FlareProx.Endpoint ep : candidates) {
+            long prefix = index.prefixOf(ep.name);
+            Object key = prefix == ExitIpIndex.NO_PREFIX ? ep.name : prefix;
+            byPrefix.computeIfAbsent(key, k -> new ArrayList<>()).add(ep);
+        }
+        FlareProx.Endpoint[][] arr = new FlareProx.Endpoint[byPrefix.size()][];
+        int i = 0;
+        for (List<FlareProx.Endpoint> members : byPrefix.values()) {
+            arr[i++] = members.toArray(new FlareProx.Endpoint[0]);
+        }
+        return new Groups(candidates, version, arr);
+    }
+}
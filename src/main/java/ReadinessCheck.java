@@ -0,0 +1,49 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * 判断新部署的 Worker 是否已在 workers.dev 上开始服务。
+ * 不带目标 URL 访问 Worker 时，脚本会返回 "No target URL" 的 400 JSON，
+ * 以此作为就绪信号；传播未完成时 Cloudflare 返回 404 或 1042 等错误页。
+ */
+@FunctionalInterface
+public interface ReadinessCheck {
+    boolean isReady(FlareProx.Endpoint endpoint) throws Exception;
+
+    static ReadinessCheck httpProbe() {
+        return httpProbe(null);
+    }
+
+    /**
+     * @param expectedVersion 非空时还要求 Worker 报告的脚本版本（内容哈希）一致，用于确认升级已生效
+     */
+    static ReadinessCheck httpProbe(String expectedVersion) {
+        return httpProbe(probeClient(), expectedVersion);
+    }
+
+    /** 每个 HttpClient 都有自己的选择器线程；需要逐个 Worker 校验时共用同一个客户端。 */
+    static HttpClient probeClient() {
+        return HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    static ReadinessCheck httpProbe(HttpClient client, String expectedVersion) {
+        return endpoint -> {
+            HttpRequest req = HttpRequest.newBuilder(URI.create(endpoint.url + "/"))
+                    .header("User-Agent", "flareprox-burp/1.0")
+                    .timeout(Duration.ofSeconds(10))
+                    .GET()
+                    .build();
+            HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
+            String body = resp.body();
+            if (body == null || !body.contains("No target URL")) {
+                return false;
+            }
+            return expectedVersion == null || body.contains("\"v\":\"" + expectedVersion + "\"");
+        };
+    }
+}
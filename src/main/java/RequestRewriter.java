@@ -0,0 +1,87 @@
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 将发往目标站点的请求改写为经由 Worker 转发：目标 URL 放入 X-Target-URL，
+ * 请求改投到 Worker 的 HttpService 并更新 Host 头。只做请求行与请求头级别的修改，
+ * 从不读取或转换请求体，因此单次改写的分配量与请求体大小无关。
+ */
+public final class RequestRewriter {
+    public static final String TARGET_HEADER = "X-Target-URL";
+
+    /** 预先计算的端点路由信息，按端点名缓存复用。 */
+    public static final class Route {
+        public final String endpointName;
+        public final String host;
+        public final HttpService service;
+
+        Route(String endpointName, String host, HttpService service) {
+            this.endpointName = endpointName;
+            this.host = host;
+            this.service = service;
+        }
+    }
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    public Route route(FlareProx.Endpoint endpoint) {
+        Route r = routes.get(endpoint.name);
+        if (r == null || !endpoint.url.endsWith(r.host)) {
+            r = newRoute(endpoint);
+            routes.put(endpoint.name, r);
+        }
+        return r;
+    }
+
+    public void forget(String endpointName) {
+        routes.remove(endpointName);
+    }
+
+    static Route newRoute(FlareProx.Endpoint endpoint) {
+        String host = hostOf(endpoint.url);
+        return new Route(endpoint.name, host, HttpService.httpService(host, 443, true));
+    }
+
+    public static HttpRequest rewrite(HttpRequest request, Route route) {
+        // url() 已包含 scheme/host/port/path/query，Worker 会原样使用其查询串
+        String target = request.url();
+        return request
+                .withService(route.service)
+                .withPath("/")
+                .withUpdatedHeader("Host", route.host)
+                .withHeader(TARGET_HEADER, target);
+    }
+
+    /** 将已改写的请求改投到另一个端点：X-Target-URL 保持不变，只替换服务与 Host。 */
+    public static HttpRequest reroute(HttpRequest rewritten, Route route) {
+        return rewritten
+                .withService(route.service)
+                .withUpdatedHeader("Host", route.host);
+    }
+
+    /** 已经指向 workers.dev 的请求（包括本扩展的探测请求）不再改写，避免循环。 */
+    public static boolean isWorkerRequest(HttpRequest request) {
+        HttpService svc = request.httpService();
+        return svc != null && svc.host() != null && svc.host().endsWith(".workers.dev");
+    }
+
+    static String hostOf(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = start;
+        while (end < url.length() && url.charAt(end) != '/' && url.charAt(end) != ':') end++;
+        return url.substring(start, end);
+    }
+
+    /** URL 的路径部分（不含查询串），没有路径时为 "/"。 */
+    static String pathOf(String url) {
+        int start = url.indexOf("://");
+        start = url.indexOf('/', start < 0 ? 0 : start + 3);
+        if (start < 0) return "/";
+        int end = start;
+        while (end < url.length() && url.charAt(end) != '?' && url.charAt(end) != '#') end++;
+        return url.substring(start, end);
+    }
+}
@@ -0,0 +1,123 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 经 Worker 转发失败时的重试策略：只重试幂等请求，只针对 Cloudflare 侧错误（52x/530、1xxx 错误页），
+ * 每次重试换一个端点。重试与对冲受预算约束：每个请求向预算存入 ratio 个令牌，每次重试或对冲消耗 1 个，
+ * 令牌上限为 maxTokens，避免端点大面积故障时重试把流量放大数倍。
+ */
+public final class RetryPolicy {
+    private static final Set<String> IDEMPOTENT = Set.of("GET", "HEAD", "OPTIONS", "TRACE", "PUT", "DELETE");
+    private static final byte[] ERROR_CODE = "error code: 1".getBytes(StandardCharsets.US_ASCII);
+    // 1xxx 错误页的标记只出现在正文开头，只扫描有限前缀
+    static final int BODY_SCAN_LIMIT = 512;
+    private static final long MILLI = 1000;
+
+    private final int maxRetries;
+    private final long depositMilli;
+    private final long capMilli;
+    private final long responseTimeoutMs;
+    private final AtomicLong tokensMilli;
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+    private final AtomicLong denied = new AtomicLong();
+
+    public RetryPolicy(int maxRetries, double ratio, int maxTokens, long responseTimeoutMs) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.depositMilli = Math.max(0, Math.round(ratio * MILLI));
+        this.capMilli = Math.max(1, maxTokens) * MILLI;
+        this.responseTimeoutMs = responseTimeoutMs;
+        this.tokensMilli = new AtomicLong(capMilli);
+    }
+
+    /** 默认：最多重试 2 次，重试量约为请求量的 10%，突发上限 20 次，单次重试 15 秒超时。 */
+    public static RetryPolicy standard() {
+        return new RetryPolicy(2, 0.1, 20, 15_000);
+    }
+
+    public int maxRetries() {
+        return maxRetries;
+    }
+
+    public long responseTimeoutMs() {
+        return responseTimeoutMs;
+    }
+
+    /** 每个经轮换发出的请求调用一次，为预算存入令牌。 */
+    public void onRequest() {
+        long cur = tokensMilli.get();
+        if (cur < capMilli) {
+            tokensMilli.accumulateAndGet(depositMilli, (a, b) -> Math.min(capMilli, a + b));
+        }
+    }
+
+    /** 尝试为一次重试扣除令牌；预算不足时返回 false。 */
+    public boolean tryAcquire() {
+        if (!take()) return false;
+        retried.incrementAndGet();
+        return true;
+    }
+
+    /** 尝试为一次对冲请求扣除令牌；对冲与重试同样放大流量，共用一个预算。 */
+    public boolean tryAcquireHedge() {
+        if (!take()) return false;
+        hedged.incrementAndGet();
+        return true;
+    }
+
+    private boolean take() {
+        while (true) {
+            long cur = tokensMilli.get();
+            if (cur < MILLI) {
+                denied.incrementAndGet();
+                return false;
+            }
+            if (tokensMilli.compareAndSet(cur, cur - MILLI)) {
+                return true;
+            }
+        }
+    }
+
+    public void onRecovered() {
+        recovered.incrementAndGet();
+    }
+
+    public static boolean isIdempotent(String method) {
+        return method != null && IDEMPOTENT.contains(method.toUpperCase(Locale.ROOT));
+    }
+
+    /** 仅凭状态码判断的 Cloudflare 边缘错误：520-527（源站/Worker 不可达）与 530。 */
+    public static boolean isEdgeErrorStatus(int status) {
+        return (status >= 520 && status <= 527) || status == 530;
+    }
+
+    /**
+     * Cloudflare 侧错误：边缘错误状态码，或 5xx/429 且正文前缀为 "error code: 1xxx"（如 1101 Worker 异常、
+     * 1015 限速、1027 超出每日配额）。bodyPrefix 为正文的前若干字节，可为 null。
+     */
+    public static boolean isCloudflareError(int status, byte[] bodyPrefix, int length) {
+        if (isEdgeErrorStatus(status)) {
+            return true;
+        }
+        if ((status < 500 && status != 429) || bodyPrefix == null) {
+            return false;
+        }
+        int n = Math.min(length, BODY_SCAN_LIMIT);
+        outer:
+        for (int i = 0; i + ERROR_CODE.length <= n; i++) {
+            for (int j = 0; j < ERROR_CODE.length; j++) {
+                if (bodyPrefix[i + j] != ERROR_CODE[j]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public String describe() {
+        return String.format("%d retried, %d recovered, %d hedged, %d denied by budget", retried.get(),
+                recovered.get(), hedged.get(), denied.get());
+    }
+}
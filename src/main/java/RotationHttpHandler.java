@@ -0,0 +1,320 @@
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.Annotations;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.ToolType;
+import burp.api.montoya.http.RequestOptions;
+import burp.api.montoya.http.handler.HttpHandler;
+import burp.api.montoya.http.handler.HttpRequestToBeSent;
+import burp.api.montoya.http.handler.HttpResponseReceived;
+import burp.api.montoya.http.handler.RequestToBeSentAction;
+import burp.api.montoya.http.handler.ResponseReceivedAction;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 将所选 Burp 工具发出的请求轮换到端点池中的 Worker 上。
+ * 选择策略与工具范围可在运行时替换；请求路径上不加锁。
+ * 开启重试时，幂等请求遇到 Cloudflare 侧错误会换端点重发（受 RetryPolicy 预算约束），
+ * 每个经轮换的响应都带有注释，记录经过的端点与尝试次数；开启封禁检测时附带分类结果。
+ * 每次经端点的请求都以 onStart/onComplete 回报给当前选择策略，供按延迟选择的策略使用。
+ */
+public class RotationHttpHandler implements HttpHandler {
+    private final EndpointPool pool;
+    private final MontoyaApi api;
+    private final RequestRewriter rewriter = new RequestRewriter();
+    private volatile EndpointSelector selector = EndpointSelector.roundRobin();
+    private volatile boolean enabled;
+    private volatile Set<ToolType> tools = EnumSet.of(ToolType.INTRUDER, ToolType.SCANNER, ToolType.REPEATER);
+    private volatile RetryPolicy retryPolicy;
+    private volatile BlockDetector detector;
+    private final EndpointHealth health;
+    private volatile TrafficAccounting traffic;
+    private volatile RoutingRules rules = RoutingRules.empty();
+    private volatile ColoIndex colos;
+    // messageId -> 在途请求；响应阶段取出计算延迟，未收到响应的由 sweepPending 清理
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+
+    private static final int PENDING_SWEEP_AT = 4096;
+    private static final long PENDING_EXPIRE_NANOS = 120_000_000_000L;
+
+    // lease 计入端点的在途请求数，删除端点前据此等待
+    private record Pending(EndpointSelector selector, String endpoint, String targetHost, long startNanos,
+            EndpointStore.Lease lease) {
+    }
+
+    public RotationHttpHandler(EndpointPool pool, EndpointHealth health, MontoyaApi api) {
+        this.pool = pool;
+        this.health = health;
+        this.api = api;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setSelector(EndpointSelector selector) {
+        this.selector = selector;
+    }
+
+    public EndpointSelector selector() {
+        return selector;
+    }
+
+    public void setTools(Set<ToolType> tools) {
+        this.tools = tools.isEmpty() ? EnumSet.noneOf(ToolType.class) : EnumSet.copyOf(tools);
+    }
+
+    /** null 表示关闭重试。 */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy retryPolicy() {
+        return retryPolicy;
+    }
+
+    /** null 表示不做封禁检测；检测结果写入 EndpointHealth，轮换据此跳过对目标主机冷却中的端点。 */
+    public void setDetector(BlockDetector detector) {
+        this.detector = detector;
+    }
+
+    /** null 表示不计数；非 null 时同时用于避开接近每日额度的账户。 */
+    public void setTraffic(TrafficAccounting traffic) {
+        this.traffic = traffic;
+    }
+
+    /** 路由规则整体替换即生效；无匹配规则的请求沿用工具开关。 */
+    public void setRules(RoutingRules rules) {
+        this.rules = rules == null ? RoutingRules.empty() : rules;
+    }
+
+    public RoutingRules rules() {
+        return rules;
+    }
+
+    /** null 表示不记录；非 null 时从每个 Worker 响应的 CF-Ray 头记录服务机房与延迟。 */
+    public void setColoIndex(ColoIndex colos) {
+        this.colos = colos;
+    }
+
+    public RequestRewriter rewriter() {
+        return rewriter;
+    }
+
+    @Override
+    public RequestToBeSentAction handleHttpRequestToBeSent(HttpRequestToBeSent request) {
+        if (!enabled || RequestRewriter.isWorkerRequest(request)) {
+            return RequestToBeSentAction.continueWith(request);
+        }
+        ToolType tool = request.toolSource().toolType();
+        RoutingRules.Action action = rules.match(request.httpService().host(), request.path(), request.method(), tool);
+        if (action == RoutingRules.Action.DIRECT || action == null && !tools.contains(tool)) {
+            return RequestToBeSentAction.continueWith(request);
+        }
+        TrafficAccounting counter = traffic;
+        List<FlareProx.Endpoint> candidates = health.usable(pool.snapshot(), request.httpService().host());
+        if (counter != null) {
+            candidates = counter.usable(candidates);
+        }
+        long selectStart = FlareProxEvents.enabled() ? System.nanoTime() : 0;
+        FlareProx.Endpoint ep = selector.select(candidates, request.httpService().host());
+        FlareProxEvents.endpointSelect("burp", selector, candidates.size(), ep, selectStart);
+        if (ep == null) {
+            return RequestToBeSentAction.continueWith(request);
+        }
+        if (counter != null) {
+            counter.record(ep.name);
+        }
+        RetryPolicy policy = retryPolicy;
+        if (policy != null) {
+            policy.onRequest();
+        }
+        EndpointSelector s = selector;
+        s.onStart(ep.name);
+        Pending replaced = pending.put(request.messageId(),
+                new Pending(s, ep.name, request.httpService().host(), System.nanoTime(), pool.enter(ep.name)));
+        if (replaced != null) {
+            replaced.lease.close();
+        } else if (pending.size() > PENDING_SWEEP_AT) {
+            sweepPending();
+        }
+        return RequestToBeSentAction.continueWith(RequestRewriter.rewrite(request, rewriter.route(ep)));
+    }
+
+    @Override
+    public ResponseReceivedAction handleHttpResponseReceived(HttpResponseReceived response) {
+        Pending p = pending.remove(response.messageId());
+        if (p != null) {
+            p.lease.close();
+            long latency = System.nanoTime() - p.startNanos;
+            boolean failed = isCloudflareError(response);
+            p.selector.onComplete(p.endpoint, latency, failed);
+            pool.store().recordRequest(p.endpoint, failed);
+            ColoIndex ci = colos;
+            if (ci != null) ci.record(p.endpoint, p.targetHost, response.headerValue("CF-Ray"), latency);
+            if (FlareProxEvents.enabled()) {
+                FlareProxEvents.proxiedRequest("burp", p.endpoint, "http", response.statusCode(), failed,
+                        response.headerValue("CF-Ray"), p.startNanos);
+            }
+        }
+        HttpRequest sent = response.initiatingRequest();
+        // 重试循环经 api.http() 发出的请求（扩展工具、已指向 Worker、无在途记录）由循环自己处理结果，
+        // 在这里再重试会形成嵌套重试
+        if (p == null && response.toolSource().toolType() == ToolType.EXTENSIONS
+                && RequestRewriter.isWorkerRequest(sent)) {
+            return ResponseReceivedAction.continueWith(response);
+        }
+        if (!enabled || !tools.contains(response.toolSource().toolType()) && rules.isEmpty()
+                || !sent.hasHeader(RequestRewriter.TARGET_HEADER) || !RequestRewriter.isWorkerRequest(sent)) {
+            return ResponseReceivedAction.continueWith(response);
+        }
+        String firstHost = sent.httpService().host();
+        String targetUrl = sent.headerValue(RequestRewriter.TARGET_HEADER);
+        String targetHost = RequestRewriter.hostOf(targetUrl);
+        String targetPath = RequestRewriter.pathOf(targetUrl);
+        RetryPolicy policy = retryPolicy;
+        if (policy == null || !RetryPolicy.isIdempotent(sent.method()) || !isCloudflareError(response)) {
+            String label = endpointLabel(firstHost);
+            return ResponseReceivedAction.continueWith(response, annotate(response.annotations(),
+                    "FlareProx: attempt 1 via " + label + classify(label, targetHost, targetPath, response)));
+        }
+
+        // 逐次换端点重发，已尝试过的端点不再选择
+        List<String> tried = new ArrayList<>();
+        tried.add(firstHost);
+        String firstLabel = endpointLabel(firstHost);
+        StringBuilder trail = new StringBuilder().append(response.statusCode()).append(" via ")
+                .append(firstLabel).append(classify(firstLabel, targetHost, targetPath, response));
+        HttpResponse last = response;
+        int attempt = 1;
+        while (attempt <= policy.maxRetries() && policy.tryAcquire()) {
+            FlareProx.Endpoint next = selectExcluding(tried, targetHost);
+            if (next == null) {
+                break;
+            }
+            attempt++;
+            RequestRewriter.Route route = rewriter.route(next);
+            tried.add(route.host);
+            TrafficAccounting counter = traffic;
+            if (counter != null) {
+                counter.record(next.name);
+            }
+            EndpointSelector s = selector;
+            s.onStart(next.name);
+            long start = System.nanoTime();
+            HttpRequestResponse rr;
+            EndpointStore.Lease lease = pool.enter(next.name);
+            try {
+                rr = api.http().sendRequest(RequestRewriter.reroute(sent, route),
+                        RequestOptions.requestOptions().withResponseTimeout(policy.responseTimeoutMs()));
+            } catch (RuntimeException ex) {
+                s.onComplete(next.name, System.nanoTime() - start, true);
+                pool.store().recordRequest(next.name, true);
+                trail.append(", error via ").append(next.name);
+                continue;
+            } finally {
+                lease.close();
+            }
+            if (rr == null || !rr.hasResponse()) {
+                s.onComplete(next.name, System.nanoTime() - start, true);
+                pool.store().recordRequest(next.name, true);
+                trail.append(", timeout via ").append(next.name);
+                continue;
+            }
+            last = rr.response();
+            long latency = System.nanoTime() - start;
+            boolean failed = isCloudflareError(last);
+            s.onComplete(next.name, latency, failed);
+            pool.store().recordRequest(next.name, failed);
+            ColoIndex ci = colos;
+            if (ci != null) ci.record(next.name, targetHost, last.headerValue("CF-Ray"), latency);
+            String verdict = classify(next.name, targetHost, targetPath, last);
+            if (!failed) {
+                policy.onRecovered();
+                return ResponseReceivedAction.continueWith(last, annotate(response.annotations(),
+                        "FlareProx: attempt " + attempt + " via " + next.name + " (earlier: " + trail + ")"
+                                + verdict));
+            }
+            trail.append(", ").append(last.statusCode()).append(" via ").append(next.name).append(verdict);
+        }
+        api.logging().logToOutput("[Retry] " + sent.headerValue(RequestRewriter.TARGET_HEADER)
+                + " failed after " + attempt + " attempt(s): " + trail);
+        return ResponseReceivedAction.continueWith(last, annotate(response.annotations(),
+                "FlareProx: failed after " + attempt + " attempt(s): " + trail));
+    }
+
+    /** 丢弃长时间未收到响应的在途记录（请求被丢弃、被其他扩展拦截等），按失败回报。 */
+    private void sweepPending() {
+        long now = System.nanoTime();
+        pending.entrySet().removeIf(e -> {
+            Pending p = e.getValue();
+            if (now - p.startNanos < PENDING_EXPIRE_NANOS) return false;
+            p.selector.onComplete(p.endpoint, now - p.startNanos, true);
+            p.lease.close();
+            return true;
+        });
+    }
+
+    /** 按与首次选择相同的健康与额度过滤选出未尝试过的端点。 */
+    private FlareProx.Endpoint selectExcluding(List<String> triedHosts, String targetHost) {
+        List<FlareProx.Endpoint> all = health.usable(pool.snapshot(), targetHost);
+        TrafficAccounting counter = traffic;
+        if (counter != null) {
+            all = counter.usable(all);
+        }
+        List<FlareProx.Endpoint> rest = new ArrayList<>(all.size());
+        for (FlareProx.Endpoint ep : all) {
+            if (!triedHosts.contains(RequestRewriter.hostOf(ep.url))) rest.add(ep);
+        }
+        return selector.select(rest, targetHost);
+    }
+
+    /** 分类并记入健康状态；非 OK 时返回追加到注释中的说明，否则返回空串。 */
+    private String classify(String endpointName, String targetHost, String targetPath, HttpResponse response) {
+        BlockDetector d = detector;
+        if (d == null) {
+            return "";
+        }
+        ByteArray body = response.body();
+        int n = Math.min(body.length(), d.prefixLimit());
+        byte[] prefix = n == 0 ? new byte[0] : body.subArray(0, n).getBytes();
+        BlockDetector.Verdict v = d.classify(targetHost, targetPath, response.statusCode(), response::headerValue,
+                prefix, n, body.length());
+        health.record(endpointName, targetHost, v);
+        return v == BlockDetector.Verdict.OK ? "" : " [" + v + "]";
+    }
+
+    private static boolean isCloudflareError(HttpResponse response) {
+        int status = response.statusCode();
+        if (RetryPolicy.isEdgeErrorStatus(status)) {
+            return true;
+        }
+        if (status < 500 && status != 429) {
+            return false;
+        }
+        ByteArray body = response.body();
+        int n = Math.min(body.length(), RetryPolicy.BODY_SCAN_LIMIT);
+        return n > 0 && RetryPolicy.isCloudflareError(status, body.subArray(0, n).getBytes(), n);
+    }
+
+    /** Worker 主机名的第一段即端点（脚本）名。 */
+    private static String endpointLabel(String host) {
+        int dot = host.indexOf('.');
+        return dot < 0 ? host : host.substring(0, dot);
+    }
+
+    private static Annotations annotate(Annotations annotations, String note) {
+        return annotations.withNotes(annotations.hasNotes() ? annotations.notes() + " | " + note : note);
+    }
+}
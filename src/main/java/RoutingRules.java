@@ -0,0 +1,328 @@
+import burp.api.montoya.core.ToolType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 路由规则：决定请求经 Worker 轮换（rotate）还是直连（direct）。每行一条规则，按顺序第一条匹配者生效：
+ * <pre>
+ * direct host=auth.example.com
+ * rotate host=*.example.com path=/api/ method=GET,POST tool=INTRUDER,SCANNER
+ * direct host=*
+ * </pre>
+ * 省略的条件表示任意；host 支持精确主机名、*.后缀 与 *，其他通配形式退化为正则逐条校验；
+ * path 为前缀（区分大小写，含查询串）。# 开头为注释。
+ *
+ * 编译后每条规则对应位图中的一位：主机名经反向后缀树、路径经前缀树、方法与工具经预先计算的位图得到
+ * 候选规则集合，按位与后取最低位即为第一条匹配规则。匹配不分配内存；实例不可变，可直接替换以热更新。
+ */
+public final class RoutingRules {
+    public enum Action {
+        ROTATE, DIRECT
+    }
+
+    /** 解析后的单条规则，toString 还原为规则文本。 */
+    public static final class Rule {
+        public final Action action;
+        public final String host;
+        public final String path;
+        public final List<String> methods;
+        public final List<ToolType> tools;
+
+        Rule(Action action, String host, String path, List<String> methods, List<ToolType> tools) {
+            this.action = action;
+            this.host = host;
+            this.path = path;
+            this.methods = methods;
+            this.tools = tools;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(action.name().toLowerCase(Locale.ROOT));
+            if (!host.equals("*")) sb.append(" host=").append(host);
+            if (!path.isEmpty()) sb.append(" path=").append(path);
+            if (!methods.isEmpty()) sb.append(" method=").append(String.join(",", methods));
+            if (!tools.isEmpty()) {
+                sb.append(" tool=");
+                for (int i = 0; i < tools.size(); i++) sb.append(i == 0 ? "" : ",").append(tools.get(i).name());
+            }
+            return sb.toString();
+        }
+    }
+
+    /** 字符树节点；子节点按字符排序后用二分查找。bits 为到此节点为止（含祖先）匹配的规则集合，无规则终止时为 null。 */
+    private static final class Node {
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        long[] own;
+        long[] bits;
+        // 主机树专用：主机名恰好在此结束时额外匹配的精确规则
+        long[] exact;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+
+        Node childOrCreate(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) return children[i];
+            int at = -i - 1;
+            char[] k = new char[keys.length + 1];
+            Node[] ch = new Node[children.length + 1];
+            System.arraycopy(keys, 0, k, 0, at);
+            System.arraycopy(children, 0, ch, 0, at);
+            k[at] = c;
+            ch[at] = new Node();
+            System.arraycopy(keys, at, k, at + 1, keys.length - at);
+            System.arraycopy(children, at, ch, at + 1, children.length - at);
+            keys = k;
+            children = ch;
+            return ch[at];
+        }
+    }
+
+    private static final RoutingRules EMPTY = new RoutingRules(List.of());
+
+    private final List<Rule> rules;
+    private final int words;
+    private final Node hostRoot = new Node();
+    private final Node pathRoot = new Node();
+    // 非后缀形式的主机通配规则：位图中先视为匹配，命中后再用正则校验
+    private final long[] slowHostMask;
+    private final Pattern[] slowHostPatterns;
+    private final Map<String, long[]> methodBits = new HashMap<>();
+    private final long[] anyMethod;
+    private final long[][] toolBits = new long[ToolType.values().length][];
+
+    private RoutingRules(List<Rule> rules) {
+        this.rules = List.copyOf(rules);
+        this.words = Math.max(1, (rules.size() + 63) >>> 6);
+        this.slowHostMask = new long[words];
+        this.slowHostPatterns = new Pattern[rules.size()];
+        this.anyMethod = new long[words];
+        long[] anyTool = new long[words];
+        long[] anyHost = new long[words];
+        long[] anyPath = new long[words];
+        for (int i = 0; i < rules.size(); i++) {
+            Rule r = rules.get(i);
+            String host = r.host;
+            if (host.equals("*")) {
+                set(anyHost, i);
+            } else if (host.startsWith("*.") && host.indexOf('*', 1) < 0) {
+                // *.example.com：反向插入 "moc.elpmaxe."，子域名的反向形式均以此为前缀
+                set(own(insertReversed(hostRoot, host.substring(1))), i);
+            } else if (host.indexOf('*') < 0) {
+                Node n = insertReversed(hostRoot, host);
+                if (n.exact == null) n.exact = new long[words];
+                set(n.exact, i);
+            } else {
+                set(slowHostMask, i);
+                slowHostPatterns[i] = globToPattern(host);
+            }
+            if (r.path.isEmpty()) {
+                set(anyPath, i);
+            } else {
+                Node n = pathRoot;
+                for (int c = 0; c < r.path.length(); c++) n = n.childOrCreate(r.path.charAt(c));
+                set(own(n), i);
+            }
+            if (r.methods.isEmpty()) set(anyMethod, i);
+            if (r.tools.isEmpty()) set(anyTool, i);
+        }
+        or(anyHost, slowHostMask);
+        accumulate(hostRoot, anyHost);
+        accumulate(pathRoot, anyPath);
+        hostRoot.bits = anyHost;
+        pathRoot.bits = anyPath;
+        for (int i = 0; i < rules.size(); i++) {
+            for (String m : rules.get(i).methods) set(methodBits.computeIfAbsent(m, k -> anyMethod.clone()), i);
+        }
+        for (ToolType t : ToolType.values()) toolBits[t.ordinal()] = anyTool.clone();
+        for (int i = 0; i < rules.size(); i++) {
+            for (ToolType t : rules.get(i).tools) set(toolBits[t.ordinal()], i);
+        }
+    }
+
+    public static RoutingRules empty() {
+        return EMPTY;
+    }
+
+    /** 解析规则文本；格式错误时抛出 IllegalArgumentException，消息含行号。 */
+    public static RoutingRules parse(String text) {
+        List<Rule> out = new ArrayList<>();
+        String[] lines = text == null ? new String[0] : text.split("\r?\n");
+        for (int ln = 0; ln < lines.length; ln++) {
+            String line = lines[ln].strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                out.add(parseRule(line));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Line " + (ln + 1) + ": " + ex.getMessage());
+            }
+        }
+        return out.isEmpty() ? EMPTY : new RoutingRules(out);
+    }
+
+    public static RoutingRules of(List<Rule> rules) {
+        return rules.isEmpty() ? EMPTY : new RoutingRules(rules);
+    }
+
+    public static Rule rule(Action action, String host, String path, List<String> methods, List<ToolType> tools) {
+        return new Rule(action, host == null || host.isEmpty() ? "*" : host.toLowerCase(Locale.ROOT),
+                path == null ? "" : path,
+                methods == null ? List.of() : methods.stream().map(m -> m.toUpperCase(Locale.ROOT)).toList(),
+                tools == null ? List.of() : List.copyOf(tools));
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    public List<Rule> rules() {
+        return rules;
+    }
+
+    /** 第一条匹配规则的序号；无匹配返回 -1。host 不区分大小写，path 区分。 */
+    public int matchIndex(String host, String path, String method, ToolType tool) {
+        if (rules.isEmpty()) return -1;
+        long[] hostBits = hostRoot.bits;
+        long[] hostExact = null;
+        Node n = hostRoot;
+        for (int i = host.length() - 1; i >= 0 && n != null; i--) {
+            n = n.child(lower(host.charAt(i)));
+            if (n != null && n.bits != null) hostBits = n.bits;
+            if (i == 0 && n != null) hostExact = n.exact;
+        }
+        long[] pathBits = pathRoot.bits;
+        n = pathRoot;
+        for (int i = 0, len = path == null ? 0 : path.length(); i < len && n != null; i++) {
+            n = n.child(path.charAt(i));
+            if (n != null && n.bits != null) pathBits = n.bits;
+        }
+        long[] mBits = method == null ? anyMethod : methodBits.getOrDefault(method, anyMethod);
+        long[] tBits = toolBits[tool.ordinal()];
+        for (int w = 0; w < words; w++) {
+            long h = hostBits[w];
+            if (hostExact != null) h |= hostExact[w];
+            long x = h & pathBits[w] & mBits[w] & tBits[w];
+            while (x != 0) {
+                int idx = (w << 6) + Long.numberOfTrailingZeros(x);
+                if ((slowHostMask[w] & (1L << idx)) == 0 || slowHostPatterns[idx].matcher(host).matches()) {
+                    return idx;
+                }
+                x &= x - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** 第一条匹配规则的动作；无匹配返回 null（由调用方沿用工具开关的默认行为）。 */
+    public Action match(String host, String path, String method, ToolType tool) {
+        int i = matchIndex(host, path, method, tool);
+        return i < 0 ? null : rules.get(i).action;
+    }
+
+    /** 规范化后的规则文本，一行一条。 */
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        for (Rule r : rules) sb.append(r).append('\n');
+        return sb.toString();
+    }
+
+    private static Rule parseRule(String line) {
+        String[] parts = line.split("\\s+");
+        Action action;
+        try {
+            action = Action.valueOf(parts[0].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("expected 'rotate' or 'direct', got '" + parts[0] + "'");
+        }
+        String host = null;
+        String path = null;
+        List<String> methods = null;
+        List<ToolType> tools = null;
+        for (int i = 1; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+            if (eq <= 0 || eq == parts[i].length() - 1) {
+                throw new IllegalArgumentException("expected key=value, got '" + parts[i] + "'");
+            }
+            String key = parts[i].substring(0, eq).toLowerCase(Locale.ROOT);
+            String value = parts[i].substring(eq + 1);
+            switch (key) {
+                case "host":
+                    host = value;
+                    break;
+                case "path":
+                    if (!value.startsWith("/")) throw new IllegalArgumentException("path must start with '/'");
+                    path = value;
+                    break;
+                case "method":
+                    methods = List.of(value.split(","));
+                    break;
+                case "tool":
+                    tools = new ArrayList<>();
+                    for (String t : value.split(",")) {
+                        try {
+                            tools.add(ToolType.valueOf(t.toUpperCase(Locale.ROOT)));
+                        } catch (IllegalArgumentException ex) {
+                            throw new IllegalArgumentException("unknown tool '" + t + "'");
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown key '" + key + "'");
+            }
+        }
+        return rule(action, host, path, methods, tools);
+    }
+
+    private Node insertReversed(Node root, String s) {
+        Node n = root;
+        for (int i = s.length() - 1; i >= 0; i--) n = n.childOrCreate(lower(s.charAt(i)));
+        return n;
+    }
+
+    private long[] own(Node n) {
+        if (n.own == null) n.own = new long[words];
+        return n.own;
+    }
+
+    /** 自根向下累积：有规则终止的节点保存 祖先累积 ∪ 自身规则，其余节点 bits 为 null，匹配时沿用最近祖先的。 */
+    private static void accumulate(Node n, long[] inherited) {
+        long[] acc = inherited;
+        if (n.own != null) {
+            acc = inherited.clone();
+            or(acc, n.own);
+            n.own = null;
+        }
+        n.bits = acc == inherited ? null : acc;
+        for (Node c : n.children) accumulate(c, acc);
+    }
+
+    private static void set(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    private static void or(long[] into, long[] from) {
+        for (int i = 0; i < into.length; i++) into[i] |= from[i];
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c | 0x20) : c;
+    }
+
+    private static Pattern globToPattern(String glob) {
+        StringBuilder sb = new StringBuilder("(?i)");
+        for (String part : glob.split("\\*", -1)) {
+            if (sb.length() > 4) sb.append(".*");
+            sb.append(Pattern.quote(part));
+        }
+        return Pattern.compile(sb.toString());
+    }
+}
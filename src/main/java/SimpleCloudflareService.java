@@ -8,10 +8,33 @@ import java.util.List;
 import java.util.UUID;
 
 public class SimpleCloudflareService implements CloudflareService {
+    private static final String API_HOST = "api.cloudflare.com";
+    static final String DEFAULT_API_BASE = "https://" + API_HOST + "/client/v4";
+    // 参数依次为脚本名与账户的 workers.dev 子域
+    static final String DEFAULT_WORKER_URL_FORMAT = "https://%s.%s.workers.dev";
+    private static final java.util.regex.Pattern TOTAL_PAGES = java.util.regex.Pattern
+            .compile("\"total_pages\"\\s*:\\s*(\\d+)");
+    private static final int CLEANUP_CONCURRENCY = 8;
+    private static final java.util.regex.Pattern SUBDOMAIN = java.util.regex.Pattern
+            .compile("\"subdomain\"\\s*:\\s*\"([^\"]+)\"");
+    private static final java.util.regex.Pattern SCRIPT_ID = java.util.regex.Pattern
+            .compile("\"id\"\\s*:\\s*\"(flareprox-[^\"]+)\"");
+    private static final java.util.regex.Pattern HASH_TAG = java.util.regex.Pattern
+            .compile("\"" + WorkerScriptTemplate.HASH_TAG_PREFIX + "([0-9a-f]+)\"");
     private final String token;
     private final String accountId;
     private final MontoyaApi api;
-    private String cachedSubdomain;
+    // 共享客户端：流水线部署时多个阶段并发复用连接
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(java.time.Duration.ofSeconds(15))
+            .build();
+    private volatile String cachedSubdomain;
+    private String apiBase = DEFAULT_API_BASE;
+    private String workerUrlFormat = DEFAULT_WORKER_URL_FORMAT;
+    private CloudflareApiGuard guard;
+    private CloudflareApiGuard.Priority priority = CloudflareApiGuard.Priority.INTERACTIVE;
+    private EndpointPool drainPool;
+    private java.time.Duration drainTimeout = java.time.Duration.ZERO;
 
     public SimpleCloudflareService(String token, String accountId, MontoyaApi api) {
         this.token = token;
@@ -19,44 +42,90 @@ public class SimpleCloudflareService implements CloudflareService {
         this.api = api;
     }
 
+    /** 固定 API 主机的解析结果，由缓存在后台刷新。 */
+    public SimpleCloudflareService withDnsCache(DnsCache dnsCache) {
+        if (dnsCache != null) {
+            dnsCache.pin(API_HOST);
+        }
+        return this;
+    }
+
+    /** 替换 API 根地址（到 /client/v4 为止），用于本地模拟器与压测。 */
+    public SimpleCloudflareService withApiBase(String apiBase) {
+        this.apiBase = apiBase.endsWith("/") ? apiBase.substring(0, apiBase.length() - 1) : apiBase;
+        return this;
+    }
+
+    /** 替换端点 URL 的格式，两个 %s 依次为脚本名与 workers.dev 子域。 */
+    public SimpleCloudflareService withWorkerUrlFormat(String format) {
+        this.workerUrlFormat = format;
+        return this;
+    }
+
+    /** 经账户的熔断器与请求预算发送 API 调用；后台任务以 BACKGROUND 优先级使用预算。 */
+    public SimpleCloudflareService withGuard(CloudflareApiGuard guard, CloudflareApiGuard.Priority priority) {
+        this.guard = guard;
+        this.priority = priority;
+        return this;
+    }
+
+    /** deleteEndpoints 先将端点移出该池并等待其在途请求结束（最多 timeout），再删除 Worker。 */
+    public SimpleCloudflareService withDrain(EndpointPool pool, java.time.Duration timeout) {
+        this.drainPool = pool;
+        this.drainTimeout = timeout;
+        return this;
+    }
+
     @Override
     public FlareProx.Endpoint createDeployment() {
+        String name = newScriptName();
+        String hash = uploadScript(name);
+        enableSubdomain(name);
+        String url = workersDevUrl(name);
+        api.logging().logToOutput("  [CF] Deployment created: " + name + " -> " + url);
+        return new FlareProx.Endpoint(name, url, hash);
+    }
+
+    @Override
+    public String newScriptName() {
         if (token == null || token.isBlank() || accountId == null || accountId.isBlank()) {
             throw new FlareProx.FlareProxException("Missing API token or account ID");
         }
-        String id = UUID.randomUUID().toString().substring(0, 8);
-        String name = "flareprox-" + id;
+        return "flareprox-" + UUID.randomUUID().toString().substring(0, 8);
+    }
 
+    @Override
+    public String uploadScript(String name) {
         // 1) 上传 Worker 脚本 (multipart PUT) + 模块化 -> Classic 兜底
-        String putUrl = "https://api.cloudflare.com/client/v4/accounts/" + accountId + "/workers/scripts/" + name;
-        String metadataJson = "{\"main_module\":\"worker.js\",\"compatibility_date\":\"2024-07-01\"}";
-        String scriptModule = CloudflareWorkerUtils.getWorkerScript();
+        String putUrl = scriptsUrl() + "/" + name;
+        WorkerScriptTemplate.Rendered moduleScript = WorkerScriptTemplate.render(WorkerScriptTemplate.Options.standard());
+        String metadataJson = CloudflareWorkerUtils.moduleMetadata(moduleScript);
         String boundary = "----BurpBoundary" + UUID.randomUUID().toString().replace("-", "");
-        String body = CloudflareWorkerUtils.buildMultipart(boundary, metadataJson, "worker.js", "application/javascript", scriptModule,
-                "worker.js");
+        byte[] body = CloudflareWorkerUtils.buildMultipartBytes(boundary, metadataJson, "worker.js", "application/javascript",
+                moduleScript.bytes, "worker.js");
         // 预览 multipart 结构便于诊断
         api.logging().logToOutput("[CF] Multipart preview boundary=" + boundary
                 + ", metadata_len=" + metadataJson.length()
-                + ", script_len=" + scriptModule.length()
+                + ", script_len=" + moduleScript.bytes.length
+                + ", script_hash=" + moduleScript.hash
                 + ", field=worker.js, content_type=application/javascript");
-        String head = body.substring(0, Math.min(body.length(), 300));
-        String tail = body.substring(Math.max(0, body.length() - 120));
+        String head = new String(body, 0, Math.min(body.length, 300), java.nio.charset.StandardCharsets.UTF_8);
+        String tail = new String(body, Math.max(0, body.length - 120), Math.min(body.length, 120),
+                java.nio.charset.StandardCharsets.UTF_8);
         api.logging().logToOutput("[CF] Multipart head >>>\n" + head.replace("\r", "\\r"));
         api.logging().logToOutput("[CF] Multipart tail >>>\n" + tail.replace("\r", "\\r"));
 
-        HttpClient client = HttpClient.newBuilder()
-                .connectTimeout(java.time.Duration.ofSeconds(15))
-                .build();
         HttpRequest putReq = HttpRequest.newBuilder(URI.create(putUrl))
                 .header("Authorization", "Bearer " + token)
                 .header("Accept", "application/json")
                 .header("Content-Type", "multipart/form-data; boundary=" + boundary)
                 .header("User-Agent", "flareprox-burp/1.0")
                 .timeout(java.time.Duration.ofSeconds(30))
-                .PUT(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(body))
                 .build();
+        String uploadedHash = moduleScript.hash;
         try {
-            HttpResponse<String> putResp = client.send(putReq, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> putResp = sendWithRetry(putReq, CloudflareApiGuard.Operation.UPLOAD);
             api.logging().logToOutput("[CF] Deploy Worker status=" + putResp.statusCode());
             String cfRay = putResp.headers().firstValue("CF-RAY").orElse("");
             if (!cfRay.isEmpty())
@@ -107,20 +176,22 @@ public class SimpleCloudflareService implements CloudflareService {
                         || respBody.contains("\"main_module\"");
                 if (esmError) {
                     // Fallback to Classic script
-                    String classicMetadata = "{\"body_part\":\"script\",\"compatibility_date\":\"2024-07-01\"}";
-                    String classicScript = getClassicWorkerScript();
+                    WorkerScriptTemplate.Rendered classicScript = WorkerScriptTemplate
+                            .render(WorkerScriptTemplate.Options.classic());
+                    String classicMetadata = CloudflareWorkerUtils.classicMetadata(classicScript);
                     String boundary2 = "----BurpBoundary" + UUID.randomUUID().toString().replace("-", "");
-                    String body2 = buildMultipart(boundary2, classicMetadata, "worker.js", "application/javascript",
-                            classicScript, "script");
+                    byte[] body2 = CloudflareWorkerUtils.buildMultipartBytes(boundary2, classicMetadata, "worker.js",
+                            "application/javascript", classicScript.bytes, "script");
+                    uploadedHash = classicScript.hash;
                     HttpRequest putReq2 = HttpRequest.newBuilder(URI.create(putUrl))
                             .header("Authorization", "Bearer " + token)
                             .header("Accept", "application/json")
                             .header("Content-Type", "multipart/form-data; boundary=" + boundary2)
                             .header("User-Agent", "flareprox-burp/1.0")
                             .timeout(java.time.Duration.ofSeconds(30))
-                            .PUT(HttpRequest.BodyPublishers.ofString(body2))
+                            .PUT(HttpRequest.BodyPublishers.ofByteArray(body2))
                             .build();
-                    HttpResponse<String> putResp2 = client.send(putReq2, HttpResponse.BodyHandlers.ofString());
+                    HttpResponse<String> putResp2 = sendWithRetry(putReq2, CloudflareApiGuard.Operation.UPLOAD);
                     api.logging().logToOutput("[CF] Fallback Classic status=" + putResp2.statusCode());
                     String cfRay2 = putResp2.headers().firstValue("CF-RAY").orElse("");
                     if (!cfRay2.isEmpty())
@@ -163,10 +234,80 @@ public class SimpleCloudflareService implements CloudflareService {
         } catch (Exception ex) {
             throw new FlareProx.FlareProxException("Create worker error: " + ex.getMessage());
         }
+        return uploadedHash;
+    }
+
+    @Override
+    public String downloadScript(String name) {
+        String getUrl = scriptsUrl() + "/" + name;
+        HttpRequest req = HttpRequest.newBuilder(URI.create(getUrl))
+                .header("Authorization", "Bearer " + token)
+                .timeout(java.time.Duration.ofSeconds(30))
+                .GET()
+                .build();
+        try {
+            // 只读调用，与列表共用熔断器：上传失败打开的熔断器不应阻止升级前下载回滚用的脚本
+            HttpResponse<String> resp = sendWithRetry(req, CloudflareApiGuard.Operation.LIST);
+            api.logging().logToOutput("[CF] Download script " + name + " status=" + resp.statusCode());
+            if (resp.statusCode() != 200) {
+                throw new FlareProx.FlareProxException("Download script failed: status=" + resp.statusCode());
+            }
+            String contentType = resp.headers().firstValue("Content-Type").orElse("");
+            return contentType.startsWith("multipart/") ? firstMultipartPart(resp.body(), contentType) : resp.body();
+        } catch (FlareProx.FlareProxException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new FlareProx.FlareProxException("Download script error: " + ex.getMessage());
+        }
+    }
 
+    @Override
+    public void restoreScript(String name, String script) {
+        // 以 Classic 形式重新上传旧内容；不带内容哈希 tag，列出时仍会显示为过期
+        String putUrl = scriptsUrl() + "/" + name;
+        String metadataJson = "{\"body_part\":\"script\",\"compatibility_date\":\"2024-07-01\",\"tags\":[\"flareprox\"]}";
+        String boundary = "----BurpBoundary" + UUID.randomUUID().toString().replace("-", "");
+        byte[] body = CloudflareWorkerUtils.buildMultipartBytes(boundary, metadataJson, "worker.js",
+                "application/javascript", script.getBytes(java.nio.charset.StandardCharsets.UTF_8), "script");
+        HttpRequest req = HttpRequest.newBuilder(URI.create(putUrl))
+                .header("Authorization", "Bearer " + token)
+                .header("Accept", "application/json")
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .header("User-Agent", "flareprox-burp/1.0")
+                .timeout(java.time.Duration.ofSeconds(30))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        try {
+            HttpResponse<String> resp = sendWithRetry(req, CloudflareApiGuard.Operation.UPLOAD);
+            api.logging().logToOutput("[CF] Restore script " + name + " status=" + resp.statusCode());
+            if (resp.statusCode() < 200 || resp.statusCode() >= 300 || !resp.body().contains("\"success\":true")) {
+                throw new FlareProx.FlareProxException("Restore script failed: status=" + resp.statusCode());
+            }
+        } catch (FlareProx.FlareProxException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new FlareProx.FlareProxException("Restore script error: " + ex.getMessage());
+        }
+    }
+
+    // 模块化 Worker 的内容以 multipart 返回，取第一个部分的正文作为脚本
+    static String firstMultipartPart(String body, String contentType) {
+        int bi = contentType.indexOf("boundary=");
+        if (bi < 0) return body;
+        String boundary = contentType.substring(bi + 9).replace("\"", "").trim();
+        int start = body.indexOf("--" + boundary);
+        if (start < 0) return body;
+        int headersEnd = body.indexOf("\r\n\r\n", start);
+        if (headersEnd < 0) return body;
+        int end = body.indexOf("\r\n--" + boundary, headersEnd + 4);
+        return end < 0 ? body.substring(headersEnd + 4) : body.substring(headersEnd + 4, end);
+    }
+
+    @Override
+    public void enableSubdomain(String name) {
         // 2) 尝试启用脚本的 subdomain (最佳努力)
         try {
-            String subEnableUrl = "https://api.cloudflare.com/client/v4/accounts/" + accountId + "/workers/scripts/"
+            String subEnableUrl = scriptsUrl() + "/"
                     + name + "/subdomain";
             String json = "{\"enabled\": true}";
             HttpRequest subReq = HttpRequest.newBuilder(URI.create(subEnableUrl))
@@ -175,40 +316,38 @@ public class SimpleCloudflareService implements CloudflareService {
                     .header("Content-Type", "application/json")
                     .POST(HttpRequest.BodyPublishers.ofString(json))
                     .build();
-            HttpResponse<String> subResp = client.send(subReq, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> subResp = sendWithRetry(subReq, CloudflareApiGuard.Operation.SUBDOMAIN);
             api.logging().logToOutput("[CF] Enable script subdomain status=" + subResp.statusCode());
         } catch (Exception ignore) {
             api.logging().logToOutput("[CF] Subdomain enable skipped or failed.");
         }
+    }
 
+    @Override
+    public String workersDevUrl(String name) {
         // 3) 生成 workers.dev URL（含 Python 版的 subdomain 兜底逻辑）
-        String subdomain = fetchWorkersSubdomain();
-        String url = "https://" + name + "." + subdomain + ".workers.dev";
-        api.logging().logToOutput("  [CF] Deployment created: " + name + " -> " + url);
-        return new FlareProx.Endpoint(name, url);
+        return String.format(workerUrlFormat, name, fetchWorkersSubdomain());
     }
 
-    private String fetchWorkersSubdomain() {
+    private synchronized String fetchWorkersSubdomain() {
         if (cachedSubdomain != null && !cachedSubdomain.isBlank()) {
             return cachedSubdomain;
         }
-        HttpClient client = HttpClient.newHttpClient();
-        String subUrl = "https://api.cloudflare.com/client/v4/accounts/" + accountId + "/workers/subdomain";
+        String subUrl = apiBase + "/accounts/" + accountId + "/workers/subdomain";
         HttpRequest req = HttpRequest.newBuilder(URI.create(subUrl))
                 .header("Authorization", "Bearer " + token)
                 .header("Accept", "application/json")
                 .GET()
                 .build();
+        String error = null;
         try {
-            HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> resp = sendWithRetry(req, CloudflareApiGuard.Operation.SUBDOMAIN);
             api.logging().logToOutput("[CF] Get workers.dev subdomain status=" + resp.statusCode());
             String body = resp.body();
             if (resp.statusCode() == 200 && body != null) {
-                java.util.regex.Matcher m = java.util.regex.Pattern
-                        .compile("\"subdomain\"\\s*:\\s*\"([^\"]+)\"")
-                        .matcher(body);
-                if (m.find()) {
-                    cachedSubdomain = m.group(1);
+                String parsed = parseSubdomain(body);
+                if (parsed != null) {
+                    cachedSubdomain = parsed;
                     api.logging().logToOutput("[CF] Parsed workers.dev subdomain=" + cachedSubdomain);
                     return cachedSubdomain;
                 } else {
@@ -220,64 +359,24 @@ public class SimpleCloudflareService implements CloudflareService {
             }
         } catch (Exception ex) {
             api.logging().logToError("[CF] Get subdomain error: " + ex.getMessage());
+            error = ex.getMessage();
         }
         // Fail fast to avoid constructing incorrect workers.dev URLs
-        throw new FlareProx.FlareProxException("Unable to resolve workers.dev subdomain");
+        throw new FlareProx.FlareProxException("Unable to resolve workers.dev subdomain"
+                + (error == null ? "" : ": " + error));
     }
 
 
-    private String getClassicWorkerScript() {
-        return "addEventListener('fetch',e=>e.respondWith(handleRequest(e.request)));" +
-                "function json(o,s){return new Response(JSON.stringify(o),{status:s,headers:{'Content-Type':'application/json'}})}"
-                +
-                "async function handleRequest(req){const u=new URL(req.url);let t=u.searchParams.get('url')||req.headers.get('X-Target-URL')||((u.pathname!=='/'&&u.pathname.slice(1).startsWith('http'))?u.pathname.slice(1):null);if(!t)return json({error:'No target URL'},400);try{new URL(t);}catch(e){return json({error:'Invalid target URL',provided:t},400);}const ps=new URLSearchParams();for(const[k,v]of u.searchParams){if(!['url','_cb','_t'].includes(k))ps.append(k,v);}const T=new URL(t);if(ps.toString())T.search=ps.toString();const h=new Headers();for(const[k,v]of req.headers){h.set(k,v);}h.set('Host',T.hostname);const prox=new Request(T.toString(),{method:req.method,headers:h,body:['GET','HEAD'].includes(req.method)?null:req.body});const r=await fetch(prox);const rh=new Headers();for(const[k,v]of r.headers){if(!['content-encoding','content-length','transfer-encoding'].includes(k.toLowerCase()))rh.set(k,v);}rh.set('Access-Control-Allow-Origin','*');rh.set('Access-Control-Allow-Methods','GET, POST, PUT, DELETE, OPTIONS, PATCH, HEAD');rh.set('Access-Control-Allow-Headers','*');if(req.method==='OPTIONS')return new Response(null,{status:204,headers:rh});return new Response(r.body,{status:r.status,statusText:r.statusText,headers:rh});}";
-    }
-
-    // 构造 Cloudflare Workers 上传所需的 multipart/form-data
-    private String buildMultipart(String boundary, String metadataJson, String filename, String contentType,
-            String script, String fieldName) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("--").append(boundary).append("\r\n");
-        sb.append("Content-Disposition: form-data; name=\"metadata\"\r\n");
-        sb.append("Content-Type: application/json\r\n\r\n");
-        sb.append(metadataJson).append("\r\n");
-        sb.append("--").append(boundary).append("\r\n");
-        sb.append("Content-Disposition: form-data; name=\"")
-                .append(fieldName).append("\"; filename=\"")
-                .append(filename).append("\"\r\n");
-        sb.append("Content-Type: ").append(contentType).append("\r\n\r\n");
-        sb.append(script).append("\r\n");
-        sb.append("--").append(boundary).append("--\r\n");
-        return sb.toString();
-    }
-
     @Override
     public List<FlareProx.Endpoint> listEndpoints() {
         if (token == null || token.isBlank() || accountId == null || accountId.isBlank()) {
             throw new FlareProx.FlareProxException("Missing API token or account ID");
         }
-        HttpClient client = HttpClient.newHttpClient();
-        String listUrl = "https://api.cloudflare.com/client/v4/accounts/" + accountId + "/workers/scripts";
-        HttpRequest req = HttpRequest.newBuilder(URI.create(listUrl))
-                .header("Authorization", "Bearer " + token)
-                .header("Accept", "application/json")
-                .GET()
-                .build();
         try {
-            HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
-            api.logging().logToOutput("[CF] List Workers status=" + resp.statusCode());
-            if (resp.statusCode() != 200) {
-                throw new FlareProx.FlareProxException("List Workers failed with status " + resp.statusCode());
-            }
-            String body = resp.body();
-            java.util.regex.Pattern p = java.util.regex.Pattern.compile("\"id\"\\s*:\\s*\"(flareprox-[^\"]+)\"");
-            java.util.regex.Matcher m = p.matcher(body);
             List<FlareProx.Endpoint> endpoints = new ArrayList<>();
             String subdomain = fetchWorkersSubdomain();
-            while (m.find()) {
-                String name = m.group(1);
-                String url = "https://" + name + "." + subdomain + ".workers.dev";
-                endpoints.add(new FlareProx.Endpoint(name, url));
+            for (String body : listScriptPages()) {
+                endpoints.addAll(parseEndpoints(body, workerUrlFormat, subdomain));
             }
             return endpoints;
         } catch (Exception ex) {
@@ -285,6 +384,175 @@ public class SimpleCloudflareService implements CloudflareService {
         }
     }
 
+    private String scriptsUrl() {
+        return apiBase + "/accounts/" + accountId + "/workers/scripts";
+    }
+
+    /**
+     * 列出脚本的全部分页。首页不带分页参数；响应带 result_info.total_pages 时继续请求后续页，
+     * 不分页的响应（当前线上 API）只请求一次。
+     */
+    private List<String> listScriptPages() throws java.io.IOException, InterruptedException {
+        List<String> pages = new ArrayList<>();
+        int totalPages = 1;
+        for (int page = 1; page <= totalPages; page++) {
+            String listUrl = page == 1 ? scriptsUrl() : scriptsUrl() + "?page=" + page;
+            HttpRequest req = HttpRequest.newBuilder(URI.create(listUrl))
+                    .header("Authorization", "Bearer " + token)
+                    .header("Accept", "application/json")
+                    .GET()
+                    .build();
+            HttpResponse<String> resp = sendWithRetry(req, CloudflareApiGuard.Operation.LIST);
+            api.logging().logToOutput("[CF] List Workers page " + page + " status=" + resp.statusCode());
+            if (resp.statusCode() != 200) {
+                throw new FlareProx.FlareProxException("List Workers failed with status " + resp.statusCode());
+            }
+            pages.add(resp.body());
+            java.util.regex.Matcher m = TOTAL_PAGES.matcher(resp.body());
+            if (page == 1 && m.find()) {
+                totalPages = Integer.parseInt(m.group(1));
+            }
+        }
+        return pages;
+    }
+
+    /** 429 与 5xx 时按 Retry-After（至多 5 秒，缺省 1 秒）等待后重试一次。 */
+    private HttpResponse<String> sendWithRetry(HttpRequest req, CloudflareApiGuard.Operation op)
+            throws java.io.IOException, InterruptedException {
+        long start = System.nanoTime();
+        HttpResponse<String> resp = send(req, op);
+        apiEvent(req, resp, 1, start);
+        if (resp.statusCode() == 429 || resp.statusCode() >= 500) {
+            long waitMs = 1_000;
+            try {
+                waitMs = Math.min(5_000, Long.parseLong(resp.headers().firstValue("Retry-After").orElse("1")) * 1_000);
+            } catch (NumberFormatException ignore) {
+                // 日期形式的 Retry-After 按缺省等待
+            }
+            api.logging().logToOutput("[CF] " + req.method() + " " + req.uri().getPath() + " status="
+                    + resp.statusCode() + ", retrying in " + waitMs + " ms");
+            Thread.sleep(waitMs);
+            start = System.nanoTime();
+            resp = send(req, op);
+            apiEvent(req, resp, 2, start);
+        }
+        return resp;
+    }
+
+    // 经熔断器与请求预算发送一次：熔断打开时直接抛出 FlareProxException；5xx、429、超时与连接失败计为失败
+    private HttpResponse<String> send(HttpRequest req, CloudflareApiGuard.Operation op)
+            throws java.io.IOException, InterruptedException {
+        CloudflareApiGuard g = guard;
+        if (g == null) {
+            return client.send(req, HttpResponse.BodyHandlers.ofString());
+        }
+        CloudflareApiGuard.Permit permit = g.acquire(op, priority);
+        HttpResponse<String> resp;
+        try {
+            resp = client.send(req, HttpResponse.BodyHandlers.ofString());
+        } catch (java.io.IOException ex) {
+            permit.failure(false);
+            throw ex;
+        } catch (InterruptedException | RuntimeException ex) {
+            permit.abandon();
+            throw ex;
+        }
+        if (resp.statusCode() == 429 || resp.statusCode() >= 500) {
+            permit.failure(resp.statusCode() == 429);
+        } else {
+            permit.success();
+        }
+        return resp;
+    }
+
+    private static void apiEvent(HttpRequest req, HttpResponse<String> resp, int attempt, long start) {
+        if (!FlareProxEvents.enabled()) return;
+        FlareProxEvents.cloudflareApi(req.method(), req.uri().getPath(), resp.statusCode(),
+                resp.headers().firstValue("CF-Ray").orElse(null), attempt, start);
+    }
+
+    /** 删除单个脚本；成功（含已不存在）返回 true。 */
+    private boolean deleteScript(String name) {
+        HttpRequest req = HttpRequest.newBuilder(URI.create(scriptsUrl() + "/" + name))
+                .header("Authorization", "Bearer " + token)
+                .header("Accept", "application/json")
+                .DELETE()
+                .build();
+        try {
+            HttpResponse<String> resp = sendWithRetry(req, CloudflareApiGuard.Operation.DELETE);
+            boolean ok = resp.statusCode() >= 200 && resp.statusCode() < 300
+                    && resp.body().contains("\"success\":true");
+            api.logging().logToOutput("[CF] Delete " + name + " status=" + resp.statusCode() + " success=" + ok);
+            return ok || resp.statusCode() == 404;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception ex) {
+            api.logging().logToError("[CF] Delete failed for " + name + ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+    // {"result":{"subdomain":"..."}} 中的 workers.dev 子域；找不到时返回 null
+    static String parseSubdomain(String body) {
+        java.util.regex.Matcher m = SUBDOMAIN.matcher(body);
+        return m.find() ? m.group(1) : null;
+    }
+
+    // 逐个脚本对象解析，tags 中的内容哈希用于判断脚本是否过期，无需下载脚本内容
+    static List<FlareProx.Endpoint> parseEndpoints(String body, String subdomain) {
+        return parseEndpoints(body, DEFAULT_WORKER_URL_FORMAT, subdomain);
+    }
+
+    static List<FlareProx.Endpoint> parseEndpoints(String body, String urlFormat, String subdomain) {
+        List<FlareProx.Endpoint> endpoints = new ArrayList<>();
+        for (String obj : splitResultObjects(body)) {
+            java.util.regex.Matcher m = SCRIPT_ID.matcher(obj);
+            if (!m.find()) continue;
+            String name = m.group(1);
+            java.util.regex.Matcher tm = HASH_TAG.matcher(obj);
+            String hash = tm.find() ? tm.group(1) : "";
+            String url = String.format(urlFormat, name, subdomain);
+            endpoints.add(new FlareProx.Endpoint(name, url, hash));
+        }
+        return endpoints;
+    }
+
+    // 将 {"result":[{...},{...}]} 拆分为顶层对象字符串（跳过字符串内的括号）
+    static List<String> splitResultObjects(String body) {
+        List<String> objects = new ArrayList<>();
+        int start = body.indexOf("\"result\"");
+        if (start < 0) return objects;
+        start = body.indexOf('[', start);
+        if (start < 0) return objects;
+        int depth = 0;
+        int objStart = -1;
+        boolean inString = false;
+        for (int i = start + 1; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (inString) {
+                if (c == '\\') i++;
+                else if (c == '"') inString = false;
+                continue;
+            }
+            if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                if (depth == 0) objStart = i;
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0 && objStart >= 0) {
+                    objects.add(body.substring(objStart, i + 1));
+                    objStart = -1;
+                }
+            } else if (c == ']' && depth == 0) {
+                break;
+            }
+        }
+        return objects;
+    }
+
     @Override
     public void syncEndpoints() {
         api.logging().logToOutput("[CF] Syncing endpoints to Cloudflare...");
@@ -296,23 +564,15 @@ public class SimpleCloudflareService implements CloudflareService {
             api.logging().logToOutput("[CF] No endpoints to delete.");
             return;
         }
-        HttpClient client = HttpClient.newHttpClient();
-        for (FlareProx.Endpoint ep : endpoints) {
-            String delUrl = "https://api.cloudflare.com/client/v4/accounts/" + accountId + "/workers/scripts/"
-                    + ep.name;
-            HttpRequest req = HttpRequest.newBuilder(URI.create(delUrl))
-                    .header("Authorization", "Bearer " + token)
-                    .header("Accept", "application/json")
-                    .DELETE()
-                    .build();
-            try {
-                HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
-                boolean ok = resp.statusCode() >= 200 && resp.statusCode() < 300
-                        && resp.body().contains("\"success\":true");
-                api.logging().logToOutput("[CF] Delete " + ep.name + " status=" + resp.statusCode() + " success=" + ok);
-            } catch (Exception ex) {
-                api.logging().logToError("[CF] Delete failed for " + ep.name + ": " + ex.getMessage());
-            }
+        List<String> names = new ArrayList<>(endpoints.size());
+        for (FlareProx.Endpoint ep : endpoints) names.add(ep.name);
+        List<FlareProx.Endpoint> drained = drain(names);
+        try {
+            int deleted = deleteScripts(names);
+            api.logging().logToOutput("[CF] Deleted " + deleted + "/" + names.size() + " endpoints");
+        } catch (Exception ex) {
+            restore(drained);
+            throw new FlareProx.FlareProxException("Delete failed: " + ex.getMessage());
         }
     }
 
@@ -321,45 +581,67 @@ public class SimpleCloudflareService implements CloudflareService {
         if (token == null || token.isBlank() || accountId == null || accountId.isBlank()) {
             throw new FlareProx.FlareProxException("Missing API token or account ID");
         }
-        HttpClient client = HttpClient.newHttpClient();
-        String listUrl = "https://api.cloudflare.com/client/v4/accounts/" + accountId + "/workers/scripts";
-        HttpRequest listReq = HttpRequest.newBuilder(URI.create(listUrl))
-                .header("Authorization", "Bearer " + token)
-                .header("Accept", "application/json")
-                .GET()
-                .build();
+        List<String> targets = new ArrayList<>();
         try {
-            HttpResponse<String> resp = client.send(listReq, HttpResponse.BodyHandlers.ofString());
-            api.logging().logToOutput("[CF] List Workers status=" + resp.statusCode());
-            if (resp.statusCode() != 200) {
-                throw new FlareProx.FlareProxException("List Workers failed with status " + resp.statusCode());
-            }
-            String body = resp.body();
-            java.util.regex.Pattern p = java.util.regex.Pattern.compile("\"id\"\\s*:\\s*\"(flareprox-[^\"]+)\"");
-            java.util.regex.Matcher m = p.matcher(body);
-            List<String> targets = new ArrayList<>();
-            while (m.find()) {
-                targets.add(m.group(1));
-            }
-            int total = targets.size();
-            int deleted = 0;
-            for (String name : targets) {
-                String delUrl = "https://api.cloudflare.com/client/v4/accounts/" + accountId + "/workers/scripts/"
-                        + name;
-                HttpRequest delReq = HttpRequest.newBuilder(URI.create(delUrl))
-                        .header("Authorization", "Bearer " + token)
-                        .header("Accept", "application/json")
-                        .DELETE()
-                        .build();
-                HttpResponse<String> delResp = client.send(delReq, HttpResponse.BodyHandlers.ofString());
-                boolean ok = delResp.statusCode() >= 200 && delResp.statusCode() < 300
-                        && delResp.body().contains("\"success\":true");
-                api.logging().logToOutput("[CF] Delete " + name + " status=" + delResp.statusCode() + " success=" + ok);
-                if (ok) deleted++;
+            for (String body : listScriptPages()) {
+                java.util.regex.Matcher m = SCRIPT_ID.matcher(body);
+                while (m.find()) {
+                    targets.add(m.group(1));
+                }
             }
-            api.logging().raiseInfoEvent("Cloudflare Workers cleanup completed: " + deleted + "/" + total);
         } catch (Exception ex) {
             throw new FlareProx.FlareProxException("Cleanup failed: " + ex.getMessage());
         }
+        List<FlareProx.Endpoint> drained = drain(targets);
+        try {
+            int deleted = deleteScripts(targets);
+            api.logging().raiseInfoEvent("Cloudflare Workers cleanup completed: " + deleted + "/" + targets.size());
+        } catch (Exception ex) {
+            restore(drained);
+            throw new FlareProx.FlareProxException("Cleanup failed: " + ex.getMessage());
+        }
+    }
+
+    // 删除前将端点移出 drainPool 并等待其在途请求结束；返回实际移出的端点，中断或删除失败时只放回这些
+    private List<FlareProx.Endpoint> drain(List<String> names) {
+        if (drainPool == null || names.isEmpty()) return List.of();
+        long drainStart = System.nanoTime();
+        List<FlareProx.Endpoint> removed = drainPool.removeAll(names);
+        try {
+            List<String> busy = drainPool.awaitIdle(names, drainTimeout);
+            api.logging().logToOutput(String.format("[CF] Drained %d endpoints in %d ms%s", removed.size(),
+                    (System.nanoTime() - drainStart) / 1_000_000,
+                    busy.isEmpty() ? "" : ", still in flight after timeout: " + busy));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            restore(removed);
+            throw new FlareProx.FlareProxException("Delete interrupted while draining endpoints");
+        }
+        return removed;
+    }
+
+    private void restore(List<FlareProx.Endpoint> drained) {
+        if (drainPool != null) drained.forEach(drainPool::add);
+    }
+
+    // 数量大时逐个删除耗时过长，以固定并发删除；限流由 sendWithRetry 处理。返回删除成功的数量
+    private int deleteScripts(List<String> names) throws Exception {
+        java.util.concurrent.ExecutorService exec = java.util.concurrent.Executors
+                .newFixedThreadPool(Math.max(1, Math.min(CLEANUP_CONCURRENCY, names.size())));
+        java.util.concurrent.atomic.AtomicInteger deleted = new java.util.concurrent.atomic.AtomicInteger();
+        try {
+            List<java.util.concurrent.Future<?>> futures = new ArrayList<>();
+            for (String name : names) {
+                futures.add(exec.submit(() -> {
+                    if (deleteScript(name)) deleted.incrementAndGet();
+                }));
+            }
+            for (java.util.concurrent.Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        return deleted.get();
     }
 }
\ No newline at end of file
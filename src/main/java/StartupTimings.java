@@ -0,0 +1,42 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 扩展启动各阶段的耗时。阶段可在不同线程结束（注册在加载线程、对账在后台、界面在 EDT），
+ * 每个阶段记录耗时与相对首个阶段开始时刻的偏移，便于跟踪 Burp 加载时长。
+ */
+public final class StartupTimings {
+    private final long originNanos;
+    private final Map<String, long[]> stages = new LinkedHashMap<>();
+
+    public StartupTimings() {
+        this(System.nanoTime());
+    }
+
+    public StartupTimings(long originNanos) {
+        this.originNanos = originNanos;
+    }
+
+    /** 记录阶段结束；同名阶段覆盖之前的记录。返回耗时（纳秒）。 */
+    public synchronized long record(String stage, long startNanos) {
+        long end = System.nanoTime();
+        stages.put(stage, new long[] { end - startNanos, startNanos - originNanos });
+        return end - startNanos;
+    }
+
+    /** 阶段耗时（毫秒），未记录时为 -1。 */
+    public synchronized double millis(String stage) {
+        long[] s = stages.get(stage);
+        return s == null ? -1 : s[0] / 1e6;
+    }
+
+    public synchronized String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, long[]> e : stages.entrySet()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(String.format("%s %.1f ms (at +%d ms)", e.getKey(), e.getValue()[0] / 1e6,
+                    Math.max(0, e.getValue()[1]) / 1_000_000));
+        }
+        return sb.length() == 0 ? "no stages" : sb.toString();
+    }
+}
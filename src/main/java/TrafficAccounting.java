@@ -0,0 +1,302 @@
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.persistence.Preferences;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 经 Worker 发出的请求计数，按端点与 Cloudflare 账户分别统计当天（UTC，与 Workers 免费额度的重置时间一致）的请求数。
+ * 请求路径上只有一次哈希查找和两次 LongAdder 自增；计数定期写回 Burp 全局偏好，跨项目、跨重启累计。
+ * 根据近期速率预测额度耗尽时间，并为轮换提供过滤：接近额度的账户下的端点被暂时避开。
+ */
+public final class TrafficAccounting {
+    private static final String PREF_PREFIX = "traffic.";
+    private static final long RATE_WINDOW_MS = 10 * 60_000L;
+
+    /** 端点对应的计数器对：端点自身与其所属账户。 */
+    private static final class Counter {
+        final LongAdder endpoint = new LongAdder();
+        final LongAdder account;
+
+        Counter(LongAdder account) {
+            this.account = account;
+        }
+    }
+
+    /** 一个 UTC 日的计数；跨日时整体替换。 */
+    private static final class Day {
+        final LocalDate date;
+        final Map<String, Counter> byEndpoint = new ConcurrentHashMap<>();
+        final Map<String, LongAdder> byAccount = new ConcurrentHashMap<>();
+        // 启动时从偏好载入的当日已用量（此前会话的计数）
+        final Map<String, Long> persistedBase = new ConcurrentHashMap<>();
+        final Map<String, Long> endpointBase = new ConcurrentHashMap<>();
+
+        Day(LocalDate date) {
+            this.date = date;
+        }
+
+        long accountTotal(String accountId) {
+            LongAdder a = byAccount.get(accountId);
+            return persistedBase.getOrDefault(accountId, 0L) + (a == null ? 0 : a.sum());
+        }
+
+        long endpointTotal(String endpointName) {
+            Counter c = byEndpoint.get(endpointName);
+            return endpointBase.getOrDefault(endpointName, 0L) + (c == null ? 0 : c.endpoint.sum());
+        }
+    }
+
+    /** 速率采样：最近一次与上一窗口的 (时间, 累计) 点。 */
+    private static final class RateSample {
+        long atMillis;
+        long total;
+    }
+
+    private final MontoyaApi api;
+    private final Map<String, String> accountOf = new ConcurrentHashMap<>();
+    private final Map<String, RateSample[]> rates = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "flareprox-traffic");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Day today;
+    private volatile long dailyQuota = 100_000;
+    private volatile double steerAwayAt = 0.95;
+
+    public TrafficAccounting(MontoyaApi api) {
+        this.api = api;
+        this.today = load(LocalDate.now(ZoneOffset.UTC));
+    }
+
+    /** 每日额度（每账户）；Workers 免费版为 100,000 次/天。 */
+    public void setDailyQuota(long quota) {
+        this.dailyQuota = Math.max(1, quota);
+    }
+
+    public long dailyQuota() {
+        return dailyQuota;
+    }
+
+    /** 账户用量达到额度的该比例后，轮换避开其端点。 */
+    public void setSteerAwayAt(double fraction) {
+        this.steerAwayAt = fraction;
+    }
+
+    public synchronized void start(long flushInterval, TimeUnit unit) {
+        long period = Math.max(1_000, unit.toMillis(flushInterval));
+        scheduler.scheduleAtFixedRate(this::flush, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    /** 登记端点所属账户（部署或列出时调用）。 */
+    public void bind(String endpointName, String accountId) {
+        if (endpointName == null || accountId == null || accountId.isEmpty()) return;
+        String prev = accountOf.put(endpointName, accountId);
+        if (!accountId.equals(prev)) {
+            // 绑定前已计数的端点（或改绑账户）：换用指向新账户的计数器，保留端点自身的计数
+            Day d = today;
+            Counter old = d.byEndpoint.remove(endpointName);
+            if (old != null) {
+                counterFor(d, endpointName).endpoint.add(old.endpoint.sum());
+            }
+        }
+    }
+
+    /** 请求路径：记一次经该端点发出的请求。 */
+    public void record(String endpointName) {
+        Day d = today;
+        Counter c = d.byEndpoint.get(endpointName);
+        if (c == null) {
+            c = counterFor(d, endpointName);
+        }
+        c.endpoint.increment();
+        if (c.account != null) c.account.increment();
+    }
+
+    private Counter counterFor(Day d, String endpointName) {
+        return d.byEndpoint.computeIfAbsent(endpointName, k -> {
+            String account = accountOf.get(k);
+            return new Counter(account == null ? null : d.byAccount.computeIfAbsent(account, a -> new LongAdder()));
+        });
+    }
+
+    public long endpointToday(String endpointName) {
+        return today.endpointTotal(endpointName);
+    }
+
+    public long accountToday(String accountId) {
+        return today.accountTotal(accountId);
+    }
+
+    /** 过滤掉所属账户已接近额度的端点；全部接近时返回原列表。 */
+    public List<FlareProx.Endpoint> usable(List<FlareProx.Endpoint> candidates) {
+        Day d = today;
+        long limit = (long) (dailyQuota * steerAwayAt);
+        boolean anyNear = false;
+        for (String account : d.byAccount.keySet()) {
+            if (d.accountTotal(account) >= limit) {
+                anyNear = true;
+                break;
+            }
+        }
+        if (!anyNear) return candidates;
+        List<FlareProx.Endpoint> out = new ArrayList<>(candidates.size());
+        for (FlareProx.Endpoint ep : candidates) {
+            String account = accountOf.get(ep.name);
+            if (account == null || d.accountTotal(account) < limit) out.add(ep);
+        }
+        return out.isEmpty() ? candidates : out;
+    }
+
+    /** 按近期速率预测账户额度耗尽的剩余毫秒数；速率为 0 时返回 -1，已耗尽返回 0。 */
+    public long millisToExhaustion(String accountId) {
+        long used = today.accountTotal(accountId);
+        long left = dailyQuota - used;
+        if (left <= 0) return 0;
+        double perMs = recentRate(accountId, used);
+        if (perMs <= 0) return -1;
+        long eta = (long) (left / perMs);
+        // 额度在 UTC 午夜重置，晚于重置时间的预测没有意义
+        return eta >= millisToReset() ? -1 : eta;
+    }
+
+    public static long millisToReset() {
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        return java.time.Duration.between(now, now.toLocalDate().plusDays(1).atStartOfDay(ZoneOffset.UTC)).toMillis();
+    }
+
+    /** 状态栏用的一行摘要：各账户当日用量、占比与预测。 */
+    public String describe() {
+        Day d = today;
+        if (d.byAccount.isEmpty() && d.persistedBase.isEmpty()) {
+            return "Quota: no traffic today";
+        }
+        StringBuilder sb = new StringBuilder("Quota:");
+        java.util.Set<String> accounts = new java.util.TreeSet<>(d.byAccount.keySet());
+        accounts.addAll(d.persistedBase.keySet());
+        for (String account : accounts) {
+            long used = d.accountTotal(account);
+            long eta = millisToExhaustion(account);
+            sb.append(String.format(" %s %,d/%,d (%.0f%%)%s", shortId(account), used, dailyQuota,
+                    used * 100.0 / dailyQuota, eta == 0 ? " exhausted" : eta > 0
+                            ? String.format(", ~%.1fh left", eta / 3_600_000.0) : ""));
+        }
+        return sb.toString();
+    }
+
+    /** 各端点当日请求数，按数量降序。 */
+    public String endpointReport() {
+        Day d = today;
+        Map<String, Long> sorted = new TreeMap<>();
+        for (String name : d.byEndpoint.keySet()) sorted.put(name, d.endpointTotal(name));
+        for (String name : d.endpointBase.keySet()) sorted.put(name, d.endpointTotal(name));
+        StringBuilder sb = new StringBuilder();
+        sorted.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(e -> sb.append(String.format("%-32s %,d  %s%n", e.getKey(), e.getValue(),
+                        shortId(accountOf.getOrDefault(e.getKey(), "?")))));
+        return sb.toString();
+    }
+
+    /** 写回偏好；跨日时先落盘前一日，再切换到新的一天并清理旧键。 */
+    public synchronized void flush() {
+        try {
+            Day d = today;
+            LocalDate now = LocalDate.now(ZoneOffset.UTC);
+            persist(d);
+            if (!now.equals(d.date)) {
+                today = load(now);
+                rates.clear();
+                purgeOlderThan(now);
+            }
+        } catch (RuntimeException ex) {
+            api.logging().logToError("[Traffic] Flush failed: " + ex.getMessage());
+        }
+    }
+
+    private double recentRate(String accountId, long used) {
+        long now = System.currentTimeMillis();
+        RateSample[] s = rates.computeIfAbsent(accountId, k -> {
+            RateSample first = new RateSample();
+            first.atMillis = now;
+            first.total = used;
+            return new RateSample[] { first, null };
+        });
+        synchronized (s) {
+            // s[0] 为窗口起点；超过窗口长度后滑动，保留上一窗口作为速率基准
+            if (now - s[0].atMillis >= RATE_WINDOW_MS) {
+                RateSample next = new RateSample();
+                next.atMillis = now;
+                next.total = used;
+                s[1] = s[0];
+                s[0] = next;
+            }
+            RateSample base = s[1] != null ? s[1] : s[0];
+            long dt = now - base.atMillis;
+            return dt < 1_000 ? 0 : (double) (used - base.total) / dt;
+        }
+    }
+
+    private Day load(LocalDate date) {
+        Day d = new Day(date);
+        Preferences prefs = api.persistence().preferences();
+        String suffix = "." + date;
+        String accountPrefix = PREF_PREFIX + "account.";
+        String endpointPrefix = PREF_PREFIX + "endpoint.";
+        for (String key : prefs.longKeys()) {
+            if (!key.endsWith(suffix)) continue;
+            Long v = prefs.getLong(key);
+            if (v == null) continue;
+            if (key.startsWith(accountPrefix)) {
+                d.persistedBase.put(key.substring(accountPrefix.length(), key.length() - suffix.length()), v);
+            } else if (key.startsWith(endpointPrefix)) {
+                d.endpointBase.put(key.substring(endpointPrefix.length(), key.length() - suffix.length()), v);
+            }
+        }
+        return d;
+    }
+
+    private void persist(Day d) {
+        Preferences prefs = api.persistence().preferences();
+        java.util.Set<String> accounts = new java.util.HashSet<>(d.byAccount.keySet());
+        accounts.addAll(d.persistedBase.keySet());
+        for (String account : accounts) {
+            prefs.setLong(PREF_PREFIX + "account." + account + "." + d.date, d.accountTotal(account));
+        }
+        for (String name : d.byEndpoint.keySet()) {
+            prefs.setLong(PREF_PREFIX + "endpoint." + name + "." + d.date, d.endpointTotal(name));
+        }
+    }
+
+    private void purgeOlderThan(LocalDate date) {
+        Preferences prefs = api.persistence().preferences();
+        for (String key : new ArrayList<>(prefs.longKeys())) {
+            if (!key.startsWith(PREF_PREFIX)) continue;
+            int dot = key.lastIndexOf('.');
+            try {
+                if (LocalDate.parse(key.substring(dot + 1)).isBefore(date)) prefs.deleteLong(key);
+            } catch (java.time.format.DateTimeParseException ignore) {
+                // 非日期后缀的键不属于按日计数
+            }
+        }
+    }
+
+    private static String shortId(String accountId) {
+        return accountId.length() <= 8 ? accountId : accountId.substring(0, 8) + "…";
+    }
+}
@@ -0,0 +1,364 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Worker 隧道模式的客户端：每个端点保持一条到 /__tunnel 的 WebSocket，多个并发请求以流 ID 复用其上。
+ * 每条消息是只含一个请求的 BatchFrames 请求批，每个回复是一帧响应；流 ID 即帧 id。
+ * 流控：每条隧道最多 maxInflight 个在途流（发送方窗口），接收方每处理完一条消息才向对端要下一条。
+ * 一条隧道是一次 Worker 调用，受每次调用的子请求数限制，用满 maxStreams 个流后退役（在途流结束后关闭）并换新隧道。
+ * 打开失败或隧道异常断开时，该端点冷却一段时间；期间 send 返回 null，调用方应退回普通 HTTP。
+ * 每个流有 streamTimeout 的期限，到期未收到响应帧则以 IOException 结束并释放窗口位，迟到的响应帧直接丢弃。
+ */
+public final class TunnelClient {
+    public static final String PATH = "/__tunnel";
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    private final WorkerConnections connections;
+    private final Map<String, CompletableFuture<Tunnel>> tunnels = new ConcurrentHashMap<>();
+    private final Map<String, Long> coolingUntil = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService pinger = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "flareprox-tunnel-ping");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong streams = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private volatile int maxInflight = 64;
+    private volatile int maxStreams = 45;
+    private volatile long cooldownMs = 60_000;
+    private volatile Duration openTimeout = Duration.ofSeconds(5);
+    private volatile Duration acquireTimeout = Duration.ofSeconds(2);
+    private volatile Duration streamTimeout = Duration.ofSeconds(30);
+    private volatile Supplier<EndpointSelector> feedback = () -> null;
+    private volatile TrafficAccounting traffic;
+
+    public TunnelClient(WorkerConnections connections) {
+        this.connections = connections;
+        pinger.scheduleWithFixedDelay(this::ping, 30, 30, TimeUnit.SECONDS);
+    }
+
+    /** 每条隧道的在途流上限。 */
+    public void setMaxInflight(int maxInflight) {
+        this.maxInflight = Math.max(1, maxInflight);
+    }
+
+    /** 每条隧道最多承载的流数；免费计划每次调用 50 个子请求，付费计划 1000。 */
+    public void setMaxStreams(int maxStreams) {
+        this.maxStreams = Math.max(1, maxStreams);
+    }
+
+    public void setCooldown(long cooldown, TimeUnit unit) {
+        this.cooldownMs = unit.toMillis(cooldown);
+    }
+
+    public void setStreamTimeout(Duration streamTimeout) {
+        this.streamTimeout = streamTimeout;
+    }
+
+    public Duration streamTimeout() {
+        return streamTimeout;
+    }
+
+    /** 每个流的延迟与失败回报给当前选择策略。 */
+    public void setFeedback(Supplier<EndpointSelector> feedback) {
+        this.feedback = feedback;
+    }
+
+    /** 打开隧道按一次 Worker 请求计数（隧道内的流是子请求，不计入每日请求数）。 */
+    public void setTraffic(TrafficAccounting traffic) {
+        this.traffic = traffic;
+    }
+
+    /**
+     * 经隧道发送；隧道不可用（冷却中、打开失败或窗口在 acquireTimeout 内无空位）时返回 null。
+     * 返回的 future 在响应帧到达时完成，隧道中途断开时以 IOException 失败。
+     */
+    public CompletableFuture<BatchFrames.Response> send(FlareProx.Endpoint endpoint, String method, String url,
+            List<String[]> headers, byte[] body) throws InterruptedException {
+        Long until = coolingUntil.get(endpoint.name);
+        if (until != null) {
+            if (System.currentTimeMillis() < until) return fallback();
+            coolingUntil.remove(endpoint.name, until);
+        }
+        Tunnel t = tunnel(endpoint);
+        if (t == null) return fallback();
+        if (!t.window.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) return fallback();
+        CompletableFuture<BatchFrames.Response> f = t.open(method, url, headers, body);
+        if (f == null) {
+            // 隧道刚退役或已关闭，换一条重试一次
+            t.window.release();
+            t = tunnel(endpoint);
+            if (t == null || !t.window.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                return fallback();
+            }
+            f = t.open(method, url, headers, body);
+            if (f == null) {
+                t.window.release();
+                return fallback();
+            }
+        }
+        streams.incrementAndGet();
+        return f;
+    }
+
+    public String describe() {
+        return String.format("%d tunnels opened, %d streams, %d fell back to HTTP", opened.get(), streams.get(),
+                fallbacks.get());
+    }
+
+    public void shutdown() {
+        pinger.shutdownNow();
+        for (CompletableFuture<Tunnel> f : tunnels.values()) {
+            Tunnel t = f.getNow(null);
+            if (t != null) t.abort(new IOException("Tunnel client stopped"));
+        }
+        tunnels.clear();
+    }
+
+    private CompletableFuture<BatchFrames.Response> fallback() {
+        fallbacks.incrementAndGet();
+        return null;
+    }
+
+    private Tunnel tunnel(FlareProx.Endpoint endpoint) throws InterruptedException {
+        CompletableFuture<Tunnel> f = tunnels.computeIfAbsent(endpoint.name, k -> connect(endpoint));
+        try {
+            return f.get(openTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.ExecutionException | TimeoutException e) {
+            // 超时后才建立的连接直接丢弃
+            f.thenAccept(late -> late.abort(new IOException("Tunnel opened too late")));
+            tunnels.remove(endpoint.name, f);
+            coolingUntil.put(endpoint.name, System.currentTimeMillis() + cooldownMs);
+            return null;
+        }
+    }
+
+    private CompletableFuture<Tunnel> connect(FlareProx.Endpoint endpoint) {
+        String base = endpoint.url.endsWith("/") ? endpoint.url.substring(0, endpoint.url.length() - 1)
+                : endpoint.url;
+        URI uri = URI.create(base.replaceFirst("^http", "ws") + PATH);
+        Tunnel t = new Tunnel(endpoint);
+        TrafficAccounting counter = traffic;
+        if (counter != null) counter.record(endpoint.name);
+        return connections.clientFor(endpoint).newWebSocketBuilder()
+                .connectTimeout(openTimeout)
+                .buildAsync(uri, t)
+                .thenApply(ws -> {
+                    opened.incrementAndGet();
+                    t.ws = ws;
+                    return t;
+                });
+    }
+
+    private void ping() {
+        for (CompletableFuture<Tunnel> f : tunnels.values()) {
+            Tunnel t = f.getNow(null);
+            if (t != null && t.ws != null && !t.ws.isOutputClosed()) {
+                t.enqueue(ws -> ws.sendPing(ByteBuffer.allocate(0)));
+            }
+        }
+    }
+
+    /** 一条隧道；同时是该 WebSocket 的监听器。 */
+    private final class Tunnel implements WebSocket.Listener {
+        final FlareProx.Endpoint endpoint;
+        final Semaphore window = new Semaphore(maxInflight);
+        final Map<Integer, Stream> inflight = new ConcurrentHashMap<>();
+        final AtomicInteger started = new AtomicInteger();
+        final BatchFrames.Encoder encoder = new BatchFrames.Encoder(1024);
+        volatile WebSocket ws;
+        volatile boolean retired;
+        volatile boolean closed;
+        // 发送串行化：java.net.http.WebSocket 要求上一条消息发送完成后才能发送下一条
+        private CompletableFuture<WebSocket> sendChain = CompletableFuture.completedFuture(null);
+        private final List<ByteBuffer> parts = new ArrayList<>();
+        private int partBytes;
+
+        Tunnel(FlareProx.Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        /** 发起一个流；隧道已退役或关闭时返回 null。调用方已占用一个窗口位。 */
+        CompletableFuture<BatchFrames.Response> open(String method, String url, List<String[]> headers,
+                byte[] body) {
+            if (closed || retired) return null;
+            int id = started.getAndIncrement();
+            if (id >= maxStreams) {
+                retire();
+                return null;
+            }
+            Stream s = new Stream(System.nanoTime());
+            inflight.put(id, s);
+            Duration limit = streamTimeout;
+            try {
+                s.timer = pinger.schedule(() -> finish(id, null, new IOException("Tunnel stream timed out after "
+                        + limit.toMillis() + " ms")), limit.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (java.util.concurrent.RejectedExecutionException e) {
+                finish(id, null, new IOException("Tunnel client stopped"));
+                return s.result;
+            }
+            if (id + 1 == maxStreams) retire();
+            EndpointSelector sel = feedback.get();
+            s.selector = sel;
+            if (sel != null) sel.onStart(endpoint.name);
+            byte[] msg;
+            synchronized (encoder) {
+                try {
+                    encoder.beginBatch().request(id, method, url, headers, body == null ? new byte[0] : body, 0,
+                            body == null ? 0 : body.length);
+                } catch (IllegalArgumentException e) {
+                    finish(id, null, new IOException("Cannot encode request: " + e.getMessage()));
+                    return s.result;
+                }
+                msg = encoder.toByteArray();
+            }
+            enqueue(w -> w.sendBinary(ByteBuffer.wrap(msg), true)).whenComplete((w, ex) -> {
+                if (ex != null) abort(ex instanceof IOException ? (IOException) ex : new IOException(ex));
+            });
+            return s.result;
+        }
+
+        synchronized CompletableFuture<WebSocket> enqueue(
+                java.util.function.Function<WebSocket, CompletableFuture<WebSocket>> op) {
+            sendChain = sendChain.thenCompose(ignore -> op.apply(ws));
+            return sendChain;
+        }
+
+        // 退役：不再接受新流，从端点映射中移除，在途流结束后关闭
+        void retire() {
+            if (retired) return;
+            retired = true;
+            tunnels.computeIfPresent(endpoint.name, (k, f) -> f.getNow(null) == this ? null : f);
+            if (inflight.isEmpty()) closeQuietly();
+        }
+
+        void abort(IOException e) {
+            if (!closed) {
+                closed = true;
+                tunnels.computeIfPresent(endpoint.name, (k, f) -> f.getNow(null) == this ? null : f);
+                if (!retired) coolingUntil.put(endpoint.name, System.currentTimeMillis() + cooldownMs);
+            }
+            for (Integer id : new ArrayList<>(inflight.keySet())) finish(id, null, e);
+            WebSocket w = ws;
+            if (w != null) w.abort();
+        }
+
+        void closeQuietly() {
+            if (closed) return;
+            closed = true;
+            enqueue(w -> w.sendClose(WebSocket.NORMAL_CLOSURE, "done"));
+        }
+
+        void finish(int id, BatchFrames.Response r, IOException error) {
+            Stream s = inflight.remove(id);
+            if (s == null) return;
+            window.release();
+            ScheduledFuture<?> timer = s.timer;
+            if (timer != null) timer.cancel(false);
+            if (s.selector != null) {
+                s.selector.onComplete(endpoint.name, System.nanoTime() - s.startNanos,
+                        error != null || r.status == 0 || RetryPolicy.isEdgeErrorStatus(r.status));
+            }
+            if (error != null) s.result.completeExceptionally(error);
+            else s.result.complete(r);
+            if (retired && inflight.isEmpty()) closeQuietly();
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            webSocket.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+            if (!last || !parts.isEmpty()) {
+                ByteBuffer copy = ByteBuffer.allocate(data.remaining()).put(data).flip();
+                parts.add(copy);
+                partBytes += copy.remaining();
+                if (partBytes > MAX_FRAME) {
+                    abort(new IOException("Tunnel message too large"));
+                    return null;
+                }
+                if (!last) {
+                    webSocket.request(1);
+                    return null;
+                }
+            }
+            byte[] msg;
+            if (parts.isEmpty()) {
+                msg = new byte[data.remaining()];
+                data.get(msg);
+            } else {
+                msg = new byte[partBytes];
+                int off = 0;
+                for (ByteBuffer b : parts) {
+                    int n = b.remaining();
+                    b.get(msg, off, n);
+                    off += n;
+                }
+                parts.clear();
+                partBytes = 0;
+            }
+            try {
+                BatchFrames.Response r = new BatchFrames.Reader(new ByteArrayInputStream(msg), MAX_FRAME).next();
+                if (r != null) finish(r.id, r, null);
+            } catch (IOException e) {
+                abort(e);
+                return null;
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            if (!inflight.isEmpty() || !retired) {
+                abort(new IOException("Tunnel closed by worker: " + statusCode + " " + reason));
+            }
+            closed = true;
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            abort(error instanceof IOException ? (IOException) error : new IOException(error));
+        }
+    }
+
+    private static final class Stream {
+        final long startNanos;
+        final CompletableFuture<BatchFrames.Response> result = new CompletableFuture<>();
+        EndpointSelector selector;
+        volatile ScheduledFuture<?> timer;
+
+        Stream(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+import burp.api.montoya.MontoyaApi;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * 到各 Worker 端点的连接管理：所有端点共用一个 HttpClient（其 keep-alive 池按主机区分，
+ * 几百个端点不再各占一个选择器线程）。端点就绪后在后台预热若干条连接（DNS + TCP + TLS），
+ * 之后只在端点最近 ACTIVE_WINDOW_MS 内有真实流量时用廉价的根路径请求保活，空闲后停止保活；
+ * 端点移出池时停止保活，其连接随空闲超时关闭。
+ * 同时按端点统计首字节时间（TTFB），区分冷请求（无存活连接）与热请求；另按目标主机统计热请求的 TTFB，
+ * 作为对冲阈值。只统计真实请求，预热与保活探测不计入。
+ */
+public class WorkerConnections {
+    // JDK HttpClient 的 HTTP/1.1 空闲连接默认约 30 秒后关闭，保活间隔需小于该值
+    private static final long IDLE_TIMEOUT_MS = 30_000;
+    // 超过该时长没有真实流量（预热与保活探测不算）的端点停止保活，有新流量时恢复
+    static final long ACTIVE_WINDOW_MS = 120_000;
+    // 按目标主机统计的上限，超出后新主机不再统计（不对冲）
+    private static final int MAX_TARGET_HOSTS = 1024;
+
+    /** TTFB 统计：次数、平均、最大，以及按 ×1.25 几何分桶的直方图（用于分位数）。 */
+    public static final class TtfbStats {
+        private static final int BUCKETS = 64;
+        private static final double LOG_BASE = Math.log(1.25);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            buckets.incrementAndGet(bucketOf(nanos / 1e6));
+        }
+
+        private static int bucketOf(double millis) {
+            // 桶 i 覆盖 (1.25^(i-1), 1.25^i] 毫秒，桶 0 为 1 毫秒以内
+            return millis <= 1 ? 0 : Math.min(BUCKETS - 1, (int) Math.ceil(Math.log(millis) / LOG_BASE));
+        }
+
+        /** 分位数的上界估计（毫秒），误差不超过一个桶宽（25%）；无样本时返回 -1。 */
+        public double percentileMillis(double q) {
+            long total = 0;
+            long[] snap = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snap[i] = buckets.get(i);
+                total += snap[i];
+            }
+            if (total == 0) return -1;
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snap[i];
+                if (seen >= rank) return Math.pow(1.25, i);
+            }
+            return Math.pow(1.25, BUCKETS - 1);
+        }
+
+        public long count() {
+            return count.get();
+        }
+
+        public double avgMillis() {
+            long c = count.get();
+            return c == 0 ? 0 : totalNanos.get() / 1e6 / c;
+        }
+
+        public double maxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+    }
+
+    private static final class Slot {
+        final FlareProx.Endpoint endpoint;
+        final TtfbStats cold = new TtfbStats();
+        final TtfbStats warm = new TtfbStats();
+        // 最近一次收到响应的时间，用于判断连接是否可能仍存活
+        volatile long lastActivity;
+        // 最近一次真实请求（或就绪预热）的时间，决定是否继续保活
+        volatile long lastUse;
+        volatile boolean prewarmed;
+        volatile ScheduledFuture<?> keepAlive;
+
+        Slot(FlareProx.Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        boolean likelyWarm(long now) {
+            return lastActivity != 0 && now - lastActivity < IDLE_TIMEOUT_MS;
+        }
+    }
+
+    private final MontoyaApi api;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final Map<String, TtfbStats> targetWarm = new ConcurrentHashMap<>();
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "flareprox-keepalive");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile int connectionsPerEndpoint = 2;
+    private volatile long keepAliveMs = 20_000;
+    private volatile boolean prewarm;
+    private volatile DnsCache dnsCache;
+    private volatile TrafficAccounting traffic;
+    private volatile Supplier<EndpointSelector> feedback = () -> null;
+    private volatile ColoIndex colos;
+
+    public WorkerConnections(MontoyaApi api) {
+        this.api = api;
+    }
+
+    /** 端点主机名在首次使用时固定到解析缓存，移除时取消固定。 */
+    public void setDnsCache(DnsCache dnsCache) {
+        this.dnsCache = dnsCache;
+    }
+
+    /** 经端点客户端发出的每个请求（含预热与保活探测）都计入每日请求数。 */
+    public void setTraffic(TrafficAccounting traffic) {
+        this.traffic = traffic;
+    }
+
+    /** send/sendAsync 的 TTFB 与失败回报给当前选择策略（保活探测不回报）。 */
+    public void setFeedback(Supplier<EndpointSelector> feedback) {
+        this.feedback = feedback;
+    }
+
+    /** 经端点客户端收到的每个响应（含保活探测）按 CF-Ray 记录服务机房。 */
+    public void setColoIndex(ColoIndex colos) {
+        this.colos = colos;
+    }
+
+    public void setConnectionsPerEndpoint(int n) {
+        this.connectionsPerEndpoint = Math.max(1, Math.min(16, n));
+    }
+
+    public void setKeepAliveInterval(long interval, TimeUnit unit) {
+        this.keepAliveMs = Math.max(1_000, Math.min(IDLE_TIMEOUT_MS - 5_000, unit.toMillis(interval)));
+    }
+
+    /** 开启后，新就绪端点立即预热，有流量的端点保活；关闭时停止保活（已有连接自然过期）。 */
+    public void setPrewarm(boolean prewarm) {
+        this.prewarm = prewarm;
+        if (!prewarm) {
+            for (Slot s : slots.values()) cancelKeepAlive(s);
+        }
+    }
+
+    public boolean isPrewarm() {
+        return prewarm;
+    }
+
+    /** 发往该端点的客户端（各端点共用）；转发流量应经此发送以复用预热连接。 */
+    public HttpClient clientFor(FlareProx.Endpoint endpoint) {
+        touch(slot(endpoint));
+        return client;
+    }
+
+    /** 经端点客户端发送并记录 TTFB（响应头到达时刻）。 */
+    public <T> HttpResponse<T> send(FlareProx.Endpoint endpoint, HttpRequest request,
+            HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+        Slot s = slot(endpoint);
+        touch(s);
+        count(s);
+        EndpointSelector sel = started(s);
+        long start = System.nanoTime();
+        boolean warm = s.likelyWarm(System.currentTimeMillis());
+        String host = targetHost(request);
+        TtfbStats hostStats = warm ? targetStats(host) : null;
+        boolean[] done = new boolean[1];
+        try {
+            return client.send(request, info -> {
+                long ttfb = System.nanoTime() - start;
+                (warm ? s.warm : s.cold).record(ttfb);
+                if (hostStats != null) hostStats.record(ttfb);
+                s.lastActivity = System.currentTimeMillis();
+                done[0] = true;
+                completed(sel, s, ttfb, RetryPolicy.isEdgeErrorStatus(info.statusCode()));
+                observeColo(s, host, info, ttfb);
+                return handler.apply(info);
+            });
+        } catch (IOException | InterruptedException | RuntimeException ex) {
+            if (!done[0]) completed(sel, s, System.nanoTime() - start, true);
+            throw ex;
+        }
+    }
+
+    /** 异步版本的 send，同样记录 TTFB。取消返回的 future 会中止该次交换。 */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(FlareProx.Endpoint endpoint, HttpRequest request,
+            HttpResponse.BodyHandler<T> handler) {
+        Slot s = slot(endpoint);
+        touch(s);
+        count(s);
+        EndpointSelector sel = started(s);
+        long start = System.nanoTime();
+        boolean warm = s.likelyWarm(System.currentTimeMillis());
+        String host = targetHost(request);
+        TtfbStats hostStats = warm ? targetStats(host) : null;
+        AtomicBoolean done = new AtomicBoolean();
+        CompletableFuture<HttpResponse<T>> f = client.sendAsync(request, info -> {
+            long ttfb = System.nanoTime() - start;
+            (warm ? s.warm : s.cold).record(ttfb);
+            if (hostStats != null) hostStats.record(ttfb);
+            s.lastActivity = System.currentTimeMillis();
+            if (done.compareAndSet(false, true)) {
+                completed(sel, s, ttfb, RetryPolicy.isEdgeErrorStatus(info.statusCode()));
+            }
+            observeColo(s, host, info, ttfb);
+            return handler.apply(info);
+        });
+        // 失败或被取消（如对冲请求的落败方）时也要结束在途计数
+        f.whenComplete((r, ex) -> {
+            if (ex != null && done.compareAndSet(false, true)) {
+                completed(sel, s, System.nanoTime() - start, true);
+            }
+        });
+        return f;
+    }
+
+    /** 经各端点发往该目标主机的热请求 TTFB 的 p95（毫秒）；样本少于 minSamples 时返回 -1。 */
+    public double targetP95Millis(String targetHost, int minSamples) {
+        TtfbStats t = targetHost == null ? null : targetWarm.get(targetHost);
+        if (t == null || t.count() < minSamples) return -1;
+        return t.percentileMillis(0.95);
+    }
+
+    /**
+     * 端点就绪时调用：开启预热时并发建立 connectionsPerEndpoint 条连接并开始保活；
+     * 之后 ACTIVE_WINDOW_MS 内没有真实流量则停止保活。
+     */
+    public CompletableFuture<Void> onReady(FlareProx.Endpoint endpoint) {
+        if (!prewarm) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Slot s = slot(endpoint);
+        s.prewarmed = true;
+        s.lastUse = System.currentTimeMillis();
+        int n = connectionsPerEndpoint;
+        List<CompletableFuture<?>> opens = new ArrayList<>(n);
+        // 并发请求迫使客户端各开一条连接；请求完成后连接留在空闲池中
+        for (int i = 0; i < n; i++) {
+            opens.add(ping(s));
+        }
+        scheduleKeepAlive(s);
+        return CompletableFuture.allOf(opens.toArray(new CompletableFuture<?>[0]))
+                .exceptionally(ex -> null);
+    }
+
+    /** 与端点池同步：移除的端点停止保活；开启预热时为尚未预热的端点预热。 */
+    public void track(List<FlareProx.Endpoint> endpoints) {
+        Set<String> keep = new HashSet<>();
+        for (FlareProx.Endpoint ep : endpoints) keep.add(ep.name);
+        for (String name : new ArrayList<>(slots.keySet())) {
+            if (!keep.contains(name)) evict(name);
+        }
+        if (prewarm) {
+            for (FlareProx.Endpoint ep : endpoints) {
+                Slot s = slots.get(ep.name);
+                if (s == null || !s.prewarmed) onReady(ep);
+            }
+        }
+    }
+
+    public void evict(String endpointName) {
+        Slot s = slots.remove(endpointName);
+        if (s != null) {
+            cancelKeepAlive(s);
+            DnsCache dns = dnsCache;
+            if (dns != null) dns.unpin(RequestRewriter.hostOf(s.endpoint.url));
+        }
+    }
+
+    public void clear() {
+        for (String name : new ArrayList<>(slots.keySet())) evict(name);
+    }
+
+    public void shutdown() {
+        clear();
+        scheduler.shutdownNow();
+        client.shutdownNow();
+    }
+
+    public TtfbStats coldStats(String endpointName) {
+        Slot s = slots.get(endpointName);
+        return s == null ? null : s.cold;
+    }
+
+    public TtfbStats warmStats(String endpointName) {
+        Slot s = slots.get(endpointName);
+        return s == null ? null : s.warm;
+    }
+
+    /** 每个端点一行：冷/热 TTFB 的次数、平均与最大值，以及全池汇总。 */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        long coldN = 0, warmN = 0;
+        double coldSum = 0, warmSum = 0;
+        for (Slot s : new TreeMap<>(slots).values()) {
+            sb.append(String.format("%s  cold %d x %.1f ms (max %.1f)  warm %d x %.1f ms (max %.1f)%n",
+                    s.endpoint.name, s.cold.count(), s.cold.avgMillis(), s.cold.maxMillis(),
+                    s.warm.count(), s.warm.avgMillis(), s.warm.maxMillis()));
+            coldN += s.cold.count();
+            warmN += s.warm.count();
+            coldSum += s.cold.avgMillis() * s.cold.count();
+            warmSum += s.warm.avgMillis() * s.warm.count();
+        }
+        sb.append(String.format("Pool: cold avg %.1f ms (%d), warm avg %.1f ms (%d)",
+                coldN == 0 ? 0 : coldSum / coldN, coldN, warmN == 0 ? 0 : warmSum / warmN, warmN));
+        return sb.toString();
+    }
+
+    private Slot slot(FlareProx.Endpoint endpoint) {
+        Slot s = slots.get(endpoint.name);
+        if (s != null) {
+            return s;
+        }
+        return slots.computeIfAbsent(endpoint.name, k -> {
+            DnsCache dns = dnsCache;
+            if (dns != null) dns.pin(RequestRewriter.hostOf(endpoint.url));
+            return new Slot(endpoint);
+        });
+    }
+
+    // 真实流量：刷新活跃时间，开启预热时恢复已因空闲停止的保活
+    private void touch(Slot s) {
+        s.lastUse = System.currentTimeMillis();
+        if (prewarm && s.keepAlive == null && slots.get(s.endpoint.name) == s) scheduleKeepAlive(s);
+    }
+
+    // X-Target-URL 的主机；没有目标头（如隧道握手）时为 null
+    private static String targetHost(HttpRequest request) {
+        String target = request.headers().firstValue(RequestRewriter.TARGET_HEADER).orElse(null);
+        String host = target == null ? null : RequestRewriter.hostOf(target);
+        return host == null || host.isEmpty() ? null : host;
+    }
+
+    private TtfbStats targetStats(String host) {
+        if (host == null) return null;
+        TtfbStats t = targetWarm.get(host);
+        if (t != null || targetWarm.size() >= MAX_TARGET_HOSTS) return t;
+        return targetWarm.computeIfAbsent(host, k -> new TtfbStats());
+    }
+
+    private EndpointSelector started(Slot s) {
+        EndpointSelector sel = feedback.get();
+        if (sel != null) sel.onStart(s.endpoint.name);
+        return sel;
+    }
+
+    private static void completed(EndpointSelector sel, Slot s, long nanos, boolean failed) {
+        if (sel != null) sel.onComplete(s.endpoint.name, nanos, failed);
+    }
+
+    private void observeColo(Slot s, String targetHost, HttpResponse.ResponseInfo info, long ttfbNanos) {
+        ColoIndex ci = colos;
+        if (ci != null) {
+            ci.record(s.endpoint.name, targetHost, info.headers().firstValue("cf-ray").orElse(null), ttfbNanos);
+        }
+    }
+
+    private void count(Slot s) {
+        TrafficAccounting counter = traffic;
+        if (counter != null) counter.record(s.endpoint.name);
+    }
+
+    private CompletableFuture<?> ping(Slot s) {
+        // 根路径无目标 URL，Worker 直接返回很小的 400 JSON，不会访问任何外部站点
+        HttpRequest req = HttpRequest.newBuilder(URI.create(rootOf(s.endpoint.url)))
+                .timeout(Duration.ofSeconds(10))
+                .GET()
+                .build();
+        count(s);
+        long start = System.nanoTime();
+        return client.sendAsync(req, info -> {
+            long ttfb = System.nanoTime() - start;
+            s.lastActivity = System.currentTimeMillis();
+            observeColo(s, null, info, ttfb);
+            return HttpResponse.BodySubscribers.discarding();
+        }).whenComplete((r, ex) -> {
+            if (ex != null && slots.get(s.endpoint.name) == s) {
+                api.logging().logToError("[Warm] Ping failed for " + s.endpoint.name + ": " + ex.getMessage());
+            }
+        });
+    }
+
+    private synchronized void scheduleKeepAlive(Slot s) {
+        if (s.keepAlive != null) return;
+        long period = keepAliveMs;
+        // 各端点的保活在一个周期内错开
+        long offset = Math.floorMod(s.endpoint.name.hashCode(), (int) period);
+        s.keepAlive = scheduler.scheduleAtFixedRate(() -> keepAliveTick(s), offset, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void keepAliveTick(Slot s) {
+        if (System.currentTimeMillis() - s.lastUse > ACTIVE_WINDOW_MS) {
+            cancelKeepAlive(s);
+            return;
+        }
+        for (int i = 0; i < connectionsPerEndpoint; i++) ping(s);
+    }
+
+    private synchronized void cancelKeepAlive(Slot s) {
+        ScheduledFuture<?> f = s.keepAlive;
+        s.keepAlive = null;
+        if (f != null) f.cancel(false);
+    }
+
+    private static String rootOf(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 从 resources/worker/worker.js 模板渲染 Worker 脚本。
+ * 渲染结果（精简后的脚本、UTF-8 字节与内容哈希）按选项缓存；哈希写入脚本 tags，
+ * 用于跳过未变化脚本的重复上传，以及在列出时判断 Worker 是否已过期。
+ */
+public final class WorkerScriptTemplate {
+    private static final String TEMPLATE_RESOURCE = "/worker/worker.js";
+    public static final String HASH_TAG_PREFIX = "fp-";
+
+    private static final List<String> DEFAULT_ALLOWED = List.of("accept", "accept-language", "accept-encoding",
+            "authorization", "cache-control", "content-type", "origin", "referer", "user-agent");
+
+    private static final Map<String, Rendered> CACHE = new ConcurrentHashMap<>();
+    private static volatile String template;
+
+    private WorkerScriptTemplate() {}
+
+    public static final class Options {
+        public final List<String> allowedHeaders;
+        public final boolean spoofIpHeaders;
+        public final boolean cors;
+        public final boolean streaming;
+        public final boolean batch;
+        public final boolean tunnel;
+
+        /**
+         * @param allowedHeaders 转发给目标的请求头白名单；为空时原样转发全部请求头
+         * @param batch 是否包含 POST /__batch 批量入口（BatchClient 使用，未调用时不影响普通转发）
+         * @param tunnel 是否包含 /__tunnel WebSocket 隧道入口（TunnelClient 使用）
+         */
+        public Options(List<String> allowedHeaders, boolean spoofIpHeaders, boolean cors, boolean streaming,
+                boolean batch, boolean tunnel) {
+            List<String> cleaned = new ArrayList<>();
+            if (allowedHeaders != null) {
+                for (String h : allowedHeaders) {
+                    String n = h == null ? "" : h.trim().toLowerCase();
+                    if (n.matches("[a-z0-9-]+") && !cleaned.contains(n)) cleaned.add(n);
+                }
+            }
+            this.allowedHeaders = List.copyOf(cleaned);
+            this.spoofIpHeaders = spoofIpHeaders;
+            this.cors = cors;
+            this.streaming = streaming;
+            this.batch = batch;
+            this.tunnel = tunnel;
+        }
+
+        // 默认脚本：请求头白名单 + 伪造来源 IP 头 + CORS
+        public static Options standard() {
+            return new Options(DEFAULT_ALLOWED, true, true, true, true, true);
+        }
+
+        // Classic 兜底脚本：透传全部请求头，不改写来源 IP 头
+        public static Options classic() {
+            return new Options(List.of(), false, true, true, true, true);
+        }
+
+        String key() {
+            return String.join(",", allowedHeaders) + "|" + spoofIpHeaders + "|" + cors + "|" + streaming + "|" + batch
+                    + "|" + tunnel;
+        }
+    }
+
+    public static final class Rendered {
+        public final String script;
+        public final byte[] bytes;
+        public final String hash;
+
+        // 哈希基于写入版本号之前的脚本计算，再把哈希写入 {{VERSION}}，Worker 可据此报告自身版本
+        Rendered(String unversioned) {
+            this.hash = sha256Prefix(unversioned.getBytes(StandardCharsets.UTF_8));
+            this.script = unversioned.replace("{{VERSION}}", hash);
+            this.bytes = script.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public String tag() {
+            return HASH_TAG_PREFIX + hash;
+        }
+    }
+
+    public static Rendered render(Options options) {
+        return CACHE.computeIfAbsent(options.key(), k -> new Rendered(minify(expand(loadTemplate(), options))));
+    }
+
+    // 部署只使用默认脚本与 Classic 兜底两种变体，两者对应的哈希都视为最新；滚动升级据此跳过未变化的 Worker
+    public static boolean isCurrent(String hash) {
+        return hash != null && !hash.isEmpty()
+                && (hash.equals(render(Options.standard()).hash) || hash.equals(render(Options.classic()).hash));
+    }
+
+    static String expand(String tpl, Options o) {
+        StringBuilder out = new StringBuilder(tpl.length());
+        // 每层记录：当前分支是否输出
+        Deque<Boolean> stack = new ArrayDeque<>();
+        boolean emitting = true;
+        for (String line : tpl.split("\n", -1)) {
+            String t = line.trim();
+            if (t.startsWith("//#if ")) {
+                stack.push(emitting);
+                emitting = emitting && enabled(t.substring(6).trim(), o);
+            } else if (t.equals("//#else")) {
+                boolean parent = stack.isEmpty() ? true : stack.peek();
+                emitting = parent && !emitting;
+            } else if (t.equals("//#endif")) {
+                if (stack.isEmpty()) throw new IllegalStateException("Unbalanced //#endif in worker template");
+                emitting = stack.pop();
+            } else if (emitting) {
+                out.append(line.replace("{{ALLOWED_HEADERS}}", jsArray(o.allowedHeaders))).append('\n');
+            }
+        }
+        if (!stack.isEmpty()) throw new IllegalStateException("Unterminated //#if in worker template");
+        return out.toString();
+    }
+
+    // 模板每行都以语句结束，去掉缩进、注释行和换行后仍是合法脚本
+    static String minify(String js) {
+        StringBuilder sb = new StringBuilder(js.length());
+        for (String line : js.split("\n")) {
+            String t = line.trim();
+            if (t.isEmpty() || t.startsWith("//")) continue;
+            sb.append(t);
+        }
+        return sb.toString();
+    }
+
+    private static boolean enabled(String feature, Options o) {
+        switch (feature) {
+            case "ALLOWED": return !o.allowedHeaders.isEmpty();
+            case "SPOOF": return o.spoofIpHeaders;
+            case "CORS": return o.cors;
+            case "STREAM": return o.streaming;
+            case "BATCH": return o.batch;
+            case "TUNNEL": return o.tunnel;
+            case "FRAMES": return o.batch || o.tunnel;
+            default: throw new IllegalStateException("Unknown worker template feature: " + feature);
+        }
+    }
+
+    private static String jsArray(List<String> items) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append('\'').append(items.get(i)).append('\'');
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String loadTemplate() {
+        String t = template;
+        if (t != null) return t;
+        try (InputStream in = WorkerScriptTemplate.class.getResourceAsStream(TEMPLATE_RESOURCE)) {
+            if (in == null) throw new IllegalStateException("Missing resource " + TEMPLATE_RESOURCE);
+            t = new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + TEMPLATE_RESOURCE + ": " + e.getMessage());
+        }
+        template = t;
+        return t;
+    }
+
+    private static String sha256Prefix(byte[] data) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", d[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
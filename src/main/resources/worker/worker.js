@@ -0,0 +1,107 @@
+// FlareProx worker template, rendered by WorkerScriptTemplate.
+// Lines between "//#if NAME" and "//#endif" are kept only when the feature is enabled;
+// comment lines and indentation are stripped when the script is minified.
+//#if ALLOWED
+const ALLOWED={{ALLOWED_HEADERS}};
+//#endif
+const HOP=['content-encoding','content-length','transfer-encoding'];
+addEventListener('fetch',e=>e.respondWith(handle(e.request)));
+async function handle(req){
+  const u=new URL(req.url);
+//#if BATCH
+  if(req.method==='POST'&&u.pathname==='/__batch')return batch(req);
+//#endif
+//#if TUNNEL
+  if(u.pathname==='/__tunnel'&&(req.headers.get('Upgrade')||'').toLowerCase()==='websocket')return tunnel();
+//#endif
+  let t=u.searchParams.get('url')||req.headers.get('X-Target-URL')||((u.pathname!=='/'&&u.pathname.slice(1).startsWith('http'))?u.pathname.slice(1):null);
+  if(!t)return json({error:'No target URL',v:'{{VERSION}}',usage:{query:'?url=https://example.com',header:'X-Target-URL',path:'/https://example.com'}},400);
+  try{new URL(t);}catch(e){return json({error:'Invalid target URL',provided:t},400);}
+  const ps=new URLSearchParams();for(const[k,v]of u.searchParams){if(!['url','_cb','_t'].includes(k))ps.append(k,v);}
+  const T=new URL(t);if(ps.toString())T.search=ps.toString();
+  const prox=new Request(T.toString(),{method:req.method,headers:fwd(req.headers,T),body:['GET','HEAD'].includes(req.method)?null:req.body});
+  const r=await fetch(prox);
+  const rh=new Headers();for(const[k,v]of r.headers){if(!HOP.includes(k.toLowerCase()))rh.set(k,v);}
+//#if CORS
+  rh.set('Access-Control-Allow-Origin','*');rh.set('Access-Control-Allow-Methods','GET, POST, PUT, DELETE, OPTIONS, PATCH, HEAD');rh.set('Access-Control-Allow-Headers','*');
+  if(req.method==='OPTIONS')return new Response(null,{status:204,headers:rh});
+//#endif
+//#if STREAM
+  return new Response(r.body,{status:r.status,statusText:r.statusText,headers:rh});
+//#else
+  return new Response(await r.arrayBuffer(),{status:r.status,statusText:r.statusText,headers:rh});
+//#endif
+}
+function fwd(src,T){
+  const h=new Headers();
+//#if ALLOWED
+  for(const[k,v]of src){if(ALLOWED.includes(k.toLowerCase()))h.set(k,v);}
+//#else
+  for(const[k,v]of src){h.set(k,v);}
+//#endif
+  h.set('Host',T.hostname);
+//#if SPOOF
+  ['x-forwarded-for','x-real-ip','true-client-ip','cf-connecting-ip','forwarded','x-client-ip','x-cluster-client-ip','x-original-forwarded-for'].forEach(n=>h.delete(n));
+  h.set('X-Forwarded-For',[1,2,3,4].map(()=>Math.floor(Math.random()*255)+1).join('.'));
+  h.set('Forwarded','for="0.0.0.0";proto='+T.protocol.replace(':',''));
+//#endif
+  return h;
+}
+//#if FRAMES
+// Framed requests and responses (see BatchFrames.java for the layout), shared by batch and tunnel modes.
+function frames(b){
+  try{
+    const d=new DataView(b.buffer,b.byteOffset,b.byteLength);
+    if(b.length<6||d.getUint32(0)!==0x46504231)return null;
+    const td=new TextDecoder();
+    const n=d.getUint16(4);let p=6;const rs=[];
+    const str=w=>{const l=w===1?b[p]:d.getUint16(p);p+=w;const s=td.decode(b.subarray(p,p+l));p+=l;return s;};
+    for(let i=0;i<n;i++){
+      const id=d.getUint32(p);p+=4;
+      const m=str(1);const t=str(2);const hc=d.getUint16(p);p+=2;const hs=[];
+      for(let j=0;j<hc;j++){const k=str(2);hs.push([k,str(2)]);}
+      const bl=d.getUint32(p);p+=4;if(p+bl>b.length)return null;rs.push({id:id,m:m,t:t,hs:hs,body:b.slice(p,p+bl)});p+=bl;
+    }
+    return rs;
+  }catch(e){return null;}
+}
+async function run(r){
+  const te=new TextEncoder();let st=0;const hs=[];let body;
+  try{
+    const T=new URL(r.t);
+    const x=await fetch(new Request(T.toString(),{method:r.m,headers:fwd(r.hs,T),body:['GET','HEAD'].includes(r.m)?null:r.body}));
+    st=x.status;for(const[k,v]of x.headers){const vb=te.encode(v);if(!HOP.includes(k)&&vb.length<65536)hs.push([te.encode(k),vb]);}
+    body=new Uint8Array(await x.arrayBuffer());
+  }catch(e){body=te.encode(String(e));}
+  let len=12+body.length;for(const[k,v]of hs)len+=4+k.length+v.length;
+  const f=new Uint8Array(len);const dv=new DataView(f.buffer);
+  dv.setUint32(0,r.id);dv.setUint16(4,st);dv.setUint16(6,hs.length);let q=8;
+  for(const[k,v]of hs){dv.setUint16(q,k.length);f.set(k,q+2);q+=2+k.length;dv.setUint16(q,v.length);f.set(v,q+2);q+=2+v.length;}
+  dv.setUint32(q,body.length);f.set(body,q+4);
+  return f;
+}
+//#endif
+//#if BATCH
+// Batch mode: one POST carries N requests; they are fetched concurrently and each response frame is streamed back as soon as it completes.
+async function batch(req){
+  const rs=frames(new Uint8Array(await req.arrayBuffer()));
+  if(!rs)return json({error:'Bad batch',v:'{{VERSION}}'},400);
+  const ts=new TransformStream();const w=ts.writable.getWriter();
+  Promise.all(rs.map(async r=>w.write(await run(r)))).then(()=>w.close(),e=>w.abort(e));
+  return new Response(ts.readable,{status:200,headers:{'Content-Type':'application/octet-stream','X-FlareProx-Batch':'1'}});
+}
+//#endif
+//#if TUNNEL
+// Tunnel mode: a long-lived WebSocket; each binary message carries framed requests and each reply is one response frame.
+function tunnel(){
+  const pair=new WebSocketPair();const c=pair[0];const s=pair[1];
+  s.accept();
+  s.addEventListener('message',ev=>{
+    const rs=typeof ev.data==='string'?null:frames(new Uint8Array(ev.data));
+    if(!rs){s.close(1003,'Bad frame');return;}
+    for(const r of rs)run(r).then(f=>{try{s.send(f);}catch(e){}});
+  });
+  return new Response(null,{status:101,webSocket:c,headers:{'X-FlareProx-Tunnel':'1'}});
+}
+//#endif
+function json(o,s){return new Response(JSON.stringify(o),{status:s,headers:{'Content-Type':'application/json'}});}
@@ -0,0 +1,114 @@
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.logging.Logging;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BatchFramesTest {
+    private static void assertTrue(boolean cond, String msg) {
+        if (!cond) throw new AssertionError(msg);
+    }
+
+    // 只提供 logging() 的 MontoyaApi
+    private static MontoyaApi api() {
+        Logging logging = (Logging) Proxy.newProxyInstance(Logging.class.getClassLoader(),
+                new Class<?>[] { Logging.class }, (proxy, method, args) -> null);
+        return (MontoyaApi) Proxy.newProxyInstance(MontoyaApi.class.getClassLoader(),
+                new Class<?>[] { MontoyaApi.class }, (proxy, method, args) -> logging);
+    }
+
+    private static void testRequestRoundTrip() {
+        BatchFrames.Encoder enc = new BatchFrames.Encoder(16).beginBatch();
+        byte[] body = "user=admin&pass=x".getBytes(StandardCharsets.UTF_8);
+        List<String[]> headers = List.of(new String[] { "Accept", "*/*" },
+                new String[] { "X-Name", "café 中文 😀" });
+        enc.request(7, "GET", "https://target.example/a?q=1", headers, new byte[0], 0, 0);
+        enc.request(8, "POST", "https://target.example/login", headers, body, 0, body.length);
+        List<BatchFrames.Request> out = BatchFrames.decodeRequests(enc.array(), 0, enc.size());
+        assertTrue(enc.count() == 2 && out.size() == 2, "two requests");
+        BatchFrames.Request a = out.get(0);
+        BatchFrames.Request b = out.get(1);
+        assertTrue(a.id == 7 && a.method.equals("GET") && a.url.equals("https://target.example/a?q=1"), "first");
+        assertTrue(a.body.length == 0, "empty body");
+        assertTrue(b.id == 8 && b.method.equals("POST") && Arrays.equals(b.body, body), "second body");
+        assertTrue(b.headers.size() == 2 && b.headers.get(1)[1].equals(headers.get(1)[1]), "utf-8 header value");
+
+        try {
+            BatchFrames.decodeRequests(enc.array(), 0, enc.size() - 3);
+            throw new AssertionError("truncated batch accepted");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    private static void testResponseStream() throws Exception {
+        BatchFrames.Encoder enc = new BatchFrames.Encoder(16);
+        byte[] big = new byte[100_000];
+        for (int i = 0; i < big.length; i++) big[i] = (byte) i;
+        List<String[]> headers = new ArrayList<>();
+        headers.add(new String[] { "Content-Type", "text/html" });
+        headers.add(new String[] { "Set-Cookie", "a=1" });
+        headers.add(new String[] { "Set-Cookie", "b=2" });
+        enc.response(1, 200, headers, big, 0, big.length);
+        enc.response(0, 404, List.of(), new byte[0], 0, 0);
+        enc.response(2, 0, null, "fetch failed".getBytes(StandardCharsets.UTF_8), 0, 12);
+
+        BatchFrames.Reader reader = new BatchFrames.Reader(new ByteArrayInputStream(enc.toByteArray()), 1 << 20);
+        BatchFrames.Response r1 = reader.next();
+        assertTrue(r1.id == 1 && r1.status == 200 && r1.headerCount() == 3, "first frame");
+        assertTrue("text/html".equals(r1.headerValue("content-type")), "case-insensitive lookup");
+        assertTrue(r1.headerValue("content-typ") == null && r1.headerValue("X") == null, "no false match");
+        assertTrue(r1.bodyLength() == big.length && Arrays.equals(r1.body(), big), "body");
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        r1.writeHeaderLine(2, line);
+        assertTrue(line.toString(StandardCharsets.ISO_8859_1).equals("Set-Cookie: b=2\r\n"), "raw header line");
+        BatchFrames.Response r0 = reader.next();
+        assertTrue(r0.id == 0 && r0.status == 404 && r0.bodyLength() == 0 && r0.headerCount() == 0, "empty frame");
+        BatchFrames.Response r2 = reader.next();
+        assertTrue(r2.status == 0 && new String(r2.body(), StandardCharsets.UTF_8).equals("fetch failed"), "error");
+        assertTrue(reader.next() == null, "clean end of stream");
+
+        byte[] cut = Arrays.copyOf(enc.toByteArray(), 50);
+        try {
+            new BatchFrames.Reader(new ByteArrayInputStream(cut), 1 << 20).next();
+            throw new AssertionError("truncated frame accepted");
+        } catch (EOFException expected) {
+            // ok
+        }
+        try {
+            new BatchFrames.Reader(new ByteArrayInputStream(enc.toByteArray()), 1024).next();
+            throw new AssertionError("oversized frame accepted");
+        } catch (java.io.IOException expected) {
+            // ok
+        }
+    }
+
+    private static void testOversizedUrlRejectedBeforeQueueing() throws Exception {
+        String longUrl = "https://target.example/?q=" + "a".repeat(70_000);
+        String utf8Edge = "https://t/" + "中".repeat(21_842);
+        assertTrue(BatchFrames.utf8Length("café 😀") == 10, "utf-8 length");
+        assertTrue(!BatchFrames.fits("GET", longUrl) && BatchFrames.fits("GET", "https://target.example/"), "fits");
+        assertTrue(BatchFrames.utf8Length(utf8Edge) > 0xffff && !BatchFrames.fits("GET", utf8Edge), "multi-byte url");
+
+        WorkerConnections connections = new WorkerConnections(api());
+        BatchClient client = new BatchClient(connections);
+        FlareProx.Endpoint ep = new FlareProx.Endpoint("e1", "http://127.0.0.1:9", "");
+        assertTrue(!client.accepts(ep, "GET", longUrl, 0), "oversized url not accepted");
+        java.util.concurrent.CompletableFuture<BatchFrames.Response> f = client.submit(ep, "GET", longUrl, null, null);
+        assertTrue(f.isCompletedExceptionally(), "oversized url fails without queueing");
+        client.shutdown();
+        connections.shutdown();
+    }
+
+    public static void main(String[] args) throws Exception {
+        testRequestRoundTrip();
+        testResponseStream();
+        testOversizedUrlRejectedBeforeQueueing();
+        System.out.println("BatchFramesTest: basic validations passed.");
+    }
+}
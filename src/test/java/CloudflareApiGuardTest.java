@@ -0,0 +1,82 @@
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.logging.Logging;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CloudflareApiGuardTest {
+    private static void assertTrue(boolean cond, String msg) {
+        if (!cond) throw new AssertionError(msg);
+    }
+
+    // 只提供 logging() 的 MontoyaApi
+    private static MontoyaApi api() {
+        Logging logging = (Logging) Proxy.newProxyInstance(Logging.class.getClassLoader(),
+                new Class<?>[] { Logging.class }, (proxy, method, args) -> null);
+        return (MontoyaApi) Proxy.newProxyInstance(MontoyaApi.class.getClassLoader(),
+                new Class<?>[] { MontoyaApi.class }, (proxy, method, args) -> logging);
+    }
+
+    private static boolean rejected(CloudflareApiGuard g, CloudflareApiGuard.Operation op)
+            throws InterruptedException {
+        try {
+            g.acquire(op, CloudflareApiGuard.Priority.INTERACTIVE).success();
+            return false;
+        } catch (FlareProx.FlareProxException expected) {
+            return true;
+        }
+    }
+
+    private static void testBreaker() throws InterruptedException {
+        long[] now = { 0 };
+        AtomicInteger changes = new AtomicInteger();
+        CloudflareApiGuard g = new CloudflareApiGuard(api(), () -> now[0]).onChange(x -> changes.incrementAndGet());
+        CloudflareApiGuard.Operation upload = CloudflareApiGuard.Operation.UPLOAD;
+        for (int i = 0; i < CloudflareApiGuard.FAILURE_THRESHOLD - 1; i++) {
+            g.acquire(upload, CloudflareApiGuard.Priority.INTERACTIVE).failure(false);
+        }
+        g.acquire(upload, CloudflareApiGuard.Priority.INTERACTIVE).success();
+        assertTrue(g.state(upload) == CloudflareApiGuard.State.CLOSED, "success resets the count");
+        for (int i = 0; i < CloudflareApiGuard.FAILURE_THRESHOLD; i++) {
+            g.acquire(upload, CloudflareApiGuard.Priority.INTERACTIVE).failure(false);
+        }
+        assertTrue(g.state(upload) == CloudflareApiGuard.State.OPEN && changes.get() == 1, "opened");
+        assertTrue(rejected(g, upload), "fails fast while open");
+        assertTrue(!rejected(g, CloudflareApiGuard.Operation.LIST), "other operations unaffected");
+        assertTrue(g.describe().startsWith("upload open 30 s"), "describe: " + g.describe());
+
+        now[0] += CloudflareApiGuard.OPEN_MILLIS * 1_000_000;
+        CloudflareApiGuard.Permit trial = g.acquire(upload, CloudflareApiGuard.Priority.INTERACTIVE);
+        assertTrue(rejected(g, upload), "only one trial while half-open");
+        trial.failure(false);
+        assertTrue(g.state(upload) == CloudflareApiGuard.State.OPEN, "failed trial reopens");
+        now[0] += CloudflareApiGuard.OPEN_MILLIS * 1_000_000;
+        assertTrue(g.state(upload) == CloudflareApiGuard.State.OPEN, "cooldown doubled");
+        now[0] += CloudflareApiGuard.OPEN_MILLIS * 1_000_000;
+        g.acquire(upload, CloudflareApiGuard.Priority.INTERACTIVE).success();
+        assertTrue(g.state(upload) == CloudflareApiGuard.State.CLOSED, "successful trial closes");
+    }
+
+    private static void testBudget() throws InterruptedException {
+        long[] now = { 0 };
+        CloudflareApiGuard g = new CloudflareApiGuard(api(), () -> now[0]);
+        int reserve = (int) CloudflareApiGuard.INTERACTIVE_RESERVE;
+        int background = (int) CloudflareApiGuard.BUCKET_SIZE - reserve;
+        for (int i = 0; i < background; i++) {
+            g.acquire(CloudflareApiGuard.Operation.LIST, CloudflareApiGuard.Priority.BACKGROUND).success();
+        }
+        assertTrue(g.tokens() == reserve, "background leaves the reserve");
+        for (int i = 0; i < reserve; i++) {
+            g.acquire(CloudflareApiGuard.Operation.DELETE, CloudflareApiGuard.Priority.INTERACTIVE).success();
+        }
+        assertTrue(g.tokens() == 0, "interactive calls use the reserve");
+        now[0] += 1_000_000_000L;
+        g.acquire(CloudflareApiGuard.Operation.DELETE, CloudflareApiGuard.Priority.INTERACTIVE).failure(true);
+        assertTrue(g.tokens() <= 0, "429 empties the bucket");
+    }
+
+    public static void main(String[] args) throws Exception {
+        testBreaker();
+        testBudget();
+        System.out.println("CloudflareApiGuardTest: basic validations passed.");
+    }
+}
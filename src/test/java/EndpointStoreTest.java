@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class EndpointStoreTest {
+    private static void assertTrue(boolean cond, String msg) {
+        if (!cond) throw new AssertionError(msg);
+    }
+
+    private static FlareProx.Endpoint ep(int i) {
+        return new FlareProx.Endpoint("flareprox-" + i, "https://flareprox-" + i + ".acme.workers.dev", "h1");
+    }
+
+    private static void testAddRemoveAndSnapshots() {
+        EndpointStore store = new EndpointStore();
+        int a = store.add(ep(1));
+        int b = store.add(new FlareProx.Endpoint("local", "http://127.0.0.1:8787"));
+        EndpointStore.Snapshot before = store.snapshot();
+        assertTrue(before.liveCount() == 2 && before.id("local") == b, "two live");
+        assertTrue(before.url(a).equals("https://flareprox-1.acme.workers.dev"), "derived url");
+        assertTrue(before.url(b).equals("http://127.0.0.1:8787"), "explicit url");
+        assertTrue(before.endpoints() == before.endpoints(), "list cached per snapshot");
+
+        assertTrue(store.add(ep(1)) == a, "unchanged endpoint keeps id");
+        assertTrue(store.snapshot() == before, "no-op add keeps snapshot");
+        int c = store.add(ep(2));
+        assertTrue(store.remove("flareprox-1") && !store.remove("flareprox-1"), "remove once");
+        EndpointStore.Snapshot after = store.snapshot();
+        assertTrue(before.liveCount() == 2 && !before.isLive(c) && before.id("flareprox-2") < 0,
+                "old snapshot unchanged");
+        assertTrue(after.liveCount() == 2 && after.id("flareprox-1") < 0 && after.id("flareprox-2") == c,
+                "new snapshot");
+        assertTrue(after.endpoints().get(0).name.equals("local"), "order by id");
+
+        int moved = store.add(new FlareProx.Endpoint("local", "http://127.0.0.1:9999"));
+        assertTrue(moved != b && store.snapshot().url(moved).endsWith(":9999"), "changed url gets new id");
+    }
+
+    private static void testRuntimeState() {
+        EndpointStore store = new EndpointStore();
+        int a = store.add(ep(1));
+        store.setIp(a, "104.28.7.9");
+        store.recordRequest("flareprox-1", false);
+        store.recordRequest(a, true);
+        EndpointStore.Snapshot s = store.snapshot();
+        assertTrue("104.28.7.9".equals(s.ip(a)) && s.ipv4(a) == (int) IpAddress.parseIPv4("104.28.7.9"), "ipv4");
+        assertTrue(s.requests(a) == 2 && s.failures(a) == 1, "counters");
+        assertTrue(store.describe().equals("1 endpoints: 2 requests, 1 failed, 0 in flight"), "summary");
+        store.setHealth("flareprox-1", EndpointStore.Health.THROTTLED);
+        assertTrue(s.health(a) == EndpointStore.Health.THROTTLED, "health");
+        store.setIp(a, "n/a");
+        assertTrue("104.28.7.9".equals(s.ip(a)), "failed probe keeps ip");
+        store.setIp(a, "2a06:98c0:3600::103");
+        assertTrue(s.ipv4(a) == 0 && "2a06:98c0:3600::103".equals(s.ip(a)), "ipv6 as text");
+
+        // 移出轮换后以新脚本哈希重新加入（滚动升级），沿用旧 ID 的状态
+        store.remove("flareprox-1");
+        int back = store.add(new FlareProx.Endpoint("flareprox-1", "https://flareprox-1.acme.workers.dev", "h2"));
+        EndpointStore.Snapshot b = store.snapshot();
+        assertTrue(back != a && b.requests(back) == 2 && b.health(back) == EndpointStore.Health.THROTTLED
+                && b.ip(back) != null, "state carried across remove and re-add");
+
+        EndpointStore fresh = new EndpointStore();
+        int p = fresh.add(ep(9));
+        fresh.setIp(p, "n/a");
+        assertTrue(fresh.snapshot().ip(p) == null && fresh.snapshot().ipSeenAtMillis(p) > 0, "failed probe recorded");
+
+        // replaceAll 保留仍存在的端点的状态
+        store.replaceAll(List.of(ep(2), ep(1)));
+        EndpointStore.Snapshot r = store.snapshot();
+        int kept = r.id("flareprox-1");
+        assertTrue(kept == 1 && r.requests(kept) == 2 && r.ip(kept) != null, "state carried over");
+        assertTrue(r.requests(r.id("flareprox-2")) == 0, "new entry starts empty");
+    }
+
+    private static void testGrowthAcrossChunks() {
+        EndpointStore store = new EndpointStore();
+        for (int i = 0; i < 10_000; i++) store.add(ep(i));
+        for (int i = 0; i < 10_000; i += 2) store.remove("flareprox-" + i);
+        EndpointStore.Snapshot s = store.snapshot();
+        assertTrue(s.liveCount() == 5_000 && s.endpoints().size() == 5_000, "live count");
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue((s.id("flareprox-" + i) >= 0) == (i % 2 == 1), "lookup " + i);
+        }
+        List<FlareProx.Endpoint> fresh = new ArrayList<>();
+        for (int i = 0; i < 300; i++) fresh.add(ep(i));
+        store.replaceAll(fresh);
+        assertTrue(store.size() == 300 && store.snapshot().id("flareprox-299") == 299, "rebuilt");
+    }
+
+    private static void testLeasesAndDrain() throws InterruptedException {
+        EndpointPool pool = new EndpointPool();
+        pool.add(ep(1));
+        pool.add(ep(2));
+        EndpointStore.Snapshot s = pool.store().snapshot();
+        EndpointStore.Lease busy = pool.enter("flareprox-1");
+        EndpointStore.Lease done = pool.enter("flareprox-2");
+        done.close();
+        done.close();
+        assertTrue(s.inflight(0) == 1 && s.inflight(1) == 0, "inflight counts, double close ignored");
+
+        long t0 = System.nanoTime();
+        List<String> left = pool.drain(List.of("flareprox-1", "flareprox-2"), java.time.Duration.ofMillis(200));
+        assertTrue(left.equals(List.of("flareprox-1")) && pool.size() == 0, "busy endpoint reported after timeout");
+        assertTrue(System.nanoTime() - t0 < 2_000_000_000L, "drain bounded by timeout");
+        assertTrue(pool.enter("flareprox-1") == pool.enter("flareprox-1"), "drained endpoint not counted");
+
+        pool.add(ep(4));
+        List<FlareProx.Endpoint> removed = pool.removeAll(List.of("flareprox-4", "flareprox-1", "table-only"));
+        assertTrue(removed.size() == 1 && removed.get(0).name.equals("flareprox-4"), "only pool members removed");
+
+        pool.add(ep(3));
+        EndpointStore.Lease l3 = pool.enter("flareprox-3");
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignore) {
+                // 测试线程
+            }
+            l3.close();
+        }).start();
+        assertTrue(pool.drain(List.of("flareprox-3"), java.time.Duration.ofSeconds(5)).isEmpty(), "drained");
+        busy.close();
+    }
+
+    private static void testLeasesSurviveIdChanges() throws InterruptedException {
+        EndpointPool pool = new EndpointPool();
+        pool.add(ep(1));
+        pool.add(ep(2));
+        EndpointStore store = pool.store();
+        EndpointStore.Lease before = pool.enter("flareprox-1");
+        store.replaceAll(List.of(ep(1), ep(2)));
+        EndpointStore.Lease after = pool.enter("flareprox-1");
+        assertTrue(store.inflight("flareprox-1") == 2, "old and new ids counted by name");
+
+        // 脚本哈希变化得到新 ID，旧 ID 上的请求仍计入
+        EndpointStore.Lease redeployed = pool.enter("flareprox-2");
+        pool.add(new FlareProx.Endpoint("flareprox-2", "https://flareprox-2.acme.workers.dev", "h2"));
+        assertTrue(store.inflight("flareprox-2") == 1, "lease kept across changed hash");
+        redeployed.close();
+        assertTrue(store.inflight("flareprox-2") == 0, "old id released");
+
+        after.close();
+        List<String> left = pool.drain(List.of("flareprox-1"), java.time.Duration.ofMillis(150));
+        assertTrue(left.equals(List.of("flareprox-1")), "drain waits for lease taken before replaceAll");
+        assertTrue(store.describe().endsWith("1 in flight"), "summary includes old ids");
+        before.close();
+        assertTrue(pool.drain(List.of("flareprox-1"), java.time.Duration.ofSeconds(1)).isEmpty(), "drained");
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        testAddRemoveAndSnapshots();
+        testRuntimeState();
+        testGrowthAcrossChunks();
+        testLeasesAndDrain();
+        testLeasesSurviveIdChanges();
+        System.out.println("EndpointStoreTest: basic validations passed.");
+    }
+}
@@ -0,0 +1,65 @@
+public class IpAddressTest {
+    private static void assertTrue(boolean cond, String msg) {
+        if (!cond) throw new AssertionError(msg);
+    }
+
+    private static void testIPv4() {
+        assertTrue(IpAddress.parseIPv4("0.0.0.0") == 0L, "0.0.0.0");
+        assertTrue(IpAddress.parseIPv4("255.255.255.255") == 0xffffffffL, "broadcast");
+        assertTrue(IpAddress.parseIPv4("104.28.1.2") == ((104L << 24) | (28L << 16) | (1L << 8) | 2L), "value");
+        String[] bad = { "", "1.2.3", "1.2.3.4.5", "256.1.1.1", "1..2.3", "01.2.3.4", "1.2.3.4 ", "a.b.c.d", "1.2.3." };
+        for (String b : bad) {
+            assertTrue(IpAddress.parseIPv4(b) == -1, "should reject '" + b + "'");
+        }
+    }
+
+    private static void testIPv6() {
+        byte[] a = IpAddress.parseIPv6("2606:4700::6812:1c02");
+        assertTrue(a != null && (a[0] & 0xff) == 0x26 && (a[1] & 0xff) == 0x06 && (a[15] & 0xff) == 0x02, "compressed middle");
+        assertTrue(IpAddress.v6Prefix32(a) == 0x26064700, "prefix /32");
+        byte[] loop = IpAddress.parseIPv6("::1");
+        assertTrue(loop != null && loop[15] == 1 && loop[0] == 0, "::1");
+        assertTrue(IpAddress.parseIPv6("::") != null, "::");
+        byte[] mapped = IpAddress.parseIPv6("::ffff:1.2.3.4");
+        assertTrue(mapped != null && (mapped[10] & 0xff) == 0xff && mapped[12] == 1 && mapped[15] == 4, "v4-mapped");
+        assertTrue(IpAddress.parseIPv6("1:2:3:4:5:6:7:8") != null, "full form");
+        String[] bad = { "1:2:3:4:5:6:7", "1::2::3", "12345::", ":1", "1:", "1:2:3:4:5:6:7:8:9", "g::1", "1:2:3:4:5:6:7::8" };
+        for (String b : bad) {
+            assertTrue(IpAddress.parseIPv6(b) == null, "should reject '" + b + "'");
+        }
+    }
+
+    private static void testRowExtraction() {
+        assertTrue("1.2.3.4".equals(ListRowParser.extractIpFromRow("flareprox-ab12 -> https://x.workers.dev [IP: 1.2.3.4]")), "row v4");
+        assertTrue("2a06:98c0::1".equals(ListRowParser.extractIpFromRow("name -> url [IP: 2a06:98c0::1]")), "row v6");
+        assertTrue("".equals(ListRowParser.extractIpFromRow("name -> url [IP: pending]")), "no ip");
+        assertTrue("".equals(ListRowParser.extractIpFromRow("version 1.2.3 at 12:30")), "not an ip");
+        assertTrue("1.2.3.4".equals(ListRowParser.extractIpFromRow("name -> url [IP: 1.2.3.4:8080]")), "v4 with port");
+        assertTrue("".equals(ListRowParser.extractIpFromRow("name -> url [IP: ::]")), "bare :: rejected");
+        assertTrue("".equals(ListRowParser.extractIpFromRow("a:: and dead:: ::cafe")), "hex junk rejected");
+        assertTrue("2a06::1".equals(ListRowParser.extractIpFromRow("[2a06::1]:443")), "bracketed v6 with port");
+    }
+
+    private static void testDiversityIndex() {
+        ExitIpIndex index = new ExitIpIndex();
+        index.update("a", "104.28.1.2");
+        index.update("b", "104.28.1.9");
+        index.update("c", "172.64.3.3");
+        index.update("d", "n/a");
+        assertTrue(index.endpointCount() == 3, "unparsed IP not indexed");
+        assertTrue(index.distinctPrefixes() == 2, "two /24 prefixes");
+        assertTrue(index.prefixPopulation("a") == 2, "a shares its /24");
+        index.update("b", "172.64.3.4");
+        assertTrue(index.prefixPopulation("a") == 1, "b moved prefix");
+        double eff = index.effectiveDiversity();
+        assertTrue(eff > 1.8 && eff < 2.0, "effective diversity ~1.89, got " + eff);
+    }
+
+    public static void main(String[] args) {
+        testIPv4();
+        testIPv6();
+        testRowExtraction();
+        testDiversityIndex();
+        System.out.println("IpAddressTest: basic validations passed.");
+    }
+}
@@ -1,22 +1,18 @@
-import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
 import java.lang.reflect.Method;
 
 public class MultipartBuilderTest {
     private static Object newService() throws Exception {
-        Class<?> svc = Class.forName("Extension$SimpleCloudflareService");
-        Class<?> montoya = Class.forName("burp.api.montoya.MontoyaApi");
-        Constructor<?> ctor = svc.getDeclaredConstructor(String.class, String.class, montoya);
-        return ctor.newInstance("tok", "acc", null);
+        return Class.forName("CloudflareWorkerUtils");
     }
 
     private static String invokeBuild(Object service, String boundary, String metadata, String filename,
                                       String contentType, String script, String fieldName) throws Exception {
-        Method m = service.getClass().getDeclaredMethod(
+        Method m = ((Class<?>) service).getDeclaredMethod(
                 "buildMultipart",
                 String.class, String.class, String.class, String.class, String.class, String.class
         );
-        m.setAccessible(true);
-        return (String) m.invoke(service, boundary, metadata, filename, contentType, script, fieldName);
+        return (String) m.invoke(null, boundary, metadata, filename, contentType, script, fieldName);
     }
 
     private static void assertTrue(boolean cond, String msg) {
@@ -59,9 +55,21 @@ public class MultipartBuilderTest {
         assertTrue(body.endsWith("--" + boundary + "--\r\n"), "Boundary end missing");
     }
 
+    private static void testBytesMatchStringBuilder() throws Exception {
+        String boundary = "----TestBoundaryBytes";
+        String metadata = "{\"main_module\":\"worker.js\",\"compatibility_date\":\"2024-07-01\"}";
+        String script = CloudflareWorkerUtils.getWorkerScript();
+        String expected = invokeBuild(newService(), boundary, metadata, "worker.js", "application/javascript", script, "worker.js");
+        byte[] actual = CloudflareWorkerUtils.buildMultipartBytes(boundary, metadata, "worker.js", "application/javascript",
+                script.getBytes(StandardCharsets.UTF_8), "worker.js");
+        assertTrue(expected.equals(new String(actual, StandardCharsets.UTF_8)), "Byte multipart differs from string multipart");
+        assertTrue(script.contains("No target URL"), "Rendered worker script missing readiness marker");
+    }
+
     public static void main(String[] args) throws Exception {
         testModuleMultipartStructure();
         testClassicMultipartStructure();
+        testBytesMatchStringBuilder();
         System.out.println("MultipartBuilderTest: basic validations passed.");
     }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+import burp.api.montoya.core.ToolType;
+
+public class RoutingRulesTest {
+    private static void assertTrue(boolean cond, String msg) {
+        if (!cond) throw new AssertionError(msg);
+    }
+
+    private static void testMatching() {
+        RoutingRules rules = RoutingRules.parse(String.join("\n",
+                "# auth flows go direct",
+                "direct host=auth.example.com",
+                "rotate host=*.example.com path=/api/ method=GET,post tool=intruder,SCANNER",
+                "direct host=*.example.com path=/api/admin",
+                "rotate host=Example.com",
+                "rotate host=cdn-*.static.net",
+                "direct host=*"));
+        ToolType intruder = ToolType.INTRUDER;
+        assertTrue(rules.matchIndex("auth.example.com", "/api/x", "GET", intruder) == 0, "exact host first");
+        assertTrue(rules.matchIndex("WWW.Example.com", "/api/x", "POST", intruder) == 1, "suffix, path, method, tool");
+        assertTrue(rules.matchIndex("www.example.com", "/api/admin", "PUT", intruder) == 2, "method filters earlier rule");
+        assertTrue(rules.matchIndex("www.example.com", "/api/x", "GET", ToolType.REPEATER) == 5, "tool filters");
+        assertTrue(rules.matchIndex("example.com", "/", "GET", intruder) == 3, "*. does not match the bare domain");
+        assertTrue(rules.matchIndex("badexample.com", "/api/x", "GET", intruder) == 5, "suffix stops at label boundary");
+        assertTrue(rules.matchIndex("cdn-01.static.net", "/", "GET", intruder) == 4, "glob fallback");
+        assertTrue(rules.matchIndex("cdn.static.net", "/", "GET", intruder) == 5, "glob fallback mismatch");
+        assertTrue(rules.match("other.org", "/", "GET", intruder) == RoutingRules.Action.DIRECT, "catch-all");
+        assertTrue(RoutingRules.empty().match("a.com", "/", "GET", intruder) == null, "no rules");
+        assertTrue(RoutingRules.parse(rules.toText()).toText().equals(rules.toText()), "round trip");
+    }
+
+    private static void testManyRules() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300; i++) text.append("direct host=h").append(i).append(".test path=/p").append(i).append('\n');
+        text.append("rotate host=*.test\n");
+        RoutingRules rules = RoutingRules.parse(text.toString());
+        assertTrue(rules.matchIndex("h299.test", "/p299/x", "GET", ToolType.SCANNER) == 299, "last word");
+        assertTrue(rules.matchIndex("h64.test", "/p64", "GET", ToolType.SCANNER) == 64, "word boundary");
+        assertTrue(rules.matchIndex("h64.test", "/p65", "GET", ToolType.SCANNER) == 300, "path mismatch");
+    }
+
+    private static void testParseErrors() {
+        String[] bad = { "allow host=a.com", "rotate host", "rotate path=api", "rotate tool=BROWSER", "rotate port=80" };
+        for (String b : bad) {
+            try {
+                RoutingRules.parse("# comment\n" + b);
+                throw new AssertionError("should reject '" + b + "'");
+            } catch (IllegalArgumentException ex) {
+                assertTrue(ex.getMessage().startsWith("Line 2:"), "line number in '" + ex.getMessage() + "'");
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        testMatching();
+        testManyRules();
+        testParseErrors();
+        System.out.println("RoutingRulesTest: basic validations passed.");
+    }
+}